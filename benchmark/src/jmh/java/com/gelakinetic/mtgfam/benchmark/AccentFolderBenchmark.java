@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import com.gelakinetic.mtgfam.helpers.database.AccentFolder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes accent marks from every card name, with the dense table in AccentFolder and with the char pair table
+ * CardDbAdapter used to search. Each operation is one pass over the whole corpus, the way an import does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccentFolderBenchmark {
+
+    /* The old table, in the same order */
+    private static final char[][] REPLACEMENTS = {
+            {0xC0, 'A'}, {0xC1, 'A'}, {0xC2, 'A'}, {0xC3, 'A'}, {0xC4, 'A'}, {0xC5, 'A'},
+            {0xC7, 'C'}, {0xC8, 'E'}, {0xC9, 'E'}, {0xCA, 'E'}, {0xCB, 'E'},
+            {0xCC, 'I'}, {0xCD, 'I'}, {0xCE, 'I'}, {0xCF, 'I'}, {0xD0, 'D'}, {0xD1, 'N'},
+            {0xD2, 'O'}, {0xD3, 'O'}, {0xD4, 'O'}, {0xD5, 'O'}, {0xD6, 'O'}, {0xD7, 'x'}, {0xD8, 'O'},
+            {0xD9, 'U'}, {0xDA, 'U'}, {0xDB, 'U'}, {0xDC, 'U'}, {0xDD, 'Y'},
+            {0xE0, 'a'}, {0xE1, 'a'}, {0xE2, 'a'}, {0xE3, 'a'}, {0xE4, 'a'}, {0xE5, 'a'},
+            {0xE7, 'c'}, {0xE8, 'e'}, {0xE9, 'e'}, {0xEA, 'e'}, {0xEB, 'e'},
+            {0xEC, 'i'}, {0xED, 'i'}, {0xEE, 'i'}, {0xEF, 'i'}, {0xF1, 'n'},
+            {0xF2, 'o'}, {0xF3, 'o'}, {0xF4, 'o'}, {0xF5, 'o'}, {0xF6, 'o'}, {0xF8, 'o'},
+            {0xF9, 'u'}, {0xFA, 'u'}, {0xFB, 'u'}, {0xFC, 'u'}, {0xFD, 'y'}, {0xFF, 'y'}
+    };
+
+    /* A file of card names, one per line. If it's empty, a corpus shaped like the card names is generated */
+    @Param({""})
+    public String cardNamesFile;
+
+    private String[] mNames;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    /**
+     * Load or generate the names, and make sure both ways of folding agree on all of them
+     *
+     * @throws IOException If the names file can't be read
+     */
+    @Setup
+    public void setUp() throws IOException {
+        List<String> names;
+        if (cardNamesFile.isEmpty()) {
+            names = generateNames();
+        } else {
+            names = Files.readAllLines(Paths.get(cardNamesFile), StandardCharsets.UTF_8);
+        }
+        mNames = names.toArray(new String[names.size()]);
+
+        for (String name : mNames) {
+            if (!AccentFolder.removeAccentMarks(name).equals(removeAccentMarksWithPairs(name))) {
+                throw new IllegalStateException("Folding differs for " + name);
+            }
+        }
+    }
+
+    @Benchmark
+    public void pairTable(Blackhole blackhole) {
+        for (String name : mNames) {
+            blackhole.consume(removeAccentMarksWithPairs(name));
+        }
+    }
+
+    @Benchmark
+    public void denseTable(Blackhole blackhole) {
+        for (String name : mNames) {
+            blackhole.consume(AccentFolder.removeAccentMarks(name));
+        }
+    }
+
+    @Benchmark
+    public void denseTableReusedBuilder(Blackhole blackhole) {
+        for (String name : mNames) {
+            mBuilder.setLength(0);
+            blackhole.consume(AccentFolder.removeAccentMarks(name, mBuilder));
+        }
+    }
+
+    /**
+     * @param str A string
+     * @return The string with accent marks removed, the way CardDbAdapter used to do it
+     */
+    private static String removeAccentMarksWithPairs(String str) {
+        StringBuilder out = new StringBuilder(str.length());
+        char[] letters = str.toCharArray();
+        for (char letter : letters) {
+            boolean matchFailed = true;
+            for (char[] replacement : REPLACEMENTS) {
+                if (letter == replacement[0]) {
+                    out.append(replacement[1]);
+                    matchFailed = false;
+                    break;
+                }
+            }
+            if (matchFailed) {
+                out.append(letter);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return About as many names as there are card printings, one to four words long, with an accented letter in
+     * about one in fifty
+     */
+    private static List<String> generateNames() {
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            StringBuilder name = new StringBuilder();
+            int words = 1 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    name.append(' ');
+                }
+                name.append((char) ('A' + random.nextInt(26)));
+                int letters = 2 + random.nextInt(7);
+                for (int l = 0; l < letters; l++) {
+                    name.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            if (random.nextInt(50) == 0) {
+                char accented = REPLACEMENTS[random.nextInt(REPLACEMENTS.length)][0];
+                name.setCharAt(1 + random.nextInt(name.length() - 1), accented);
+            }
+            names.add(name.toString());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.mtgfam.helpers.CardHelpers.CompressedCardInfo;
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.gelakinetic.mtgfam.helpers.SearchCriteria;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs CardDbAdapter's queries against a card database on a desktop SQLite, through sqlite-jdbc. The app's own
+ * compiled CardDbAdapter is benchmarked, so the SQL is exactly what the app runs, and a change which makes a query
+ * slower shows up here before it ships. Each search is one the search screen can build, run the way
+ * ResultListFragment runs it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CardDbAdapterBenchmark {
+
+    /* The columns ResultListFragment shows */
+    private static final String[] RETURN_TYPES = {CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME,
+            CardDbAdapter.KEY_SET, CardDbAdapter.KEY_RARITY, CardDbAdapter.KEY_MANACOST, CardDbAdapter.KEY_SUPERTYPE,
+            CardDbAdapter.KEY_SUBTYPE, CardDbAdapter.KEY_ABILITY, CardDbAdapter.KEY_POWER,
+            CardDbAdapter.KEY_TOUGHNESS, CardDbAdapter.KEY_LOYALTY, CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CMC,
+            CardDbAdapter.KEY_COLOR};
+
+    /* The default sort order from PreferenceAdapter.getSearchSortOrder() */
+    private static final String ORDER_BY = CardDbAdapter.KEY_NAME + " asc," + CardDbAdapter.KEY_COLOR + " asc," +
+            CardDbAdapter.KEY_SUPERTYPE + " asc," + CardDbAdapter.KEY_CMC + " asc," + CardDbAdapter.KEY_POWER +
+            " asc," + CardDbAdapter.KEY_TOUGHNESS + " asc";
+
+    /* The columns CardViewFragment asks for to list a card's printings */
+    private static final List<String> PRINTING_FIELDS = Arrays.asList(
+            CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_SET,
+            CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_ID,
+            CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_NUMBER);
+
+    /* How many names the lookups cycle through. A power of two */
+    private static final int NUM_NAMES = 256;
+
+    /* How many cards are in the wishlist which is filled in */
+    private static final int WISHLIST_SIZE = 100;
+
+    /* An existing card database, e.g. the app's inflated datagz. If it's empty, one is generated */
+    @Param({""})
+    public String cardDatabase;
+
+    private SQLiteDatabase mDatabase;
+    private String[] mNames;
+    private int mNextName = 0;
+    private ArrayList<CompressedCardInfo> mWishlist;
+
+    /**
+     * Open the database and pick the names to look up.
+     *
+     * @throws IOException         If the generated database's file can't be made
+     * @throws FamiliarDbException If the database can't be generated
+     */
+    @Setup
+    public void setUp() throws IOException, FamiliarDbException {
+        mDatabase = FixtureDatabase.open(cardDatabase);
+        mNames = FixtureDatabase.sampleNames(mDatabase, NUM_NAMES);
+
+        mWishlist = new ArrayList<>(WISHLIST_SIZE);
+        for (int i = 0; i < WISHLIST_SIZE; i++) {
+            MtgCard card = new MtgCard();
+            card.mName = mNames[i];
+            mWishlist.add(new CompressedCardInfo(card));
+        }
+
+        /* A query which finds nothing can stop early, so its time says nothing about a real one */
+        requireRows("searchName", searchName());
+        requireRows("searchRulesText", searchRulesText());
+        requireRows("searchTypesAndColor", searchTypesAndColor());
+        requireRows("searchFormatCmcRarity", searchFormatCmcRarity());
+        requireRows("searchFirstPrinting", searchFirstPrinting());
+        requireRows("searchAllPrintingsInSets", searchAllPrintingsInSets());
+        for (int i = 0; i < NUM_NAMES; i++) {
+            requireRows("fetchCardByName", fetchCardByName());
+            requireRows("fetchCardByNameAllData", fetchCardByNameAllData());
+            requireRows("getCardsByNamePrefix", getCardsByNamePrefix());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int searchName() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.name = "goblin";
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int searchRulesText() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.text = "draw a card";
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int searchTypesAndColor() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.superTypes = Collections.singletonList("Creature");
+        criteria.subTypes = Collections.singletonList("Goblin");
+        criteria.color = "wubRgl";
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int searchFormatCmcRarity() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.format = FixtureDatabase.FORMATS[1];
+        criteria.cmc = 3;
+        criteria.cmcLogic = "<=";
+        criteria.rarity = "rm";
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int searchFirstPrinting() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.name = "dragon";
+        criteria.setLogic = CardDbAdapter.FIRST_PRINTING;
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int searchAllPrintingsInSets() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.sets = Arrays.asList("S010", "S080", "S150");
+        criteria.setLogic = CardDbAdapter.ALL_PRINTINGS;
+        return search(criteria);
+    }
+
+    @Benchmark
+    public int fetchCardByName() throws FamiliarDbException {
+        return count(CardDbAdapter.fetchCardByName(nextName(), PRINTING_FIELDS, false, mDatabase));
+    }
+
+    @Benchmark
+    public int fetchCardByNameAllData() throws FamiliarDbException {
+        return count(CardDbAdapter.fetchCardByName(nextName(), CardDbAdapter.ALL_CARD_DATA_KEYS, true,
+                mDatabase));
+    }
+
+    @Benchmark
+    public int getCardsByNamePrefix() throws FamiliarDbException {
+        /* What's typed into the search box, a few letters into a name */
+        String name = nextName();
+        return count(CardDbAdapter.getCardsByNamePrefix(name.substring(0, Math.min(4, name.length())),
+                mDatabase));
+    }
+
+    @Benchmark
+    public int checkLegality() throws FamiliarDbException {
+        /* The way CardViewFragment checks a card in every format */
+        String name = nextName();
+        int banned = 0;
+        for (String format : FixtureDatabase.FORMATS) {
+            if (CardDbAdapter.checkLegality(name, format, mDatabase) != CardDbAdapter.LEGAL) {
+                banned++;
+            }
+        }
+        return banned;
+    }
+
+    @Benchmark
+    public ArrayList<CompressedCardInfo> fillExtraWishlistData() throws FamiliarDbException {
+        /* Forget what was filled in last time, so every card is looked up again */
+        for (CompressedCardInfo card : mWishlist) {
+            card.mType = "";
+        }
+        CardDbAdapter.fillExtraWishlistData(mWishlist, mDatabase);
+        return mWishlist;
+    }
+
+    /**
+     * Search the way ResultListFragment does.
+     *
+     * @param criteria What to search for
+     * @return How many cards were found
+     * @throws FamiliarDbException If the search fails
+     */
+    private int search(SearchCriteria criteria) throws FamiliarDbException {
+        boolean consolidate = (criteria.setLogic == CardDbAdapter.MOST_RECENT_PRINTING ||
+                criteria.setLogic == CardDbAdapter.FIRST_PRINTING);
+        return count(CardDbAdapter.Search(criteria, true, RETURN_TYPES, consolidate, ORDER_BY, mDatabase));
+    }
+
+    /**
+     * @param benchmark The benchmark which ran a query
+     * @param rows      How many rows the query found
+     * @throws IllegalStateException If it found none
+     */
+    private static void requireRows(String benchmark, int rows) {
+        if (rows == 0) {
+            throw new IllegalStateException(benchmark + " found nothing in the card database");
+        }
+    }
+
+    /**
+     * @param cursor A query's result, or null
+     * @return How many rows it has. The cursor is closed
+     */
+    private static int count(Cursor cursor) {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The next name to look up, so lookups don't just hit SQLite's page cache for one card
+     */
+    private String nextName() {
+        mNextName = (mNextName + 1) & (NUM_NAMES - 1);
+        return mNames[mNextName];
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.database;
+
+/**
+ * The parts of Android's DatabaseUtils which CardDbAdapter uses.
+ */
+public class DatabaseUtils {
+
+    /**
+     * @param sqlString A string
+     * @return The string as an SQL literal, in single quotes with any single quotes doubled
+     */
+    public static String sqlEscapeString(String sqlString) {
+        StringBuilder sb = new StringBuilder(sqlString.length() + 2);
+        sb.append('\'');
+        for (int i = 0; i < sqlString.length(); i++) {
+            char c = sqlString.charAt(i);
+            if (c == '\'') {
+                sb.append('\'');
+            }
+            sb.append(c);
+        }
+        sb.append('\'');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.database.sqlite;
+
+/**
+ * A constraint failed, as on Android. The JDBC error it wraps is the cause.
+ */
+public class SQLiteConstraintException extends SQLiteException {
+
+    public SQLiteConstraintException() {
+    }
+
+    public SQLiteConstraintException(String error) {
+        super(error);
+    }
+
+    public SQLiteConstraintException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
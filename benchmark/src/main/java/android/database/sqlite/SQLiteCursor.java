@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.database.sqlite;
+
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Cursor over rows read from JDBC. Every row is read when the query runs, which is what Android does when a
+ * cursor's window is first filled, so the cost of a query is all in SQLiteDatabase.rawQuery(). Values are converted
+ * between types the way SQLite converts them.
+ */
+public class SQLiteCursor implements Cursor {
+
+    private final String[] mColumnNames;
+    private final List<Object[]> mRows = new ArrayList<>();
+    private int mPosition = -1;
+    private boolean mClosed = false;
+
+    /**
+     * Read every row of a result set.
+     *
+     * @param resultSet The rows to read. It isn't closed here
+     * @throws SQLException If the rows can't be read
+     */
+    SQLiteCursor(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        mColumnNames = new String[metaData.getColumnCount()];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mColumnNames[i] = metaData.getColumnLabel(i + 1);
+        }
+        while (resultSet.next()) {
+            Object[] row = new Object[mColumnNames.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = resultSet.getObject(i + 1);
+            }
+            mRows.add(row);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position >= mRows.size()) {
+            mPosition = mRows.size();
+            return false;
+        }
+        if (position < 0) {
+            mPosition = -1;
+            return false;
+        }
+        mPosition = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mRows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPosition == 0 && !mRows.isEmpty();
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPosition == mRows.size() - 1 && !mRows.isEmpty();
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mRows.isEmpty() || mPosition == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return mRows.isEmpty() || mPosition == mRows.size();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        /* Like Android, "table.column" finds "column" */
+        int periodIndex = columnName.lastIndexOf('.');
+        if (periodIndex != -1) {
+            columnName = columnName.substring(periodIndex + 1);
+        }
+        for (int i = 0; i < mColumnNames.length; i++) {
+            if (mColumnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumnNames[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames.clone();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumnNames.length;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = getValue(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return (long) parseLeadingNumber(value);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return parseLeadingNumber(value);
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object value = getValue(columnIndex);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Float || value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getValue(columnIndex) == null;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mRows.clear();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @param columnIndex A column
+     * @return The value of that column in the current row
+     * @throws CursorIndexOutOfBoundsException If the cursor isn't pointed at a row
+     */
+    private Object getValue(int columnIndex) {
+        if (mPosition < 0 || mPosition >= mRows.size()) {
+            throw new CursorIndexOutOfBoundsException(mPosition, mRows.size());
+        }
+        return mRows.get(mPosition)[columnIndex];
+    }
+
+    /**
+     * @param value A value which isn't a number, e.g. text or null
+     * @return The number at the start of the text, or 0 if there isn't one, as SQLite converts text
+     */
+    private static double parseLeadingNumber(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        String text = value instanceof byte[] ? new String((byte[]) value) : value.toString();
+        text = text.trim();
+        int end = 0;
+        while (end < text.length() && "+-.0123456789eE".indexOf(text.charAt(end)) != -1) {
+            end++;
+        }
+        while (end > 0) {
+            try {
+                return Double.parseDouble(text.substring(0, end));
+            } catch (NumberFormatException e) {
+                end--;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.database.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.sqlite.Collation;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Collator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The parts of Android's SQLiteDatabase which CardDbAdapter uses, on top of sqlite-jdbc. Errors are thrown as
+ * SQLiteException, and the UNICODE and LOCALIZED collations which Android registers are registered here too, so the
+ * SQL CardDbAdapter builds runs unchanged.
+ */
+public class SQLiteDatabase implements AutoCloseable {
+
+    /**
+     * Unused, it's here so openOrCreateDatabase() has Android's signature.
+     */
+    public interface CursorFactory {
+    }
+
+    /**
+     * Told about every query before it runs, so tests can look at the SQL which CardDbAdapter builds.
+     */
+    public interface QueryListener {
+        void onQuery(String sql, String[] selectionArgs);
+    }
+
+    /* SQLite's result code for a failed constraint, e.g. a NULL in a NOT NULL column */
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private final Connection mConnection;
+    private PreparedStatement mLastInsertRowId;
+    private QueryListener mQueryListener;
+    private int mTransactionDepth = 0;
+    private boolean mTransactionSuccessful = true;
+    private boolean mCurrentTransactionSuccessful = false;
+
+    /**
+     * @param connection An open connection to an SQLite database
+     */
+    private SQLiteDatabase(Connection connection) {
+        mConnection = connection;
+    }
+
+    /**
+     * Open a database file, creating it if it doesn't exist.
+     *
+     * @param path    The database file
+     * @param factory Unused
+     * @return The open database
+     */
+    public static SQLiteDatabase openOrCreateDatabase(String path, CursorFactory factory) {
+        try {
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+            registerCollation(connection, "UNICODE", Locale.ROOT);
+            registerCollation(connection, "LOCALIZED", Locale.getDefault());
+            return new SQLiteDatabase(connection);
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Open a database file, creating it if it doesn't exist.
+     *
+     * @param file    The database file
+     * @param factory Unused
+     * @return The open database
+     */
+    public static SQLiteDatabase openOrCreateDatabase(File file, CursorFactory factory) {
+        return openOrCreateDatabase(file.getPath(), factory);
+    }
+
+    /**
+     * Register a collation which compares strings like a locale does.
+     *
+     * @param connection The connection to register it with
+     * @param name       The collation's name
+     * @param locale     The locale to compare strings in
+     * @throws SQLException If the collation can't be registered
+     */
+    private static void registerCollation(Connection connection, String name, Locale locale)
+            throws SQLException {
+        final Collator collator = Collator.getInstance(locale);
+        Collation.create(connection, name, new Collation() {
+            @Override
+            protected int xCompare(String str1, String str2) {
+                return collator.compare(str1, str2);
+            }
+        });
+    }
+
+    /**
+     * Run an SQL statement which doesn't return rows.
+     *
+     * @param sql The statement
+     */
+    public void execSQL(String sql) {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Run an SQL statement which doesn't return rows.
+     *
+     * @param sql      The statement
+     * @param bindArgs The values to bind to its parameters
+     */
+    public void execSQL(String sql, Object[] bindArgs) {
+        try (PreparedStatement statement = mConnection.prepareStatement(sql)) {
+            for (int i = 0; i < bindArgs.length; i++) {
+                statement.setObject(i + 1, bindArgs[i]);
+            }
+            statement.execute();
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Run a query. Like Android, every argument is bound as a string.
+     *
+     * @param sql           The query
+     * @param selectionArgs The values to bind to its parameters, or null
+     * @return A Cursor with every row of the result
+     */
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        if (mQueryListener != null) {
+            mQueryListener.onQuery(sql, selectionArgs);
+        }
+        try (PreparedStatement statement = mConnection.prepareStatement(sql)) {
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.setString(i + 1, selectionArgs[i]);
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return new SQLiteCursor(resultSet);
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * @param listener Told about every query from now on, or null to stop telling anyone
+     */
+    public void setQueryListener(QueryListener listener) {
+        mQueryListener = listener;
+    }
+
+    /**
+     * Add a row to a table. Like Android, errors are swallowed.
+     *
+     * @param table          The table
+     * @param nullColumnHack Unused, rows are never empty here
+     * @param values         The row's values
+     * @return The new row's ID, or -1 if it couldn't be added
+     */
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (String column : values.keySet()) {
+            if (placeholders.length() > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(column);
+            placeholders.append('?');
+        }
+        sql.append(") VALUES (").append(placeholders).append(')');
+
+        try (PreparedStatement statement = mConnection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Map.Entry<String, Object> value : values.valueSet()) {
+                Object bound = value.getValue();
+                statement.setObject(index++, bound instanceof Boolean ? ((Boolean) bound ? 1 : 0) : bound);
+            }
+            statement.executeUpdate();
+            return lastInsertRowId();
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Compile a statement which can be run many times with different values.
+     *
+     * @param sql The statement
+     * @return The compiled statement
+     */
+    public SQLiteStatement compileStatement(String sql) {
+        try {
+            return new SQLiteStatement(this, mConnection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Start a transaction. Transactions nest, and only the outermost one commits.
+     */
+    public void beginTransaction() {
+        try {
+            if (mTransactionDepth == 0) {
+                mConnection.setAutoCommit(false);
+                mTransactionSuccessful = true;
+            }
+            mTransactionDepth++;
+            mCurrentTransactionSuccessful = false;
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Mark the current transaction as successful, so it's committed when it ends.
+     */
+    public void setTransactionSuccessful() {
+        mCurrentTransactionSuccessful = true;
+    }
+
+    /**
+     * End the current transaction. If it or any transaction nested in it wasn't successful, everything is rolled back.
+     */
+    public void endTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        mTransactionSuccessful &= mCurrentTransactionSuccessful;
+        mCurrentTransactionSuccessful = false;
+        mTransactionDepth--;
+        if (mTransactionDepth > 0) {
+            return;
+        }
+        try {
+            if (mTransactionSuccessful) {
+                mConnection.commit();
+            } else {
+                mConnection.rollback();
+            }
+            mConnection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * @return true if the database hasn't been closed
+     */
+    public boolean isOpen() {
+        try {
+            return !mConnection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Close the database.
+     */
+    @Override
+    public void close() {
+        try {
+            if (mLastInsertRowId != null) {
+                mLastInsertRowId.close();
+            }
+            mConnection.close();
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * @return The ID of the last row added on this connection
+     * @throws SQLException If it can't be read
+     */
+    long lastInsertRowId() throws SQLException {
+        if (mLastInsertRowId == null) {
+            mLastInsertRowId = mConnection.prepareStatement("SELECT last_insert_rowid()");
+        }
+        try (ResultSet resultSet = mLastInsertRowId.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        }
+    }
+
+    /**
+     * @param e A JDBC error
+     * @return The error as Android would throw it
+     */
+    static SQLiteException wrap(SQLException e) {
+        if ((e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT) {
+            return new SQLiteConstraintException(e.getMessage(), e);
+        }
+        return new SQLiteException(e.getMessage(), e);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The parts of Android's SQLiteStatement which CardDbAdapter uses, on top of a JDBC PreparedStatement. Parameters are
+ * numbered from 1, as they are on both.
+ */
+public class SQLiteStatement implements AutoCloseable {
+
+    private final SQLiteDatabase mDatabase;
+    private final PreparedStatement mStatement;
+
+    /**
+     * @param database  The database the statement was compiled for
+     * @param statement The compiled statement
+     */
+    SQLiteStatement(SQLiteDatabase database, PreparedStatement statement) {
+        mDatabase = database;
+        mStatement = statement;
+    }
+
+    public void bindNull(int index) {
+        try {
+            mStatement.setNull(index, Types.NULL);
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindLong(int index, long value) {
+        try {
+            mStatement.setLong(index, value);
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindDouble(int index, double value) {
+        try {
+            mStatement.setDouble(index, value);
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void bindString(int index, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        }
+        try {
+            mStatement.setString(index, value);
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    public void clearBindings() {
+        try {
+            mStatement.clearParameters();
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    /**
+     * Run the statement, when it doesn't return rows.
+     */
+    public void execute() {
+        try {
+            mStatement.execute();
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    /**
+     * @return The number of rows the statement changed
+     */
+    public int executeUpdateDelete() {
+        try {
+            return mStatement.executeUpdate();
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    /**
+     * @return The ID of the row the statement added, or -1 if it didn't add one
+     */
+    public long executeInsert() {
+        try {
+            if (mStatement.executeUpdate() > 0) {
+                return mDatabase.lastInsertRowId();
+            }
+            return -1;
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    /**
+     * @return The first column of the first row the statement returns
+     */
+    public long simpleQueryForLong() {
+        try (ResultSet resultSet = mStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                throw new SQLiteException("query returned no rows");
+            }
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            mStatement.close();
+        } catch (SQLException e) {
+            throw SQLiteDatabase.wrap(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Android's LruCache, which PriceCache keeps prices in, on top of an access ordered LinkedHashMap. Every entry has
+ * a size of one.
+ */
+public class LruCache<K, V> {
+
+    private final int mMaxSize;
+    private final LinkedHashMap<K, V> mMap;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new LinkedHashMap<K, V>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    public final synchronized V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return mMap.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        return mMap.put(key, value);
+    }
+
+    public final synchronized V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return mMap.remove(key);
+    }
+
+    public final synchronized void evictAll() {
+        mMap.clear();
+    }
+
+    public final synchronized int size() {
+        return mMap.size();
+    }
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+}
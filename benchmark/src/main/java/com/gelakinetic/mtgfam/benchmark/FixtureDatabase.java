@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A card database for the benchmarks. It's either an existing database, e.g. the app's packaged one, or one which is
+ * generated with the app's own schema and inserters. The generated one is shaped like the real one: about as many
+ * sets, printings and reprints, with type lines, rules text, colors and formats like real cards have.
+ */
+final class FixtureDatabase {
+
+    /* How big the generated database is */
+    private static final int NUM_SETS = 160;
+    private static final int CARDS_PER_SET = 220;
+    private static final int NUM_ARTISTS = 300;
+
+    /* One card in this many is a reprint of a card from an earlier set */
+    private static final int REPRINT_ONE_IN = 3;
+
+    static final String[] FORMATS = {"Standard", "Modern", "Legacy", "Vintage", "Commander"};
+
+    private static final String[] NAME_WORDS = {
+            "Goblin", "Elvish", "Serra", "Llanowar", "Shivan", "Dark", "Ritual", "Angel", "Dragon", "Bolt",
+            "Lightning", "Counterspell", "Wrath", "Sword", "Fire", "Ice", "Mind", "Stone", "Sol", "Ring",
+            "Thought", "Seize", "Path", "Exile", "Tarmogoyf", "Snapcaster", "Mage", "Jace", "Sculptor", "Liliana",
+            "Veil", "Vault", "Knight", "Bird", "Paradise", "Wall", "Omens", "Steppe", "Lynx", "Sylvan", "Library",
+            "Force", "Will", "Brainstorm", "Ponder", "Growth", "Giant", "Pyroclasm", "Avenger", "Nantuko"
+    };
+
+    private static final String[] ACCENTED_WORDS = {"J\u00F6tun", "Dand\u00E2n", "S\u00E9ance", "Lim-D\u00FBl"};
+
+    private static final String[][] TYPE_LINES = {
+            {"Creature", "Goblin"}, {"Creature", "Elf Druid"}, {"Creature", "Human Wizard"},
+            {"Creature", "Angel"}, {"Creature", "Dragon"}, {"Legendary Creature", "Human Soldier"},
+            {"Artifact Creature", "Golem"}, {"Instant", ""}, {"Instant", "Arcane"}, {"Sorcery", ""},
+            {"Enchantment", "Aura"}, {"Enchantment", ""}, {"Artifact", "Equipment"}, {"Artifact", ""},
+            {"Land", ""}, {"Basic Land", "Forest"}, {"Legendary Planeswalker", "Jace"}, {"Plane", "Dominaria"}
+    };
+
+    private static final String[] ABILITIES = {
+            "Flying", "Trample", "Haste", "Vigilance", "Deathtouch", "Lifelink", "First strike",
+            "When {this} enters the battlefield, draw a card.",
+            "{T}: Add {G}.",
+            "Destroy target creature. It can't be regenerated.",
+            "Counter target spell.",
+            "{this} deals 3 damage to any target.",
+            "Target creature gets +3/+3 until end of turn.",
+            "Equipped creature gets +2/+2.",
+            "Enchant creature",
+            "Search your library for a basic land card, put it onto the battlefield tapped, then shuffle.",
+            "Whenever a creature dies, each opponent loses 1 life.",
+            "Exile target permanent."
+    };
+
+    private static final String[] COLORS = {"W", "U", "B", "R", "G", "WU", "UB", "BR", "RG", "GW", "WUBRG"};
+
+    private FixtureDatabase() {
+        /* Only static methods */
+    }
+
+    /**
+     * Open the database to benchmark.
+     *
+     * @param path An existing database, or an empty string to generate one
+     * @return The open database
+     * @throws IOException         If the generated database's file can't be made
+     * @throws FamiliarDbException If the database can't be generated
+     */
+    static SQLiteDatabase open(String path) throws IOException, FamiliarDbException {
+        if (!path.isEmpty()) {
+            return SQLiteDatabase.openOrCreateDatabase(path, null);
+        }
+
+        File file = File.createTempFile("fixture", ".db");
+        file.deleteOnExit();
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+        generate(database);
+        return database;
+    }
+
+    /**
+     * Fill an empty database with sets, cards and formats, the way DbUpdaterService does.
+     *
+     * @param database The database to fill
+     * @throws FamiliarDbException If something goes wrong
+     */
+    private static void generate(SQLiteDatabase database) throws FamiliarDbException {
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        int multiverseId = 1;
+
+        database.beginTransaction();
+        try {
+            CardDbAdapter.dropCreateDB(database);
+            CardDbAdapter.CardInserter inserter = new CardDbAdapter.CardInserter(database);
+            try {
+                for (int set = 0; set < NUM_SETS; set++) {
+                    Expansion expansion = new Expansion();
+                    expansion.mCode_gatherer = String.format("S%03d", set);
+                    expansion.mCode_mtgi = expansion.mCode_gatherer.toLowerCase();
+                    expansion.mName_gatherer = "Set " + set;
+                    expansion.mReleaseTimestamp = 700000000L + set * 7776000L;
+                    expansion.mCanBeFoil = set > NUM_SETS / 4;
+                    expansion.mDigest = Integer.toHexString(random.nextInt());
+                    CardDbAdapter.createSet(expansion, database);
+
+                    for (int number = 1; number <= CARDS_PER_SET; number++) {
+                        String name;
+                        if (!names.isEmpty() && random.nextInt(REPRINT_ONE_IN) == 0) {
+                            name = names.get(random.nextInt(names.size()));
+                        } else {
+                            name = generateName(random, names.size());
+                            names.add(name);
+                        }
+                        inserter.insert(generateCard(random, name, expansion.mCode_gatherer, number,
+                                multiverseId++));
+                    }
+                }
+            } finally {
+                inserter.close();
+            }
+
+            /* Standard is the newest sets, Modern most of them, and the rest are eternal */
+            for (String format : FORMATS) {
+                CardDbAdapter.createFormat(format, database);
+            }
+            for (int set = 0; set < NUM_SETS; set++) {
+                String code = String.format("S%03d", set);
+                if (set >= NUM_SETS - 8) {
+                    CardDbAdapter.addLegalSet(code, FORMATS[0], database);
+                }
+                if (set >= NUM_SETS / 3) {
+                    CardDbAdapter.addLegalSet(code, FORMATS[1], database);
+                }
+            }
+            for (int i = 0; i < 40; i++) {
+                String name = names.get(random.nextInt(names.size()));
+                CardDbAdapter.addLegalCard(name, FORMATS[1 + random.nextInt(FORMATS.length - 1)],
+                        i % 4 == 0 ? CardDbAdapter.RESTRICTED : CardDbAdapter.BANNED, database);
+            }
+            CardDbAdapter.rebuildCardLegality(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        database.execSQL("ANALYZE");
+    }
+
+    /**
+     * @param random Where to get randomness
+     * @param index  How many names there are already, to keep names unique
+     * @return A card name, one to three words and a suffix, sometimes with an accent mark
+     */
+    private static String generateName(Random random, int index) {
+        StringBuilder name = new StringBuilder();
+        if (random.nextInt(50) == 0) {
+            name.append(ACCENTED_WORDS[random.nextInt(ACCENTED_WORDS.length)]).append(' ');
+        }
+        int words = 1 + random.nextInt(3);
+        for (int i = 0; i < words; i++) {
+            name.append(NAME_WORDS[random.nextInt(NAME_WORDS.length)]).append(' ');
+        }
+        return name.append(Integer.toString(index, Character.MAX_RADIX)).toString();
+    }
+
+    /**
+     * @param random       Where to get randomness
+     * @param name         The card's name
+     * @param set          The card's set code
+     * @param number       The card's collector's number
+     * @param multiverseId The card's multiverse ID
+     * @return A card
+     */
+    private static Card generateCard(Random random, String name, String set, int number, int multiverseId) {
+        Card card = new Card();
+        String[] typeLine = TYPE_LINES[random.nextInt(TYPE_LINES.length)];
+        String supertype = typeLine[0];
+
+        card.mName = name;
+        card.mExpansion = set;
+        card.mNumber = Integer.toString(number);
+        card.mMultiverseId = multiverseId;
+        card.mType = typeLine[1].isEmpty() ? supertype : supertype + " - " + typeLine[1];
+        card.mRarity = "CCCCUUURM".charAt(random.nextInt(9));
+        card.mArtist = "Artist " + random.nextInt(NUM_ARTISTS);
+        card.mFlavor = random.nextInt(3) == 0 ? "" : NAME_WORDS[random.nextInt(NAME_WORDS.length)] +
+                " shall " + NAME_WORDS[random.nextInt(NAME_WORDS.length)].toLowerCase() + " again.";
+
+        StringBuilder text = new StringBuilder();
+        int abilities = random.nextInt(4);
+        for (int i = 0; i < abilities; i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(ABILITIES[random.nextInt(ABILITIES.length)].replace("{this}", name));
+        }
+        card.mText = text.toString();
+
+        if (supertype.contains("Land")) {
+            card.mColor = "L";
+            card.mColorIdentity = random.nextBoolean() ? "G" : "";
+            card.mManaCost = "";
+            card.mCmc = 0;
+        } else if (supertype.startsWith("Artifact")) {
+            card.mColor = "A";
+            card.mColorIdentity = "";
+            card.mCmc = 1 + random.nextInt(6);
+            card.mManaCost = "{" + card.mCmc + "}";
+        } else {
+            String color = COLORS[random.nextInt(COLORS.length)];
+            card.mColor = color;
+            card.mColorIdentity = color;
+            int generic = random.nextInt(5);
+            StringBuilder manaCost = new StringBuilder();
+            if (generic > 0) {
+                manaCost.append('{').append(generic).append('}');
+            }
+            for (char c : color.toCharArray()) {
+                manaCost.append('{').append(c).append('}');
+            }
+            card.mManaCost = manaCost.toString();
+            card.mCmc = generic + color.length();
+        }
+
+        if (supertype.contains("Creature")) {
+            card.mPower = random.nextInt(7);
+            card.mToughness = 1 + random.nextInt(7);
+        }
+        if (supertype.contains("Planeswalker")) {
+            card.mLoyalty = 2 + random.nextInt(5);
+        }
+        return card;
+    }
+
+    /**
+     * @param database The database
+     * @param count    How many names to pick
+     * @return Names of cards in the database, spread evenly through it
+     */
+    static String[] sampleNames(SQLiteDatabase database, int count) {
+        Cursor cursor = database.rawQuery("SELECT DISTINCT " + CardDbAdapter.KEY_NAME + " FROM " +
+                CardDbAdapter.DATABASE_TABLE_CARDS + " ORDER BY " + CardDbAdapter.KEY_ID, null);
+        try {
+            String[] names = new String[count];
+            int step = Math.max(1, cursor.getCount() / count);
+            for (int i = 0; i < count; i++) {
+                cursor.moveToPosition((i * step) % cursor.getCount());
+                names[i] = cursor.getString(0);
+            }
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+}
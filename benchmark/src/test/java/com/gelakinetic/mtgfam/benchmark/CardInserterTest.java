@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Adds cards with CardDbAdapter.CardInserter, the way DbUpdaterService does, and checks what ends up in the database.
+ */
+public class CardInserterTest {
+
+    /* CardDbAdapter keeps this name to itself */
+    private static final String CARDS_FTS = "cards_fts";
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() throws IOException, FamiliarDbException {
+        File file = File.createTempFile("inserter", ".db");
+        file.deleteOnExit();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+        CardDbAdapter.dropCreateDB(mDatabase);
+
+        Expansion expansion = new Expansion();
+        expansion.mCode_gatherer = "TST";
+        expansion.mCode_mtgi = "tst";
+        expansion.mName_gatherer = "Test Set";
+        expansion.mDigest = "0";
+        CardDbAdapter.createSet(expansion, mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void badCardIsSkipped() throws FamiliarDbException {
+        mDatabase.beginTransaction();
+        try {
+            CardDbAdapter.CardInserter inserter = new CardDbAdapter.CardInserter(mDatabase);
+            try {
+                inserter.insert(makeCard(1, "Goblin Guide"));
+                /* A card with no set breaks a NOT NULL constraint */
+                Card broken = makeCard(2, "Goblin King");
+                broken.mExpansion = null;
+                inserter.insert(broken);
+                inserter.insert(makeCard(3, "Mogg Fanatic"));
+            } finally {
+                inserter.close();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        /* The rest of the set is added, and the skipped card left nothing behind */
+        assertEquals(2, count("SELECT COUNT(*) FROM " + CardDbAdapter.DATABASE_TABLE_CARDS));
+        assertEquals(2, count("SELECT COUNT(*) FROM " + CARDS_FTS));
+        assertEquals(0, count("SELECT COUNT(*) FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                " WHERE " + CardDbAdapter.KEY_NAME + " = 'Goblin King'"));
+    }
+
+    /**
+     * @param query A query for a single number
+     * @return The number
+     */
+    private long count(String query) {
+        Cursor cursor = mDatabase.rawQuery(query, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param number The card's collector's number
+     * @param name   The card's name
+     * @return A common, colorless instant in the test set
+     */
+    private static Card makeCard(int number, String name) {
+        Card card = new Card();
+        card.mName = name;
+        card.mExpansion = "TST";
+        card.mNumber = Integer.toString(number);
+        card.mMultiverseId = number;
+        card.mType = "Instant";
+        card.mRarity = 'C';
+        card.mText = "";
+        card.mFlavor = "";
+        card.mArtist = "";
+        card.mColor = "A";
+        card.mColorIdentity = "";
+        card.mManaCost = "";
+        return card;
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.mtgfam.helpers.CardHelpers.CompressedCardInfo;
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.gelakinetic.mtgfam.helpers.SearchCriteria;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+import com.gelakinetic.mtgfam.helpers.model.Comparison;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs each shape of query CardDbAdapter builds through EXPLAIN QUERY PLAN, against the generated fixture database,
+ * and checks that tables are looked up through their indexes. A change to the SQL or to the indexes which makes
+ * SQLite scan every card instead fails here, rather than just making the app slower.
+ *
+ * Some searches can't use an index on their own, e.g. a color or rarity search has to look at every card. Those
+ * check that their subqueries use indexes, and that adding an indexed term, like a name, stops the scan.
+ */
+public class QueryPlanTest {
+
+    private static final String[] RETURN_TYPES = {CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME,
+            CardDbAdapter.KEY_SET, CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CMC, CardDbAdapter.KEY_COLOR};
+
+    /* CardDbAdapter keeps these names to itself */
+    private static final String CARD_TYPES = "card_types";
+    private static final String CARD_LEGALITY = "card_legality";
+    private static final String[] COLOR_MASK_INDICES = {"cards_color_mask_index", "cards_color_identity_mask_index"};
+
+    private static SQLiteDatabase sDatabase;
+    private static String sName;
+
+    /**
+     * A query to explain
+     */
+    private interface Query {
+        Object run() throws FamiliarDbException;
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        sDatabase = FixtureDatabase.open("");
+        sName = FixtureDatabase.sampleNames(sDatabase, 1)[0];
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        sDatabase.close();
+    }
+
+    @Test
+    public void searchName() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.name = "goblin";
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchTextAllWords() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.text = "draw a card !flying";
+        criteria.textLogic = 0;
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchTextAnyWord() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.text = "trample haste";
+        criteria.textLogic = 1;
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchTextExactPhrase() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.text = "draw a card";
+        criteria.textLogic = 2;
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchFlavorAndArtist() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.flavor = "shall";
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+
+        criteria = new SearchCriteria();
+        criteria.artist = "Artist 12";
+        assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchTypes() throws FamiliarDbException {
+        for (int typeLogic = 0; typeLogic <= 2; typeLogic++) {
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.superTypes = Arrays.asList("Legendary Creature", "!Artifact");
+            criteria.subTypes = Collections.singletonList("Human Soldier");
+            criteria.typeLogic = typeLogic;
+            List<String> plan = explainSearch(criteria);
+            assertSearched(plan, CARD_TYPES);
+
+            criteria.name = "goblin";
+            plan = explainSearch(criteria);
+            assertNotScanned(plan, CardDbAdapter.DATABASE_TABLE_CARDS);
+            assertSearched(plan, CARD_TYPES);
+        }
+    }
+
+    @Test
+    public void searchColors() throws FamiliarDbException {
+        /* Colors are compared as masks, which no index can answer, so there are no indexes on them. On their own,
+         * colors have to be checked for every card
+         */
+        SearchCriteria colorsOnly = new SearchCriteria();
+        colorsOnly.color = "wuBRgl";
+        colorsOnly.colorIdentity = "wuBRgL";
+        List<String> plan = explainSearch(colorsOnly);
+        assertScanned(plan, CardDbAdapter.DATABASE_TABLE_CARDS);
+        for (String line : plan) {
+            for (String index : COLOR_MASK_INDICES) {
+                assertFalse(index + " is used in: " + plan, line.contains(index));
+            }
+        }
+
+        /* Each logic is checked with a name */
+        for (int colorLogic = 0; colorLogic <= 3; colorLogic++) {
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.name = "dragon";
+            criteria.color = "wuBRgl";
+            criteria.colorLogic = colorLogic;
+            assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+        }
+        for (int colorIdentityLogic = 0; colorIdentityLogic <= 1; colorIdentityLogic++) {
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.name = "dragon";
+            criteria.colorIdentity = "wubrGl";
+            criteria.colorIdentityLogic = colorIdentityLogic;
+            assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+        }
+    }
+
+    @Test
+    public void searchFormat() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.format = FixtureDatabase.FORMATS[1];
+        assertSearched(explainSearch(criteria), CARD_LEGALITY);
+
+        criteria.name = "goblin";
+        List<String> plan = explainSearch(criteria);
+        assertNotScanned(plan, CardDbAdapter.DATABASE_TABLE_CARDS);
+        assertSearched(plan, CARD_LEGALITY);
+    }
+
+    @Test
+    public void searchSets() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.sets = Arrays.asList("S010", "S020");
+        criteria.setLogic = CardDbAdapter.ALL_PRINTINGS;
+        assertSearched(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+
+        criteria.collectorsNumber = "12";
+        assertSearched(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchRarityCmcAndPowerInSets() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.sets = Arrays.asList("S100", "S101", "S102");
+        criteria.rarity = "rm";
+        criteria.cmc = 4;
+        criteria.cmcLogic = "<";
+        criteria.powChoice = 2;
+        criteria.powLogic = ">";
+        criteria.touChoice = 2;
+        criteria.touLogic = ">";
+        criteria.moJhoStoFilter = true;
+        assertSearched(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void searchManaCost() throws FamiliarDbException {
+        for (Comparison comparison : Comparison.values()) {
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.name = "angel";
+            criteria.manaCost = Arrays.asList("2", "W");
+            criteria.manaCostLogic = comparison;
+            assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+        }
+    }
+
+    @Test
+    public void searchPrintings() throws FamiliarDbException {
+        int[] setLogics = {CardDbAdapter.MOST_RECENT_PRINTING, CardDbAdapter.FIRST_PRINTING,
+                CardDbAdapter.ALL_PRINTINGS};
+        for (int setLogic : setLogics) {
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.name = "sword";
+            criteria.setLogic = setLogic;
+            /* The first printings are found by grouping every card under another name, but the cards themselves
+             * must still come from the index
+             */
+            assertNotScanned(explainSearch(criteria), CardDbAdapter.DATABASE_TABLE_CARDS);
+        }
+    }
+
+    @Test
+    public void fetchCards() throws FamiliarDbException {
+        List<String> fields = Arrays.asList(CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_SET,
+                CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_NUMBER);
+        assertSearched(explain(() -> CardDbAdapter.fetchCardByName(sName, fields, true, sDatabase)),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+        assertSearched(explain(() -> CardDbAdapter.fetchCardByNameAndSet(sName, "S000", fields, sDatabase)),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+        assertSearched(explain(() -> CardDbAdapter.fetchIdByName(sName, sDatabase)),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+        assertSearched(explain(() -> CardDbAdapter.fetchCardByMultiverseId(1000, new String[]{
+                        CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_NAME}, sDatabase)),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+        assertSearched(explain(() -> CardDbAdapter.getCardsByNamePrefix(sName.substring(0, 3), sDatabase)),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void fillExtraWishlistData() throws FamiliarDbException {
+        MtgCard card = new MtgCard();
+        card.mName = sName;
+        ArrayList<CompressedCardInfo> wishlist = new ArrayList<>();
+        wishlist.add(new CompressedCardInfo(card));
+        assertSearched(explain(() -> {
+            CardDbAdapter.fillExtraWishlistData(wishlist, sDatabase);
+            return null;
+        }), CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void legality() throws FamiliarDbException {
+        assertSearched(explain(() -> CardDbAdapter.checkLegality(sName, FixtureDatabase.FORMATS[0], sDatabase)),
+                CARD_LEGALITY);
+        assertNotScanned(explain(() -> CardDbAdapter.getLegalSets(sDatabase, FixtureDatabase.FORMATS[0])),
+                CardDbAdapter.DATABASE_TABLE_SETS);
+        assertNotScanned(explain(() -> CardDbAdapter.getBannedCards(sDatabase, FixtureDatabase.FORMATS[1])),
+                CardDbAdapter.DATABASE_TABLE_CARDS);
+    }
+
+    @Test
+    public void rules() throws FamiliarDbException {
+        /* The rules are a small table of their own, they never touch the cards */
+        int[][] categories = {{-1, -1}, {1, -1}, {1, 2}};
+        for (int[] category : categories) {
+            assertNotScanned(explain(() -> CardDbAdapter.getRules(category[0], category[1], sDatabase)),
+                    CardDbAdapter.DATABASE_TABLE_CARDS);
+            assertNotScanned(explain(() -> CardDbAdapter.getRulesByKeyword("trample", category[0], category[1],
+                    sDatabase)), CardDbAdapter.DATABASE_TABLE_CARDS);
+        }
+    }
+
+    /**
+     * Search the way ResultListFragment does, and explain the query. The search must find something, since a query
+     * which finds nothing can stop before it does the work a real search would.
+     *
+     * @param criteria What to search for
+     * @return The query's plan
+     * @throws FamiliarDbException If the query fails
+     */
+    private static List<String> explainSearch(SearchCriteria criteria) throws FamiliarDbException {
+        boolean consolidate = (criteria.setLogic == CardDbAdapter.MOST_RECENT_PRINTING ||
+                criteria.setLogic == CardDbAdapter.FIRST_PRINTING);
+        final int[] rows = new int[1];
+        List<String> plan = explain(() -> {
+            Cursor cursor = CardDbAdapter.Search(criteria, true, RETURN_TYPES, consolidate, null, sDatabase);
+            rows[0] = (cursor == null) ? 0 : cursor.getCount();
+            return cursor;
+        });
+        assertTrue("The search found nothing, its plan is: " + plan, rows[0] > 0);
+        return plan;
+    }
+
+    /**
+     * Run a query, then explain every statement it ran.
+     *
+     * @param query The query
+     * @return Each line of each statement's plan
+     * @throws FamiliarDbException If the query fails
+     */
+    private static List<String> explain(Query query) throws FamiliarDbException {
+        final List<String> statements = new ArrayList<>();
+        final List<String[]> statementArgs = new ArrayList<>();
+        sDatabase.setQueryListener((sql, selectionArgs) -> {
+            statements.add(sql);
+            statementArgs.add(selectionArgs);
+        });
+        try {
+            Object result = query.run();
+            if (result instanceof Cursor) {
+                ((Cursor) result).close();
+            }
+        } finally {
+            sDatabase.setQueryListener(null);
+        }
+        assertFalse("No queries were run", statements.isEmpty());
+
+        List<String> plan = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            Cursor cursor = sDatabase.rawQuery("EXPLAIN QUERY PLAN " + statements.get(i), statementArgs.get(i));
+            try {
+                /* The last column is the description, in every version of SQLite */
+                int detail = cursor.getColumnCount() - 1;
+                while (cursor.moveToNext()) {
+                    plan.add(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @param plan  A query's plan
+     * @param table A table which must be looked up through an index, and never scanned
+     */
+    private static void assertSearched(List<String> plan, String table) {
+        assertNotScanned(plan, table);
+        Pattern search = Pattern.compile("^SEARCH (TABLE )?" + table + "(?! AS)( |$)");
+        for (String line : plan) {
+            if (search.matcher(line).find()) {
+                return;
+            }
+        }
+        fail(table + " isn't looked up in: " + plan);
+    }
+
+    /**
+     * @param plan  A query's plan
+     * @param table A table which must be scanned, in any order
+     */
+    private static void assertScanned(List<String> plan, String table) {
+        Pattern scan = Pattern.compile("^SCAN (TABLE )?" + table + "(?! AS)( |$)");
+        for (String line : plan) {
+            if (scan.matcher(line).find()) {
+                return;
+            }
+        }
+        fail(table + " isn't scanned in: " + plan);
+    }
+
+    /**
+     * @param plan  A query's plan
+     * @param table A table which must not be scanned. Copies of it under another name, e.g. in a subquery, may be
+     */
+    private static void assertNotScanned(List<String> plan, String table) {
+        Pattern scan = Pattern.compile("^SCAN (TABLE )?" + table + "(?! AS)( |$)");
+        for (String line : plan) {
+            assertTrue(table + " is scanned in: " + plan, !scan.matcher(line).find());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
+import com.gelakinetic.mtgfam.helpers.SearchCriteria;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs name, text, flavor and artist searches against a handful of known cards, and checks which cards come back.
+ * The full-text index only narrows down the candidates, so these check that it doesn't lose cards it should find,
+ * and that punctuation the index drops is still checked.
+ */
+public class SearchResultsTest {
+
+    private static final String[] RETURN_TYPES = {CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME};
+
+    private static SQLiteDatabase sDatabase;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File file = File.createTempFile("search", ".db");
+        file.deleteOnExit();
+        sDatabase = SQLiteDatabase.openOrCreateDatabase(file.getPath(), null);
+
+        sDatabase.beginTransaction();
+        try {
+            CardDbAdapter.dropCreateDB(sDatabase);
+            Expansion expansion = new Expansion();
+            expansion.mCode_gatherer = "TST";
+            expansion.mCode_mtgi = "tst";
+            expansion.mName_gatherer = "Test Set";
+            expansion.mDigest = "0";
+            CardDbAdapter.createSet(expansion, sDatabase);
+
+            CardDbAdapter.CardInserter inserter = new CardDbAdapter.CardInserter(sDatabase);
+            try {
+                inserter.insert(makeCard(1, "Goblin Guide", "Haste",
+                        "Goblin guides are always happy to help.", "Mark Tedin"));
+                inserter.insert(makeCard(2, "Goblin King", "Other Goblin creatures get +1/+1 and have mountainwalk.",
+                        "", "Jesper Myrfors"));
+                inserter.insert(makeCard(3, "Mogg Fanatic", "Sacrifice Mogg Fanatic: It deals 1 damage to any target.",
+                        "", "Brom"));
+                inserter.insert(makeCard(4, "Llanowar Elves", "{T}: Add {G}.",
+                        "One bone broken for every twig snapped underfoot.", "Anson Maddocks"));
+                inserter.insert(makeCard(5, "Divination", "Draw two cards.", "", "Howard Lyon"));
+                inserter.insert(makeCard(6, "Opt", "Scry 1.\nDraw a card.", "", "Tyler Jacobson"));
+                inserter.insert(makeCard(7, "J\u00F6tun Grunt", "Cumulative upkeep-Put two cards from a single " +
+                        "graveyard on the bottom of their owner's library.", "", "Franz Vohwinkel"));
+                inserter.insert(makeCard(8, "Glorious Anthem", "Creatures you control get +1/+1.", "",
+                        "Amy Weber"));
+                inserter.insert(makeCard(9, "Tap Dancer", "Tap target creature.", "", "Mark Tedin"));
+            } finally {
+                inserter.close();
+            }
+            sDatabase.setTransactionSuccessful();
+        } finally {
+            sDatabase.endTransaction();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        sDatabase.close();
+    }
+
+    @Test
+    public void searchName() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.name = "goblin";
+        assertFound(criteria, "Goblin Guide", "Goblin King");
+
+        criteria.name = "gob gui";
+        assertFound(criteria, "Goblin Guide");
+
+        criteria.name = "guide goblin";
+        assertFound(criteria, "Goblin Guide");
+
+        criteria.name = "jotun";
+        assertFound(criteria, "J\u00F6tun Grunt");
+
+        criteria.name = "elf";
+        assertFound(criteria);
+    }
+
+    @Test
+    public void searchTextAllWords() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.textLogic = 0;
+        criteria.text = "draw card";
+        assertFound(criteria, "Divination", "Opt");
+
+        criteria.text = "draw card !scry";
+        assertFound(criteria, "Divination");
+
+        /* The index drops the braces and the colon, LIKE still has to find them */
+        criteria.text = "{T}:";
+        assertFound(criteria, "Llanowar Elves");
+
+        criteria.text = "+1/+1";
+        assertFound(criteria, "Goblin King", "Glorious Anthem");
+
+        criteria.text = "!+1/+1 creature";
+        assertFound(criteria, "Tap Dancer");
+
+        criteria.text = "upkeep-put";
+        assertFound(criteria, "J\u00F6tun Grunt");
+    }
+
+    @Test
+    public void searchTextAnyWord() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.textLogic = 1;
+        criteria.text = "haste scry";
+        assertFound(criteria, "Goblin Guide", "Opt");
+
+        criteria.text = "haste {T}:";
+        assertFound(criteria, "Goblin Guide", "Llanowar Elves");
+
+        criteria.text = "+1/+1 sacrifice";
+        assertFound(criteria, "Goblin King", "Mogg Fanatic", "Glorious Anthem");
+    }
+
+    @Test
+    public void searchTextExactPhrase() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.textLogic = 2;
+        criteria.text = "draw a card";
+        assertFound(criteria, "Opt");
+
+        criteria.text = "get +1/+1";
+        assertFound(criteria, "Goblin King", "Glorious Anthem");
+
+        criteria.text = "card draw";
+        assertFound(criteria);
+    }
+
+    @Test
+    public void searchFlavorAndArtist() throws FamiliarDbException {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.flavor = "always happy";
+        assertFound(criteria, "Goblin Guide");
+
+        criteria = new SearchCriteria();
+        criteria.artist = "mark tedin";
+        assertFound(criteria, "Goblin Guide", "Tap Dancer");
+
+        criteria.name = "goblin";
+        assertFound(criteria, "Goblin Guide");
+    }
+
+    /**
+     * Search, and check which cards are found.
+     *
+     * @param criteria What to search for
+     * @param expected The names of the cards which should be found, and no others
+     * @throws FamiliarDbException If the search fails
+     */
+    private static void assertFound(SearchCriteria criteria, String... expected) throws FamiliarDbException {
+        Set<String> found = new TreeSet<>();
+        Cursor cursor = CardDbAdapter.Search(criteria, false, RETURN_TYPES, true, null, sDatabase);
+        try {
+            /* Search() leaves the cursor on the first row */
+            int name = cursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+            for (boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+                found.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals("name: " + criteria.name + ", text: " + criteria.text + ", flavor: " + criteria.flavor +
+                ", artist: " + criteria.artist, new TreeSet<>(Arrays.asList(expected)), found);
+    }
+
+    /**
+     * @param number The card's collector's number
+     * @param name   The card's name
+     * @param text   The card's rules text
+     * @param flavor The card's flavor text
+     * @param artist The card's artist
+     * @return A common, colorless card in the test set
+     */
+    private static Card makeCard(int number, String name, String text, String flavor, String artist) {
+        Card card = new Card();
+        card.mName = name;
+        card.mExpansion = "TST";
+        card.mNumber = Integer.toString(number);
+        card.mMultiverseId = number;
+        card.mType = "Instant";
+        card.mRarity = 'C';
+        card.mText = text;
+        card.mFlavor = flavor;
+        card.mArtist = artist;
+        card.mColor = "A";
+        card.mColorIdentity = "";
+        card.mManaCost = "";
+        return card;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Caches prices in a temporary cache directory, on a desktop SQLite, and checks that the prices in memory and in the
+ * database agree, that only the newest prices are kept, and that the files the cache used to write are deleted.
+ */
+public class PriceCacheTest {
+
+    /* PriceCache keeps these to itself */
+    private static final String DATABASE_NAME = "price_cache.db";
+    private static final int MAX_ENTRIES = 10000;
+    private static final int MAX_MEMORY_ENTRIES = 1000;
+
+    private File mCacheDir;
+
+    @Before
+    public void makeCacheDir() throws IOException {
+        mCacheDir = File.createTempFile("cache", "");
+        assertTrue(mCacheDir.delete());
+        assertTrue(mCacheDir.mkdir());
+    }
+
+    @After
+    public void deleteCacheDir() {
+        deleteRecursively(mCacheDir);
+    }
+
+    /**
+     * @param file A file or directory to delete, with everything in it
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * @param productId A product
+     * @return A price for it, whose market price is the productId plus 0.5
+     */
+    private static MarketPriceInfo price(long productId) {
+        ProductMarketPrice.MarketPrice[] results = new Gson().fromJson("[{\"productId\":" + productId +
+                ",\"subTypeName\":\"Normal\",\"marketPrice\":" + productId + ".5}]",
+                ProductMarketPrice.MarketPrice[].class);
+        return new MarketPriceInfo(results, productId);
+    }
+
+    /**
+     * @param first The first card
+     * @param count How many cards
+     * @return Prices for that many cards, keyed like PriceCache.getKey(), in order
+     */
+    private static Map<String, MarketPriceInfo> prices(int first, int count) {
+        Map<String, MarketPriceInfo> prices = new LinkedHashMap<>();
+        for (int i = first; i < first + count; i++) {
+            prices.put(key(i), price(i));
+        }
+        return prices;
+    }
+
+    /**
+     * @param card A card
+     * @return The card's key
+     */
+    private static String key(int card) {
+        return "Card " + card + "\nSET";
+    }
+
+    /**
+     * @param entry A cached price, which must not be null
+     * @param card  The card it must be for
+     */
+    private static void assertPriceFor(PriceCache.Entry entry, int card) {
+        assertNotNull("Card " + card + " isn't cached", entry);
+        assertEquals(card + 0.5, entry.mInfo.getPrice(false, MarketPriceInfo.PriceType.MARKET), 0);
+        assertEquals(price(card).getUrl(), entry.mInfo.getUrl());
+    }
+
+    /**
+     * @return How many prices are in the database, read on a connection of its own
+     */
+    private int countRows() {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(new File(mCacheDir, DATABASE_NAME), null);
+        try {
+            Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM prices", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                return cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Delete every price from the database, on a connection of its own, so only prices in memory are left
+     */
+    private void clearDatabase() {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(new File(mCacheDir, DATABASE_NAME), null);
+        try {
+            database.execSQL("DELETE FROM prices");
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * A price is read back the way it was written, from memory and from the database
+     */
+    @Test
+    public void readsWhatWasWritten() {
+        PriceCache cache = new PriceCache(mCacheDir);
+        long before = System.currentTimeMillis();
+        assertTrue(cache.write(key(1), price(1)));
+        long after = System.currentTimeMillis();
+
+        PriceCache.Entry fromMemory = cache.read(key(1));
+        assertPriceFor(fromMemory, 1);
+        assertTrue(fromMemory.mFetchedMs >= before && fromMemory.mFetchedMs <= after);
+
+        PriceCache.Entry fromDisk = new PriceCache(mCacheDir).read(key(1));
+        assertPriceFor(fromDisk, 1);
+        assertEquals(fromMemory.mFetchedMs, fromDisk.mFetchedMs);
+
+        assertNull(cache.read(key(2)));
+        assertEquals(1, countRows());
+    }
+
+    /**
+     * Memory holds the newest MAX_MEMORY_ENTRIES prices, and the database holds them all, so a list longer than
+     * memory is read partly from each, and both say the same thing
+     */
+    @Test
+    public void memoryAndDatabaseAgree() {
+        int numCards = MAX_MEMORY_ENTRIES + 500;
+        PriceCache cache = new PriceCache(mCacheDir);
+        assertTrue(cache.writeAll(prices(0, numCards)));
+        assertEquals(numCards, countRows());
+
+        /* A second cache starts with nothing in memory, so it reads everything from the database */
+        List<String> keys = new ArrayList<>(prices(0, numCards).keySet());
+        Map<String, PriceCache.Entry> fromCache = cache.readAll(keys);
+        Map<String, PriceCache.Entry> fromDisk = new PriceCache(mCacheDir).readAll(keys);
+        assertEquals(numCards, fromCache.size());
+        assertEquals(numCards, fromDisk.size());
+        for (int i = 0; i < numCards; i++) {
+            assertPriceFor(fromCache.get(key(i)), i);
+            assertPriceFor(fromDisk.get(key(i)), i);
+            assertEquals(fromCache.get(key(i)).mFetchedMs, fromDisk.get(key(i)).mFetchedMs);
+        }
+
+        /* Overwriting a price changes it in both */
+        assertTrue(cache.write(key(7), price(1007)));
+        assertPriceFor(cache.read(key(7)), 1007);
+        assertPriceFor(new PriceCache(mCacheDir).read(key(7)), 1007);
+        assertEquals(numCards, countRows());
+    }
+
+    /**
+     * Memory only holds the MAX_MEMORY_ENTRIES prices used most recently
+     */
+    @Test
+    public void memoryHoldsTheNewestPrices() {
+        int numCards = MAX_MEMORY_ENTRIES + 500;
+        PriceCache cache = new PriceCache(mCacheDir);
+        assertTrue(cache.writeAll(prices(0, numCards)));
+
+        /* With the database emptied, only what's in memory can be read */
+        clearDatabase();
+        for (int i = 0; i < numCards - MAX_MEMORY_ENTRIES; i++) {
+            assertNull("Card " + i + " is still in memory", cache.read(key(i)));
+        }
+        for (int i = numCards - MAX_MEMORY_ENTRIES; i < numCards; i++) {
+            assertPriceFor(cache.read(key(i)), i);
+        }
+    }
+
+    /**
+     * Once there are more than MAX_ENTRIES prices, the ones fetched longest ago are deleted
+     */
+    @Test
+    public void evictsTheOldestPrices() throws InterruptedException {
+        PriceCache cache = new PriceCache(mCacheDir);
+        int numOld = 3000;
+        assertTrue(cache.writeAll(prices(0, numOld)));
+        assertEquals(numOld, countRows());
+
+        /* Make sure the next prices are fetched later */
+        Thread.sleep(5);
+        assertTrue(cache.writeAll(prices(numOld, MAX_ENTRIES)));
+        assertEquals(MAX_ENTRIES, countRows());
+
+        PriceCache fromDisk = new PriceCache(mCacheDir);
+        for (int i = 0; i < numOld; i++) {
+            assertNull("Card " + i + " wasn't evicted", fromDisk.read(key(i)));
+        }
+        for (int i = numOld; i < numOld + MAX_ENTRIES; i++) {
+            assertPriceFor(fromDisk.read(key(i)), i);
+        }
+
+        /* Writing one more price evicts exactly one, the first written of those fetched longest ago */
+        Thread.sleep(5);
+        assertTrue(cache.write(key(0), price(0)));
+        assertEquals(MAX_ENTRIES, countRows());
+        fromDisk = new PriceCache(mCacheDir);
+        assertPriceFor(fromDisk.read(key(0)), 0);
+        assertNull(fromDisk.read(key(numOld)));
+        assertPriceFor(fromDisk.read(key(numOld + 1)), numOld + 1);
+    }
+
+    /**
+     * The JSON files the cache used to write, one per card, are deleted when the database is created. Everything
+     * else in the cache directory is left alone, including the database
+     */
+    @Test
+    public void deletesOldFiles() throws IOException {
+        String[] oldFiles = {"price_LightningBoltM10", "price_JtunGruntCSP", "price_"};
+        String[] otherFiles = {"image_cache", "price_list.txt", "prices"};
+        for (String name : oldFiles) {
+            assertTrue(new File(mCacheDir, name).createNewFile());
+        }
+        for (String name : otherFiles) {
+            assertTrue(new File(mCacheDir, name).createNewFile());
+        }
+        assertTrue(new File(mCacheDir, "price_dir").mkdir());
+
+        PriceCache cache = new PriceCache(mCacheDir);
+        assertTrue(cache.write(key(1), price(1)));
+
+        for (String name : oldFiles) {
+            assertFalse(name + " wasn't deleted", new File(mCacheDir, name).exists());
+        }
+        for (String name : otherFiles) {
+            assertTrue(name + " was deleted", new File(mCacheDir, name).exists());
+        }
+        assertTrue(new File(mCacheDir, "price_dir").isDirectory());
+        assertTrue(new File(mCacheDir, DATABASE_NAME).exists());
+
+        /* The database is kept, so the price is still there, and files aren't deleted again */
+        assertTrue(new File(mCacheDir, "price_NewerFile").createNewFile());
+        assertPriceFor(new PriceCache(mCacheDir).read(key(1)), 1);
+        assertTrue(new File(mCacheDir, "price_NewerFile").exists());
+    }
+
+    /**
+     * If the cache directory is cleared while the database is open, the database is made again
+     */
+    @Test
+    public void reopensAfterTheCacheIsCleared() {
+        PriceCache cache = new PriceCache(mCacheDir);
+        assertTrue(cache.write(key(1), price(1)));
+        File[] files = mCacheDir.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertTrue(file.delete());
+        }
+
+        assertTrue(cache.writeAll(prices(2, 3)));
+        assertEquals(3, countRows());
+        assertPriceFor(new PriceCache(mCacheDir).read(key(3)), 3);
+    }
+}
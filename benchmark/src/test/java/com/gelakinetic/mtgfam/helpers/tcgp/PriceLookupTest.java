@@ -0,0 +1,364 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.functions.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Looks prices up in a PriceCache on a desktop SQLite, with a Source which only answers when the test says so, and
+ * checks that stale prices are returned right away, that each card is only fetched once at a time, and that a failed
+ * refresh keeps the stale price.
+ */
+public class PriceLookupTest {
+
+    private static final long TIMEOUT_S = 10;
+
+    /**
+     * A request the Source was asked for, which the test answers
+     */
+    private static class Request {
+        final MtgCard mCard;
+        final boolean mIsRefresh;
+        final Consumer<MarketPriceInfo> mOnSuccess;
+        final Consumer<Throwable> mOnError;
+
+        /**
+         * @param card      The card the price was asked for
+         * @param isRefresh true if it was a fetch of a stale price, false if it was a get of a price which isn't cached
+         * @param onSuccess The Source's success callback
+         * @param onError   The Source's error callback
+         */
+        Request(MtgCard card, boolean isRefresh, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+            mCard = card;
+            mIsRefresh = isRefresh;
+            mOnSuccess = onSuccess;
+            mOnError = onError;
+        }
+    }
+
+    /**
+     * A Source which queues every request for the test to answer. A price is cached before it's returned, like the
+     * Store does
+     */
+    private class QueuedSource implements PriceLookup.Source {
+        final BlockingQueue<Request> mRequests = new LinkedBlockingQueue<>();
+
+        @Override
+        public void get(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+            mRequests.add(new Request(card, false, onSuccess, onError));
+        }
+
+        @Override
+        public void fetch(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+            mRequests.add(new Request(card, true, onSuccess, onError));
+        }
+
+        /**
+         * @return The next request, waiting for it if it hasn't been made yet
+         */
+        Request take() throws InterruptedException {
+            Request request = mRequests.poll(TIMEOUT_S, TimeUnit.SECONDS);
+            assertNotNull("The Source wasn't asked for a price", request);
+            return request;
+        }
+
+        /**
+         * Cache a price and return it, like the Store does
+         *
+         * @param request The request to answer
+         * @param price   The price to return
+         */
+        void succeed(Request request, MarketPriceInfo price) throws Exception {
+            assertTrue(mCache.write(PriceCache.getKey(request.mCard), price));
+            request.mOnSuccess.accept(price);
+        }
+    }
+
+    /**
+     * Collects what a lookup returns, from the fetch thread
+     */
+    private static class Result {
+        final BlockingQueue<Object> mResults = new LinkedBlockingQueue<>();
+        final Consumer<MarketPriceInfo> mOnSuccess = new Consumer<MarketPriceInfo>() {
+            @Override
+            public void accept(MarketPriceInfo marketPriceInfo) {
+                mResults.add(marketPriceInfo);
+            }
+        };
+        final Consumer<Throwable> mOnError = new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) {
+                mResults.add(throwable);
+            }
+        };
+
+        /**
+         * @return The price the lookup returned, waiting for it if it hasn't been yet
+         */
+        MarketPriceInfo take() throws InterruptedException {
+            Object result = mResults.poll(TIMEOUT_S, TimeUnit.SECONDS);
+            assertNotNull("The lookup didn't return", result);
+            if (result instanceof Throwable) {
+                throw new AssertionError("The lookup failed", (Throwable) result);
+            }
+            return (MarketPriceInfo) result;
+        }
+    }
+
+    private File mCacheDir;
+    private PriceCache mCache;
+    /* One thread, so waitForQueuedFetches() knows when everything queued so far has run */
+    private PriceFetchExecutor mExecutor;
+    private QueuedSource mSource;
+    private PriceLookup mLookup;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDir = File.createTempFile("cache", "");
+        assertTrue(mCacheDir.delete());
+        assertTrue(mCacheDir.mkdir());
+
+        mCache = new PriceCache(mCacheDir);
+        mExecutor = new PriceFetchExecutor(1);
+        mSource = new QueuedSource();
+        mLookup = new PriceLookup(mCache, mExecutor, mSource);
+    }
+
+    @After
+    public void deleteCacheDir() {
+        File[] children = mCacheDir.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                //noinspection ResultOfMethodCallIgnored
+                child.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mCacheDir.delete();
+    }
+
+    /**
+     * @param name A card's name
+     * @return The card, in a set
+     */
+    private static MtgCard card(String name) {
+        MtgCard card = new MtgCard();
+        card.mName = name;
+        card.mExpansion = "SET";
+        return card;
+    }
+
+    /**
+     * @param marketPrice A market price
+     * @return A price with it
+     */
+    private static MarketPriceInfo price(double marketPrice) {
+        ProductMarketPrice.MarketPrice[] results = new Gson().fromJson("[{\"productId\":1,\"subTypeName\":" +
+                "\"Normal\",\"marketPrice\":" + marketPrice + "}]", ProductMarketPrice.MarketPrice[].class);
+        return new MarketPriceInfo(results, 1);
+    }
+
+    /**
+     * @param price A price
+     * @return Its market price
+     */
+    private static double marketPrice(MarketPriceInfo price) {
+        return price.getPrice(false, MarketPriceInfo.PriceType.MARKET);
+    }
+
+    /**
+     * Cache a card's price, and make every cached MARKET price stale
+     *
+     * @param card  The card
+     * @param price Its stale price
+     * @return When the price was cached
+     */
+    private long cacheStalePrice(MtgCard card, MarketPriceInfo price) throws InterruptedException {
+        assertTrue(mCache.write(PriceCache.getKey(card), price));
+        mLookup.setMaxAge(MarketPriceInfo.PriceType.MARKET, 0);
+        Thread.sleep(5);
+        return mCache.read(PriceCache.getKey(card)).mFetchedMs;
+    }
+
+    /**
+     * @param card A card
+     * @return What a lookup of its MARKET price returned
+     */
+    private MarketPriceInfo lookup(MtgCard card) throws InterruptedException {
+        Result result = new Result();
+        mLookup.lookup(card, MarketPriceInfo.PriceType.MARKET, result.mOnSuccess, result.mOnError);
+        return result.take();
+    }
+
+    /**
+     * Wait until every fetch queued so far has run, and every fetch they queued too. With one thread, a fetch queued
+     * behind the one which is running runs after it
+     */
+    private void waitForQueuedFetches() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            final CountDownLatch ran = new CountDownLatch(1);
+            mExecutor.execute(PriceFetchExecutor.Priority.BACKGROUND, new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            assertTrue(ran.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * A fresh price is returned from the cache without asking the Source
+     */
+    @Test
+    public void freshPriceIsNotFetched() throws Exception {
+        MtgCard card = card("Shock");
+        assertTrue(mCache.write(PriceCache.getKey(card), price(0.25)));
+
+        assertEquals(0.25, marketPrice(lookup(card)), 0);
+        waitForQueuedFetches();
+        assertTrue(mSource.mRequests.isEmpty());
+    }
+
+    /**
+     * A stale price is returned right away, before the Source answers, and is fetched again in the background. The
+     * fresh price is cached for the next lookup
+     */
+    @Test
+    public void stalePriceIsReturnedImmediately() throws Exception {
+        MtgCard card = card("Lightning Bolt");
+        cacheStalePrice(card, price(1.5));
+
+        /* The refresh hasn't been answered, but the stale price was returned */
+        assertEquals(1.5, marketPrice(lookup(card)), 0);
+        Request refresh = mSource.take();
+        assertSame(card, refresh.mCard);
+        assertTrue(refresh.mIsRefresh);
+
+        mSource.succeed(refresh, price(2.5));
+        assertEquals(2.5, marketPrice(lookup(card)), 0);
+    }
+
+    /**
+     * However many times a stale price is looked up while it's being fetched again, it's only fetched once
+     */
+    @Test
+    public void stalePriceIsRefreshedOnce() throws Exception {
+        MtgCard card = card("Counterspell");
+        cacheStalePrice(card, price(1.5));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1.5, marketPrice(lookup(card)), 0);
+        }
+        waitForQueuedFetches();
+        assertEquals(1, mSource.mRequests.size());
+        assertTrue(mSource.take().mIsRefresh);
+    }
+
+    /**
+     * Lookups of a price which isn't cached, while it's being fetched, wait for that fetch rather than starting
+     * another, and they all get the price
+     */
+    @Test
+    public void uncachedPriceIsFetchedOnce() throws Exception {
+        MtgCard card = card("Goblin Guide");
+        Result[] results = new Result[3];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result();
+            mLookup.lookup(card, MarketPriceInfo.PriceType.MARKET, results[i].mOnSuccess, results[i].mOnError);
+        }
+
+        Request get = mSource.take();
+        assertFalse(get.mIsRefresh);
+        waitForQueuedFetches();
+        assertTrue(mSource.mRequests.isEmpty());
+
+        mSource.succeed(get, price(3.5));
+        for (Result result : results) {
+            assertEquals(3.5, marketPrice(result.take()), 0);
+        }
+
+        /* Now it's cached */
+        assertEquals(3.5, marketPrice(lookup(card)), 0);
+        waitForQueuedFetches();
+        assertTrue(mSource.mRequests.isEmpty());
+    }
+
+    /**
+     * If fetching a stale price again fails, the stale price is kept, and it's fetched again on the next lookup
+     */
+    @Test
+    public void failedRefreshKeepsStalePrice() throws Exception {
+        MtgCard card = card("Goblin Bombardment");
+        long fetchedMs = cacheStalePrice(card, price(1.5));
+
+        assertEquals(1.5, marketPrice(lookup(card)), 0);
+        mSource.take().mOnError.accept(new Exception("no network"));
+
+        PriceCache.Entry entry = mCache.read(PriceCache.getKey(card));
+        assertEquals(1.5, marketPrice(entry.mInfo), 0);
+        assertEquals(fetchedMs, entry.mFetchedMs);
+        assertEquals(1.5, marketPrice(new PriceCache(mCacheDir).read(PriceCache.getKey(card)).mInfo), 0);
+
+        /* It isn't being fetched anymore, so the next lookup tries again */
+        assertEquals(1.5, marketPrice(lookup(card)), 0);
+        Request retry = mSource.take();
+        assertTrue(retry.mIsRefresh);
+        mSource.succeed(retry, price(2.5));
+        assertEquals(2.5, marketPrice(lookup(card)), 0);
+    }
+
+    /**
+     * A price which isn't cached and can't be fetched is an error, and nothing is cached
+     */
+    @Test
+    public void failedGetIsAnError() throws Exception {
+        MtgCard card = card("Light from Within");
+        Result result = new Result();
+        mLookup.lookup(card, MarketPriceInfo.PriceType.MARKET, result.mOnSuccess, result.mOnError);
+
+        Exception error = new Exception("no network");
+        mSource.take().mOnError.accept(error);
+        assertSame(error, result.mResults.poll(TIMEOUT_S, TimeUnit.SECONDS));
+        assertNull(mCache.read(PriceCache.getKey(card)));
+    }
+}
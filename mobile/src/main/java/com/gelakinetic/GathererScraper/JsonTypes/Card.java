@@ -87,6 +87,9 @@ public class Card implements Comparable<Card> {
     // The card's loyalty. An integer in practice
     public String mWatermark = "";
 
+    // The card's TCGplayer.com productId, or 0 if it isn't known
+    public long mTcgplayerProductId = 0;
+
     // Private class for encapsulating foreign printing information
     public static class ForeignPrinting implements Comparable<ForeignPrinting> {
         public int mMultiverseId;
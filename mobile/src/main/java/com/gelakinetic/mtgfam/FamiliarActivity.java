@@ -307,6 +307,32 @@ public class FamiliarActivity extends AppCompatActivity {
         return getHttpInputStream(url, logWriter, ctx, 0);
     }
 
+    /**
+     * Make an unconnected connection to the given URL, with this app's User Agent, which follows
+     * redirects and times out after 5s. Callers may add request headers before connecting.
+     *
+     * @param url The URL to open a connection to
+     * @param ctx A context to build the User Agent with
+     * @return A connection to the URL
+     * @throws IOException Thrown if something goes terribly wrong
+     */
+    public static HttpURLConnection openHttpConnection(URL url, Context ctx) throws IOException {
+        /* Make the URL & connection objects, follow redirects, timeout after 5s */
+        HttpURLConnection.setFollowRedirects(true);
+        HttpURLConnection connection = (HttpURLConnection) (url).openConnection();
+        String version = "";
+        try {
+            version = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        connection.setRequestProperty("User-Agent", ctx.getString(R.string.app_name) + "/" + version);
+        connection.setConnectTimeout(5000);
+        connection.setInstanceFollowRedirects(true);
+        return connection;
+    }
+
     /**
      * Open an inputStream to the HTML content at the given URL, making recursive calls for
      * redirection (HTTP 301, 302).
@@ -328,19 +354,7 @@ public class FamiliarActivity extends AppCompatActivity {
             return null;
         }
 
-        /* Make the URL & connection objects, follow redirects, timeout after 5s */
-        HttpURLConnection.setFollowRedirects(true);
-        HttpURLConnection connection = (HttpURLConnection) (url).openConnection();
-        String version = "";
-        try {
-            version = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).versionName;
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        connection.setRequestProperty("User-Agent", ctx.getString(R.string.app_name) + "/" + version);
-        connection.setConnectTimeout(5000);
-        connection.setInstanceFollowRedirects(true);
+        HttpURLConnection connection = openHttpConnection(url, ctx);
 
         /* If the connection is not OK, debug print the response */
         if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
@@ -215,7 +215,11 @@ public class DecklistFragment extends FamiliarListFragment {
         final String name = String.valueOf(getCardNameInput());
         final String numberOf = String.valueOf(getCardNumberInput());
         final MtgCard card = CardHelpers.makeMtgCard(getContext(), name, null,
-                checkboxFoilIsChecked(), Integer.parseInt(numberOf));
+                checkboxFoilIsChecked(), Integer.parseInt(numberOf), pickedName -> {
+                    /* Add the card the user meant instead */
+                    setCardNameInput(pickedName);
+                    addCardToDeck(isSideboard);
+                });
 
         /* If for some reason the card was null, we can just leave */
         if (card == null) {
@@ -357,6 +361,7 @@ public class DecklistFragment extends FamiliarListFragment {
             clearCompressedInfo(changedCardName);
 
             /* Compress the whole decklist, or just the card that changed */
+            ArrayList<MtgCard> toPrice = new ArrayList<>();
             for (Pair<MtgCard, Boolean> card : decklist) {
                 /* It's possible for empty cards to be saved, though I don't know how. Don't add them back */
                 if (!card.first.mName.isEmpty()) {
@@ -372,11 +377,12 @@ public class DecklistFragment extends FamiliarListFragment {
                             mCompressedDecklist.add(wrapped);
                         }
                         if (shouldShowPrice()) {
-                            loadPrice(card.first);
+                            toPrice.add(card.first);
                         }
                     }
                 }
             }
+            loadPrices(toPrice);
             /* check for wholly removed cards if one card was modified */
             if (changedCardName != null) {
                 for (int i = 0; i < mCompressedDecklist.size(); i++) {
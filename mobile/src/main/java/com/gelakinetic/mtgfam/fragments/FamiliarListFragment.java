@@ -51,7 +51,9 @@ import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 
 import java.util.ArrayList;
+import java.util.List;
 
+import io.reactivex.functions.BiConsumer;
 import io.reactivex.functions.Consumer;
 
 /**
@@ -408,6 +410,13 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
         return mNameField.getText();
     }
 
+    /**
+     * @param cardName The text to put in mNameField
+     */
+    void setCardNameInput(String cardName) {
+        mNameField.setText(cardName);
+    }
+
     /**
      * Clears mNameField
      */
@@ -470,48 +479,99 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
         if (data.mPriceInfo != null) {
             data.mPrice = (int) (data.mPriceInfo.getPrice(data.mIsFoil, getPriceSetting()) * 100);
         } else {
-            getFamiliarActivity().mMarketPriceStore.fetchMarketPrice(data,
+            getFamiliarActivity().mMarketPriceStore.fetchMarketPrice(data, getPriceSetting(),
                     new Consumer<MarketPriceInfo>() {
                         @Override
-                        public void accept(MarketPriceInfo result) throws Exception {
-                            /* Sanity check */
-                            if (result == null) {
-                                data.mPriceInfo = null;
-                            } else {
-                                /* Set the PriceInfo object */
-                                data.mPriceInfo = result;
-
-                                /* Only reset the price to the downloaded one if the old price isn't custom */
-                                if (!data.mIsCustomPrice) {
-                                    data.mPrice = (int) (result.getPrice(data.mIsFoil, getPriceSetting()) * 100);
-                                }
-                                /* Clear the message */
-                                data.mMessage = null;
-                            }
-
-                            /* because this can return when the fragment is in the background */
-                            if (FamiliarListFragment.this.isAdded()) {
-                                onCardPriceLookupSuccess(data, result);
-                                for (CardDataAdapter adapter : mCardDataAdapters) {
-                                    adapter.notifyDataSetChanged();
-                                }
-                            }
+                        public void accept(MarketPriceInfo result) {
+                            onPriceLoaded(data, result);
                         }
                     },
                     new Consumer<Throwable>() {
                         @Override
-                        public void accept(Throwable throwable) throws Exception {
-                            if (FamiliarListFragment.this.isAdded()) {
-                                onCardPriceLookupFailure(data, throwable);
-                                for (CardDataAdapter adapter : mCardDataAdapters) {
-                                    adapter.notifyDataSetChanged();
-                                }
-                            }
+                        public void accept(Throwable throwable) {
+                            onPriceLoadFailed(data, throwable);
                         }
                     });
         }
     }
 
+    /**
+     * Load the prices for a list of cards, like a whole list being loaded. The prices which aren't loaded yet are
+     * fetched together, which takes far fewer requests than calling loadPrice() for each card
+     *
+     * @param cards The cards to load price info for
+     */
+    public void loadPrices(List<MtgCard> cards) {
+        List<MtgCard> toFetch = new ArrayList<>();
+        for (MtgCard data : cards) {
+            /* If the priceInfo is already loaded, don't bother performing a query */
+            if (data.mPriceInfo != null) {
+                data.mPrice = (int) (data.mPriceInfo.getPrice(data.mIsFoil, getPriceSetting()) * 100);
+            } else {
+                toFetch.add(data);
+            }
+        }
+        getFamiliarActivity().mMarketPriceStore.fetchMarketPrices(toFetch, getPriceSetting(),
+                new BiConsumer<MtgCard, MarketPriceInfo>() {
+                    @Override
+                    public void accept(MtgCard data, MarketPriceInfo result) {
+                        onPriceLoaded(data, result);
+                    }
+                },
+                new BiConsumer<MtgCard, Throwable>() {
+                    @Override
+                    public void accept(MtgCard data, Throwable throwable) {
+                        onPriceLoadFailed(data, throwable);
+                    }
+                });
+    }
+
+    /**
+     * Save a loaded price in the card, and redraw the lists
+     *
+     * @param data   The card the price was loaded for
+     * @param result The price information
+     */
+    private void onPriceLoaded(MtgCard data, MarketPriceInfo result) {
+        /* Sanity check */
+        if (result == null) {
+            data.mPriceInfo = null;
+        } else {
+            /* Set the PriceInfo object */
+            data.mPriceInfo = result;
+
+            /* Only reset the price to the downloaded one if the old price isn't custom */
+            if (!data.mIsCustomPrice) {
+                data.mPrice = (int) (result.getPrice(data.mIsFoil, getPriceSetting()) * 100);
+            }
+            /* Clear the message */
+            data.mMessage = null;
+        }
+
+        /* because this can return when the fragment is in the background */
+        if (FamiliarListFragment.this.isAdded()) {
+            onCardPriceLookupSuccess(data, result);
+            for (CardDataAdapter adapter : mCardDataAdapters) {
+                adapter.notifyDataSetChanged();
+            }
+        }
+    }
+
+    /**
+     * Report a price which failed to load, and redraw the lists
+     *
+     * @param data      The card the price failed to load for
+     * @param throwable The exception that occured
+     */
+    private void onPriceLoadFailed(MtgCard data, Throwable throwable) {
+        if (FamiliarListFragment.this.isAdded()) {
+            onCardPriceLookupFailure(data, throwable);
+            for (CardDataAdapter adapter : mCardDataAdapters) {
+                adapter.notifyDataSetChanged();
+            }
+        }
+    }
+
     /**
      * Called when a price load fails. Should contain fragment-specific code
      *
@@ -23,8 +23,6 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -59,6 +57,7 @@ import com.gelakinetic.mtgfam.helpers.ToastWrapper;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+import com.gelakinetic.mtgfam.helpers.database.ReferenceData;
 import com.gelakinetic.mtgfam.helpers.model.Comparison;
 import com.gelakinetic.mtgfam.helpers.view.ComparisonSpinner;
 import com.gelakinetic.mtgfam.helpers.view.CompletionView;
@@ -332,65 +331,47 @@ public class SearchViewFragment extends FamiliarFragment {
             @Override
             protected Void doInBackground(Void... voids) {
 
-                /* Only actually get data if the arrays are null */
-                try {
-                    SQLiteDatabase database = DatabaseManager.getInstance(getActivity(), false).openDatabase(false);
-                    if (mSetNames == null) {
-                        /* Query the database for all sets and fill the arrays to populate the list of choices with */
-                        Cursor setCursor = CardDbAdapter.fetchAllSets(database);
-                        setCursor.moveToFirst();
-
-                        mSetNames = new String[setCursor.getCount()];
-                        mSetSymbols = new String[setCursor.getCount()];
+                /* Only actually get data if the arrays are null. The lists built from the cards table are cached
+                 * between database updates, so this only reads the sets and formats
+                 */
+                if (mSetNames == null || mFormatNames == null || mSupertypes == null || mSubtypes == null ||
+                        mArtists == null || mWatermarks == null) {
+                    try (DatabaseManager.Lease lease = DatabaseManager.lease(getActivity(), false)) {
+                        ReferenceData referenceData = ReferenceData.load(getActivity(), lease.getDatabase());
+
+                        if (mSetNames == null) {
+                            mSetNames = referenceData.mSetNames;
+                            mSetSymbols = referenceData.mSetCodes;
+                        }
 
                         /* If this wasn't persisted, create it new */
                         if (mSetCheckedIndices == null) {
                             mSetCheckedIndices = new int[0];
                         }
 
-                        for (int i = 0; i < setCursor.getCount(); i++) {
-                            mSetSymbols[i] = setCursor.getString(setCursor.getColumnIndex(CardDbAdapter.KEY_CODE));
-                            mSetNames[i] = setCursor.getString(setCursor.getColumnIndex(CardDbAdapter.KEY_NAME));
-                            setCursor.moveToNext();
+                        if (mFormatNames == null) {
+                            mFormatNames = referenceData.mFormatNames;
                         }
-                        setCursor.close();
-                    }
 
-                    if (mFormatNames == null) {
-                            /* Query the database for all formats and fill the arrays to populate the list of choices with */
-                        Cursor formatCursor = CardDbAdapter.fetchAllFormats(database);
-                        formatCursor.moveToFirst();
-
-                        mFormatNames = new String[formatCursor.getCount()];
-
-                        for (int i = 0; i < formatCursor.getCount(); i++) {
-                            mFormatNames[i] = formatCursor.getString(formatCursor.getColumnIndex(CardDbAdapter.KEY_NAME));
-                            formatCursor.moveToNext();
+                        if (mSupertypes == null) {
+                            mSupertypes = tokenStringsFromTypes(referenceData.mSupertypes);
                         }
-                        formatCursor.close();
-                    }
 
-                    if (mSupertypes == null) {
-                        String[] supertypes = CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_SUPERTYPE, true, database);
-                        mSupertypes = tokenStringsFromTypes(supertypes);
-                    }
-
-                    if (mSubtypes == null) {
-                        String[] subtypes = CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_SUBTYPE, true, database);
-                        mSubtypes = tokenStringsFromTypes(subtypes);
-                    }
+                        if (mSubtypes == null) {
+                            mSubtypes = tokenStringsFromTypes(referenceData.mSubtypes);
+                        }
 
-                    if (mArtists == null) {
-                        mArtists = CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_ARTIST, false, database);
-                    }
+                        if (mArtists == null) {
+                            mArtists = referenceData.mArtists;
+                        }
 
-                    if (mWatermarks == null) {
-                        mWatermarks = CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_WATERMARK, false, database);
+                        if (mWatermarks == null) {
+                            mWatermarks = referenceData.mWatermarks;
+                        }
+                    } catch (FamiliarDbException e) {
+                        handleFamiliarDbException(true);
                     }
-                } catch (FamiliarDbException e) {
-                    handleFamiliarDbException(true);
                 }
-                DatabaseManager.getInstance(getActivity(), false).closeDatabase(false);
 
                 return null;
             }
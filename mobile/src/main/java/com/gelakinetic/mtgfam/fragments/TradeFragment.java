@@ -159,7 +159,12 @@ public class TradeFragment extends FamiliarListFragment {
         final String cardName = getCardNameInput().toString();
         final int numberOf = Integer.parseInt(getCardNumberInput().toString());
         final boolean isFoil = checkboxFoilIsChecked();
-        final MtgCard card = CardHelpers.makeMtgCard(getContext(), cardName, null, isFoil, numberOf);
+        final MtgCard card = CardHelpers.makeMtgCard(getContext(), cardName, null, isFoil, numberOf,
+                pickedName -> {
+                    /* Add the card the user meant instead */
+                    setCardNameInput(pickedName);
+                    addCardToTrade(side);
+                });
 
         if (card == null) {
             return;
@@ -284,35 +289,38 @@ public class TradeFragment extends FamiliarListFragment {
             mListLeft.clear();
             mListRight.clear();
 
-            /* Read each card, line by line, load prices along the way */
+            /* Read each card, line by line */
             br = new BufferedReader(
                     new InputStreamReader(this.getActivity().openFileInput(tradeName))
             );
+            ArrayList<String> lines = new ArrayList<>();
             String line;
             while ((line = br.readLine()) != null) {
-                try {
-                    MtgCard card = MtgCard.fromTradeString(line, getActivity());
-                    card.setIndex(mOrderAddedIdx++);
+                lines.add(line);
+            }
+
+            /* Look the cards up all at once, then load prices */
+            ArrayList<MtgCard> toPrice = new ArrayList<>();
+            for (MtgCard card : MtgCard.fromTradeStrings(lines, getActivity())) {
+                card.setIndex(mOrderAddedIdx++);
 
-                    if (card.mSetName == null) {
-                        handleFamiliarDbException(false);
-                        return;
+                if (card.mSetName == null) {
+                    handleFamiliarDbException(false);
+                    return;
+                }
+                if (card.mSide == LEFT) {
+                    mListLeft.add(card);
+                    if (!card.mIsCustomPrice) {
+                        toPrice.add(card);
                     }
-                    if (card.mSide == LEFT) {
-                        mListLeft.add(card);
-                        if (!card.mIsCustomPrice) {
-                            loadPrice(card);
-                        }
-                    } else if (card.mSide == RIGHT) {
-                        mListRight.add(card);
-                        if (!card.mIsCustomPrice) {
-                            loadPrice(card);
-                        }
+                } else if (card.mSide == RIGHT) {
+                    mListRight.add(card);
+                    if (!card.mIsCustomPrice) {
+                        toPrice.add(card);
                     }
-                } catch (NumberFormatException | IndexOutOfBoundsException e) {
-                    // This card line is junk, ignore it
                 }
             }
+            loadPrices(toPrice);
         } catch (FileNotFoundException e) {
             /* Do nothing, the autosave doesn't exist */
         } catch (IOException e) {
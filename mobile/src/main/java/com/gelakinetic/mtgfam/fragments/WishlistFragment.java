@@ -20,11 +20,11 @@
 package com.gelakinetic.mtgfam.fragments;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.text.Html;
+import android.util.Pair;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -57,8 +57,8 @@ import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
 
 /**
@@ -144,7 +144,12 @@ public class WishlistFragment extends FamiliarListFragment {
             return;
         }
 
-        MtgCard card = CardHelpers.makeMtgCard(getContext(), name, null, checkboxFoilIsChecked(), Integer.parseInt(numberOf));
+        MtgCard card = CardHelpers.makeMtgCard(getContext(), name, null, checkboxFoilIsChecked(),
+                Integer.parseInt(numberOf), pickedName -> {
+                    /* Add the card the user meant instead */
+                    setCardNameInput(pickedName);
+                    addCardToWishlist();
+                });
         if (card == null) {
             return;
         }
@@ -215,23 +220,27 @@ public class WishlistFragment extends FamiliarListFragment {
         try {
             SQLiteDatabase database = DatabaseManager.getInstance(getActivity(), false).openDatabase(false);
             boolean cardNumberFixed = false;
+
+            /* Look up every card in the wishlist at once */
+            ArrayList<Pair<String, String>> keys = new ArrayList<>(wishlist.size());
+            for (MtgCard card : wishlist) {
+                keys.add(new Pair<>(card.mName, card.mExpansion));
+            }
+            HashMap<Pair<String, String>, MtgCard> resolved = CardDbAdapter.resolveCards(keys, database);
+
             /* Translate the set code to tcg name, of course it's not saved */
             for (MtgCard card : wishlist) {
-                card.mSetName = CardDbAdapter.getSetNameFromCode(card.mExpansion, database);
-
-                /* If the number is empty because of a prior bug, get it from the database */
-                if (card.mNumber.equals("")) {
-                    Cursor numberCursor = CardDbAdapter.fetchCardByName(card.mName, Arrays.asList(CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CODE), false, database);
-                    numberCursor.moveToFirst();
-                    while (!numberCursor.isAfterLast()) {
-                        if (card.mExpansion.equals(numberCursor.getString(numberCursor.getColumnIndex(CardDbAdapter.KEY_CODE)))) {
-                            card.mNumber = numberCursor.getString(numberCursor.getColumnIndex(CardDbAdapter.KEY_NUMBER));
-                            cardNumberFixed = true;
-                            break;
-                        }
-                        numberCursor.moveToNext();
+                MtgCard dbCard = resolved.get(new Pair<>(card.mName, card.mExpansion));
+                if (dbCard != null) {
+                    card.mSetName = dbCard.mSetName;
+
+                    /* If the number is empty because of a prior bug, get it from the database */
+                    if (card.mNumber.equals("")) {
+                        card.mNumber = dbCard.mNumber;
+                        cardNumberFixed = true;
                     }
-                    numberCursor.close();
+                } else {
+                    card.mSetName = CardDbAdapter.getSetNameFromCode(card.mExpansion, database);
                 }
             }
 
@@ -247,6 +256,7 @@ public class WishlistFragment extends FamiliarListFragment {
             }
 
             /* Compress the whole wishlist, or just the card that changed */
+            ArrayList<MtgCard> toPrice = new ArrayList<>();
             for (MtgCard card : wishlist) {
                 if (changedCardName == null || changedCardName.equals(card.mName)) {
                     /* This works because both MtgCard's and CompressedWishlistInfo's .equals() can compare each
@@ -259,11 +269,14 @@ public class WishlistFragment extends FamiliarListFragment {
                     }
                     /* Look up the new price */
                     if (mShowIndividualPrices || shouldShowPrice()) {
-                        loadPrice(card);
+                        toPrice.add(card);
                     }
                 }
             }
 
+            /* Look up the new prices all at once */
+            loadPrices(toPrice);
+
             /* Check for wholly removed cards if one card was modified */
             if (changedCardName != null) {
                 for (int i = 0; i < mCompressedWishlist.size(); i++) {
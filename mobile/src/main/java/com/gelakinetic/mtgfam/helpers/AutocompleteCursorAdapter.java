@@ -20,14 +20,14 @@
 package com.gelakinetic.mtgfam.helpers;
 
 import android.app.SearchManager;
+import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Bundle;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AutoCompleteTextView;
@@ -36,16 +36,35 @@ import android.widget.SimpleCursorAdapter;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.fragments.FamiliarFragment;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardNameIndex;
 import com.gelakinetic.mtgfam.helpers.database.CardSearchProvider;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.concurrent.RejectedExecutionException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 
 /**
- * This cursor adapter provides suggestions for card names directly from the database
+ * This cursor adapter provides suggestions for card names from the in-memory CardNameIndex, or directly from the
+ * database while the index is being built.
+ *
+ * Text changes go through an RxJava pipeline. Queries wait for a short pause in typing, run on a background thread,
+ * and a new query cancels the one before it. Results for anything other than the current text are closed rather
+ * than shown.
  */
-public class AutocompleteCursorAdapter extends SimpleCursorAdapter implements LoaderManager.LoaderCallbacks<Cursor> {
+public class AutocompleteCursorAdapter extends SimpleCursorAdapter {
+
+    private static final String TAG = "Autocomplete";
+
+    /* How long typing has to pause before a query is run */
+    private static final long DEBOUNCE_MS = 100;
 
     private static final String[] CARD_NAME_PROJECTION = new String[]{
             CardDbAdapter.KEY_ID,
@@ -53,9 +72,24 @@ public class AutocompleteCursorAdapter extends SimpleCursorAdapter implements Lo
     };
     private static final Uri SEARCH_URI =
             Uri.parse("content://" + CardSearchProvider.AUTHORITY + "/" + SearchManager.SUGGEST_URI_PATH_QUERY);
-    private final String[] mAutocompleteFilter = new String[1];
+
+    /* Results are shown on the UI thread */
+    private static final Handler UI_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Scheduler UI_THREAD = Schedulers.from(UI_HANDLER::post);
+
+    /* Metrics, for every autocomplete field */
+    private static final AtomicLong mTextChanges = new AtomicLong();
+    private static final AtomicLong mQueriesRun = new AtomicLong();
+    private static final AtomicLong mQueriesDropped = new AtomicLong();
+    private static final AtomicLong mTotalLatencyNanos = new AtomicLong();
+    private static final AtomicLong mMaxLatencyNanos = new AtomicLong();
 
     private final FamiliarFragment mFragment;
+    private final Context mContext;
+    private final PublishSubject<String> mQueries = PublishSubject.create();
+    private Disposable mPipeline = null;
+    /* The text in the field now. Only touched on the UI thread */
+    private String mCurrentText = null;
 
     /**
      * Standard constructor.
@@ -71,7 +105,7 @@ public class AutocompleteCursorAdapter extends SimpleCursorAdapter implements Lo
     public AutocompleteCursorAdapter(FamiliarFragment context, String[] from, int[] to, AutoCompleteTextView textView, boolean showArrowhead) {
         super(context.getActivity(), showArrowhead ? R.layout.list_item_1_arrowhead : R.layout.list_item_1, null, from, to, 0);
         mFragment = context;
-        mFragment.getLoaderManager().initLoader(0, null, this);
+        mContext = context.getActivity().getApplicationContext();
         textView.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence charSequence, int i, int i2, int i3) {
@@ -85,42 +119,114 @@ public class AutocompleteCursorAdapter extends SimpleCursorAdapter implements Lo
 
             @Override
             public void afterTextChanged(Editable editable) {
-                /* Preform a query */
-                mAutocompleteFilter[0] = String.valueOf(editable);
-                try {
-                    mFragment.getLoaderManager().restartLoader(0, null, AutocompleteCursorAdapter.this);
-                } catch (RejectedExecutionException e) {
-                    // Autocomplete broke, but at least it won't take down the whole app
-                }
+                /* Preform a query, once the typing pauses */
+                mCurrentText = String.valueOf(editable);
+                mTextChanges.incrementAndGet();
+                mQueries.onNext(mCurrentText);
+            }
+        });
+
+        /* Only run queries while the field is on screen */
+        textView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View view) {
+                startPipeline();
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View view) {
+                stopPipeline();
             }
         });
+        startPipeline();
+    }
+
+    /**
+     * Start handling text changes, if they aren't being handled already
+     */
+    private void startPipeline() {
+        if (mPipeline != null && !mPipeline.isDisposed()) {
+            return;
+        }
+        mPipeline = mQueries
+                .debounce(DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                .switchMap(this::runQuery)
+                .observeOn(UI_THREAD)
+                .subscribe(this::showResult, throwable -> Log.w(TAG, "Autocomplete stopped", throwable));
+    }
+
+    /**
+     * Stop handling text changes. Any query in flight is cancelled and its cursor closed
+     */
+    private void stopPipeline() {
+        if (mPipeline != null) {
+            mPipeline.dispose();
+            mPipeline = null;
+            Log.i(TAG, getMetrics());
+        }
     }
 
     /**
-     * Instantiate and return a new Loader for the given ID.
+     * Make an Observable which queries for a name on a background thread. It never completes, since completing would
+     * close the cursor before it is shown. Instead, switchMap() disposes it when the next query starts.
      *
-     * @param id   The ID whose loader is to be created.
-     * @param args Any arguments supplied by the caller.
-     * @return Return a new Loader instance that is ready to start loading.
+     * @param text The text to find names for
+     * @return An Observable which emits the single result of the query
      */
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        /* Now create and return a CursorLoader that will take care of creating a Cursor for the data being displayed.
-         */
-        String select = "(" + CardDbAdapter.KEY_NAME + ")";
-        return new CursorLoader(mFragment.getActivity(), SEARCH_URI, CARD_NAME_PROJECTION, select, mAutocompleteFilter,
-                CardDbAdapter.KEY_NAME + " COLLATE LOCALIZED ASC");
+    private Observable<QueryResult> runQuery(String text) {
+        return Observable.<QueryResult>create(emitter -> {
+            mQueriesRun.incrementAndGet();
+            QueryResult result = new QueryResult(text);
+            emitter.setCancellable(result::discard);
+            result.setCursor(query(text));
+            emitter.onNext(result);
+        }).subscribeOn(Schedulers.io());
     }
 
     /**
-     * Called when a previously created loader has finished its load.
+     * Find the names which start with some text, from the name index if it's ready, otherwise from the database.
      *
-     * @param loader The Loader that has finished.
-     * @param data   The data generated by the Loader.
+     * @param text The text to find names for
+     * @return A cursor of names, or null if there was a problem
      */
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    private Cursor query(String text) {
+        CardNameIndex index = CardNameIndex.getIndex(mContext);
+        if (index != null) {
+            return index.query(text);
+        }
+        try {
+            String select = "(" + CardDbAdapter.KEY_NAME + ")";
+            return mContext.getContentResolver().query(SEARCH_URI, CARD_NAME_PROJECTION, select, new String[]{text},
+                    CardDbAdapter.KEY_NAME + " COLLATE LOCALIZED ASC");
+        } catch (RuntimeException e) {
+            /* Autocomplete broke, but at least it won't take down the whole app */
+            return null;
+        }
+    }
+
+    /**
+     * Show a query's result, on the UI thread, unless the text has changed since the query was made.
+     *
+     * @param result The result of a query
+     */
+    private void showResult(QueryResult result) {
+        if (!result.mText.equals(mCurrentText)) {
+            result.discard();
+            return;
+        }
+        if (!result.claim()) {
+            return;
+        }
+
+        long latency = System.nanoTime() - result.mStartNanos;
+        mTotalLatencyNanos.addAndGet(latency);
+        long max;
+        do {
+            max = mMaxLatencyNanos.get();
+        } while (latency > max && !mMaxLatencyNanos.compareAndSet(max, latency));
+
         try {
+            Cursor data = result.mCursor;
             Cursor old;
             if (data != null && data.isClosed()) {
                 old = this.swapCursor(null);
@@ -137,13 +243,74 @@ public class AutocompleteCursorAdapter extends SimpleCursorAdapter implements Lo
     }
 
     /**
-     * Called when a previously created loader is being reset, and thus making its data unavailable.
-     *
-     * @param loader The Loader that is being reset.
+     * @return A summary of how autocomplete has performed, for logging
      */
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        this.swapCursor(null);
+    public static String getMetrics() {
+        long shown = mQueriesRun.get() - mQueriesDropped.get();
+        return String.format(Locale.US,
+                "autocomplete: %d text changes, %d queries run, %d dropped, %.1fms average latency, %.1fms max",
+                mTextChanges.get(), mQueriesRun.get(), mQueriesDropped.get(),
+                (shown > 0) ? mTotalLatencyNanos.get() / (shown * 1e6) : 0.0,
+                mMaxLatencyNanos.get() / 1e6);
+    }
+
+    /**
+     * The cursor from one query. It is either claimed to be shown, or discarded and closed, whichever happens first
+     */
+    private static class QueryResult {
+        final String mText;
+        final long mStartNanos = System.nanoTime();
+        Cursor mCursor = null;
+        private boolean mClaimed = false;
+        private boolean mDiscarded = false;
+
+        /**
+         * Constructor.
+         *
+         * @param text The text which was queried
+         */
+        QueryResult(String text) {
+            mText = text;
+        }
+
+        /**
+         * @param cursor The query's cursor. It is closed right away if this result has already been discarded
+         */
+        synchronized void setCursor(Cursor cursor) {
+            if (mDiscarded) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            } else {
+                mCursor = cursor;
+            }
+        }
+
+        /**
+         * @return true if the cursor can be shown, false if it was already discarded
+         */
+        synchronized boolean claim() {
+            if (mDiscarded) {
+                return false;
+            }
+            mClaimed = true;
+            return true;
+        }
+
+        /**
+         * Throw away this result, unless it was already claimed. Called when the query is cancelled or stale
+         */
+        synchronized void discard() {
+            if (mClaimed || mDiscarded) {
+                return;
+            }
+            mDiscarded = true;
+            mQueriesDropped.incrementAndGet();
+            if (mCursor != null) {
+                mCursor.close();
+                mCursor = null;
+            }
+        }
     }
 
     /**
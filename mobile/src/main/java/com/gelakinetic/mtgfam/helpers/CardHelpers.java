@@ -45,6 +45,7 @@ import com.gelakinetic.mtgfam.fragments.TradeFragment;
 import com.gelakinetic.mtgfam.fragments.WishlistFragment;
 import com.gelakinetic.mtgfam.helpers.DecklistHelpers.CompressedDecklistInfo;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardNameIndex;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
@@ -628,6 +629,19 @@ public class CardHelpers {
 
     }
 
+    /**
+     * Called with the card name the user picked, when the name they typed didn't match a card
+     */
+    public interface OnCardNamePickedListener {
+        /**
+         * @param cardName The exact name of the card the user meant
+         */
+        void onCardNamePicked(String cardName);
+    }
+
+    /* How many names to suggest when the name typed didn't match a card */
+    private static final int MAX_NAME_SUGGESTIONS = 5;
+
     /**
      * Construct a MtgCard based on the given parameters.
      *
@@ -644,6 +658,28 @@ public class CardHelpers {
             String cardSet,
             boolean isFoil,
             int numberOf) {
+        return makeMtgCard(context, cardName, cardSet, isFoil, numberOf, null);
+    }
+
+    /**
+     * Construct a MtgCard based on the given parameters. If no set is given and the name doesn't match a card, the
+     * user is shown the closest card names to pick from, and nothing is made.
+     *
+     * @param context          context the method is being called from
+     * @param cardName         name of the card to make
+     * @param cardSet          set code of the card to make
+     * @param isFoil           if the card is foil or not
+     * @param numberOf         how many copies of the card are needed
+     * @param onCardNamePicked told which name the user picked from the suggestions, or null to not suggest any
+     * @return an MtgCard made based on the given parameters, or null if no card matched
+     */
+    public static MtgCard makeMtgCard(
+            Context context,
+            String cardName,
+            String cardSet,
+            boolean isFoil,
+            int numberOf,
+            final OnCardNamePickedListener onCardNamePicked) {
 
         FamiliarActivity activity = (FamiliarActivity) context;
         try {
@@ -676,11 +712,30 @@ public class CardHelpers {
             if (cardSet == null) {
                 cardCursor = CardDbAdapter.fetchCardByName(cardName, fields, true, database);
 
-                /* Make sure at least one card was found */
+                /* Make sure at least one card was found. If the name was mistyped, ask which card was meant */
                 if (cardCursor.getCount() == 0) {
-                    ToastWrapper.makeAndShowText(activity, R.string.toast_no_card,
-                            ToastWrapper.LENGTH_LONG);
+                    cardCursor.close();
                     DatabaseManager.getInstance(activity, false).closeDatabase(false);
+                    CardNameIndex index = CardNameIndex.getIndex(activity);
+                    List<String> similar = (index == null || onCardNamePicked == null) ? null :
+                            index.findSimilar(cardName, MAX_NAME_SUGGESTIONS);
+                    if (similar != null && !similar.isEmpty()) {
+                        new MaterialDialog.Builder(activity)
+                                .title(R.string.dialog_did_you_mean)
+                                .items(similar)
+                                .itemsCallback(new MaterialDialog.ListCallback() {
+                                    @Override
+                                    public void onSelection(MaterialDialog dialog, View itemView, int position,
+                                                            CharSequence text) {
+                                        onCardNamePicked.onCardNamePicked(text.toString());
+                                    }
+                                })
+                                .negativeText(R.string.dialog_cancel)
+                                .show();
+                    } else {
+                        ToastWrapper.makeAndShowText(activity, R.string.toast_no_card,
+                                ToastWrapper.LENGTH_LONG);
+                    }
                     return null;
                 }
                 /* If we don't specify the set, and we are trying to find a foil card, choose the
@@ -164,6 +164,7 @@ public class LookupAllPricesTest extends AsyncTask<FamiliarActivity, Void, Void>
         } else {
             Log.d(DAPT_TAG, totalSuccess + " successes (avg " + (totalElapsedSuccess / (double) totalSuccess) + "ms)");
             Log.d(DAPT_TAG, totalFailure + " failures (avg " + (totalElapsedFailure / (double) totalFailure) + "ms)");
+            Log.d(DAPT_TAG, "Price " + fetcher.getMetrics());
             DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
         }
 
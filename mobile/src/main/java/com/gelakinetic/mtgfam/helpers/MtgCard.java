@@ -20,8 +20,8 @@
 package com.gelakinetic.mtgfam.helpers;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Pair;
 
 import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.mtgfam.R;
@@ -33,7 +33,8 @@ import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -141,20 +142,88 @@ public class MtgCard extends Card {
     }
 
     /**
-     * Static method to construct a MtgCard from a trade list line
+     * Static method to construct MtgCards from trade list lines. All of the cards are looked up in
+     * the database together. Lines which can't be parsed are skipped.
      *
-     * @param line    A String representation of a MtgCard
+     * @param lines   String representations of MtgCards
      * @param context The context for database access
-     * @return An initialized MtgCard
+     * @return A list of initialized MtgCards
      */
-    public static MtgCard fromTradeString(String line, Context context) {
+    public static ArrayList<MtgCard> fromTradeStrings(List<String> lines, Context context) {
 
-        SQLiteDatabase database = null;
+        DatabaseManager.Lease lease = null;
         try {
-            database = DatabaseManager.getInstance(context, false).openDatabase(false);
+            lease = DatabaseManager.lease(context, false);
         } catch (FamiliarDbException e) {
             /* Carry on without the database */
         }
+        try {
+            SQLiteDatabase database = (lease == null) ? null : lease.getDatabase();
+
+            ArrayList<MtgCard> cards = new ArrayList<>(lines.size());
+            ArrayList<Pair<String, String>> keys = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                try {
+                    MtgCard card = fromTradeString(line, database);
+                    cards.add(card);
+                    keys.add(new Pair<>(card.mName, card.mExpansion));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    /* This card line is junk, ignore it */
+                }
+            }
+
+            /* Pull everything the trade lines don't store from the db */
+            HashMap<Pair<String, String>, MtgCard> resolved = null;
+            try {
+                if (database != null) {
+                    resolved = CardDbAdapter.resolveCards(keys, database);
+                }
+            } catch (FamiliarDbException e) {
+                /* Leave the set names null */
+            }
+
+            String loading = context.getString(R.string.wishlist_loading);
+            for (MtgCard card : cards) {
+                if (resolved != null) {
+                    MtgCard dbCard = resolved.get(new Pair<>(card.mName, card.mExpansion));
+                    if (dbCard != null) {
+                        card.mSetName = dbCard.mSetName;
+                        if (card.mColor == null) {
+                            card.mCmc = dbCard.mCmc;
+                            card.mColor = dbCard.mColor;
+                        }
+                    } else {
+                        try {
+                            card.mSetName = CardDbAdapter.getSetNameFromCode(card.mExpansion, database);
+                        } catch (FamiliarDbException e) {
+                            card.mSetName = null;
+                        }
+                    }
+                }
+                if (card.mColor == null) {
+                    card.mCmc = 0;
+                    card.mColor = "";
+                }
+                card.mMessage = loading;
+            }
+            return cards;
+        } finally {
+            /* The lease is returned even if a line or the database throws something unexpected */
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * Helper method to parse a MtgCard from a trade list line. If the line doesn't include the
+     * card's cmc and color, mColor is left null so it can be filled from the database.
+     *
+     * @param line     A String representation of a MtgCard
+     * @param database The database to correct old set codes with, may be null
+     * @return A MtgCard with the information from the line
+     */
+    private static MtgCard fromTradeString(String line, SQLiteDatabase database) {
 
         MtgCard card = new MtgCard();
         String[] parts = line.split(DELIMITER);
@@ -187,27 +256,9 @@ public class MtgCard extends Card {
             card.mCmc = Integer.parseInt(parts[7]);
             card.mColor = parts[8];
         } else {
-            /* Pull from db */
-            try {
-                Cursor cardCursor = CardDbAdapter.fetchCardByName(card.mName, Arrays.asList(
-                        CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_CMC,
-                        CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_COLOR), true, database);
-                card.mCmc = cardCursor.getInt(cardCursor.getColumnIndex(CardDbAdapter.KEY_CMC));
-                card.mColor = cardCursor.getString(cardCursor.getColumnIndex(CardDbAdapter.KEY_COLOR));
-            } catch (FamiliarDbException | NullPointerException e) {
-                card.mCmc = 0;
-                card.mColor = "";
-            }
-        }
-
-        /* Defaults regardless */
-        try {
-            card.mSetName = CardDbAdapter.getSetNameFromCode(card.mExpansion, database);
-        } catch (FamiliarDbException | NullPointerException e) {
-            card.mSetName = null;
+            /* Pulled from the db later */
+            card.mColor = null;
         }
-        DatabaseManager.getInstance(context, false).closeDatabase(false);
-        card.mMessage = context.getString(R.string.wishlist_loading);
         return card;
     }
 
@@ -275,13 +326,11 @@ public class MtgCard extends Card {
 
         /* Correct the mExpansion code for Duel Deck Anthologies */
         if (newCard.mExpansion.equals("DD3")) {
-            try {
-                SQLiteDatabase database = DatabaseManager.getInstance(mCtx, false).openDatabase(false);
-                newCard.mExpansion = CardDbAdapter.getCorrectSetCode(newCard.mName, newCard.mExpansion, database);
+            try (DatabaseManager.Lease lease = DatabaseManager.lease(mCtx, false)) {
+                newCard.mExpansion = CardDbAdapter.getCorrectSetCode(newCard.mName, newCard.mExpansion, lease.getDatabase());
             } catch (FamiliarDbException e) {
                 /* Eat it and use the old mExpansion code. */
             }
-            DatabaseManager.getInstance(mCtx, false).closeDatabase(false);
         }
         newCard.mNumberOf = Integer.parseInt(parts[2]);
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+/**
+ * Replaces Latin-1 letters with accent marks by the plain letters, the way card names are stored in
+ * KEY_NAME_NO_ACCENT. Every accented letter is below 0x100, so a dense table indexed by char does the lookup, and a
+ * string with nothing to replace is returned as is, without copying.
+ *
+ * This doesn't use any Android classes, so it can be tested and benchmarked on a desktop JVM.
+ */
+public final class AccentFolder {
+
+    /* Every letter which gets replaced is at least this, and below TABLE_SIZE. Anything else, like ASCII, is kept */
+    private static final char FIRST_ACCENTED = 0xC0;
+    private static final int TABLE_SIZE = 0x100;
+
+    /* Each char below TABLE_SIZE, mapped to itself or to the plain letter which replaces it. The ligatures 0xC6 and
+     * 0xE6 are left alone
+     */
+    private static final char[] FOLDING = new char[TABLE_SIZE];
+
+    static {
+        for (char c = 0; c < TABLE_SIZE; c++) {
+            FOLDING[c] = c;
+        }
+        fold("\u00C0\u00C1\u00C2\u00C3\u00C4\u00C5", 'A');
+        fold("\u00C7", 'C');
+        fold("\u00C8\u00C9\u00CA\u00CB", 'E');
+        fold("\u00CC\u00CD\u00CE\u00CF", 'I');
+        fold("\u00D0", 'D');
+        fold("\u00D1", 'N');
+        fold("\u00D2\u00D3\u00D4\u00D5\u00D6\u00D8", 'O');
+        fold("\u00D7", 'x');
+        fold("\u00D9\u00DA\u00DB\u00DC", 'U');
+        fold("\u00DD", 'Y');
+        fold("\u00E0\u00E1\u00E2\u00E3\u00E4\u00E5", 'a');
+        fold("\u00E7", 'c');
+        fold("\u00E8\u00E9\u00EA\u00EB", 'e');
+        fold("\u00EC\u00ED\u00EE\u00EF", 'i');
+        fold("\u00F1", 'n');
+        fold("\u00F2\u00F3\u00F4\u00F5\u00F6\u00F8", 'o');
+        fold("\u00F9\u00FA\u00FB\u00FC", 'u');
+        fold("\u00FD\u00FF", 'y');
+    }
+
+    /**
+     * Fill in the table.
+     *
+     * @param accented    Letters with accent marks
+     * @param replacement The plain letter to replace them all with
+     */
+    private static void fold(String accented, char replacement) {
+        for (int i = 0; i < accented.length(); i++) {
+            FOLDING[accented.charAt(i)] = replacement;
+        }
+    }
+
+    private AccentFolder() {
+        /* Only static methods */
+    }
+
+    /**
+     * Remove accent marks from a string.
+     *
+     * @param str The string to remove accent marks from
+     * @return The string without accent marks. If it had none, this is the same object
+     */
+    public static String removeAccentMarks(String str) {
+        /* Find the first letter to replace. Most card names don't have one */
+        int length = str.length();
+        int first = 0;
+        while (first < length && !needsFolding(str.charAt(first))) {
+            first++;
+        }
+        if (first == length) {
+            return str;
+        }
+
+        char[] folded = str.toCharArray();
+        for (int i = first; i < length; i++) {
+            char c = folded[i];
+            if (c < TABLE_SIZE) {
+                folded[i] = FOLDING[c];
+            }
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Remove accent marks from a string, appending the result to a builder. A builder which is reused for many
+     * strings saves allocating a buffer for each of them.
+     *
+     * @param str The string to remove accent marks from
+     * @param out The builder to append to
+     * @return The builder
+     */
+    public static StringBuilder removeAccentMarks(CharSequence str, StringBuilder out) {
+        int length = str.length();
+        out.ensureCapacity(out.length() + length);
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            out.append(c < TABLE_SIZE ? FOLDING[c] : c);
+        }
+        return out;
+    }
+
+    /**
+     * @param c A char
+     * @return true if the char is a letter with accent marks which gets replaced
+     */
+    private static boolean needsFolding(char c) {
+        return c >= FIRST_ACCENTED && c < TABLE_SIZE && FOLDING[c] != c;
+    }
+}
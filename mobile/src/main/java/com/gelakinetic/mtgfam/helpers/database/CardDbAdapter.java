@@ -26,16 +26,22 @@ import android.content.res.Resources.NotFoundException;
 import android.database.Cursor;
 import android.database.CursorIndexOutOfBoundsException;
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
 
 import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
 import com.gelakinetic.GathererScraper.Language;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.CardHelpers.CompressedCardInfo;
+import com.gelakinetic.mtgfam.helpers.MtgCard;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.gelakinetic.mtgfam.helpers.SearchCriteria;
 
@@ -44,6 +50,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -61,6 +68,12 @@ public class CardDbAdapter {
     /* Database version. Must be incremented whenever datagz is updated */
     public static final int DATABASE_VERSION = 86;
 
+    /* Schema version, which DatabaseHelper.onUpgrade() migrates the database to. Must be incremented whenever the
+     * schema changes, and never be less than DATABASE_VERSION. Changing the schema doesn't need a new datagz, so
+     * an installed database, and every set the updater added to it, is migrated in place
+     */
+    public static final int DATABASE_SCHEMA_VERSION = 93;
+
     /* The name of the database */
     public static final String DATABASE_NAME = "data";
 
@@ -72,6 +85,10 @@ public class CardDbAdapter {
     private static final String DATABASE_TABLE_BANNED_CARDS = "banned_cards";
     private static final String DATABASE_TABLE_RULES = "rules";
     private static final String DATABASE_TABLE_GLOSSARY = "glossary";
+    private static final String DATABASE_TABLE_CARDS_FTS = "cards_fts";
+    private static final String DATABASE_TABLE_CARD_TYPES = "card_types";
+    private static final String DATABASE_TABLE_CARD_LEGALITY = "card_legality";
+    private static final String DATABASE_TABLE_TCG_PRODUCT = "tcg_product";
 
     /* Database Keys */
     public static final String KEY_ID = "_id";
@@ -111,6 +128,14 @@ public class CardDbAdapter {
     private static final String KEY_COLOR_IDENTITY = "color_identity";
     private static final String KEY_CAN_BE_FOIL = "can_be_foil";
     private static final String KEY_NAME_NO_ACCENT = "name_no_accent";
+    private static final String KEY_COLOR_MASK = "color_mask";
+    private static final String KEY_COLOR_IDENTITY_MASK = "color_identity_mask";
+    private static final String KEY_CARD_ID = "card_id";
+    private static final String KEY_KIND = "kind";
+    private static final String KEY_TOKEN = "token";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_PRODUCT_ID = "product_id";
+    private static final String KEY_SET_NAME = "set_name";
     public static final String KEY_NAME_CHINESE_TRADITIONAL = "NAME_CHINESE_TRADITIONAL";
     public static final String KEY_MULTIVERSEID_CHINESE_TRADITIONAL = "MULTIVERSEID_CHINESE_TRADITIONAL";
     public static final String KEY_NAME_CHINESE_SIMPLIFIED = "NAME_CHINESE_SIMPLIFIED";
@@ -209,6 +234,44 @@ public class CardDbAdapter {
                     KEY_LEGALITY + " integer not null, " +
                     KEY_FORMAT + " text not null);";
 
+    /* The BANNED or RESTRICTED status of each card in each format, computed from the other legality
+     * tables by rebuildCardLegality(). Cards which are LEGAL in a format don't have a row
+     */
+    private static final String DATABASE_CREATE_CARD_LEGALITY =
+            "create table " + DATABASE_TABLE_CARD_LEGALITY + "(" +
+                    KEY_NAME_NO_ACCENT + " text not null, " +
+                    KEY_FORMAT + " text not null, " +
+                    KEY_STATUS + " integer not null);";
+
+    private static final String DATABASE_CREATE_CARD_LEGALITY_INDEX =
+            "create unique index " + DATABASE_TABLE_CARD_LEGALITY + "_index on " +
+                    DATABASE_TABLE_CARD_LEGALITY + "(" +
+                    KEY_NAME_NO_ACCENT + ", " +
+                    KEY_FORMAT + ");";
+
+    /* Each printing's TCGplayer.com productId, so prices can be fetched without searching for the product first.
+     * This isn't card data, it's filled in as prices are fetched and from patches, so it is kept when the other
+     * tables are rebuilt
+     */
+    private static final String DATABASE_CREATE_TCG_PRODUCT =
+            "create table if not exists " + DATABASE_TABLE_TCG_PRODUCT + "(" +
+                    KEY_NAME + " text not null, " +
+                    KEY_SET + " text not null, " +
+                    KEY_NUMBER + " text not null, " +
+                    KEY_PRODUCT_ID + " integer not null);";
+
+    private static final String DATABASE_CREATE_TCG_PRODUCT_INDEX =
+            "create unique index if not exists " + DATABASE_TABLE_TCG_PRODUCT + "_index on " +
+                    DATABASE_TABLE_TCG_PRODUCT + "(" +
+                    KEY_SET + ", " +
+                    KEY_NAME + ", " +
+                    KEY_NUMBER + ");";
+
+    private static final String INSERT_TCG_PRODUCT =
+            "INSERT OR REPLACE INTO " + DATABASE_TABLE_TCG_PRODUCT + " (" +
+                    KEY_NAME + ", " + KEY_SET + ", " + KEY_NUMBER + ", " + KEY_PRODUCT_ID + ")" +
+                    " VALUES (?, ?, ?, ?)";
+
     private static final String DATABASE_CREATE_GLOSSARY =
             "create table " + DATABASE_TABLE_GLOSSARY + "(" +
                     KEY_ID + " integer primary key autoincrement, " +
@@ -257,7 +320,9 @@ public class CardDbAdapter {
                     KEY_NAME_SPANISH + " text, " +
                     KEY_MULTIVERSEID_SPANISH + " integer, " +
                     KEY_NAME_KOREAN + " text, " +
-                    KEY_MULTIVERSEID_KOREAN + " integer);";
+                    KEY_MULTIVERSEID_KOREAN + " integer, " +
+                    KEY_COLOR_MASK + " integer, " +
+                    KEY_COLOR_IDENTITY_MASK + " integer);";
 
     static final String DATABASE_CREATE_SETS =
             "create table " + DATABASE_TABLE_SETS + "(" +
@@ -270,6 +335,63 @@ public class CardDbAdapter {
                     KEY_CAN_BE_FOIL + " integer, " +
                     KEY_DATE + " integer);";
 
+    /* The full-text index for DATABASE_TABLE_CARDS. Each row's docid is the card's KEY_ID */
+    private static final String DATABASE_CREATE_CARDS_FTS =
+            "create virtual table " + DATABASE_TABLE_CARDS_FTS + " using fts4(" +
+                    KEY_NAME_NO_ACCENT + ", " +
+                    KEY_ABILITY + ", " +
+                    KEY_FLAVOR + ", " +
+                    KEY_ARTIST + ");";
+
+    /* Each word of each card's KEY_SUPERTYPE and KEY_SUBTYPE, one per row. KEY_KIND is the column
+     * the word came from. Tokens compare without case, like the LIKE matching they replace
+     */
+    private static final String DATABASE_CREATE_CARD_TYPES =
+            "create table " + DATABASE_TABLE_CARD_TYPES + "(" +
+                    KEY_CARD_ID + " integer not null, " +
+                    KEY_KIND + " text not null, " +
+                    KEY_TOKEN + " text not null collate nocase);";
+
+    /* Indexes for the ways DATABASE_TABLE_CARDS is looked up. The name index is NOCASE so that it
+     * serves both "= ? COLLATE NOCASE" and prefix LIKE queries, and it covers the set and multiverse
+     * ID so those lookups never touch the table
+     */
+    private static final String[] DATABASE_CREATE_CARDS_INDICES = {
+            "create index if not exists " + DATABASE_TABLE_CARDS + "_" + KEY_NAME_NO_ACCENT + "_index on " +
+                    DATABASE_TABLE_CARDS + "(" +
+                    KEY_NAME_NO_ACCENT + " collate nocase, " +
+                    KEY_SET + ", " +
+                    KEY_MULTIVERSEID + ");",
+            "create index if not exists " + DATABASE_TABLE_CARDS + "_" + KEY_NAME + "_index on " +
+                    DATABASE_TABLE_CARDS + "(" +
+                    KEY_NAME + ", " +
+                    KEY_SET + ");",
+            "create index if not exists " + DATABASE_TABLE_CARDS + "_" + KEY_SET + "_index on " +
+                    DATABASE_TABLE_CARDS + "(" +
+                    KEY_SET + ", " +
+                    KEY_NUMBER + ");",
+            "create index if not exists " + DATABASE_TABLE_CARDS + "_" + KEY_MULTIVERSEID + "_index on " +
+                    DATABASE_TABLE_CARDS + "(" +
+                    KEY_MULTIVERSEID + ");",
+            "create index if not exists " + DATABASE_TABLE_CARD_TYPES + "_" + KEY_TOKEN + "_index on " +
+                    DATABASE_TABLE_CARD_TYPES + "(" +
+                    KEY_KIND + ", " +
+                    KEY_TOKEN + ", " +
+                    KEY_CARD_ID + ");",
+            "create index if not exists " + DATABASE_TABLE_CARD_TYPES + "_" + KEY_CARD_ID + "_index on " +
+                    DATABASE_TABLE_CARD_TYPES + "(" +
+                    KEY_CARD_ID + ");"
+    };
+
+    /* Indexes which older versions created, and which are no longer used. Colors are searched with
+     * bitwise ANDs on the masks, which no index can answer, so the mask indexes only slowed down
+     * inserts
+     */
+    private static final String[] DATABASE_DROP_CARDS_INDICES = {
+            "drop index if exists " + DATABASE_TABLE_CARDS + "_" + KEY_COLOR_MASK + "_index;",
+            "drop index if exists " + DATABASE_TABLE_CARDS + "_" + KEY_COLOR_IDENTITY_MASK + "_index;"
+    };
+
     private static final String DATABASE_CREATE_RULES =
             "create table " + DATABASE_TABLE_RULES + "(" +
                     KEY_ID + " integer primary key autoincrement, " +
@@ -302,6 +424,17 @@ public class CardDbAdapter {
 
     public static final String ILLEGAL_SETS[] = {"UG", "UNH", "UST", "ARS", "PCP", "PP2"};
 
+    /* The buffer size for inflating the packaged database */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /* The most arguments to bind in one query. SQLite won't bind more than 999 */
+    private static final int MAX_BOUND_ARGS = 500;
+
+    /* ILLEGAL_SETS as a list of SQL strings, for use in an IN clause. Built without TextUtils, so loading this class
+     * doesn't need Android
+     */
+    private static final String ILLEGAL_SETS_SQL = buildIllegalSetsSql();
+
     /* The various types of multi-cards */
     public enum MultiCardType {
         NOPE,
@@ -310,6 +443,13 @@ public class CardDbAdapter {
         SPLIT,
     }
 
+    /* The colors which have a bit in KEY_COLOR_MASK and KEY_COLOR_IDENTITY_MASK, in bit order */
+    private static final String MASK_COLORS = "WUBRG";
+
+    /* The bit in KEY_COLOR_MASK for colorless cards, whose KEY_COLOR is just 'C', 'L' or 'A' */
+    private static final int MASK_COLORLESS = 1 << MASK_COLORS.length();
+    private static final String COLORLESS_CHARS = "CLA";
+
     /* Used to search for NOT a string, rather than that string */
     public static final String EXCLUDE_TOKEN = "!";
     private static final int EXCLUDE_TOKEN_START = 1;
@@ -336,23 +476,34 @@ public class CardDbAdapter {
             sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
             sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
             sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARD_LEGALITY);
             sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_RULES);
             sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_GLOSSARY);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARDS_FTS);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARD_TYPES);
 
             sqLiteDatabase.execSQL(DATABASE_CREATE_CARDS);
+            sqLiteDatabase.execSQL(DATABASE_CREATE_CARDS_FTS);
+            sqLiteDatabase.execSQL(DATABASE_CREATE_CARD_TYPES);
+            createCardsIndices(sqLiteDatabase);
             sqLiteDatabase.execSQL(DATABASE_CREATE_SETS);
             sqLiteDatabase.execSQL(DATABASE_CREATE_FORMATS);
             sqLiteDatabase.execSQL(DATABASE_CREATE_LEGAL_SETS);
             sqLiteDatabase.execSQL(DATABASE_CREATE_BANNED_CARDS);
+            sqLiteDatabase.execSQL(DATABASE_CREATE_CARD_LEGALITY);
+            sqLiteDatabase.execSQL(DATABASE_CREATE_CARD_LEGALITY_INDEX);
             sqLiteDatabase.execSQL(DATABASE_CREATE_RULES);
             sqLiteDatabase.execSQL(DATABASE_CREATE_GLOSSARY);
+            createTcgProduct(sqLiteDatabase);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
     }
 
     /**
-     * Copy the internally packaged gzipped database to where Android can access it.
+     * Copy the internally packaged gzipped database to where Android can access it. The database is inflated into a
+     * temporary file which then replaces the old database, so a half inflated database is never opened. This takes a
+     * while, so it shouldn't be called on the UI thread.
      *
      * @param context The Context to get the packaged gzipped database from
      */
@@ -371,32 +522,40 @@ public class CardDbAdapter {
                 }
             }
             File dbFile = new File(folder, DATABASE_NAME);
-            if (dbFile.exists()) {
-                if (!dbFile.delete()) {
-                    /* Couldn't delete the old database, so exit */
-                    return;
-                }
-                PreferenceAdapter.setDatabaseVersion(context, -1);
-            }
-            if (!dbFile.exists()) {
-
-                GZIPInputStream gis = new GZIPInputStream(context.getResources()
-                        .openRawResource(R.raw.datagz));
-                FileOutputStream fos = new FileOutputStream(dbFile);
+            File tmpFile = new File(folder, DATABASE_NAME + ".tmp");
 
-                byte[] buffer = new byte[1024];
+            GZIPInputStream gis = new GZIPInputStream(context.getResources()
+                    .openRawResource(R.raw.datagz), COPY_BUFFER_SIZE);
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
                 int length;
                 while ((length = gis.read(buffer)) > 0) {
                     fos.write(buffer, 0, length);
                 }
-
-                PreferenceAdapter.setDatabaseVersion(context, CardDbAdapter.DATABASE_VERSION);
-
-                /* Close the streams */
                 fos.flush();
+                fos.getFD().sync();
+            } finally {
+                /* Close the streams */
                 fos.close();
                 gis.close();
             }
+
+            PreferenceAdapter.setDatabaseVersion(context, -1);
+            /* An old write-ahead log would be replayed onto the new database, so delete it too */
+            for (String suffix : new String[]{"-wal", "-shm", "-journal"}) {
+                File journal = new File(folder, DATABASE_NAME + suffix);
+                if (journal.exists() && !journal.delete()) {
+                    return;
+                }
+            }
+            if (!tmpFile.renameTo(dbFile)) {
+                /* Couldn't replace the old database, so exit */
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+                return;
+            }
+            PreferenceAdapter.setDatabaseVersion(context, CardDbAdapter.DATABASE_VERSION);
         } catch (NotFoundException | IOException e) {
             e.printStackTrace();
         }
@@ -417,6 +576,146 @@ public class CardDbAdapter {
         return (!f.exists() || f.length() < 1048576 || dbVersion < CardDbAdapter.DATABASE_VERSION);
     }
 
+    /**
+     * Create the indexes for DATABASE_TABLE_CARDS, if they don't already exist, and drop the ones
+     * which are no longer used.
+     *
+     * @param sqLiteDatabase The database to create the indexes in
+     */
+    static void createCardsIndices(SQLiteDatabase sqLiteDatabase) {
+        for (String dropIndex : DATABASE_DROP_CARDS_INDICES) {
+            sqLiteDatabase.execSQL(dropIndex);
+        }
+        for (String createIndex : DATABASE_CREATE_CARDS_INDICES) {
+            sqLiteDatabase.execSQL(createIndex);
+        }
+    }
+
+    /**
+     * Create DATABASE_TABLE_TCG_PRODUCT and its index, if they don't exist already.
+     *
+     * @param sqLiteDatabase The database to create the table in
+     */
+    static void createTcgProduct(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(DATABASE_CREATE_TCG_PRODUCT);
+        sqLiteDatabase.execSQL(DATABASE_CREATE_TCG_PRODUCT_INDEX);
+    }
+
+    /**
+     * Add KEY_COLOR_MASK and KEY_COLOR_IDENTITY_MASK to DATABASE_TABLE_CARDS if they don't exist,
+     * then compute them for every card from KEY_COLOR and KEY_COLOR_IDENTITY. This is used when
+     * upgrading a database which was packaged without the masks.
+     *
+     * @param sqLiteDatabase The database to add the masks to
+     */
+    static void addColorMasks(SQLiteDatabase sqLiteDatabase) {
+        if (!hasColumn(sqLiteDatabase, DATABASE_TABLE_CARDS, KEY_COLOR_MASK)) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + DATABASE_TABLE_CARDS +
+                    " ADD COLUMN " + KEY_COLOR_MASK + " integer");
+        }
+        if (!hasColumn(sqLiteDatabase, DATABASE_TABLE_CARDS, KEY_COLOR_IDENTITY_MASK)) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + DATABASE_TABLE_CARDS +
+                    " ADD COLUMN " + KEY_COLOR_IDENTITY_MASK + " integer");
+        }
+
+        /* The SQL equivalent of getColorMask() for each column */
+        StringBuilder colorMask = new StringBuilder("(CASE WHEN " + KEY_COLOR + " GLOB '[" +
+                COLORLESS_CHARS + "]' THEN " + MASK_COLORLESS + " ELSE 0 END)");
+        StringBuilder colorIdentityMask = new StringBuilder("0");
+        for (int i = 0; i < MASK_COLORS.length(); i++) {
+            colorMask.append(" | (CASE WHEN " + KEY_COLOR + " LIKE '%")
+                    .append(MASK_COLORS.charAt(i)).append("%' THEN ").append(1 << i).append(" ELSE 0 END)");
+            colorIdentityMask.append(" | (CASE WHEN " + KEY_COLOR_IDENTITY + " LIKE '%")
+                    .append(MASK_COLORS.charAt(i)).append("%' THEN ").append(1 << i).append(" ELSE 0 END)");
+        }
+        sqLiteDatabase.execSQL("UPDATE " + DATABASE_TABLE_CARDS + " SET " +
+                KEY_COLOR_MASK + " = " + colorMask + ", " +
+                KEY_COLOR_IDENTITY_MASK + " = " + colorIdentityMask);
+    }
+
+    /**
+     * Helper function to check if a table has a column.
+     *
+     * @param sqLiteDatabase The database to check
+     * @param table          The table to check
+     * @param column         The column to look for
+     * @return true if the table has the column, false otherwise
+     */
+    private static boolean hasColumn(SQLiteDatabase sqLiteDatabase, String table, String column) {
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equalsIgnoreCase(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop and recreate the full-text index, then fill it with every card already in
+     * DATABASE_TABLE_CARDS. This is used when upgrading a database which was packaged without the
+     * index.
+     *
+     * @param sqLiteDatabase The database to rebuild the index in
+     */
+    static void rebuildCardsFts(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARDS_FTS);
+        sqLiteDatabase.execSQL(DATABASE_CREATE_CARDS_FTS);
+        sqLiteDatabase.execSQL(
+                "INSERT INTO " + DATABASE_TABLE_CARDS_FTS + " (docid, " +
+                        KEY_NAME_NO_ACCENT + ", " + KEY_ABILITY + ", " + KEY_FLAVOR + ", " + KEY_ARTIST + ")" +
+                        " SELECT " + KEY_ID + ", " +
+                        KEY_NAME_NO_ACCENT + ", " + KEY_ABILITY + ", " + KEY_FLAVOR + ", " + KEY_ARTIST +
+                        " FROM " + DATABASE_TABLE_CARDS);
+    }
+
+    /**
+     * Drop and recreate DATABASE_TABLE_CARD_TYPES, then fill it with the type words of every card
+     * already in DATABASE_TABLE_CARDS. This is used when upgrading a database which was packaged
+     * without the table. The words are split here rather than in SQL, since SQLite on older devices
+     * can't split strings.
+     *
+     * @param sqLiteDatabase The database to rebuild the table in
+     */
+    static void rebuildCardTypes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARD_TYPES);
+        sqLiteDatabase.execSQL(DATABASE_CREATE_CARD_TYPES);
+
+        SQLiteStatement statement = compileCardTypesStatement(sqLiteDatabase);
+        Cursor cursor = sqLiteDatabase.rawQuery(
+                "SELECT " + KEY_ID + ", " + KEY_SUPERTYPE + ", " + KEY_SUBTYPE +
+                        " FROM " + DATABASE_TABLE_CARDS, null);
+        try {
+            while (cursor.moveToNext()) {
+                long cardId = cursor.getLong(0);
+                createCardTypes(statement, cardId, KEY_SUPERTYPE, cursor.getString(1));
+                createCardTypes(statement, cardId, KEY_SUBTYPE, cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * @return ILLEGAL_SETS as a comma separated list of SQL strings
+     */
+    private static String buildIllegalSetsSql() {
+        StringBuilder sql = new StringBuilder();
+        for (String set : ILLEGAL_SETS) {
+            if (sql.length() > 0) {
+                sql.append(", ");
+            }
+            sql.append('\'').append(set).append('\'');
+        }
+        return sql.toString();
+    }
+
     /**
      * Builds a map for all columns that may be requested, which will be given to the
      * SQLiteQueryBuilder. This is a good way to define aliases for column names, but must include
@@ -454,6 +753,11 @@ public class CardDbAdapter {
      */
     public static String[] getUniqueColumnArray(String colKey, boolean shouldSplit,
                                                 SQLiteDatabase database) throws FamiliarDbException {
+        /* Type words are already split into DATABASE_TABLE_CARD_TYPES */
+        if (shouldSplit && (KEY_SUPERTYPE.equals(colKey) || KEY_SUBTYPE.equals(colKey))) {
+            return getUniqueTypeTokens(colKey, database);
+        }
+
         Cursor cursor = null;
         try {
             String query =
@@ -500,6 +804,40 @@ public class CardDbAdapter {
         }
     }
 
+    /**
+     * Return a sorted String array of all the unique words in KEY_SUPERTYPE or KEY_SUBTYPE.
+     *
+     * @param kind     KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param database The database to query
+     * @return A String array of unique type words
+     * @throws FamiliarDbException If something goes wrong
+     */
+    private static String[] getUniqueTypeTokens(String kind, SQLiteDatabase database)
+            throws FamiliarDbException {
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(
+                    "SELECT DISTINCT " + KEY_TOKEN +
+                            " FROM " + DATABASE_TABLE_CARD_TYPES +
+                            " WHERE " + KEY_KIND + " = ?", new String[]{kind});
+
+            String[] tokens = new String[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                tokens[i++] = cursor.getString(0);
+            }
+            /* Sort the same way as the other unique column arrays */
+            Arrays.sort(tokens);
+            cursor.close();
+            return tokens;
+        } catch (SQLiteException | IllegalStateException e) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            throw new FamiliarDbException(e);
+        }
+    }
+
     /**
      * Given a list of KEY_ID values, return a cursor with all of a cards' information.
      *
@@ -636,100 +974,146 @@ public class CardDbAdapter {
      */
     public static void fillExtraWishlistData(ArrayList<? extends CompressedCardInfo> mCompressedCard,
                                              SQLiteDatabase mDb) throws FamiliarDbException {
-        String sql = "SELECT ";
-
-        boolean first = true;
-        for (String field : CardDbAdapter.ALL_CARD_DATA_KEYS) {
-            if (first) {
-                first = false;
-            } else {
-                sql += ", ";
-            }
-            sql += field;
-        }
-
-        sql += " FROM " + DATABASE_TABLE_CARDS +
-                " JOIN " + DATABASE_TABLE_SETS + " ON " +
-                DATABASE_TABLE_SETS + "." + KEY_CODE + " = " + DATABASE_TABLE_CARDS + "." + KEY_SET +
-                " WHERE (";
-
-        first = true;
-        boolean doSql = false;
+        /* Only look up the cards which are missing information */
+        ArrayList<Pair<String, String>> keys = new ArrayList<>();
         for (CompressedCardInfo cwi : mCompressedCard) {
             if (cwi.mType == null || cwi.mType.equals("")) {
-                doSql = true;
-                if (first) {
-                    first = false;
-                } else {
-                    sql += " OR ";
-                }
-                if (cwi.mExpansion != null && !cwi.mExpansion.equals("")) {
-                    sql += "(" + DATABASE_TABLE_CARDS + "." + KEY_NAME + " = " +
-                            sanitizeString(cwi.mName, false) +
-                            " AND " + DATABASE_TABLE_CARDS + "." + KEY_SET + " = '" +
-                            cwi.mExpansion + "')";
-                } else {
-                    sql += "(" + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " = " +
-                            sanitizeString(cwi.mName, true) + ")";
-                }
+                keys.add(new Pair<>(cwi.mName, cwi.mExpansion));
             }
         }
 
-        if (!doSql) {
+        if (keys.isEmpty()) {
             return;
         }
 
-        sql += ")"; /*  ORDER BY " + DATABASE_TABLE_SETS + "." + KEY_DATE + " DESC */
-
-        Cursor cursor;
+        HashMap<Pair<String, String>, MtgCard> resolved = resolveCards(keys, mDb);
 
-        try {
-            cursor = mDb.rawQuery(sql, null);
-        } catch (SQLiteException | IllegalStateException e) {
-            throw new FamiliarDbException(e);
+        for (CompressedCardInfo cwi : mCompressedCard) {
+            if (cwi.mType != null && !cwi.mType.equals("")) {
+                continue;
+            }
+            MtgCard card = resolved.get(new Pair<>(cwi.mName, cwi.mExpansion));
+            if (card != null) {
+                cwi.mType = card.mType;
+                cwi.mRarity = card.mRarity;
+                cwi.mManaCost = card.mManaCost;
+                cwi.mPower = card.mPower;
+                cwi.mToughness = card.mToughness;
+                cwi.mLoyalty = card.mLoyalty;
+                cwi.mText = card.mText;
+                cwi.mFlavor = card.mFlavor;
+                cwi.mNumber = card.mNumber;
+                cwi.mCmc = card.mCmc;
+                cwi.mColor = card.mColor;
+            }
         }
+    }
 
-        if (cursor != null) {
-            cursor.moveToFirst();
-        } else {
-            return;
+    /**
+     * Look up many cards at once. Cards are matched by name, ignoring case and accent marks, and
+     * by set code. A key with a null or empty set code matches the most recent printing of the
+     * card. Names are queried in chunks, so this costs a handful of queries no matter how many
+     * keys there are.
+     *
+     * @param keys Pairs of card names and set codes to look up
+     * @param mDb  The database to query
+     * @return A map from each key which was found to that card's information, including the set
+     * name
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static HashMap<Pair<String, String>, MtgCard> resolveCards(
+            Collection<Pair<String, String>> keys, SQLiteDatabase mDb) throws FamiliarDbException {
+
+        /* Group the keys by the name which is stored in the database, ignoring case */
+        HashMap<String, ArrayList<Pair<String, String>>> keysByName = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        for (Pair<String, String> key : keys) {
+            String name = removeAccentMarks(key.first);
+            String lowerName = name.toLowerCase(Locale.ENGLISH);
+            ArrayList<Pair<String, String>> nameKeys = keysByName.get(lowerName);
+            if (null == nameKeys) {
+                nameKeys = new ArrayList<>();
+                keysByName.put(lowerName, nameKeys);
+                names.add(name);
+            }
+            nameKeys.add(key);
         }
 
-        while (!cursor.isAfterLast()) {
-            /* Do stuff */
-            String name = cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_NAME));
-            for (CompressedCardInfo cwi : mCompressedCard) {
-                if (name != null && name.equals(cwi.mName)) {
-                    cwi.mType =
-                            getTypeLine(cursor);
-                    cwi.mRarity =
-                            (char) cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_RARITY));
-                    cwi.mManaCost =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_MANACOST));
-                    cwi.mPower =
-                            cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_POWER));
-                    cwi.mToughness =
-                            cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_TOUGHNESS));
-                    cwi.mLoyalty =
-                            cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_LOYALTY));
-                    cwi.mText =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_ABILITY));
-                    cwi.mFlavor =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_FLAVOR));
-                    cwi.mNumber =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_NUMBER));
-                    cwi.mCmc =
-                            cursor.getInt((cursor.getColumnIndex(CardDbAdapter.KEY_CMC)));
-                    cwi.mColor =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_COLOR));
+        HashMap<Pair<String, String>, MtgCard> resolved = new HashMap<>(keys.size());
+        for (int start = 0; start < names.size(); start += MAX_BOUND_ARGS) {
+            List<String> chunk = names.subList(start, Math.min(start + MAX_BOUND_ARGS, names.size()));
+
+            SqlBuilder sql = new SqlBuilder("SELECT ")
+                    .append(TextUtils.join(", ", ALL_CARD_DATA_KEYS))
+                    .append(", " + DATABASE_TABLE_SETS + "." + KEY_NAME + " AS " + KEY_SET_NAME +
+                            " FROM " + DATABASE_TABLE_CARDS + " JOIN " + DATABASE_TABLE_SETS +
+                            " ON " + DATABASE_TABLE_SETS + "." + KEY_CODE + " = " + DATABASE_TABLE_CARDS + "." + KEY_SET +
+                            " WHERE " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " COLLATE NOCASE IN (")
+                    .appendArgs(chunk)
+                    /* Newest first, so the first row for a name is the most recent printing */
+                    .append(") ORDER BY " + DATABASE_TABLE_SETS + "." + KEY_DATE + " DESC");
+
+            Cursor cursor = null;
+            try {
+                cursor = sql.rawQuery(mDb);
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(cursor.getColumnIndex(KEY_NAME_NO_ACCENT))
+                            .toLowerCase(Locale.ENGLISH);
+                    String expansion = cursor.getString(cursor.getColumnIndex(KEY_SET));
+                    ArrayList<Pair<String, String>> nameKeys = keysByName.get(name);
+                    if (null == nameKeys) {
+                        continue;
+                    }
+                    MtgCard card = null;
+                    for (Pair<String, String> key : nameKeys) {
+                        if (!resolved.containsKey(key) &&
+                                (key.second == null || key.second.isEmpty() || key.second.equals(expansion))) {
+                            if (null == card) {
+                                card = getCardFromCursor(cursor);
+                            }
+                            resolved.put(key, card);
+                        }
+                    }
+                }
+            } catch (SQLiteException | IllegalStateException e) {
+                throw new FamiliarDbException(e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
             }
-            /* NEXT! */
-            cursor.moveToNext();
         }
+        return resolved;
+    }
 
-        /* Use the cursor to populate stuff */
-        cursor.close();
+    /**
+     * Helper function for resolveCards() to read a card from a Cursor with ALL_CARD_DATA_KEYS and
+     * KEY_SET_NAME.
+     *
+     * @param cursor A Cursor pointed at a card
+     * @return The card's information
+     */
+    private static MtgCard getCardFromCursor(Cursor cursor) {
+        MtgCard card = new MtgCard();
+        card.mName = cursor.getString(cursor.getColumnIndex(KEY_NAME));
+        card.mExpansion = cursor.getString(cursor.getColumnIndex(KEY_SET));
+        card.mSetName = cursor.getString(cursor.getColumnIndex(KEY_SET_NAME));
+        card.mType = getTypeLine(cursor);
+        card.mRarity = (char) cursor.getInt(cursor.getColumnIndex(KEY_RARITY));
+        card.mManaCost = cursor.getString(cursor.getColumnIndex(KEY_MANACOST));
+        card.mCmc = cursor.getInt(cursor.getColumnIndex(KEY_CMC));
+        card.mPower = cursor.getFloat(cursor.getColumnIndex(KEY_POWER));
+        card.mToughness = cursor.getFloat(cursor.getColumnIndex(KEY_TOUGHNESS));
+        card.mLoyalty = cursor.getInt(cursor.getColumnIndex(KEY_LOYALTY));
+        card.mText = cursor.getString(cursor.getColumnIndex(KEY_ABILITY));
+        card.mFlavor = cursor.getString(cursor.getColumnIndex(KEY_FLAVOR));
+        card.mArtist = cursor.getString(cursor.getColumnIndex(KEY_ARTIST));
+        card.mNumber = cursor.getString(cursor.getColumnIndex(KEY_NUMBER));
+        card.mColor = cursor.getString(cursor.getColumnIndex(KEY_COLOR));
+        card.mColorIdentity = cursor.getString(cursor.getColumnIndex(KEY_COLOR_IDENTITY));
+        card.mMultiverseId = cursor.getInt(cursor.getColumnIndex(KEY_MULTIVERSEID));
+        card.mWatermark = cursor.getString(cursor.getColumnIndex(KEY_WATERMARK));
+        return card;
     }
 
     /**
@@ -838,19 +1222,34 @@ public class CardDbAdapter {
             throws FamiliarDbException {
         Cursor cursor;
 
-        String statement = " WHERE 1=1";
+        /* Every user supplied value is bound, so searches with the same options share SQL text */
+        SqlBuilder statement = new SqlBuilder();
+
+        /* Terms which must, or must not, match the full-text index. These are combined into a
+         * single MATCH per list at the end, so multiple words only cost one index lookup
+         */
+        List<String> ftsTerms = new ArrayList<>();
+        List<String> ftsExcludedTerms = new ArrayList<>();
 
         if (criteria.name != null) {
             String[] nameParts = criteria.name.split(" ");
             for (String s : nameParts) {
-                statement += " AND (" +
-                        DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " LIKE " + sanitizeString("%" + s + "%", true) + ")";
+                String term = getFtsTerm(KEY_NAME_NO_ACCENT, removeAccentMarks(s));
+                if (null != term) {
+                    ftsTerms.add(term);
+                }
+                if (null == term || !isFtsWord(s)) {
+                    /* The index can't check punctuation, so LIKE checks the whole word */
+                    statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " LIKE ")
+                            .appendArg(removeAccentMarks("%" + s + "%").trim()).append(")");
+                }
             }
         }
 
         /* Check if the watermark matches exactly */
         if (criteria.watermark != null) {
-            statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_WATERMARK + " = " + sanitizeString(criteria.watermark, false) + ")";
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_WATERMARK + " = ")
+                    .appendArg(criteria.watermark.trim()).append(")");
         }
 
         /*
@@ -873,47 +1272,88 @@ public class CardDbAdapter {
              * statement, there is no way to NOT change the statement variable. However, you never
              * really know who's going to break open your code and fuss around with it, so it's
              * always good to leave some small safety measures.
+             *
+             * Words are matched against the full-text index by word prefix. Words with characters
+             * the index drops (i.e. "{T}:" or "+1/+1") are also checked with LIKE against the
+             * column, and words with no indexable characters at all only use LIKE.
              */
             switch (criteria.textLogic) {
                 case 0:
                     for (String s : cardTextParts) {
-                        if (s.contains(EXCLUDE_TOKEN))
-                            statement += " AND (" + DATABASE_TABLE_CARDS + "."
-                                    + KEY_ABILITY + " NOT LIKE "
-                                    + sanitizeString("%" + s.substring(EXCLUDE_TOKEN_START) + "%", false) + ")";
-                        else
-                            statement += " AND (" + DATABASE_TABLE_CARDS + "."
-                                    + KEY_ABILITY + " LIKE " + sanitizeString("%" + s + "%", false) + ")";
+                        if (s.contains(EXCLUDE_TOKEN)) {
+                            String excluded = s.substring(EXCLUDE_TOKEN_START);
+                            if (isFtsWord(excluded)) {
+                                ftsExcludedTerms.add(getFtsTerm(KEY_ABILITY, excluded));
+                            } else {
+                                /* Excluding by the index would exclude more than the word */
+                                statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ABILITY + " NOT LIKE ")
+                                        .appendArg("%" + excluded + "%").append(")");
+                            }
+                        } else {
+                            String term = getFtsTerm(KEY_ABILITY, s);
+                            if (null != term) {
+                                ftsTerms.add(term);
+                            }
+                            if (null == term || !isFtsWord(s)) {
+                                statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ABILITY + " LIKE ")
+                                        .appendArg("%" + s + "%").append(")");
+                            }
+                        }
                     }
                     break;
                 case 1:
-                    boolean firstRun = true;
+                    /* Any one of these words may match */
+                    List<String> anyTerms = new ArrayList<>();
+                    SqlBuilder anyLikes = new SqlBuilder();
                     for (String s : cardTextParts) {
-                        if (firstRun) {
-                            firstRun = false;
-                            if (s.contains(EXCLUDE_TOKEN))
-                                statement += " AND ((" + DATABASE_TABLE_CARDS + "."
-                                        + KEY_ABILITY + " NOT LIKE "
-                                        + sanitizeString("%" + s.substring(EXCLUDE_TOKEN_START) + "%", false) + ")";
-                            else
-                                statement += " AND ((" + DATABASE_TABLE_CARDS + "."
-                                        + KEY_ABILITY + " LIKE " + sanitizeString("%" + s + "%", false) + ")";
+                        if (s.contains(EXCLUDE_TOKEN)) {
+                            String excluded = s.substring(EXCLUDE_TOKEN_START);
+                            if (isFtsWord(excluded)) {
+                                ftsExcludedTerms.add(getFtsTerm(KEY_ABILITY, excluded));
+                            } else {
+                                /* Excluding by the index would exclude more than the word */
+                                statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ABILITY + " NOT LIKE ")
+                                        .appendArg("%" + excluded + "%").append(")");
+                            }
                         } else {
-                            if (s.contains(EXCLUDE_TOKEN))
-                                statement += " AND (" + DATABASE_TABLE_CARDS + "."
-                                        + KEY_ABILITY + " NOT LIKE "
-                                        + sanitizeString("%" + s.substring(EXCLUDE_TOKEN_START) + "%", false) + ")";
-                            else
-                                statement += " OR (" + DATABASE_TABLE_CARDS + "."
-                                        + KEY_ABILITY + " LIKE " + sanitizeString("%" + s + "%", false) + ")";
+                            /* A word the index can't check on its own is checked with just LIKE, since the
+                             * two can't be paired up inside an OR
+                             */
+                            if (isFtsWord(s)) {
+                                anyTerms.add(getFtsTerm(KEY_ABILITY, s));
+                            } else {
+                                if (!anyLikes.isEmpty()) {
+                                    anyLikes.append(" OR ");
+                                }
+                                anyLikes.append("(" + DATABASE_TABLE_CARDS + "." + KEY_ABILITY + " LIKE ")
+                                        .appendArg("%" + s + "%").append(")");
+                            }
                         }
                     }
-                    statement += ")";
+                    if (anyLikes.isEmpty()) {
+                        /* OR binds tighter than the implicit AND in a MATCH expression */
+                        if (!anyTerms.isEmpty()) {
+                            ftsTerms.add(TextUtils.join(" OR ", anyTerms));
+                        }
+                    } else {
+                        statement.append(" AND (").append(anyLikes);
+                        if (!anyTerms.isEmpty()) {
+                            statement.append(" OR ");
+                            appendFtsSelection(statement, TextUtils.join(" OR ", anyTerms), true);
+                        }
+                        statement.append(")");
+                    }
                     break;
-                case 2:
-                    statement += " AND (" + DATABASE_TABLE_CARDS + "."
-                            + KEY_ABILITY + " LIKE " + sanitizeString("%" + criteria.text + "%", false) + ")";
+                case 2: {
+                    /* Use the index to find candidates, then LIKE to check the exact phrase */
+                    String term = getFtsTerm(KEY_ABILITY, criteria.text);
+                    if (null != term) {
+                        ftsTerms.add(term);
+                    }
+                    statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ABILITY + " LIKE ")
+                            .appendArg("%" + criteria.text + "%").append(")");
                     break;
+                }
                 default:
                     break;
             }
@@ -929,184 +1369,93 @@ public class CardDbAdapter {
         List<String> subtypes = criteria.subTypes;
 
         if (supertypes != null && !supertypes.isEmpty()) {
-            /* Concat a leading and a trailing space to the supertype */
-            final String supertypeInDb = "' ' || " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " || ' '";
-
-            switch (criteria.typeLogic) {
-                case 0:
-                    for (String s : supertypes) {
-                        if (s.contains(EXCLUDE_TOKEN)) {
-                            statement += " AND (" + supertypeInDb + " NOT LIKE " +
-                                    sanitizeString("% " + s.substring(1) + " %", false) + ")";
-                        } else
-                            statement += " AND (" + supertypeInDb + " LIKE " +
-                                    sanitizeString("% " + s + " %", false) + ")";
-                    }
-                    break;
-                case 1:
-                    boolean firstRun = true;
-                    for (String s : supertypes) {
-                        if (firstRun) {
-                            firstRun = false;
-
-                            if (s.contains(EXCLUDE_TOKEN))
-                                statement += " AND ((" + supertypeInDb + " NOT LIKE "
-                                        + sanitizeString("% " + s.substring(1) + " %", false) + ")";
-                            else
-                                statement += " AND ((" + supertypeInDb + " LIKE " +
-                                        sanitizeString("% " + s + " %", false) + ")";
-                        } else if (s.contains(EXCLUDE_TOKEN))
-                            statement += " AND (" + supertypeInDb + " NOT LIKE " +
-                                    sanitizeString("% " + s.substring(1) + " %", false)
-                                    + ")";
-                        else
-                            statement += " OR (" + supertypeInDb + " LIKE " +
-                                    sanitizeString("% " + s + " %", false) + ")";
-                    }
-                    statement += ")";
-                    break;
-                case 2:
-                    for (String s : supertypes) {
-                        statement += " AND (" + supertypeInDb + " NOT LIKE " +
-                                sanitizeString("% " + s + " %", false) + ")";
-                    }
-                    break;
-                default:
-                    break;
-            }
+            appendTypeLogic(statement, KEY_SUPERTYPE, supertypes, criteria.typeLogic);
         }
 
         if (subtypes != null && !subtypes.isEmpty()) {
-            /* Concat a leading and a trailing space to the subtype */
-            final String subtypeInDb = "' ' || " + DATABASE_TABLE_CARDS + "." + KEY_SUBTYPE + " || ' '";
-
-            switch (criteria.typeLogic) {
-                case 0:
-                    for (String s : subtypes) {
-                        if (s.contains(EXCLUDE_TOKEN)) {
-                            statement += " AND (" + subtypeInDb + " NOT LIKE " +
-                                    sanitizeString("% " + s.substring(1) + " %", false) + ")";
-                        } else {
-                            statement += " AND (" + subtypeInDb + " LIKE " +
-                                    sanitizeString("% " + s + " %", false) + ")";
-                        }
-                    }
-                    break;
-                case 1:
-                    boolean firstRun = true;
-                    for (String s : subtypes) {
-                        if (firstRun) {
-                            firstRun = false;
-                            if (s.contains(EXCLUDE_TOKEN))
-                                statement += " AND ((" + subtypeInDb + " NOT LIKE "
-                                        + sanitizeString("% " + s.substring(1) + " %", false) + ")";
-                            else
-                                statement += " AND ((" + subtypeInDb + " LIKE " +
-                                        sanitizeString("% " + s + " %", false) + ")";
-                        } else if (s.contains(EXCLUDE_TOKEN))
-                            statement += " AND (" + subtypeInDb + " NOT LIKE " +
-                                    sanitizeString("% " + s.substring(1) + " %", false) + ")";
-                        else
-                            statement += " OR (" + subtypeInDb + " LIKE " +
-                                    sanitizeString("% " + s + " %", false) + ")";
-                    }
-                    statement += ")";
-                    break;
-                case 2:
-                    for (String s : subtypes) {
-                        statement += " AND (" + subtypeInDb + " NOT LIKE " +
-                                sanitizeString("% " + s + " %", false) + ")";
-                    }
-                    break;
-                default:
-                    break;
-            }
+            appendTypeLogic(statement, KEY_SUBTYPE, subtypes, criteria.typeLogic);
         }
         /* End Reuben's version
          *************************************************************************************/
 
+        /* Flavor and artist are phrases. The index narrows the candidates, LIKE checks the phrase */
         if (criteria.flavor != null) {
-            statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_FLAVOR
-                    + " LIKE " + sanitizeString("%" + criteria.flavor + "%", false) + ")";
+            String term = getFtsTerm(KEY_FLAVOR, criteria.flavor);
+            if (null != term) {
+                ftsTerms.add(term);
+            }
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_FLAVOR + " LIKE ")
+                    .appendArg("%" + criteria.flavor + "%").append(")");
         }
 
         if (criteria.artist != null) {
-            statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_ARTIST
-                    + " LIKE " + sanitizeString("%" + criteria.artist + "%", false) + ")";
+            String term = getFtsTerm(KEY_ARTIST, criteria.artist);
+            if (null != term) {
+                ftsTerms.add(term);
+            }
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ARTIST + " LIKE ")
+                    .appendArg("%" + criteria.artist + "%").append(")");
+        }
+
+        /* Look up all the full-text terms at once */
+        if (!ftsTerms.isEmpty()) {
+            statement.append(" AND ");
+            appendFtsSelection(statement, TextUtils.join(" ", ftsTerms), true);
+        }
+        if (!ftsExcludedTerms.isEmpty()) {
+            statement.append(" AND ");
+            appendFtsSelection(statement, TextUtils.join(" OR ", ftsExcludedTerms), false);
         }
 
         if (criteria.collectorsNumber != null) {
-            statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER
-                    + " = " + sanitizeString(criteria.collectorsNumber, false) + ")";
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER + " = ")
+                    .appendArg(criteria.collectorsNumber.trim()).append(")");
         }
 
         /*
          * Code below added/modified by Reuben. Differences: Original version only had 'Any' and
          * 'All' options and lacked 'Exclusive' and 'Exact' matching. In addition, original
          * programming only provided exclusive results.
+         *
+         * Colors are compared as bitmasks. The masks come from a fixed set of checkboxes, not user
+         * text, so they are written into the SQL as integers.
          */
         if (null != criteria.color &&
                 !(criteria.color.equals("wubrgl") || (criteria.color.equals("WUBRGL") &&
                         criteria.colorLogic == 0))) {
-            boolean firstPrint = true;
-
-            /* Can't contain these colors
-             **
-             * ...if the chosen color logic was exactly (2) or none (3) of the selected colors.
-             */
-            if (criteria.colorLogic > 1) {
-                statement += " AND ((";
-                for (byte b : criteria.color.getBytes()) {
-                    char ch = (char) b;
-
-                    if (ch > 'a') {
-                        if (firstPrint)
-                            firstPrint = false;
-                        else
-                            statement += " AND ";
-
-                        if (ch == 'l' || ch == 'L')
-                            statement += DATABASE_TABLE_CARDS + "." + KEY_COLOR
-                                    + " NOT GLOB '[CLA]'";
-                        else
-                            statement += DATABASE_TABLE_CARDS + "." + KEY_COLOR
-                                    + " NOT LIKE '%" + Character.toUpperCase(ch)
-                                    + "%'";
-                    }
+            /* Capital letters are selected colors, lowercase letters are not */
+            int selected = 0;
+            int notSelected = 0;
+            for (char ch : criteria.color.toCharArray()) {
+                if (Character.isUpperCase(ch)) {
+                    selected |= getColorBit(ch);
+                } else {
+                    notSelected |= getColorBit(ch);
                 }
-                statement += ") AND (";
             }
 
-            firstPrint = true;
-
-            /* Might contain these colors */
-            if (criteria.colorLogic < 2)
-                statement += " AND (";
-
-            for (byte b : criteria.color.getBytes()) {
-                char ch = (char) b;
-                if (ch < 'a') {
-                    if (firstPrint)
-                        firstPrint = false;
-                    else {
-                        if (criteria.colorLogic == 1 || criteria.colorLogic == 3)
-                            statement += " AND ";
-                        else
-                            statement += " OR ";
-                    }
-
-                    if (ch == 'l' || ch == 'L')
-                        statement += DATABASE_TABLE_CARDS + "." + KEY_COLOR
-                                + " GLOB '[CLA]'";
-                    else
-                        statement += DATABASE_TABLE_CARDS + "." + KEY_COLOR
-                                + " LIKE '%" + ch + "%'";
-                }
+            final String colorMask = DATABASE_TABLE_CARDS + "." + KEY_COLOR_MASK;
+            switch (criteria.colorLogic) {
+                case 0:
+                    /* Any of the selected colors */
+                    statement.append(" AND (" + colorMask + " & " + selected + " <> 0)");
+                    break;
+                case 1:
+                    /* All of the selected colors */
+                    statement.append(" AND (" + colorMask + " & " + selected + " = " + selected + ")");
+                    break;
+                case 2:
+                    /* Any of the selected colors, and none of the others */
+                    statement.append(" AND (" + colorMask + " & " + selected + " <> 0)" +
+                            " AND (" + colorMask + " & " + notSelected + " = 0)");
+                    break;
+                case 3:
+                    /* Exactly the selected colors */
+                    statement.append(" AND (" + colorMask + " = " + selected + ")");
+                    break;
+                default:
+                    break;
             }
-            if (criteria.colorLogic > 1)
-                statement += "))";
-            else
-                statement += ")";
         }
         /* End of addition
          *************************************************************************************/
@@ -1116,99 +1465,79 @@ public class CardDbAdapter {
          * If a color is selected, it's upper case. Otherwise it's lower case.
          */
         if (null != criteria.colorIdentity && !(criteria.colorIdentity.equals("wubrgl"))) {
+            int selected = 0;
+            int notSelected = 0;
+            boolean colorlessSelected = false;
+            for (char ch : criteria.colorIdentity.toCharArray()) {
+                if (Character.toUpperCase(ch) == 'L') {
+                    colorlessSelected = Character.isUpperCase(ch);
+                } else if (Character.isUpperCase(ch)) {
+                    selected |= getColorBit(ch);
+                } else {
+                    notSelected |= getColorBit(ch);
+                }
+            }
+
+            final String colorIdentityMask = DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY_MASK;
             switch (criteria.colorIdentityLogic) {
                 case 0: {
                     /* search_May_include_any_colors */
-                    boolean first = true;
-                    statement += " AND (";
-                    for (int i = 0; i < criteria.colorIdentity.length(); i++) {
-                        if (Character.isLowerCase(criteria.colorIdentity.charAt(i))) {
-                            if (!first) {
-                                statement += " AND ";
-                            }
-                            if (criteria.colorIdentity.charAt(i) == 'l') {
-                                /* If colorless isn't selected, don't allow empty identities */
-                                statement += "(" + DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY +
-                                        " NOT LIKE \"\")";
-                            } else {
-                                statement += "(" + DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY +
-                                        " NOT LIKE \"%" + criteria.colorIdentity.toUpperCase().charAt(i) + "%\")";
-                            }
-                            first = false;
-                        }
+                    if (0 != notSelected) {
+                        statement.append(" AND (" + colorIdentityMask + " & " + notSelected + " = 0)");
+                    }
+                    if (!colorlessSelected) {
+                        /* If colorless isn't selected, don't allow empty identities */
+                        statement.append(" AND (" + colorIdentityMask + " <> 0)");
                     }
-                    statement += ")";
                     break;
                 }
                 case 1: {
                     /* search_Exact_all_selected_and_no_others */
-                    String colorIdentity = "";
-                    for (int i = 0; i < criteria.colorIdentity.length(); i++) {
-                        if (Character.isUpperCase(criteria.colorIdentity.charAt(i))) {
-                            if (criteria.colorIdentity.charAt(i) == 'L') {
-                                /* Colorless identity is the empty string */
-                                statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY + " = \"\")";
-                            } else {
-                                colorIdentity += criteria.colorIdentity.charAt(i);
-                            }
-                        }
+                    if (colorlessSelected) {
+                        /* Colorless identity is the empty mask */
+                        statement.append(" AND (" + colorIdentityMask + " = 0)");
                     }
-                    statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY +
-                            " = \"" + colorIdentity + "\")";
+                    statement.append(" AND (" + colorIdentityMask + " = " + selected + ")");
                     break;
                 }
             }
         }
 
         if (criteria.sets != null && criteria.sets.size() > 0) {
-            statement += " AND (";
-
-            boolean first = true;
-
-            for (String set : criteria.sets) {
-                if (first) {
-                    first = false;
-                } else {
-                    statement += " OR ";
-                }
-                statement += DATABASE_TABLE_CARDS + "." + KEY_SET + " = '" + set + "'";
-            }
-
-            statement += ")";
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_SET + " IN (")
+                    .appendArgs(criteria.sets).append("))");
         }
 
         if (criteria.powChoice != NO_ONE_CARES) {
-            statement += " AND (";
+            statement.append(" AND (");
 
             if (criteria.powChoice > STAR) {
-                statement += DATABASE_TABLE_CARDS + "." + KEY_POWER + " "
-                        + criteria.powLogic + " " + criteria.powChoice;
+                statement.append(DATABASE_TABLE_CARDS + "." + KEY_POWER + " " + criteria.powLogic + " ")
+                        .appendArg(criteria.powChoice);
                 if (criteria.powLogic.equals("<")) {
-                    statement += " AND " + DATABASE_TABLE_CARDS + "."
-                            + KEY_POWER + " > " + STAR;
+                    statement.append(" AND " + DATABASE_TABLE_CARDS + "." + KEY_POWER + " > " + STAR);
                 }
             } else if (criteria.powLogic.equals("=")) {
-                statement += DATABASE_TABLE_CARDS + "." + KEY_POWER + " "
-                        + criteria.powLogic + " " + criteria.powChoice;
+                statement.append(DATABASE_TABLE_CARDS + "." + KEY_POWER + " " + criteria.powLogic + " ")
+                        .appendArg(criteria.powChoice);
             }
-            statement += ")";
+            statement.append(")");
         }
 
         if (criteria.touChoice != NO_ONE_CARES) {
-            statement += " AND (";
+            statement.append(" AND (");
 
             if (criteria.touChoice > STAR) {
-                statement += DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " "
-                        + criteria.touLogic + " " + criteria.touChoice;
+                statement.append(DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " " + criteria.touLogic + " ")
+                        .appendArg(criteria.touChoice);
                 if (criteria.touLogic.equals("<")) {
-                    statement += " AND " + DATABASE_TABLE_CARDS + "."
-                            + KEY_TOUGHNESS + " > " + STAR;
+                    statement.append(" AND " + DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " > " + STAR);
                 }
             } else if (criteria.touLogic.equals("=")) {
-                statement += DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " "
-                        + criteria.touLogic + " " + criteria.touChoice;
+                statement.append(DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " " + criteria.touLogic + " ")
+                        .appendArg(criteria.touChoice);
             }
-            statement += ")";
+            statement.append(")");
         }
 
         if (null != criteria.manaCostLogic && null != criteria.manaCost) {
@@ -1216,154 +1545,111 @@ public class CardDbAdapter {
             for (String mana : criteria.manaCost) {
                 manaCost.append('{').append(mana).append('}');
             }
-            statement = criteria.manaCostLogic.appendToSql(statement,
+            criteria.manaCostLogic.appendToSql(statement,
                     DATABASE_TABLE_CARDS + "." + KEY_MANACOST, manaCost.toString());
         }
 
         if (criteria.cmc != -1) {
-            statement += " AND (";
-
-            statement += DATABASE_TABLE_CARDS + "." + KEY_CMC + " " + criteria.cmcLogic
-                    + " " + criteria.cmc + ")";
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_CMC + " " + criteria.cmcLogic + " ")
+                    .appendArg(criteria.cmc).append(")");
         }
 
         if (criteria.moJhoStoFilter) {
             /* Filter out tokens. */
-            statement += " AND (" +
+            statement.append(" AND (" +
                     /* Cards without mana costs. */
                     "NOT " + DATABASE_TABLE_CARDS + "." + KEY_MANACOST + " = '' " +
                     /* Cards like 'Dryad Arbor'. */
-                    "OR " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " LIKE '%Land Creature%')";
+                    "OR " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " LIKE '%Land Creature%')");
             /* Filter out 'UN-'sets*/
-            statement += " AND NOT " + DATABASE_TABLE_CARDS + "." + KEY_SET + " IN (";
-            boolean first = true;
-            for (String illegalSet : ILLEGAL_SETS) {
-                if (first) {
-                    first = false;
-                } else {
-                    statement += ", ";
-                }
-                statement += "'" + illegalSet + "'";
-            }
-            statement += ")";
+            statement.append(" AND NOT " + DATABASE_TABLE_CARDS + "." + KEY_SET + " IN (" + ILLEGAL_SETS_SQL + ")");
         }
 
         if (criteria.rarity != null) {
-            statement += " AND (";
+            statement.append(" AND (");
 
             boolean firstPrint = true;
             for (int i = 0; i < criteria.rarity.length(); i++) {
                 if (firstPrint) {
                     firstPrint = false;
                 } else {
-                    statement += " OR ";
+                    statement.append(" OR ");
                 }
-                statement += DATABASE_TABLE_CARDS + "." + KEY_RARITY + " = "
-                        + (int) criteria.rarity.toUpperCase().charAt(i) + "";
+                statement.append(DATABASE_TABLE_CARDS + "." + KEY_RARITY + " = ")
+                        .appendArg((int) criteria.rarity.toUpperCase().charAt(i));
             }
-            statement += ")";
+            statement.append(")");
         }
 
         if (criteria.format != null) {
+            /* Silver bordered printings are never legal */
+            statement.append(" AND NOT " + DATABASE_TABLE_CARDS + "." + KEY_SET + " IN (" + ILLEGAL_SETS_SQL + ")");
 
-            /* Check if the format is eternal or not, by the number of legal sets */
-            String numLegalSetsSql = "SELECT * FROM " + DATABASE_TABLE_LEGAL_SETS + " WHERE " + KEY_FORMAT + " = \"" + criteria.format + "\"";
-            Cursor numLegalSetCursor;
-            try {
-                numLegalSetCursor = mDb.rawQuery(numLegalSetsSql, null);
-            } catch (SQLiteException | IllegalStateException e) {
-                throw new FamiliarDbException(e);
-            }
-
-            /* If the format is not eternal, filter by set */
-            if (numLegalSetCursor.getCount() > 0) {
-                statement += " AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME + " IN ("
-                        + "  SELECT " + DATABASE_TABLE_CARDS + "_B." + KEY_NAME
-                        + "  FROM " + DATABASE_TABLE_CARDS + " " + DATABASE_TABLE_CARDS + "_B "
-                        + "  WHERE " + DATABASE_TABLE_CARDS + "_B." + KEY_SET + " IN ("
-                        + "    SELECT " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_SET
-                        + "    FROM " + DATABASE_TABLE_LEGAL_SETS
-                        + "    WHERE " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_FORMAT + "='" + criteria.format + "'"
-                        + "  )"
-                        + " )";
-            } else {
-                /* Otherwise filter silver bordered cards, giant cards */
-                for (String illegalSet : ILLEGAL_SETS) {
-                    statement += " AND NOT " + DATABASE_TABLE_CARDS + "." + KEY_SET + " = '" + illegalSet + "'";
-                }
-                statement += " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Plane'" +
-                        " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Conspiracy'" +
-                        " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE '%Scheme'" +
-                        " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Vanguard'";
-            }
-
-            numLegalSetCursor.close();
-
-            statement += " AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME + " NOT IN (SELECT "
-                    + DATABASE_TABLE_BANNED_CARDS + "." + KEY_NAME
-                    + " FROM " + DATABASE_TABLE_BANNED_CARDS
-                    + " WHERE  " + DATABASE_TABLE_BANNED_CARDS + "." + KEY_FORMAT + " = '" + criteria.format + "'"
-                    + " AND " + DATABASE_TABLE_BANNED_CARDS + "." + KEY_LEGALITY + " = " + BANNED + ")";
+            /* Legal and restricted cards are kept, banned cards are not */
+            statement.append(" AND NOT EXISTS (SELECT 1 FROM " + DATABASE_TABLE_CARD_LEGALITY +
+                    " WHERE " + DATABASE_TABLE_CARD_LEGALITY + "." + KEY_NAME_NO_ACCENT + " = " +
+                    DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT +
+                    " AND " + DATABASE_TABLE_CARD_LEGALITY + "." + KEY_FORMAT + " = ")
+                    .appendArg(criteria.format)
+                    .append(" AND " + DATABASE_TABLE_CARD_LEGALITY + "." + KEY_STATUS + " = " + BANNED + ")");
         }
 
         if (!backface) {
-            statement += " AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER
-                    + " NOT LIKE '%b%')";
+            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER + " NOT LIKE '%b%')");
         }
 
-        if (criteria.setLogic != MOST_RECENT_PRINTING && criteria.setLogic != ALL_PRINTINGS) {
-            statement = " JOIN (SELECT iT" + DATABASE_TABLE_CARDS + "."
-                    + KEY_NAME + ", MIN(" + DATABASE_TABLE_SETS + "."
-                    + KEY_DATE + ") AS " + KEY_DATE + " FROM "
-                    + DATABASE_TABLE_CARDS + " AS iT" + DATABASE_TABLE_CARDS
-                    + " JOIN " + DATABASE_TABLE_SETS + " ON iT"
-                    + DATABASE_TABLE_CARDS + "." + KEY_SET + " = "
-                    + DATABASE_TABLE_SETS + "." + KEY_CODE + " GROUP BY iT"
-                    + DATABASE_TABLE_CARDS + "." + KEY_NAME
-                    + ") AS FirstPrints" + " ON " + DATABASE_TABLE_CARDS + "."
-                    + KEY_NAME + " = FirstPrints." + KEY_NAME + statement;
-            if (criteria.setLogic == FIRST_PRINTING)
-                statement = " AND " + DATABASE_TABLE_SETS + "." + KEY_DATE
-                        + " = FirstPrints." + KEY_DATE + statement;
-            else
-                statement = " AND " + DATABASE_TABLE_SETS + "." + KEY_DATE
-                        + " <> FirstPrints." + KEY_DATE + statement;
-        }
-
-        if (statement.equals(" WHERE 1=1")) {
-            /* If the statement is just this, it means we added nothing */
+        if (statement.isEmpty()) {
+            /* If the statement is empty, it means we added nothing */
             return null;
         }
 
         try {
-            String sel = null;
+            StringBuilder sel = new StringBuilder();
             for (String s : returnTypes) {
-                if (sel == null) {
-                    sel = DATABASE_TABLE_CARDS + "." + s + " AS " + s;
-                } else {
-                    sel += ", " + DATABASE_TABLE_CARDS + "." + s + " AS " + s;
+                if (sel.length() > 0) {
+                    sel.append(", ");
                 }
+                sel.append(DATABASE_TABLE_CARDS + "." + s + " AS " + s);
             }
-            sel += ", " + DATABASE_TABLE_SETS + "." + KEY_DATE;
+            sel.append(", " + DATABASE_TABLE_SETS + "." + KEY_DATE);
 
-            String sql = "SELECT * FROM (SELECT " + sel + " FROM " + DATABASE_TABLE_CARDS
+            SqlBuilder sql = new SqlBuilder("SELECT * FROM (SELECT " + sel + " FROM " + DATABASE_TABLE_CARDS
                     + " JOIN " + DATABASE_TABLE_SETS + " ON "
                     + DATABASE_TABLE_CARDS + "." + KEY_SET + " = "
-                    + DATABASE_TABLE_SETS + "." + KEY_CODE + statement;
+                    + DATABASE_TABLE_SETS + "." + KEY_CODE);
+
+            if (criteria.setLogic != MOST_RECENT_PRINTING && criteria.setLogic != ALL_PRINTINGS) {
+                if (criteria.setLogic == FIRST_PRINTING)
+                    sql.append(" AND " + DATABASE_TABLE_SETS + "." + KEY_DATE + " = FirstPrints." + KEY_DATE);
+                else
+                    sql.append(" AND " + DATABASE_TABLE_SETS + "." + KEY_DATE + " <> FirstPrints." + KEY_DATE);
+                sql.append(" JOIN (SELECT iT" + DATABASE_TABLE_CARDS + "."
+                        + KEY_NAME + ", MIN(" + DATABASE_TABLE_SETS + "."
+                        + KEY_DATE + ") AS " + KEY_DATE + " FROM "
+                        + DATABASE_TABLE_CARDS + " AS iT" + DATABASE_TABLE_CARDS
+                        + " JOIN " + DATABASE_TABLE_SETS + " ON iT"
+                        + DATABASE_TABLE_CARDS + "." + KEY_SET + " = "
+                        + DATABASE_TABLE_SETS + "." + KEY_CODE + " GROUP BY iT"
+                        + DATABASE_TABLE_CARDS + "." + KEY_NAME
+                        + ") AS FirstPrints" + " ON " + DATABASE_TABLE_CARDS + "."
+                        + KEY_NAME + " = FirstPrints." + KEY_NAME);
+            }
+
+            sql.append(" WHERE 1=1").append(statement);
 
             if (null == orderByStr) {
                 orderByStr = KEY_NAME + " COLLATE UNICODE";
             }
 
             if (consolidate) {
-                sql += " ORDER BY " + DATABASE_TABLE_SETS + "." + KEY_DATE
-                        + ") GROUP BY " + KEY_NAME + " ORDER BY " + orderByStr;
+                sql.append(" ORDER BY " + DATABASE_TABLE_SETS + "." + KEY_DATE
+                        + ") GROUP BY " + KEY_NAME + " ORDER BY " + orderByStr);
             } else {
-                sql += " ORDER BY " + orderByStr
+                sql.append(" ORDER BY " + orderByStr
                         + ", " + DATABASE_TABLE_SETS + "." + KEY_DATE
-                        + " DESC)";
+                        + " DESC)");
             }
-            cursor = mDb.rawQuery(sql, null);
+            cursor = sql.rawQuery(mDb);
         } catch (SQLiteException | IllegalStateException e) {
             throw new FamiliarDbException(e);
         }
@@ -1373,6 +1659,92 @@ public class CardDbAdapter {
         return cursor;
     }
 
+    /**
+     * Helper function for Search() to add supertype or subtype logic to a query.
+     *
+     * @param statement The query to add the type logic to
+     * @param kind      KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param types     The types to search for. Types starting with EXCLUDE_TOKEN are excluded
+     * @param typeLogic 0 for all types, 1 for any type, 2 for none of the types
+     */
+    private static void appendTypeLogic(SqlBuilder statement, String kind, List<String> types,
+                                        int typeLogic) {
+        switch (typeLogic) {
+            case 0:
+                for (String s : types) {
+                    if (s.contains(EXCLUDE_TOKEN)) {
+                        statement.append(" AND NOT ");
+                        appendHasType(statement, kind, s.substring(1));
+                    } else {
+                        statement.append(" AND ");
+                        appendHasType(statement, kind, s);
+                    }
+                }
+                break;
+            case 1:
+                boolean firstRun = true;
+                for (String s : types) {
+                    if (firstRun) {
+                        firstRun = false;
+                        if (s.contains(EXCLUDE_TOKEN)) {
+                            statement.append(" AND (NOT ");
+                            appendHasType(statement, kind, s.substring(1));
+                        } else {
+                            statement.append(" AND (");
+                            appendHasType(statement, kind, s);
+                        }
+                    } else if (s.contains(EXCLUDE_TOKEN)) {
+                        statement.append(" AND NOT ");
+                        appendHasType(statement, kind, s.substring(1));
+                    } else {
+                        statement.append(" OR ");
+                        appendHasType(statement, kind, s);
+                    }
+                }
+                statement.append(")");
+                break;
+            case 2:
+                for (String s : types) {
+                    statement.append(" AND NOT ");
+                    appendHasType(statement, kind, s);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Helper function for appendTypeLogic() to test if a card has a type. Each word of the type
+     * is looked up in DATABASE_TABLE_CARD_TYPES. A type with more than one word is also checked
+     * against the full type line, since the words must be next to each other.
+     *
+     * @param statement The query to add the test to
+     * @param kind      KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param type      The type to test for
+     */
+    private static void appendHasType(SqlBuilder statement, String kind, String type) {
+        String[] words = type.trim().split("\\s+");
+        statement.append("(");
+        for (int i = 0; i < words.length; i++) {
+            if (i > 0) {
+                statement.append(" AND ");
+            }
+            statement.append("EXISTS (SELECT 1 FROM " + DATABASE_TABLE_CARD_TYPES +
+                    " WHERE " + DATABASE_TABLE_CARD_TYPES + "." + KEY_KIND + " = '" + kind + "'" +
+                    " AND " + DATABASE_TABLE_CARD_TYPES + "." + KEY_TOKEN + " = ")
+                    .appendArg(words[i])
+                    .append(" AND " + DATABASE_TABLE_CARD_TYPES + "." + KEY_CARD_ID + " = " +
+                            DATABASE_TABLE_CARDS + "." + KEY_ID + ")");
+        }
+        if (words.length > 1) {
+            /* Concat a leading and a trailing space to the type */
+            statement.append(" AND (' ' || " + DATABASE_TABLE_CARDS + "." + kind + " || ' ' LIKE ")
+                    .appendArg("% " + type.trim() + " %").append(")");
+        }
+        statement.append(")");
+    }
+
     /**
      * Given a set and a card number, return the KEY_ID for that card.
      *
@@ -1508,6 +1880,31 @@ public class CardDbAdapter {
         }
     }
 
+    /**
+     * Get every card's name, accent-free name and ID, newest printings first. CardNameIndex builds its name index from
+     * this, keeping the first ID it sees for each name.
+     *
+     * @param mDb The database to query
+     * @return A Cursor with the columns KEY_NAME, KEY_NAME_NO_ACCENT and KEY_ID, in that order
+     * @throws FamiliarDbException If something goes wrong
+     */
+    static Cursor getCardNamesForIndex(SQLiteDatabase mDb) throws FamiliarDbException {
+        try {
+            String sql =
+                    "SELECT " +
+                            DATABASE_TABLE_CARDS + "." + KEY_NAME + ", " +
+                            DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + ", " +
+                            DATABASE_TABLE_CARDS + "." + KEY_ID +
+                            " FROM " + DATABASE_TABLE_CARDS +
+                            " JOIN " + DATABASE_TABLE_SETS +
+                            " ON " + DATABASE_TABLE_SETS + "." + KEY_CODE + " = " + DATABASE_TABLE_CARDS + "." + KEY_SET +
+                            " ORDER BY " + DATABASE_TABLE_SETS + "." + KEY_DATE + " DESC";
+            return mDb.rawQuery(sql, null);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
     /**
      * Given a card name and the set it's from, return the card's multiverse ID.
      *
@@ -1585,112 +1982,273 @@ public class CardDbAdapter {
     }
 
     /**
-     * Add a MtgCard to DATABASE_TABLE_CARDS.
-     *
-     * @param card The card to add to DATABASE_TABLE_CARDS
-     * @param mDb  The database to add the card to
+     * Adds cards to DATABASE_TABLE_CARDS, DATABASE_TABLE_CARDS_FTS and DATABASE_TABLE_CARD_TYPES, and their
+     * TCGplayer.com productIds to DATABASE_TABLE_TCG_PRODUCT if the patch has them.
+     * The INSERT statements are compiled once and reused for every card, which is much faster than
+     * building ContentValues for each card when importing a whole set. It should be used inside a
+     * transaction, and closed when the import is done.
      */
-    public static void createCard(Card card, SQLiteDatabase mDb) {
-        ContentValues initialValues = new ContentValues();
-
-        String delimiter = " - ";
-        initialValues.put(KEY_NAME, card.mName);
-        initialValues.put(KEY_SET, card.mExpansion);
-        String types[] = card.mType.split(delimiter);
-        if (types.length > 0) {
-            initialValues.put(KEY_SUPERTYPE, types[0]);
-        } else {
-            initialValues.put(KEY_SUPERTYPE, "");
+    public static class CardInserter {
+
+        private static final String TAG = "CardInserter";
+
+        /* The columns of DATABASE_TABLE_CARDS which are bound for each card, in order */
+        private static final String[] CARD_COLUMNS = {
+                KEY_NAME,
+                KEY_SET,
+                KEY_SUPERTYPE,
+                KEY_SUBTYPE,
+                KEY_RARITY,
+                KEY_MANACOST,
+                KEY_CMC,
+                KEY_POWER,
+                KEY_TOUGHNESS,
+                KEY_LOYALTY,
+                KEY_ABILITY,
+                KEY_FLAVOR,
+                KEY_ARTIST,
+                KEY_NUMBER,
+                KEY_COLOR,
+                KEY_MULTIVERSEID,
+                KEY_COLOR_IDENTITY,
+                KEY_COLOR_MASK,
+                KEY_COLOR_IDENTITY_MASK,
+                KEY_NAME_NO_ACCENT,
+                KEY_WATERMARK,
+                KEY_NAME_CHINESE_TRADITIONAL, KEY_MULTIVERSEID_CHINESE_TRADITIONAL,
+                KEY_NAME_CHINESE_SIMPLIFIED, KEY_MULTIVERSEID_CHINESE_SIMPLIFIED,
+                KEY_NAME_FRENCH, KEY_MULTIVERSEID_FRENCH,
+                KEY_NAME_GERMAN, KEY_MULTIVERSEID_GERMAN,
+                KEY_NAME_ITALIAN, KEY_MULTIVERSEID_ITALIAN,
+                KEY_NAME_JAPANESE, KEY_MULTIVERSEID_JAPANESE,
+                KEY_NAME_PORTUGUESE_BRAZIL, KEY_MULTIVERSEID_PORTUGUESE_BRAZIL,
+                KEY_NAME_RUSSIAN, KEY_MULTIVERSEID_RUSSIAN,
+                KEY_NAME_SPANISH, KEY_MULTIVERSEID_SPANISH,
+                KEY_NAME_KOREAN, KEY_MULTIVERSEID_KOREAN
+        };
+
+        private final SQLiteStatement mCardStatement;
+        private final SQLiteStatement mFtsStatement;
+        private final SQLiteStatement mTypeStatement;
+        private final SQLiteStatement mProductStatement;
+
+        /**
+         * Compile the INSERT statements.
+         *
+         * @param mDb The database to add cards to
+         * @throws FamiliarDbException If something goes wrong
+         */
+        public CardInserter(SQLiteDatabase mDb) throws FamiliarDbException {
+            try {
+                StringBuilder placeholders = new StringBuilder("?");
+                for (int i = 1; i < CARD_COLUMNS.length; i++) {
+                    placeholders.append(", ?");
+                }
+                mCardStatement = mDb.compileStatement(
+                        "INSERT INTO " + DATABASE_TABLE_CARDS +
+                                " (" + TextUtils.join(", ", CARD_COLUMNS) + ")" +
+                                " VALUES (" + placeholders + ")");
+                mFtsStatement = mDb.compileStatement(
+                        "INSERT INTO " + DATABASE_TABLE_CARDS_FTS + " (docid, " +
+                                KEY_NAME_NO_ACCENT + ", " + KEY_ABILITY + ", " + KEY_FLAVOR + ", " + KEY_ARTIST + ")" +
+                                " VALUES (?, ?, ?, ?, ?)");
+                mTypeStatement = compileCardTypesStatement(mDb);
+                mProductStatement = mDb.compileStatement(INSERT_TCG_PRODUCT);
+            } catch (SQLiteException | IllegalStateException e) {
+                throw new FamiliarDbException(e);
+            }
         }
-        if (types.length > 1) {
-            /* Concatenate all strings after the first delimiter
-             * in case there's a hyphen in the subtype
-             */
+
+        /**
+         * Add a card. A card which breaks a constraint, i.e. is missing a required field, is logged
+         * and skipped, so the rest of its set is still added.
+         *
+         * @param card The card to add
+         * @throws FamiliarDbException If something goes wrong
+         */
+        public void insert(Card card) throws FamiliarDbException {
+            String delimiter = " - ";
+            String types[] = card.mType.split(delimiter);
+            String supertype = "";
             String subtype = "";
-            boolean first = true;
-            for (int i = 1; i < types.length; i++) {
-                if (!first) {
-                    subtype += delimiter;
-                }
-                subtype += types[i];
-                first = false;
+            if (types.length > 0) {
+                supertype = types[0];
             }
-            initialValues.put(KEY_SUBTYPE, subtype);
-        } else {
-            initialValues.put(KEY_SUBTYPE, "");
-        }
-        initialValues.put(KEY_RARITY, (int) card.mRarity);
-        initialValues.put(KEY_MANACOST, card.mManaCost);
-        initialValues.put(KEY_CMC, card.mCmc);
-        initialValues.put(KEY_POWER, card.mPower);
-        initialValues.put(KEY_TOUGHNESS, card.mToughness);
-        initialValues.put(KEY_LOYALTY, card.mLoyalty);
-        initialValues.put(KEY_ABILITY, card.mText);
-        initialValues.put(KEY_FLAVOR, card.mFlavor);
-        initialValues.put(KEY_ARTIST, card.mArtist);
-        initialValues.put(KEY_NUMBER, card.mNumber);
-        initialValues.put(KEY_COLOR, card.mColor);
-        initialValues.put(KEY_MULTIVERSEID, card.mMultiverseId);
-        initialValues.put(KEY_COLOR_IDENTITY, card.mColorIdentity);
-        initialValues.put(KEY_NAME_NO_ACCENT, removeAccentMarks(card.mName));
-        initialValues.put(KEY_WATERMARK, card.mWatermark);
-
-        for (Card.ForeignPrinting fp : card.mForeignPrintings) {
-            switch (fp.mLanguageCode) {
-                case Language.Chinese_Traditional: {
-                    initialValues.put(KEY_NAME_CHINESE_TRADITIONAL, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_CHINESE_TRADITIONAL, fp.mMultiverseId);
-                    break;
-                }
-                case Language.Chinese_Simplified: {
-                    initialValues.put(KEY_NAME_CHINESE_SIMPLIFIED, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_CHINESE_SIMPLIFIED, fp.mMultiverseId);
-                    break;
-                }
-                case Language.French: {
-                    initialValues.put(KEY_NAME_FRENCH, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_FRENCH, fp.mMultiverseId);
-                    break;
-                }
-                case Language.German: {
-                    initialValues.put(KEY_NAME_GERMAN, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_GERMAN, fp.mMultiverseId);
-                    break;
-                }
-                case Language.Italian: {
-                    initialValues.put(KEY_NAME_ITALIAN, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_ITALIAN, fp.mMultiverseId);
-                    break;
-                }
-                case Language.Japanese: {
-                    initialValues.put(KEY_NAME_JAPANESE, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_JAPANESE, fp.mMultiverseId);
-                    break;
-                }
-                case Language.Portuguese_Brazil: {
-                    initialValues.put(KEY_NAME_PORTUGUESE_BRAZIL, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_PORTUGUESE_BRAZIL, fp.mMultiverseId);
-                    break;
+            if (types.length > 1) {
+                /* Concatenate all strings after the first delimiter
+                 * in case there's a hyphen in the subtype
+                 */
+                boolean first = true;
+                for (int i = 1; i < types.length; i++) {
+                    if (!first) {
+                        subtype += delimiter;
+                    }
+                    subtype += types[i];
+                    first = false;
                 }
-                case Language.Russian: {
-                    initialValues.put(KEY_NAME_RUSSIAN, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_RUSSIAN, fp.mMultiverseId);
-                    break;
+            }
+            String nameNoAccent = removeAccentMarks(card.mName);
+
+            try {
+                mCardStatement.clearBindings();
+                int column = 1;
+                bindString(mCardStatement, column++, card.mName);
+                bindString(mCardStatement, column++, card.mExpansion);
+                bindString(mCardStatement, column++, supertype);
+                bindString(mCardStatement, column++, subtype);
+                mCardStatement.bindLong(column++, (int) card.mRarity);
+                bindString(mCardStatement, column++, card.mManaCost);
+                mCardStatement.bindLong(column++, card.mCmc);
+                mCardStatement.bindDouble(column++, card.mPower);
+                mCardStatement.bindDouble(column++, card.mToughness);
+                mCardStatement.bindLong(column++, card.mLoyalty);
+                bindString(mCardStatement, column++, card.mText);
+                bindString(mCardStatement, column++, card.mFlavor);
+                bindString(mCardStatement, column++, card.mArtist);
+                bindString(mCardStatement, column++, card.mNumber);
+                bindString(mCardStatement, column++, card.mColor);
+                mCardStatement.bindLong(column++, card.mMultiverseId);
+                bindString(mCardStatement, column++, card.mColorIdentity);
+                mCardStatement.bindLong(column++, getColorMask(card.mColor, true));
+                mCardStatement.bindLong(column++, getColorMask(card.mColorIdentity, false));
+                bindString(mCardStatement, column++, nameNoAccent);
+                bindString(mCardStatement, column++, card.mWatermark);
+
+                /* Foreign names and multiverse IDs follow, in pairs. Missing ones stay null */
+                for (Card.ForeignPrinting fp : card.mForeignPrintings) {
+                    int languageColumn = getForeignPrintingColumn(fp.mLanguageCode);
+                    if (languageColumn != -1) {
+                        bindString(mCardStatement, column + languageColumn, fp.mName);
+                        mCardStatement.bindLong(column + languageColumn + 1, fp.mMultiverseId);
+                    }
                 }
-                case Language.Spanish: {
-                    initialValues.put(KEY_NAME_SPANISH, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_SPANISH, fp.mMultiverseId);
-                    break;
+
+                long rowId;
+                try {
+                    rowId = mCardStatement.executeInsert();
+                } catch (SQLiteConstraintException e) {
+                    Log.w(TAG, "Skipped " + card.mName + " in " + card.mExpansion, e);
+                    return;
                 }
-                case Language.Korean: {
-                    initialValues.put(KEY_NAME_KOREAN, fp.mName);
-                    initialValues.put(KEY_MULTIVERSEID_KOREAN, fp.mMultiverseId);
-                    break;
+
+                /* Index the searchable text, keyed to the new card */
+                mFtsStatement.clearBindings();
+                mFtsStatement.bindLong(1, rowId);
+                bindString(mFtsStatement, 2, nameNoAccent);
+                bindString(mFtsStatement, 3, card.mText);
+                bindString(mFtsStatement, 4, card.mFlavor);
+                bindString(mFtsStatement, 5, card.mArtist);
+                mFtsStatement.executeInsert();
+
+                createCardTypes(mTypeStatement, rowId, KEY_SUPERTYPE, supertype);
+                createCardTypes(mTypeStatement, rowId, KEY_SUBTYPE, subtype);
+
+                /* Seed the productId, so this card's price doesn't need a search */
+                if (card.mTcgplayerProductId > 0) {
+                    mProductStatement.clearBindings();
+                    bindString(mProductStatement, 1, card.mName);
+                    bindString(mProductStatement, 2, card.mExpansion);
+                    bindString(mProductStatement, 3, (null == card.mNumber) ? "" : card.mNumber);
+                    mProductStatement.bindLong(4, card.mTcgplayerProductId);
+                    mProductStatement.execute();
                 }
+            } catch (SQLiteException | IllegalStateException e) {
+                throw new FamiliarDbException(e);
+            }
+        }
+
+        /**
+         * Release the compiled statements.
+         */
+        public void close() {
+            mCardStatement.close();
+            mFtsStatement.close();
+            mTypeStatement.close();
+            mProductStatement.close();
+        }
+
+        /**
+         * Helper function to find where a language's name and multiverse ID are bound.
+         *
+         * @param languageCode The language of a foreign printing
+         * @return The offset of the language's name column after KEY_WATERMARK, or -1 if the
+         * language isn't stored
+         */
+        private static int getForeignPrintingColumn(String languageCode) {
+            switch (languageCode) {
+                case Language.Chinese_Traditional:
+                    return 0;
+                case Language.Chinese_Simplified:
+                    return 2;
+                case Language.French:
+                    return 4;
+                case Language.German:
+                    return 6;
+                case Language.Italian:
+                    return 8;
+                case Language.Japanese:
+                    return 10;
+                case Language.Portuguese_Brazil:
+                    return 12;
+                case Language.Russian:
+                    return 14;
+                case Language.Spanish:
+                    return 16;
+                case Language.Korean:
+                    return 18;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Helper function to bind a String which may be null.
+         *
+         * @param statement The statement to bind to
+         * @param index     The 1-based index of the argument
+         * @param value     The value to bind
+         */
+        private static void bindString(SQLiteStatement statement, int index, String value) {
+            if (null == value) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
             }
         }
+    }
 
-        mDb.insert(DATABASE_TABLE_CARDS, null, initialValues);
+    /**
+     * Compile a statement which adds a row to DATABASE_TABLE_CARD_TYPES.
+     *
+     * @param mDb The database to compile the statement for
+     * @return The compiled statement
+     */
+    private static SQLiteStatement compileCardTypesStatement(SQLiteDatabase mDb) {
+        return mDb.compileStatement("INSERT INTO " + DATABASE_TABLE_CARD_TYPES + " (" +
+                KEY_CARD_ID + ", " + KEY_KIND + ", " + KEY_TOKEN + ") VALUES (?, ?, ?)");
+    }
+
+    /**
+     * Add a row to DATABASE_TABLE_CARD_TYPES for each word of a card's supertype or subtype.
+     *
+     * @param statement A statement from compileCardTypesStatement()
+     * @param cardId    The KEY_ID of the card
+     * @param kind      KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param types     The card's supertype or subtype
+     */
+    private static void createCardTypes(SQLiteStatement statement, long cardId, String kind,
+                                        String types) {
+        if (null == types) {
+            return;
+        }
+        for (String token : types.split("\\s+")) {
+            if (!token.isEmpty()) {
+                statement.bindLong(1, cardId);
+                statement.bindString(2, kind);
+                statement.bindString(3, token);
+                statement.executeInsert();
+            }
+        }
     }
 
     /**
@@ -1741,6 +2299,12 @@ public class CardDbAdapter {
             throws FamiliarDbException {
 
         try {
+            database.delete(DATABASE_TABLE_CARDS_FTS, "docid IN (SELECT " + KEY_ID +
+                    " FROM " + DATABASE_TABLE_CARDS +
+                    " WHERE " + KEY_SET + " = " + sanitizeString(setCode, false) + ")", null);
+            database.delete(DATABASE_TABLE_CARD_TYPES, KEY_CARD_ID + " IN (SELECT " + KEY_ID +
+                    " FROM " + DATABASE_TABLE_CARDS +
+                    " WHERE " + KEY_SET + " = " + sanitizeString(setCode, false) + ")", null);
             database.delete(DATABASE_TABLE_CARDS, KEY_SET + " = " + sanitizeString(setCode, false), null);
             database.delete(DATABASE_TABLE_SETS, KEY_CODE + " = " + sanitizeString(setCode, false), null);
         } catch (SQLiteException | IllegalStateException e) {
@@ -1821,50 +2385,112 @@ public class CardDbAdapter {
      */
     public static int checkLegality(String mCardName, String format, SQLiteDatabase mDb)
             throws FamiliarDbException {
-        mCardName = sanitizeString(mCardName, false);
-        format = sanitizeString(format, false);
-
+        Cursor c = null;
         try {
-            /* The new way (single query per type, should be much faster) - Alex
-             * TODO clean this up */
-            String sql = "SELECT COALESCE(CASE (SELECT "
-                    + KEY_SET
-                    + " FROM "
-                    + DATABASE_TABLE_CARDS
-                    + " WHERE "
-                    + KEY_NAME
-                    + " = "
-                    + mCardName
-                    + ") ";
-            for (String illegalSet : ILLEGAL_SETS) {
-                sql += "WHEN '" + illegalSet + "' THEN 1 ";
-            }
-            sql += "ELSE NULL END, "
-                    + "CASE (SELECT 1 FROM " + DATABASE_TABLE_CARDS
-                    + " c INNER JOIN " + DATABASE_TABLE_LEGAL_SETS
-                    + " ls ON ls." + KEY_SET + " = c." + KEY_SET + " WHERE ls."
-                    + KEY_FORMAT + " = " + format + " AND c." + KEY_NAME
-                    + " = " + mCardName
-                    + ") WHEN 1 THEN NULL ELSE CASE WHEN " + format
-                    + " = 'Legacy' " + "THEN NULL WHEN " + format
-                    + " = 'Vintage' THEN NULL WHEN " + format
-                    + " = 'Commander' THEN NULL ELSE 1 END END, (SELECT "
-                    + KEY_LEGALITY + " from " + DATABASE_TABLE_BANNED_CARDS
-                    + " WHERE " + KEY_NAME + " = " + mCardName + " AND "
-                    + KEY_FORMAT + " = " + format + "), 0) AS "
-                    + KEY_LEGALITY;
-
-            Cursor c = mDb.rawQuery(sql, null);
-
-            c.moveToFirst();
-            int legality = c.getInt(c.getColumnIndex(KEY_LEGALITY));
+            c = mDb.rawQuery("SELECT " + KEY_STATUS +
+                            " FROM " + DATABASE_TABLE_CARD_LEGALITY +
+                            " WHERE " + KEY_NAME_NO_ACCENT + " = ? AND " + KEY_FORMAT + " = ?",
+                    new String[]{removeAccentMarks(mCardName), format});
+
+            /* Cards without a row are legal */
+            int legality = LEGAL;
+            if (c.moveToFirst()) {
+                legality = c.getInt(0);
+            }
             c.close();
             return legality;
         } catch (SQLiteException | IllegalStateException e) {
+            if (c != null) {
+                c.close();
+            }
             throw new FamiliarDbException(e);
         }
     }
 
+    /**
+     * Recompute DATABASE_TABLE_CARD_LEGALITY from the cards, legal sets, and banned & restricted
+     * lists. This must be called whenever any of those change.
+     *
+     * @param mDb The database to recompute legality in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuildCardLegality(SQLiteDatabase mDb) throws FamiliarDbException {
+        try {
+            createCardLegality(mDb);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Drop, recreate and fill DATABASE_TABLE_CARD_LEGALITY. Each rule only adds a row for a card
+     * and format which doesn't have one yet, so the rules are applied in order of precedence.
+     *
+     * @param mDb The database to compute legality in
+     */
+    static void createCardLegality(SQLiteDatabase mDb) {
+        mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARD_LEGALITY);
+        mDb.execSQL(DATABASE_CREATE_CARD_LEGALITY);
+        mDb.execSQL(DATABASE_CREATE_CARD_LEGALITY_INDEX);
+
+        final String insert = "INSERT OR IGNORE INTO " + DATABASE_TABLE_CARD_LEGALITY + " (" +
+                KEY_NAME_NO_ACCENT + ", " + KEY_FORMAT + ", " + KEY_STATUS + ") ";
+
+        /* Cards only printed in silver bordered sets are banned everywhere */
+        mDb.execSQL(insert +
+                "SELECT DISTINCT " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + ", " +
+                DATABASE_TABLE_FORMATS + "." + KEY_NAME + ", " + BANNED +
+                " FROM " + DATABASE_TABLE_CARDS + ", " + DATABASE_TABLE_FORMATS +
+                " WHERE " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " NOT IN (" +
+                "SELECT " + KEY_NAME_NO_ACCENT + " FROM " + DATABASE_TABLE_CARDS +
+                " WHERE " + KEY_SET + " NOT IN (" + ILLEGAL_SETS_SQL + "))");
+
+        Cursor formats = mDb.rawQuery("SELECT " + KEY_NAME + ", " +
+                "(SELECT COUNT(*) FROM " + DATABASE_TABLE_LEGAL_SETS +
+                " WHERE " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_FORMAT + " = " +
+                DATABASE_TABLE_FORMATS + "." + KEY_NAME + ")" +
+                " FROM " + DATABASE_TABLE_FORMATS, null);
+        try {
+            while (formats.moveToNext()) {
+                String format = formats.getString(0);
+                if (formats.getInt(1) > 0) {
+                    /* If the format has legal sets, cards not printed in any of them are banned */
+                    mDb.execSQL(insert +
+                            "SELECT DISTINCT " + KEY_NAME_NO_ACCENT + ", ?, " + BANNED +
+                            " FROM " + DATABASE_TABLE_CARDS +
+                            " WHERE " + KEY_NAME_NO_ACCENT + " NOT IN (" +
+                            "SELECT " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT +
+                            " FROM " + DATABASE_TABLE_CARDS + " JOIN " + DATABASE_TABLE_LEGAL_SETS +
+                            " ON " + DATABASE_TABLE_CARDS + "." + KEY_SET + " = " +
+                            DATABASE_TABLE_LEGAL_SETS + "." + KEY_SET +
+                            " WHERE " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_FORMAT + " = ?)",
+                            new String[]{format, format});
+                } else {
+                    /* Otherwise it's eternal, and only casual cards are banned */
+                    mDb.execSQL(insert +
+                            "SELECT DISTINCT " + KEY_NAME_NO_ACCENT + ", ?, " + BANNED +
+                            " FROM " + DATABASE_TABLE_CARDS +
+                            " WHERE " + KEY_SUPERTYPE + " LIKE 'Plane'" +
+                            " OR " + KEY_SUPERTYPE + " LIKE 'Conspiracy'" +
+                            " OR " + KEY_SUPERTYPE + " LIKE '%Scheme'" +
+                            " OR " + KEY_SUPERTYPE + " LIKE 'Vanguard'",
+                            new String[]{format});
+                }
+            }
+        } finally {
+            formats.close();
+        }
+
+        /* Then the banned & restricted lists */
+        mDb.execSQL(insert +
+                "SELECT DISTINCT " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + ", " +
+                DATABASE_TABLE_BANNED_CARDS + "." + KEY_FORMAT + ", " +
+                DATABASE_TABLE_BANNED_CARDS + "." + KEY_LEGALITY +
+                " FROM " + DATABASE_TABLE_BANNED_CARDS + " JOIN " + DATABASE_TABLE_CARDS +
+                " ON " + DATABASE_TABLE_BANNED_CARDS + "." + KEY_NAME + " = " +
+                DATABASE_TABLE_CARDS + "." + KEY_NAME);
+    }
+
     /**********************************************************************************************
      *                                                                                            *
      *                               DATABASE_TABLE_SETS Functions                                *
@@ -2024,6 +2650,59 @@ public class CardDbAdapter {
         }
     }
 
+    /**
+     * Save a printing's TCGplayer.com productId, replacing any saved before.
+     *
+     * @param name      The card's name
+     * @param setCode   The card's set code
+     * @param number    The card's collector's number
+     * @param productId The TCGplayer.com productId
+     * @param mDb       The database to save the productId in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void addTcgProductId(String name, String setCode, String number, long productId,
+                                       SQLiteDatabase mDb) throws FamiliarDbException {
+        try {
+            mDb.execSQL(INSERT_TCG_PRODUCT, new Object[]{name, setCode, (null == number) ? "" : number, productId});
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Given a printing, return its saved TCGplayer.com productId. If there isn't one for the collector's number, e.g.
+     * because it wasn't known when the productId was saved, one for the same name in the same set is returned.
+     *
+     * @param name    The card's name
+     * @param setCode The card's set code
+     * @param number  The card's collector's number
+     * @param mDb     The database to query
+     * @return The productId, or -1 if none was saved
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static long getTcgProductId(String name, String setCode, String number, SQLiteDatabase mDb)
+            throws FamiliarDbException {
+        Cursor c = null;
+        try {
+            c = mDb.rawQuery("SELECT " + KEY_PRODUCT_ID +
+                            " FROM " + DATABASE_TABLE_TCG_PRODUCT +
+                            " WHERE " + KEY_SET + " = ? AND " + KEY_NAME + " = ?" +
+                            " ORDER BY " + KEY_NUMBER + " = ? DESC LIMIT 1",
+                    new String[]{setCode, name, (null == number) ? "" : number});
+            long productId = -1;
+            if (c.moveToFirst()) {
+                productId = c.getLong(0);
+            }
+            c.close();
+            return productId;
+        } catch (SQLiteException | IllegalStateException e) {
+            if (c != null) {
+                c.close();
+            }
+            throw new FamiliarDbException(e);
+        }
+    }
+
     /**
      * Helper function to determine what kind of multicard a card is based on set and number.
      * TODO add option for kamigawa flip? Determine type based on text search for supplemental sets?
@@ -2230,6 +2909,8 @@ public class CardDbAdapter {
             mDb.execSQL(DATABASE_CREATE_FORMATS);
             mDb.execSQL(DATABASE_CREATE_LEGAL_SETS);
             mDb.execSQL(DATABASE_CREATE_BANNED_CARDS);
+            mDb.execSQL(DATABASE_CREATE_CARD_LEGALITY);
+            mDb.execSQL(DATABASE_CREATE_CARD_LEGALITY_INDEX);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
@@ -2246,6 +2927,7 @@ public class CardDbAdapter {
             mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
             mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
             mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
+            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARD_LEGALITY);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
@@ -2558,90 +3240,127 @@ public class CardDbAdapter {
         return DatabaseUtils.sqlEscapeString(input.trim());
     }
 
-    private static final char replacements[][] = {
-            {Character.toChars(0xC0)[0], 'A'},
-            {Character.toChars(0xC1)[0], 'A'},
-            {Character.toChars(0xC2)[0], 'A'},
-            {Character.toChars(0xC3)[0], 'A'},
-            {Character.toChars(0xC4)[0], 'A'},
-            {Character.toChars(0xC5)[0], 'A'},
-            //{Character.toChars(0xC6)[0], 'Ae'},
-            {Character.toChars(0xC7)[0], 'C'},
-            {Character.toChars(0xC8)[0], 'E'},
-            {Character.toChars(0xC9)[0], 'E'},
-            {Character.toChars(0xCA)[0], 'E'},
-            {Character.toChars(0xCB)[0], 'E'},
-            {Character.toChars(0xCC)[0], 'I'},
-            {Character.toChars(0xCD)[0], 'I'},
-            {Character.toChars(0xCE)[0], 'I'},
-            {Character.toChars(0xCF)[0], 'I'},
-            {Character.toChars(0xD0)[0], 'D'},
-            {Character.toChars(0xD1)[0], 'N'},
-            {Character.toChars(0xD2)[0], 'O'},
-            {Character.toChars(0xD3)[0], 'O'},
-            {Character.toChars(0xD4)[0], 'O'},
-            {Character.toChars(0xD5)[0], 'O'},
-            {Character.toChars(0xD6)[0], 'O'},
-            {Character.toChars(0xD7)[0], 'x'},
-            {Character.toChars(0xD8)[0], 'O'},
-            {Character.toChars(0xD9)[0], 'U'},
-            {Character.toChars(0xDA)[0], 'U'},
-            {Character.toChars(0xDB)[0], 'U'},
-            {Character.toChars(0xDC)[0], 'U'},
-            {Character.toChars(0xDD)[0], 'Y'},
-            {Character.toChars(0xE0)[0], 'a'},
-            {Character.toChars(0xE1)[0], 'a'},
-            {Character.toChars(0xE2)[0], 'a'},
-            {Character.toChars(0xE3)[0], 'a'},
-            {Character.toChars(0xE4)[0], 'a'},
-            {Character.toChars(0xE5)[0], 'a'},
-            //{Character.toChars(0xE6)[0], 'ae'},
-            {Character.toChars(0xE7)[0], 'c'},
-            {Character.toChars(0xE8)[0], 'e'},
-            {Character.toChars(0xE9)[0], 'e'},
-            {Character.toChars(0xEA)[0], 'e'},
-            {Character.toChars(0xEB)[0], 'e'},
-            {Character.toChars(0xEC)[0], 'i'},
-            {Character.toChars(0xED)[0], 'i'},
-            {Character.toChars(0xEE)[0], 'i'},
-            {Character.toChars(0xEF)[0], 'i'},
-            {Character.toChars(0xF1)[0], 'n'},
-            {Character.toChars(0xF2)[0], 'o'},
-            {Character.toChars(0xF3)[0], 'o'},
-            {Character.toChars(0xF4)[0], 'o'},
-            {Character.toChars(0xF5)[0], 'o'},
-            {Character.toChars(0xF6)[0], 'o'},
-            {Character.toChars(0xF8)[0], 'o'},
-            {Character.toChars(0xF9)[0], 'u'},
-            {Character.toChars(0xFA)[0], 'u'},
-            {Character.toChars(0xFB)[0], 'u'},
-            {Character.toChars(0xFC)[0], 'u'},
-            {Character.toChars(0xFD)[0], 'y'},
-            {Character.toChars(0xFF)[0], 'y'}
-    };
+    /**
+     * Helper function to compute the KEY_COLOR_MASK or KEY_COLOR_IDENTITY_MASK value for a card.
+     *
+     * @param color       The card's KEY_COLOR or KEY_COLOR_IDENTITY
+     * @param isCardColor true for KEY_COLOR, which has a colorless bit, false for the identity
+     * @return The bitmask for the colors in the String
+     */
+    private static int getColorMask(String color, boolean isCardColor) {
+        if (null == color) {
+            return 0;
+        }
+        if (isCardColor && color.length() == 1 && COLORLESS_CHARS.indexOf(color.charAt(0)) != -1) {
+            return MASK_COLORLESS;
+        }
+        int mask = 0;
+        for (char ch : color.toCharArray()) {
+            int index = MASK_COLORS.indexOf(Character.toUpperCase(ch));
+            if (index != -1) {
+                mask |= 1 << index;
+            }
+        }
+        return mask;
+    }
 
     /**
-     * Helper function to remove all non-ascii characters with accent marks from a String.
+     * Helper function to get the mask bit for a color in a SearchCriteria color String.
      *
-     * @param str The String to remove accent marks from
-     * @return The accent-less String
+     * @param ch A color character, either case. 'L' is colorless
+     * @return The bit for that color, or 0 if it isn't a color
      */
-    public static String removeAccentMarks(String str) {
-        StringBuilder out = new StringBuilder(str.length());
-        char[] letters = str.toCharArray();
-        for (char letter : letters) {
-            boolean matchFailed = true;
-            for (char[] replacement : replacements) {
-                if (letter == replacement[0]) {
-                    out.append(replacement[1]);
-                    matchFailed = false;
-                    break;
+    private static int getColorBit(char ch) {
+        ch = Character.toUpperCase(ch);
+        if (ch == 'L') {
+            return MASK_COLORLESS;
+        }
+        int index = MASK_COLORS.indexOf(ch);
+        return (index == -1) ? 0 : (1 << index);
+    }
+
+    /**
+     * Helper function to turn user input into a term for a MATCH against DATABASE_TABLE_CARDS_FTS.
+     * The input is split the same way the "simple" tokenizer splits the indexed text, so
+     * punctuation is dropped and ASCII is lowercased. Each token becomes a prefix match restricted
+     * to a single column, and the tokens are implicitly ANDed. They can't be a quoted phrase,
+     * because FTS3 and FTS4 don't allow a column filter on a phrase, and nothing would match.
+     *
+     * Since the tokens may be in any order, a term for more than one token only narrows down the
+     * candidates, and should be checked with LIKE too. See isFtsWord().
+     *
+     * @param column The indexed column to restrict the term to
+     * @param words  The user's input, one or more words
+     * @return The MATCH term, or null if the input has nothing the index could match
+     */
+    private static String getFtsTerm(String column, String words) {
+        StringBuilder term = new StringBuilder();
+        boolean inToken = false;
+        for (char c : words.toCharArray()) {
+            if (isFtsTokenChar(c)) {
+                if (!inToken) {
+                    term.append((term.length() == 0) ? "" : "* ").append(column).append(':');
+                    inToken = true;
                 }
+                term.append((c >= 'A' && c <= 'Z') ? (char) (c - 'A' + 'a') : c);
+            } else {
+                inToken = false;
             }
-            if (matchFailed) {
-                out.append(letter);
+        }
+        if (term.length() == 0) {
+            return null;
+        }
+        return term.append('*').toString();
+    }
+
+    /**
+     * @param word A word of user input
+     * @return true if the word is a single token, so its term from getFtsTerm() matches it exactly,
+     * false if it has characters the index drops and needs checking with LIKE
+     */
+    private static boolean isFtsWord(String word) {
+        if (word.isEmpty()) {
+            return false;
+        }
+        for (char c : word.toCharArray()) {
+            if (!isFtsTokenChar(c)) {
+                return false;
             }
         }
-        return out.toString();
+        return true;
+    }
+
+    /**
+     * @param c A character
+     * @return true if the "simple" tokenizer keeps the character in a token. Only ASCII letters and
+     * digits, plus all non-ASCII characters, are token characters
+     */
+    private static boolean isFtsTokenChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c > 0x7F;
+    }
+
+    /**
+     * Helper function to add a selection for cards which do, or do not, match a full-text query.
+     *
+     * @param statement       The query to add the selection to
+     * @param matchExpression The MATCH expression, built from getFtsTerm()
+     * @param isIncluded      true to select cards which match, false to select cards which don't
+     */
+    private static void appendFtsSelection(SqlBuilder statement, String matchExpression,
+                                           boolean isIncluded) {
+        statement.append("(" + DATABASE_TABLE_CARDS + "." + KEY_ID + (isIncluded ? " IN" : " NOT IN") +
+                " (SELECT docid FROM " + DATABASE_TABLE_CARDS_FTS +
+                " WHERE " + DATABASE_TABLE_CARDS_FTS + " MATCH ")
+                .appendArg(matchExpression).append("))");
+    }
+
+    /**
+     * Helper function to remove all non-ascii characters with accent marks from a String. See AccentFolder.
+     *
+     * @param str The String to remove accent marks from
+     * @return The accent-less String
+     */
+    public static String removeAccentMarks(String str) {
+        return AccentFolder.removeAccentMarks(str);
     }
 }
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.app.SearchManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An in-memory index of every distinct card name, for autocomplete. Names are sorted by their lowercase, accent-free
+ * form, which is packed into one char array, so a prefix lookup is a binary search followed by a short scan.
+ *
+ * For names which are typed badly, there is also an index from every trigram to the names which contain it. Names
+ * which share enough trigrams with what was typed are ranked by their edit distance from it, counting swapped letters
+ * as a single edit.
+ *
+ * The index is built on a background thread the first time it is asked for, and rebuilt by DbUpdaterService after
+ * the cards change. Until it is ready, getIndex() returns null and callers should fall back to the database.
+ */
+public class CardNameIndex {
+
+    private static final String TAG = "CardNameIndex";
+
+    /* The columns query() returns, the same as CardDbAdapter.getCardsByNamePrefix() */
+    private static final String[] COLUMNS = new String[]{
+            CardDbAdapter.KEY_NAME,
+            CardDbAdapter.KEY_ID,
+            SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
+    };
+
+    /* How many near-matches query() suggests when nothing starts with the query */
+    private static final int MAX_FUZZY_SUGGESTIONS = 10;
+    /* Pads the ends of keys, so that the letters at the ends of a name are in trigrams too */
+    private static final char TRIGRAM_PAD = '\u0001';
+
+    private static volatile CardNameIndex sIndex = null;
+    private static final AtomicBoolean sBuilding = new AtomicBoolean(false);
+
+    /* The lowercase, accent-free names, end to end. Name i is mKeys[mKeyStarts[i]] to mKeys[mKeyStarts[i + 1]] */
+    private final char[] mKeys;
+    private final int[] mKeyStarts;
+    /* The names as displayed, and the ID of each name's newest printing */
+    private final String[] mNames;
+    private final long[] mIds;
+    /* Every distinct trigram, sorted. The names containing mGrams[i] are mPostings[mGramStarts[i]] to
+     * mPostings[mGramStarts[i + 1]], in index order
+     */
+    private final long[] mGrams;
+    private final int[] mGramStarts;
+    private final int[] mPostings;
+
+    /**
+     * Constructor. Builds the trigram index from the keys.
+     *
+     * @param keys      The lowercase, accent-free names, end to end, in sorted order
+     * @param keyStarts Where each name starts in keys, with one extra entry for the end of the last
+     * @param names     The names as displayed, in the same order
+     * @param ids       The ID of each name's newest printing, in the same order
+     */
+    private CardNameIndex(char[] keys, int[] keyStarts, String[] names, long[] ids) {
+        mKeys = keys;
+        mKeyStarts = keyStarts;
+        mNames = names;
+        mIds = ids;
+
+        /* Collect each name's distinct trigrams */
+        long[][] entryGrams = new long[names.length][];
+        int totalGrams = 0;
+        for (int i = 0; i < names.length; i++) {
+            entryGrams[i] = trigrams(keys, keyStarts[i], keyStarts[i + 1] - keyStarts[i], true);
+            totalGrams += entryGrams[i].length;
+        }
+
+        /* Find the distinct trigrams over all names */
+        long[] allGrams = new long[totalGrams];
+        int position = 0;
+        for (long[] grams : entryGrams) {
+            System.arraycopy(grams, 0, allGrams, position, grams.length);
+            position += grams.length;
+        }
+        Arrays.sort(allGrams);
+        mGrams = Arrays.copyOf(allGrams, unique(allGrams, allGrams.length));
+
+        /* Count the names per trigram, then fill in the postings, which come out in index order */
+        int[][] entryGramIndices = new int[names.length][];
+        mGramStarts = new int[mGrams.length + 1];
+        for (int i = 0; i < names.length; i++) {
+            entryGramIndices[i] = new int[entryGrams[i].length];
+            for (int j = 0; j < entryGrams[i].length; j++) {
+                entryGramIndices[i][j] = Arrays.binarySearch(mGrams, entryGrams[i][j]);
+                mGramStarts[entryGramIndices[i][j] + 1]++;
+            }
+        }
+        for (int i = 0; i < mGrams.length; i++) {
+            mGramStarts[i + 1] += mGramStarts[i];
+        }
+        mPostings = new int[totalGrams];
+        int[] filled = Arrays.copyOf(mGramStarts, mGrams.length);
+        for (int i = 0; i < names.length; i++) {
+            for (int gramIndex : entryGramIndices[i]) {
+                mPostings[filled[gramIndex]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Get the index if it is built. If it isn't, start building it in the background.
+     *
+     * @param context A context to lease the database with
+     * @return The index, or null if it isn't ready yet
+     */
+    public static CardNameIndex getIndex(Context context) {
+        CardNameIndex index = sIndex;
+        if (index == null && sBuilding.compareAndSet(false, true)) {
+            final Context appContext = context.getApplicationContext();
+            new Thread(() -> {
+                try (DatabaseManager.Lease lease = DatabaseManager.lease(appContext, false)) {
+                    /* Don't clobber a newer index from rebuild() */
+                    CardNameIndex built = build(lease.getDatabase());
+                    if (sIndex == null) {
+                        sIndex = built;
+                    }
+                } catch (FamiliarDbException e) {
+                    Log.w(TAG, "Couldn't build the card name index", e);
+                } finally {
+                    sBuilding.set(false);
+                }
+            }, "CardNameIndexer").start();
+        }
+        return index;
+    }
+
+    /**
+     * Rebuild the index from the database, on this thread. Called after the cards change.
+     *
+     * @param database The database to read from, with the changes committed
+     * @throws FamiliarDbException If the database can't be read
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        sIndex = build(database);
+    }
+
+    /**
+     * Read every card name from the database and sort them into an index.
+     *
+     * @param database The database to read from
+     * @return The index
+     * @throws FamiliarDbException If the database can't be read
+     */
+    private static CardNameIndex build(SQLiteDatabase database) throws FamiliarDbException {
+        long start = System.nanoTime();
+
+        /* Newest printings come first, so the first ID seen for a name is kept */
+        ArrayList<String> keys = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Long> ids = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        Cursor cursor = CardDbAdapter.getCardNamesForIndex(database);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                if (name != null && seen.add(name)) {
+                    String noAccent = cursor.getString(1);
+                    keys.add((noAccent == null ? name : noAccent).toLowerCase(Locale.ENGLISH));
+                    names.add(name);
+                    ids.add(cursor.getLong(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        CardNameIndex index = fromNames(keys, names, ids);
+        Log.i(TAG, "Indexed " + names.size() + " card names in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * Sort names into an index.
+     *
+     * @param keys  The lowercase, accent-free names, with no repeats
+     * @param names The names as displayed, in the same order
+     * @param ids   The ID of each name's newest printing, in the same order
+     * @return The index
+     */
+    static CardNameIndex fromNames(List<String> keys, List<String> names, List<Long> ids) {
+        /* Sort by key, then pack the keys into one array */
+        Integer[] order = new Integer[keys.size()];
+        int totalLength = 0;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            totalLength += keys.get(i).length();
+        }
+        Arrays.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+
+        char[] packedKeys = new char[totalLength];
+        int[] keyStarts = new int[order.length + 1];
+        String[] sortedNames = new String[order.length];
+        long[] sortedIds = new long[order.length];
+        int position = 0;
+        for (int i = 0; i < order.length; i++) {
+            String key = keys.get(order[i]);
+            keyStarts[i] = position;
+            key.getChars(0, key.length(), packedKeys, position);
+            position += key.length();
+            sortedNames[i] = names.get(order[i]);
+            sortedIds[i] = ids.get(order[i]);
+        }
+        keyStarts[order.length] = position;
+
+        return new CardNameIndex(packedKeys, keyStarts, sortedNames, sortedIds);
+    }
+
+    /**
+     * Find every card name which starts with the query, ignoring case and accent marks.
+     *
+     * @param query What the user has typed so far
+     * @return A Cursor with the same columns as CardDbAdapter.getCardsByNamePrefix(), or null if the query is blank
+     */
+    public Cursor query(String query) {
+        int[] found = lookup(query);
+        if (found == null) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i : found) {
+            cursor.addRow(new Object[]{mNames[i], mIds[i], mIds[i]});
+        }
+        return cursor;
+    }
+
+    /**
+     * Find every card name which starts with the query, ignoring case and accent marks. If nothing does, the query is
+     * probably misspelled, so find names which nearly start with it instead.
+     *
+     * @param query What the user has typed so far
+     * @return The positions of the names in the index, or null if the query is blank
+     */
+    int[] lookup(String query) {
+        String prefix = AccentFolder.removeAccentMarks(query).toLowerCase(Locale.ENGLISH);
+        int start = 0;
+        while (start < prefix.length() && Character.isWhitespace(prefix.charAt(start))) {
+            start++;
+        }
+        if (start == prefix.length()) {
+            return null;
+        }
+        char[] prefixChars = prefix.substring(start).toCharArray();
+
+        int first = lowerBound(prefixChars);
+        int end = first;
+        while (end < mNames.length && startsWith(end, prefixChars)) {
+            end++;
+        }
+        if (end == first) {
+            return findNear(prefixChars, MAX_FUZZY_SUGGESTIONS, true);
+        }
+        int[] found = new int[end - first];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = first + i;
+        }
+        return found;
+    }
+
+    /**
+     * @param position A position in the index
+     * @return The name at that position, as displayed
+     */
+    String getName(int position) {
+        return mNames[position];
+    }
+
+    /**
+     * Find the card names closest to a possibly misspelled name, ignoring case and accent marks.
+     *
+     * @param name  The name as typed
+     * @param limit The most names to return
+     * @return Card names, closest first. Empty if nothing is close. An exact match is always first
+     */
+    public List<String> findSimilar(String name, int limit) {
+        String key = AccentFolder.removeAccentMarks(name).trim().toLowerCase(Locale.ENGLISH);
+        ArrayList<String> similar = new ArrayList<>();
+        if (!key.isEmpty()) {
+            for (int i : findNear(key.toCharArray(), limit, false)) {
+                similar.add(mNames[i]);
+            }
+        }
+        return similar;
+    }
+
+    /**
+     * Find the names closest to a query. Candidates are names which share enough trigrams with the query to be within
+     * the allowed distance, since one edit changes at most three trigrams. Those are ranked by edit distance, then by
+     * shared trigrams, then alphabetically.
+     *
+     * @param query  A lowercase, accent-free query
+     * @param limit  The most names to return
+     * @param prefix true to compare the query against the start of each name, false to compare whole names
+     * @return The positions of the closest names in the index, closest first
+     */
+    private int[] findNear(char[] query, int limit, boolean prefix) {
+        /* Allow more typos in longer names */
+        int maxDistance = (query.length <= 4) ? 1 : ((query.length <= 8) ? 2 : 3);
+
+        /* A prefix doesn't have the trigram for its end */
+        long[] queryGrams = trigrams(query, 0, query.length, !prefix);
+        int[] shared = countShared(queryGrams);
+
+        /* Measure the distance to every name which could be close enough. The results are packed into longs as
+         * distance, then unshared trigrams, then position, so that sorting them ranks them
+         */
+        int minShared = Math.max(1, queryGrams.length - 3 * maxDistance);
+        long[] ranked = new long[16];
+        int count = 0;
+        for (int i = 0; i < mNames.length; i++) {
+            if (shared[i] >= minShared) {
+                int distance = distance(i, query, maxDistance, prefix);
+                if (distance <= maxDistance) {
+                    if (count == ranked.length) {
+                        ranked = Arrays.copyOf(ranked, count * 2);
+                    }
+                    ranked[count++] = ((long) distance << 48) | ((long) (queryGrams.length - shared[i]) << 32) | i;
+                }
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+
+        int[] near = new int[Math.min(count, limit)];
+        for (int i = 0; i < near.length; i++) {
+            near[i] = (int) ranked[i];
+        }
+        return near;
+    }
+
+    /**
+     * Count the trigrams each name shares with a query, from the names listed under each of the query's trigrams
+     *
+     * @param queryGrams The query's distinct trigrams
+     * @return How many of them each name contains, by position in the index
+     */
+    int[] countShared(long[] queryGrams) {
+        int[] shared = new int[mNames.length];
+        for (long gram : queryGrams) {
+            int gramIndex = Arrays.binarySearch(mGrams, gram);
+            if (gramIndex >= 0) {
+                for (int i = mGramStarts[gramIndex]; i < mGramStarts[gramIndex + 1]; i++) {
+                    shared[mPostings[i]]++;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Compute the edit distance between a query and a name, where inserting, deleting or changing a letter or swapping
+     * two adjacent letters is one edit. Gives up once the distance is over the limit.
+     *
+     * @param entry       A position in the index
+     * @param query       A lowercase, accent-free query
+     * @param maxDistance The largest distance worth knowing exactly
+     * @param prefix      true to find the distance to the closest start of the name, false to the whole name
+     * @return The distance, or maxDistance + 1 if it is larger than maxDistance
+     */
+    int distance(int entry, char[] query, int maxDistance, boolean prefix) {
+        int keyStart = mKeyStarts[entry];
+        int keyLength = mKeyStarts[entry + 1] - keyStart;
+        if (prefix) {
+            keyLength = Math.min(keyLength, query.length + maxDistance);
+        } else if (Math.abs(keyLength - query.length) > maxDistance) {
+            return maxDistance + 1;
+        }
+
+        /* Only three rows of the table are needed at a time */
+        int[] twoBack = new int[keyLength + 1];
+        int[] oneBack = new int[keyLength + 1];
+        int[] current = new int[keyLength + 1];
+        for (int j = 0; j <= keyLength; j++) {
+            oneBack[j] = j;
+        }
+        for (int i = 1; i <= query.length; i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= keyLength; j++) {
+                char keyChar = mKeys[keyStart + j - 1];
+                int cost = (query[i - 1] == keyChar) ? 0 : 1;
+                int d = Math.min(Math.min(oneBack[j] + 1, current[j - 1] + 1), oneBack[j - 1] + cost);
+                if (i > 1 && j > 1 && query[i - 1] == mKeys[keyStart + j - 2] && query[i - 2] == keyChar) {
+                    d = Math.min(d, twoBack[j - 2] + 1);
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] recycled = twoBack;
+            twoBack = oneBack;
+            oneBack = current;
+            current = recycled;
+        }
+
+        /* oneBack is now the last row. A prefix can end anywhere in the name */
+        int distance = oneBack[keyLength];
+        if (prefix) {
+            for (int j = 0; j < keyLength; j++) {
+                distance = Math.min(distance, oneBack[j]);
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Get the distinct trigrams of a key, with the start padded so that the first letters get trigrams too. Each
+     * trigram is packed into a long, 16 bits per char.
+     *
+     * @param chars     The array holding the key
+     * @param start     Where the key starts in the array
+     * @param length    The length of the key
+     * @param padEnd    true to pad the end of the key as well, for a whole name rather than a prefix
+     * @return The key's distinct trigrams, sorted
+     */
+    static long[] trigrams(char[] chars, int start, int length, boolean padEnd) {
+        int padded = length + 2 + (padEnd ? 1 : 0);
+        long[] grams = new long[Math.max(0, padded - 2)];
+        long gram = ((long) TRIGRAM_PAD << 16) | TRIGRAM_PAD;
+        for (int i = 0; i < grams.length; i++) {
+            char c = (i < length) ? chars[start + i] : TRIGRAM_PAD;
+            gram = ((gram << 16) | c) & 0xFFFFFFFFFFFFL;
+            grams[i] = gram;
+        }
+        Arrays.sort(grams);
+        return Arrays.copyOf(grams, unique(grams, grams.length));
+    }
+
+    /**
+     * Remove repeats from a sorted array, in place.
+     *
+     * @param sorted A sorted array
+     * @param length How much of the array to look at
+     * @return How many distinct values are now at the front of the array
+     */
+    private static int unique(long[] sorted, int length) {
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * @param prefix A lowercase, accent-free prefix
+     * @return The position of the first name which isn't less than the prefix
+     */
+    private int lowerBound(char[] prefix) {
+        int low = 0;
+        int high = mNames.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param entry  A position in the index
+     * @param prefix A lowercase, accent-free prefix
+     * @return Less than zero if the name at entry sorts before the prefix, zero if it's equal, more than zero if after
+     */
+    private int compare(int entry, char[] prefix) {
+        int keyStart = mKeyStarts[entry];
+        int keyLength = mKeyStarts[entry + 1] - keyStart;
+        int length = Math.min(keyLength, prefix.length);
+        for (int i = 0; i < length; i++) {
+            char c = mKeys[keyStart + i];
+            if (c != prefix[i]) {
+                return c - prefix[i];
+            }
+        }
+        return keyLength - prefix.length;
+    }
+
+    /**
+     * @param entry  A position in the index
+     * @param prefix A lowercase, accent-free prefix
+     * @return true if the name at entry starts with the prefix
+     */
+    private boolean startsWith(int entry, char[] prefix) {
+        int keyStart = mKeyStarts[entry];
+        if (mKeyStarts[entry + 1] - keyStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mKeys[keyStart + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
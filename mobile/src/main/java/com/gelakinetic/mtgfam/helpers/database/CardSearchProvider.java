@@ -51,7 +51,7 @@ public class CardSearchProvider extends ContentProvider {
         sURIMatcher.addURI(AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", SEARCH_SUGGEST);
     }
 
-    private SQLiteDatabase mDatabase = null;
+    private volatile SQLiteDatabase mDatabase = null;
 
     /**
      * In lieu of a constructor
@@ -88,7 +88,7 @@ public class CardSearchProvider extends ContentProvider {
      * @return a Cursor pointing to the queried data
      */
     @Override
-    public synchronized Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                                      String sortOrder) {
         if (mDatabase == null) {
             return null;
@@ -104,6 +104,12 @@ public class CardSearchProvider extends ContentProvider {
                     }
                     query = selectionArgs[0].toLowerCase();
 
+                    /* Answer from memory if the name index is ready */
+                    assert getContext() != null;
+                    CardNameIndex index = CardNameIndex.getIndex(getContext());
+                    if (index != null) {
+                        return index.query(query);
+                    }
                     return CardDbAdapter.getCardsByNamePrefix(query, mDatabase);
                 }
                 case REFRESH_SHORTCUT: {
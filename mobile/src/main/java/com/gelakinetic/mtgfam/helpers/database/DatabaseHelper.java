@@ -30,16 +30,14 @@ class DatabaseHelper extends SQLiteOpenHelper {
 
     /**
      * Create a helper object to create, open, and/or manage a database. The database is not actually created or opened
-     * until one of getWritableDatabase() or getReadableDatabase() is called. It also copies the zipped database if
-     * the database doesn't exist, or is out of date
+     * until one of getWritableDatabase() or getReadableDatabase() is called. DatabaseManager copies the zipped
+     * database in the background, if the database doesn't exist or is out of date, and opens it there once so that
+     * onUpgrade() runs in the background too, before either is called elsewhere
      *
-     * @param context A context to copy the database with
+     * @param context A context to open the database with
      */
     public DatabaseHelper(Context context) {
-        super(context, CardDbAdapter.DATABASE_NAME, null, CardDbAdapter.DATABASE_VERSION);
-        if (CardDbAdapter.isDbOutOfDate(context)) {
-            CardDbAdapter.copyDB(context);
-        }
+        super(context, CardDbAdapter.DATABASE_NAME, null, CardDbAdapter.DATABASE_SCHEMA_VERSION);
     }
 
     /**
@@ -52,6 +50,28 @@ class DatabaseHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CardDbAdapter.DATABASE_CREATE_CARDS);
         db.execSQL(CardDbAdapter.DATABASE_CREATE_SETS);
+        CardDbAdapter.rebuildCardsFts(db);
+        CardDbAdapter.rebuildCardTypes(db);
+        CardDbAdapter.createCardsIndices(db);
+        CardDbAdapter.createTcgProduct(db);
+    }
+
+    /**
+     * Called when the database has been opened. Queries with bound arguments share SQL text, so a
+     * larger statement cache lets repeated searches reuse their compiled statements.
+     *
+     * Write-ahead logging lets searches keep reading while the updater writes, and gives the
+     * database a pool of connections so that queries on different threads run at the same time.
+     *
+     * @param db the database which was opened
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     /**
@@ -64,6 +84,44 @@ class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        /* necessary to override, not doing anything */
+        /* Apply every schema change newer than the database, in order. The packaged database may
+         * lag behind DATABASE_SCHEMA_VERSION, so each step must be safe to run on any older schema
+         */
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 87: {
+                    /* Full-text index for card searches */
+                    CardDbAdapter.rebuildCardsFts(db);
+                    break;
+                }
+                case 89: {
+                    /* Bitmask columns for card color and color identity */
+                    CardDbAdapter.addColorMasks(db);
+                    break;
+                }
+                case 90: {
+                    /* Type line words, for type searches and the type lists */
+                    CardDbAdapter.rebuildCardTypes(db);
+                    break;
+                }
+                case 91: {
+                    /* Each card's legality in each format */
+                    CardDbAdapter.createCardLegality(db);
+                    break;
+                }
+                case 92: {
+                    /* TCGplayer.com productIds, for fetching prices */
+                    CardDbAdapter.createTcgProduct(db);
+                    break;
+                }
+                default: {
+                    /* 88 only added indexes, and 93 only dropped the color mask indexes */
+                    break;
+                }
+            }
+        }
+
+        /* Create any missing indexes, now that every column they cover exists */
+        CardDbAdapter.createCardsIndices(db);
     }
 }
\ No newline at end of file
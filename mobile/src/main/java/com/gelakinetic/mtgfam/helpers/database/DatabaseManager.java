@@ -22,17 +22,54 @@ package com.gelakinetic.mtgfam.helpers.database;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.util.Log;
 
+import com.gelakinetic.mtgfam.BuildConfig;
+
+import java.io.Closeable;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * All databases should be opened through this class, so that database access is thread-safe
+ * All databases should be opened through this class, so that database access is thread-safe.
+ *
+ * The database runs in write-ahead logging mode. Readers see the last committed data and are never blocked by the
+ * updater's transaction, and the readable database serves queries from different threads on separate pooled
+ * connections. Writes go through the single transactional database, which commits each time it is closed, except for
+ * small independent writes from other threads, which write() commits on their own.
+ *
+ * New code should use lease(), which returns a Lease to use with try-with-resources, rather than pairing
+ * openDatabase() and closeDatabase() by hand.
+ *
+ * The packaged database is inflated on a background thread the first time this class is initialized, if it needs to
+ * be, and then opened once on that thread so any schema migrations run there too. Opening a database waits for that
+ * to finish, so the UI thread only blocks if it needs the database right away.
  */
 public class DatabaseManager {
 
+    private static final String TAG = "DatabaseManager";
+
     private static final AtomicDatabase mDatabase = new AtomicDatabase(false);
     private static final AtomicDatabase mTransactionalDatabase = new AtomicDatabase(true);
 
+    /* Lease metrics */
+    private static final AtomicLong mLeasesTaken = new AtomicLong();
+    private static final AtomicLong mLeasesLeaked = new AtomicLong();
+    private static final AtomicLong mTotalHoldNanos = new AtomicLong();
+    private static final AtomicLong mMaxHoldNanos = new AtomicLong();
+
+    /* Inflating the packaged database and migrating its schema, and how long that took */
+    private static final AtomicReference<FutureTask<Void>> mDatabaseReady = new AtomicReference<>();
+    private static final AtomicLong mInflateNanos = new AtomicLong(-1);
+    private static final AtomicLong mMigrateNanos = new AtomicLong(-1);
+    private static final AtomicLong mReadyWaitNanos = new AtomicLong();
+
     /**
      * Initializes the DatabaseManagers, mDatabaseManager, and stores the singleton DatabaseHelper
      *
@@ -61,12 +98,161 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Lease a database. The lease must be closed, preferably with try-with-resources, when the database isn't needed
+     * anymore. Leasing the readable database doesn't take any locks once it has been opened the first time. Leasing
+     * the transactional database begins a transaction, which is committed when the last lease is closed.
+     *
+     * @param context         A context to construct a DatabaseHelper if necessary
+     * @param isTransactional Whether or not this database operation is transactional
+     * @return A lease on the database
+     * @throws FamiliarDbException If the database couldn't be opened
+     */
+    public static Lease lease(Context context, boolean isTransactional) throws FamiliarDbException {
+        AtomicDatabase atomicDatabase = isTransactional ? mTransactionalDatabase : mDatabase;
+        atomicDatabase.getInstance(context);
+        Lease lease = new Lease(atomicDatabase, atomicDatabase.openDatabase());
+        mLeasesTaken.incrementAndGet();
+        return lease;
+    }
+
+    /**
+     * A small write, made by write()
+     */
+    public interface Write {
+        /**
+         * @param database The database to write to, in a transaction
+         * @throws FamiliarDbException If the write fails
+         */
+        void write(SQLiteDatabase database) throws FamiliarDbException;
+    }
+
+    /**
+     * Make a small write, like caching a lookup, in a short transaction of its own on the calling thread. The
+     * transactional database's transaction belongs to the thread which began it, so another thread writing through it
+     * would wait for that transaction to end, while that transaction waits for the write's lease to be closed. This
+     * writes through the readable database's own connection instead. If the transactional database is in the middle
+     * of a write, this waits for SQLite's busy timeout and then fails, rather than waiting for the whole transaction
+     *
+     * @param context A context to construct a DatabaseHelper if necessary
+     * @param write   The write to make. It's committed if it doesn't throw, and rolled back if it does
+     * @throws FamiliarDbException If the database couldn't be opened, or the write failed
+     */
+    public static void write(Context context, Write write) throws FamiliarDbException {
+        try (Lease lease = lease(context, false)) {
+            SQLiteDatabase database = lease.getDatabase();
+            try {
+                database.beginTransaction();
+                try {
+                    write.write(database);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            } catch (SQLiteException | IllegalStateException e) {
+                throw new FamiliarDbException(e);
+            }
+        }
+    }
+
+    /**
+     * Start inflating the packaged database in the background, if it doesn't exist or is out of date, then open it
+     * there once so that DatabaseHelper.onUpgrade() migrates it before anything else opens it. Only the first call does
+     * anything.
+     *
+     * @param context A context to copy and open the database with
+     */
+    private static void prepareDatabase(Context context) {
+        if (mDatabaseReady.get() != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        FutureTask<Void> inflater = new FutureTask<>(() -> {
+            if (CardDbAdapter.isDbOutOfDate(appContext)) {
+                long start = System.nanoTime();
+                CardDbAdapter.copyDB(appContext);
+                mInflateNanos.set(System.nanoTime() - start);
+                Log.i(TAG, "Inflated the packaged database in " +
+                        TimeUnit.NANOSECONDS.toMillis(mInflateNanos.get()) + "ms");
+            }
+
+            /* Migrations can rebuild whole tables, so run them here rather than on whichever thread opens the
+             * database first. Every other helper waits for this one, so none of them is locked out by its transaction
+             */
+            long start = System.nanoTime();
+            DatabaseHelper helper = new DatabaseHelper(appContext);
+            try {
+                helper.getWritableDatabase();
+            } finally {
+                helper.close();
+            }
+            mMigrateNanos.set(System.nanoTime() - start);
+            Log.i(TAG, "Opened and migrated the database in " +
+                    TimeUnit.NANOSECONDS.toMillis(mMigrateNanos.get()) + "ms");
+            return null;
+        });
+        if (mDatabaseReady.compareAndSet(null, inflater)) {
+            new Thread(inflater, "DatabaseInflater").start();
+        }
+    }
+
+    /**
+     * Wait for the packaged database to be inflated and migrated, if that is still happening. The time spent waiting is
+     * recorded, since it is time the app spent stalled during a cold start
+     *
+     * @throws FamiliarDbException If this thread was interrupted, or inflating or migrating threw an exception
+     */
+    private static void awaitDatabase() throws FamiliarDbException {
+        FutureTask<Void> ready = mDatabaseReady.get();
+        if (ready == null || ready.isDone()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ready.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FamiliarDbException(e);
+        } catch (ExecutionException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            long waited = System.nanoTime() - start;
+            mReadyWaitNanos.addAndGet(waited);
+            Log.i(TAG, "Waited " + TimeUnit.NANOSECONDS.toMillis(waited) + "ms for the database to be ready");
+        }
+    }
+
+    /**
+     * @return A one line summary of the database's cold start, for logs
+     */
+    public static String getStartupMetrics() {
+        long inflateNanos = mInflateNanos.get();
+        long migrateNanos = mMigrateNanos.get();
+        return String.format(Locale.US, "inflate: %s, open and migrate: %s, waited for both: %dms",
+                (inflateNanos < 0) ? "not needed" : TimeUnit.NANOSECONDS.toMillis(inflateNanos) + "ms",
+                (migrateNanos < 0) ? "not done" : TimeUnit.NANOSECONDS.toMillis(migrateNanos) + "ms",
+                TimeUnit.NANOSECONDS.toMillis(mReadyWaitNanos.get()));
+    }
+
+    /**
+     * @return A one line summary of how leases have been used, for logs
+     */
+    public static String getLeaseMetrics() {
+        long leases = mLeasesTaken.get();
+        return String.format(Locale.US,
+                "leases: %d, open: %d read %d write, leaked: %d, mean hold: %.1fms, max hold: %.1fms",
+                leases, mDatabase.mOpenCounter.get(), mTransactionalDatabase.mOpenCounter.get(),
+                mLeasesLeaked.get(),
+                (leases == 0) ? 0.0 : mTotalHoldNanos.get() / (double) leases / TimeUnit.MILLISECONDS.toNanos(1),
+                mMaxHoldNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
     /**
      * Opens a database, either a transactional one or not
      *
      * @param isTransactional Whether or not this database operation is transactional
      */
-    public synchronized SQLiteDatabase openDatabase(boolean isTransactional) throws FamiliarDbException {
+    public SQLiteDatabase openDatabase(boolean isTransactional) throws FamiliarDbException {
         if (isTransactional) {
             return mTransactionalDatabase.openDatabase();
         } else {
@@ -79,7 +265,7 @@ public class DatabaseManager {
      *
      * @param isTransactional Whether we should close the transactional database or not
      */
-    public synchronized void closeDatabase(boolean isTransactional) {
+    public void closeDatabase(boolean isTransactional) {
         if (isTransactional) {
             mTransactionalDatabase.closeDatabase();
         } else {
@@ -87,6 +273,84 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Close the transactional database without committing. Everything written since it was first opened is rolled
+     * back when the last opener closes it, including anything written by other openers. Until then, opening the
+     * transactional database waits, so that later writes aren't rolled back with it
+     */
+    public void rollbackDatabase() {
+        mTransactionalDatabase.rollbackDatabase();
+    }
+
+    /**
+     * A database opened with lease(). Closing the lease closes the database, once. Leases which are garbage
+     * collected without being closed are counted as leaked and logged.
+     */
+    public static final class Lease implements Closeable {
+        private final AtomicDatabase mAtomicDatabase;
+        private final SQLiteDatabase mSqLiteDatabase;
+        private final AtomicBoolean mClosed = new AtomicBoolean(false);
+        private final long mLeasedAt = System.nanoTime();
+        private final Throwable mLeasedFrom;
+
+        /**
+         * Constructor. In debug builds, this remembers where the lease was taken so that leaks can be tracked down
+         *
+         * @param atomicDatabase The AtomicDatabase the database was opened from
+         * @param database       The opened database
+         */
+        private Lease(AtomicDatabase atomicDatabase, SQLiteDatabase database) {
+            mAtomicDatabase = atomicDatabase;
+            mSqLiteDatabase = database;
+            mLeasedFrom = BuildConfig.DEBUG ? new Throwable("Database leased here") : null;
+        }
+
+        /**
+         * @return The leased database. It must not be used after the lease is closed
+         */
+        public SQLiteDatabase getDatabase() {
+            return mSqLiteDatabase;
+        }
+
+        /**
+         * Return the database. Closing a lease more than once does nothing
+         */
+        @Override
+        public void close() {
+            if (mClosed.compareAndSet(false, true)) {
+                mAtomicDatabase.closeDatabase();
+
+                long held = System.nanoTime() - mLeasedAt;
+                mTotalHoldNanos.addAndGet(held);
+                long max = mMaxHoldNanos.get();
+                while (held > max && !mMaxHoldNanos.compareAndSet(max, held)) {
+                    max = mMaxHoldNanos.get();
+                }
+            }
+        }
+
+        /**
+         * Count and log leases which were never closed. A leaked readable lease is returned here. A leaked
+         * transactional lease can't be, since its transaction belongs to another thread
+         *
+         * @throws Throwable If super.finalize() does
+         */
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                if (!mClosed.get()) {
+                    mLeasesLeaked.incrementAndGet();
+                    Log.w(TAG, "A database lease was never closed", mLeasedFrom);
+                    if (!mAtomicDatabase.mTransactional) {
+                        close();
+                    }
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+
     /**
      * Routing all database access through one point failed when the database was accessed while the
      * updater service was running (transactional open). With this private class, there are now two
@@ -95,8 +359,9 @@ public class DatabaseManager {
     private static class AtomicDatabase {
         private final AtomicInteger mOpenCounter = new AtomicInteger();
         private final boolean mTransactional;
-        private SQLiteDatabase mDatabase;
-        private DatabaseManager mDatabaseManager;
+        private boolean mRollback = false;
+        private volatile SQLiteDatabase mDatabase;
+        private volatile DatabaseManager mDatabaseManager;
         private DatabaseHelper mDatabaseHelper;
 
         /**
@@ -115,8 +380,9 @@ public class DatabaseManager {
          */
         synchronized void initializeInstance(Context context) {
             if (mDatabaseManager == null) {
-                mDatabaseManager = new DatabaseManager();
+                prepareDatabase(context);
                 mDatabaseHelper = new DatabaseHelper(context);
+                mDatabaseManager = new DatabaseManager();
             }
         }
 
@@ -126,31 +392,73 @@ public class DatabaseManager {
          * @param context A context to create a DatabaseManager with, if necessary
          * @return The DatabaseManager
          */
-        synchronized DatabaseManager getInstance(Context context) {
-            if (mDatabaseManager == null) {
+        DatabaseManager getInstance(Context context) {
+            DatabaseManager databaseManager = mDatabaseManager;
+            if (databaseManager == null) {
                 initializeInstance(context);
+                databaseManager = mDatabaseManager;
             }
 
-            return mDatabaseManager;
+            return databaseManager;
         }
 
         /**
-         * Opens a database
+         * Opens a database. Once the readable database is open, this is lock-free for it
          *
          * @return a SQLiteDatabase to query or whatever
          */
-        public synchronized SQLiteDatabase openDatabase() throws FamiliarDbException {
+        public SQLiteDatabase openDatabase() throws FamiliarDbException {
+            if (!mTransactional) {
+                mOpenCounter.incrementAndGet();
+                SQLiteDatabase database = mDatabase;
+                if (database != null && database.isOpen()) {
+                    return database;
+                }
+            }
             try {
-                if (mOpenCounter.incrementAndGet() == 1) {
-                    // Opening new database
-                    if (mTransactional) {
-                        mDatabase = mDatabaseHelper.getWritableDatabase();
-                        if (mDatabase != null) {
-                            mDatabase.execSQL("BEGIN EXCLUSIVE TRANSACTION");
+                return openDatabaseLocked();
+            } catch (FamiliarDbException e) {
+                /* The transactional database only counts its opener once it's open, so there's nothing to undo */
+                if (!mTransactional) {
+                    mOpenCounter.decrementAndGet();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Actually opens the database. For the transactional database this also counts the opener and begins the
+         * transaction if it is the first one
+         *
+         * @return a SQLiteDatabase to query or whatever
+         * @throws FamiliarDbException If the database can't be opened
+         */
+        private synchronized SQLiteDatabase openDatabaseLocked() throws FamiliarDbException {
+            awaitDatabase();
+            try {
+                if (mTransactional) {
+                    while (mRollback) {
+                        /* Don't join a transaction which is waiting for its other openers to roll it back */
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new FamiliarDbException(e);
                         }
-                    } else {
-                        mDatabase = mDatabaseHelper.getReadableDatabase();
                     }
+                    if (mOpenCounter.incrementAndGet() == 1) {
+                        // Opening new database
+                        try {
+                            mDatabase = mDatabaseHelper.getWritableDatabase();
+                            mDatabase.beginTransaction();
+                        } catch (SQLiteException e) {
+                            mOpenCounter.decrementAndGet();
+                            throw e;
+                        }
+                    }
+                } else if (mDatabase == null || !mDatabase.isOpen()) {
+                    /* The readable database and its connection pool stay open between uses */
+                    mDatabase = mDatabaseHelper.getReadableDatabase();
                 }
                 return mDatabase;
             } catch (SQLiteException e) {
@@ -159,15 +467,46 @@ public class DatabaseManager {
         }
 
         /**
-         * Close a database opened with this object
+         * Close a database opened with this object. The transactional database is committed, or rolled back if
+         * rollbackDatabase() was called, when the last opener closes it. The readable database is left open so that
+         * its pooled connections can be reused
+         */
+        public void closeDatabase() {
+            if (!mTransactional) {
+                if (mOpenCounter.decrementAndGet() < 0) {
+                    /* Closed more times than it was opened, don't let the count drift */
+                    mOpenCounter.incrementAndGet();
+                    Log.w(TAG, "Database closed more times than it was opened");
+                }
+                return;
+            }
+            closeDatabaseLocked();
+        }
+
+        /**
+         * Close the transactional database without committing
          */
-        public synchronized void closeDatabase() {
+        synchronized void rollbackDatabase() {
+            mRollback = true;
+            closeDatabaseLocked();
+        }
+
+        /**
+         * Count the closer of the transactional database, and end the transaction if it was the last one
+         */
+        private synchronized void closeDatabaseLocked() {
             if (mOpenCounter.decrementAndGet() == 0) {
-                if (mTransactional) {
-                    mDatabase.execSQL("COMMIT");
+                try {
+                    if (!mRollback) {
+                        mDatabase.setTransactionSuccessful();
+                    }
+                    mDatabase.endTransaction();
+                } finally {
+                    mRollback = false;
+                    mDatabase.close();
+                    notifyAll();
                 }
-                mDatabase.close();
             }
         }
     }
-}
\ No newline at end of file
+}
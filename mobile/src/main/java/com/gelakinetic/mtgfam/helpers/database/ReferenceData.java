@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The lists the search screen offers as choices: sets, formats, supertypes, subtypes, artists and watermarks.
+ *
+ * The sets and formats come from their own small tables and are always read fresh. The rest would take a scan of the
+ * whole cards table, so they are kept in memory and in a binary file, and only rebuilt when the database changes. The
+ * file is keyed by DATABASE_SCHEMA_VERSION and by a fingerprint of every set's digest and every format's name, so a
+ * schema change, a new packaged database, an updated set or new legality data all invalidate it.
+ */
+public class ReferenceData {
+
+    private static final String FILE_NAME = "reference_data.bin";
+    private static final int FILE_MAGIC = 0x4d544652; /* "MTFR" */
+    private static final int FILE_FORMAT = 1;
+
+    /* The card table data last loaded or built, and the fingerprint it was built for */
+    private static volatile CardData sCardData = null;
+
+    public final String[] mSetCodes;
+    public final String[] mSetNames;
+    public final String[] mFormatNames;
+    public final String[] mSupertypes;
+    public final String[] mSubtypes;
+    public final String[] mArtists;
+    public final String[] mWatermarks;
+
+    /**
+     * Constructor.
+     *
+     * @param setCodes    Every set's code, newest first
+     * @param setNames    Every set's name, in the same order as setCodes
+     * @param formatNames Every format's name
+     * @param cardData    The lists built from the cards table
+     */
+    private ReferenceData(String[] setCodes, String[] setNames, String[] formatNames, CardData cardData) {
+        mSetCodes = setCodes;
+        mSetNames = setNames;
+        mFormatNames = formatNames;
+        mSupertypes = cardData.mSupertypes;
+        mSubtypes = cardData.mSubtypes;
+        mArtists = cardData.mArtists;
+        mWatermarks = cardData.mWatermarks;
+    }
+
+    /**
+     * Load the reference data. Only the sets and formats tables are read, unless the cache is missing or out of date,
+     * in which case the lists are rebuilt from the cards table and saved.
+     *
+     * @param context  A context to find the cache file with
+     * @param database The database to read from
+     * @return The reference data
+     * @throws FamiliarDbException If the database can't be read
+     */
+    public static ReferenceData load(Context context, SQLiteDatabase database) throws FamiliarDbException {
+        return load(context, database, false);
+    }
+
+    /**
+     * Rebuild the cached lists from the cards table and save them. DbUpdaterService calls this after changing the
+     * database, so that the search screen never has to.
+     *
+     * @param context  A context to find the cache file with
+     * @param database The database to read from, with the changes committed
+     * @throws FamiliarDbException If the database can't be read
+     */
+    public static void rebuild(Context context, SQLiteDatabase database) throws FamiliarDbException {
+        load(context, database, true);
+    }
+
+    /**
+     * Read the sets and formats, then find card data which matches them in memory, on disk, or by building it.
+     *
+     * @param context  A context to find the cache file with
+     * @param database The database to read from
+     * @param rebuild  true to always rebuild the card data, false to use the cache if it is valid
+     * @return The reference data
+     * @throws FamiliarDbException If the database can't be read
+     */
+    private static ReferenceData load(Context context, SQLiteDatabase database, boolean rebuild)
+            throws FamiliarDbException {
+
+        Fingerprint fingerprint = new Fingerprint();
+
+        /* Read the sets */
+        Cursor setCursor = CardDbAdapter.fetchAllSets(database);
+        String[] setCodes = new String[setCursor.getCount()];
+        String[] setNames = new String[setCursor.getCount()];
+        int codeColumn = setCursor.getColumnIndex(CardDbAdapter.KEY_CODE);
+        int nameColumn = setCursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+        int digestColumn = setCursor.getColumnIndex(CardDbAdapter.KEY_DIGEST);
+        for (int i = 0; setCursor.moveToNext(); i++) {
+            setCodes[i] = setCursor.getString(codeColumn);
+            setNames[i] = setCursor.getString(nameColumn);
+            fingerprint.add(setCodes[i]);
+            fingerprint.add(setCursor.getString(digestColumn));
+        }
+        setCursor.close();
+
+        /* Read the formats */
+        Cursor formatCursor = CardDbAdapter.fetchAllFormats(database);
+        String[] formatNames = new String[formatCursor.getCount()];
+        int formatColumn = formatCursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+        for (int i = 0; formatCursor.moveToNext(); i++) {
+            formatNames[i] = formatCursor.getString(formatColumn);
+            fingerprint.add(formatNames[i]);
+        }
+        formatCursor.close();
+
+        /* Find the card data, from the fastest place it is valid */
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        CardData cardData = sCardData;
+        if (rebuild || cardData == null || cardData.mFingerprint != fingerprint.get()) {
+            cardData = rebuild ? null : CardData.read(file, fingerprint.get());
+            if (cardData == null) {
+                cardData = CardData.build(database, fingerprint.get());
+                cardData.write(file);
+            }
+            sCardData = cardData;
+        }
+
+        return new ReferenceData(setCodes, setNames, formatNames, cardData);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of a sequence of strings
+     */
+    private static class Fingerprint {
+        private long mHash = 0xcbf29ce484222325L;
+
+        /**
+         * @param string A string to add to the hash, may be null
+         */
+        void add(String string) {
+            if (string != null) {
+                for (int i = 0; i < string.length(); i++) {
+                    mHash = (mHash ^ string.charAt(i)) * 0x100000001b3L;
+                }
+            }
+            /* Separate strings, so that "ab","c" and "a","bc" differ */
+            mHash = (mHash ^ 0xffff) * 0x100000001b3L;
+        }
+
+        /**
+         * @return The hash of everything added so far
+         */
+        long get() {
+            return mHash;
+        }
+    }
+
+    /**
+     * The lists which are built from the cards table
+     */
+    private static class CardData {
+        final long mFingerprint;
+        final String[] mSupertypes;
+        final String[] mSubtypes;
+        final String[] mArtists;
+        final String[] mWatermarks;
+
+        /**
+         * Constructor.
+         *
+         * @param fingerprint The fingerprint of the sets and formats this data was built with
+         * @param supertypes  Every supertype word
+         * @param subtypes    Every subtype word
+         * @param artists     Every artist
+         * @param watermarks  Every watermark
+         */
+        CardData(long fingerprint, String[] supertypes, String[] subtypes, String[] artists, String[] watermarks) {
+            mFingerprint = fingerprint;
+            mSupertypes = supertypes;
+            mSubtypes = subtypes;
+            mArtists = artists;
+            mWatermarks = watermarks;
+        }
+
+        /**
+         * Build the lists from the database.
+         *
+         * @param database    The database to read from
+         * @param fingerprint The fingerprint of the database's sets and formats
+         * @return The lists
+         * @throws FamiliarDbException If the database can't be read
+         */
+        static CardData build(SQLiteDatabase database, long fingerprint) throws FamiliarDbException {
+            return new CardData(fingerprint,
+                    CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_SUPERTYPE, true, database),
+                    CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_SUBTYPE, true, database),
+                    CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_ARTIST, false, database),
+                    CardDbAdapter.getUniqueColumnArray(CardDbAdapter.KEY_WATERMARK, false, database));
+        }
+
+        /**
+         * Read the lists from a file, if they were written for this database.
+         *
+         * @param file        The file to read
+         * @param fingerprint The fingerprint of the database's sets and formats
+         * @return The lists, or null if the file is missing, unreadable or out of date
+         */
+        static CardData read(File file, long fingerprint) {
+            if (!file.exists()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_FORMAT ||
+                        in.readInt() != CardDbAdapter.DATABASE_SCHEMA_VERSION || in.readLong() != fingerprint) {
+                    return null;
+                }
+                return new CardData(fingerprint, readArray(in), readArray(in), readArray(in), readArray(in));
+            } catch (IOException e) {
+                return null;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        /**
+         * Write the lists to a file. The file is written beside the old one, then swapped in. If it can't be written,
+         * the lists are just rebuilt next time.
+         *
+         * @param file The file to write
+         */
+        void write(File file) {
+            File tmpFile = new File(file.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_FORMAT);
+                out.writeInt(CardDbAdapter.DATABASE_SCHEMA_VERSION);
+                out.writeLong(mFingerprint);
+                writeArray(out, mSupertypes);
+                writeArray(out, mSubtypes);
+                writeArray(out, mArtists);
+                writeArray(out, mWatermarks);
+                out.close();
+                out = null;
+                if (!tmpFile.renameTo(file)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tmpFile.delete();
+                }
+            } catch (IOException e) {
+                IOUtils.closeQuietly(out);
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+            }
+        }
+
+        /**
+         * @param in The stream to read from
+         * @return An array written by writeArray()
+         * @throws IOException If the stream can't be read
+         */
+        private static String[] readArray(DataInputStream in) throws IOException {
+            String[] array = new String[in.readInt()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = in.readUTF();
+            }
+            return array;
+        }
+
+        /**
+         * @param out   The stream to write to
+         * @param array An array of strings to write, as a count followed by each string
+         * @throws IOException If the stream can't be written
+         */
+        private static void writeArray(DataOutputStream out, String[] array) throws IOException {
+            out.writeInt(array.length);
+            for (String string : array) {
+                out.writeUTF(string);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Builds a SQL statement where every value is a bound '?' argument rather than an inlined literal.
+ * Two queries which differ only by their values produce identical SQL text, so SQLite's per
+ * connection statement cache can reuse the compiled statement instead of parsing and planning the
+ * query again. Only SQL structure (table and column names, operators, constants) should ever be
+ * appended as text.
+ */
+public class SqlBuilder {
+
+    private final StringBuilder mSql;
+    private final ArrayList<String> mArgs = new ArrayList<>();
+
+    /**
+     * Create an empty SqlBuilder.
+     */
+    public SqlBuilder() {
+        mSql = new StringBuilder();
+    }
+
+    /**
+     * Create a SqlBuilder which starts with some SQL.
+     *
+     * @param sql The SQL to start with. It must not contain user supplied values
+     */
+    public SqlBuilder(String sql) {
+        mSql = new StringBuilder(sql);
+    }
+
+    /**
+     * Append some SQL structure.
+     *
+     * @param sql The SQL to append. It must not contain user supplied values
+     * @return This SqlBuilder, for chaining
+     */
+    public SqlBuilder append(String sql) {
+        mSql.append(sql);
+        return this;
+    }
+
+    /**
+     * Append a placeholder and bind a value to it.
+     *
+     * @param arg The value to bind. Numbers are bound as text, which SQLite converts when compared
+     *            against a numeric column
+     * @return This SqlBuilder, for chaining
+     */
+    public SqlBuilder appendArg(Object arg) {
+        mSql.append('?');
+        mArgs.add(String.valueOf(arg));
+        return this;
+    }
+
+    /**
+     * Append a comma separated list of placeholders, i.e. for an IN clause, and bind a value to
+     * each.
+     *
+     * @param args The values to bind
+     * @return This SqlBuilder, for chaining
+     */
+    public SqlBuilder appendArgs(Collection<?> args) {
+        boolean first = true;
+        for (Object arg : args) {
+            if (first) {
+                first = false;
+            } else {
+                mSql.append(", ");
+            }
+            appendArg(arg);
+        }
+        return this;
+    }
+
+    /**
+     * Append the SQL and the arguments of another SqlBuilder.
+     *
+     * @param other The SqlBuilder to append
+     * @return This SqlBuilder, for chaining
+     */
+    public SqlBuilder append(SqlBuilder other) {
+        mSql.append(other.mSql);
+        mArgs.addAll(other.mArgs);
+        return this;
+    }
+
+    /**
+     * @return true if nothing has been appended to this SqlBuilder, false otherwise
+     */
+    public boolean isEmpty() {
+        return mSql.length() == 0;
+    }
+
+    /**
+     * @return The SQL, with a '?' for each bound value
+     */
+    public String getSql() {
+        return mSql.toString();
+    }
+
+    /**
+     * @return The bound values, in the order of their placeholders
+     */
+    public String[] getArgs() {
+        return mArgs.toArray(new String[mArgs.size()]);
+    }
+
+    /**
+     * Run this SQL as a query.
+     *
+     * @param database The database to query
+     * @return A Cursor with the results
+     */
+    public Cursor rawQuery(SQLiteDatabase database) {
+        return database.rawQuery(getSql(), getArgs());
+    }
+}
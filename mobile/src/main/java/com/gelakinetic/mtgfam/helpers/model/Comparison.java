@@ -22,8 +22,7 @@ package com.gelakinetic.mtgfam.helpers.model;
 import android.support.annotation.NonNull;
 
 import com.gelakinetic.mtgfam.R;
-
-import org.jetbrains.annotations.Contract;
+import com.gelakinetic.mtgfam.helpers.database.SqlBuilder;
 
 public enum Comparison {
     EMPTY(" ", R.string.NoComparison),
@@ -48,30 +47,27 @@ public enum Comparison {
         return longDescriptionRes;
     }
 
-    @NonNull
-    @Contract(pure = true)
-    public String appendToSql(String sqlString, String part1, String part2) {
-        String searchCondition = "";
+    /**
+     * Add this comparison between a column and a value to a query. The value is bound, not inlined.
+     *
+     * @param sql    The query to AND this comparison into
+     * @param column The column to compare
+     * @param value  The value to compare the column against
+     */
+    public void appendToSql(@NonNull SqlBuilder sql, String column, String value) {
         switch (this) {
             case EQ:
-                searchCondition = part1 + " = '" + part2 + "'";
+                sql.append(" AND " + column + " = ").appendArg(value);
                 break;
             case NE:
-                searchCondition = part1 + " <> '" + part2 + "'";
+                sql.append(" AND " + column + " <> ").appendArg(value);
                 break;
             case CT:
-                searchCondition = part1 + " LIKE '%" + part2 + "%'";
+                sql.append(" AND " + column + " LIKE ").appendArg("%" + value + "%");
                 break;
             case NC:
-                searchCondition = part1 + " NOT LIKE '%" + part2 + "%'";
+                sql.append(" AND " + column + " NOT LIKE ").appendArg("%" + value + "%");
                 break;
         }
-        if (sqlString.isEmpty()) {
-            return searchCondition;
-        } else if (searchCondition.isEmpty()) {
-            return sqlString;
-        } else {
-            return sqlString + " AND " + searchCondition;
-        }
     }
 }
@@ -0,0 +1,308 @@
+/*
+* Copyright 2018 Adam Feinstein
+*
+* This file is part of MTG Familiar.
+*
+* MTG Familiar is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* MTG Familiar is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductDetails;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductInformation;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prices a whole list of cards with a handful of TCGplayer.com API calls. The product IDs for up to a page of cards
+ * are found with one search, then the details and market prices for up to a page of products are fetched at once.
+ * Cards whose product IDs are already known skip the search and details, and only their prices are fetched.
+ * Cards which can't be matched to a product this way are left for MarketPriceFetcher to look up one at a time, with
+ * all of its retries.
+ */
+class BatchPriceFetcher {
+
+    /**
+     * A card to price, with the names TCGplayer.com knows it by
+     */
+    static class Request {
+        final MtgCard mCard;
+        final String mTcgName;
+        final String mTcgSetName;
+        /* The card's productId if it's already known, or -1 to search for it */
+        long mProductId = -1;
+        /* The productId a search found for this card, or -1 if there wasn't exactly one */
+        long mFoundProductId = -1;
+
+        /**
+         * @param card       The card to price
+         * @param tcgName    The card's name on TCGplayer.com
+         * @param tcgSetName The card's set name on TCGplayer.com
+         */
+        Request(MtgCard card, String tcgName, String tcgSetName) {
+            mCard = card;
+            mTcgName = tcgName;
+            mTcgSetName = tcgSetName;
+        }
+
+        /**
+         * @return A key for this card's product, the same for every request for the same printing
+         */
+        String getProductKey() {
+            return getProductKey(mTcgName, mTcgSetName);
+        }
+
+        /**
+         * @param name    A product name
+         * @param setName A product's set name
+         * @return A key for the product, ignoring case
+         */
+        static String getProductKey(String name, String setName) {
+            return (name + '\n' + setName).toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final TcgpApi mApi;
+
+    /**
+     * @param api An API which already has an access token
+     */
+    BatchPriceFetcher(TcgpApi api) {
+        mApi = api;
+    }
+
+    /**
+     * Price every card in the list which can be matched to a product by its name and set name. Cards which are in the
+     * list more than once, like a foil and a normal copy, share one lookup.
+     *
+     * @param requests The cards to price
+     * @return The price info for each request which was matched. Requests which weren't aren't in the map
+     * @throws IOException If something goes wrong with the network
+     */
+    Map<Request, MarketPriceInfo> fetch(List<Request> requests) throws IOException {
+        /* Group the requests by the product they're for. Products which are already known don't need a search */
+        Map<String, List<Request>> requestsByProduct = new LinkedHashMap<>();
+        Map<Long, List<Request>> requestsById = new LinkedHashMap<>();
+        for (Request request : requests) {
+            if (request.mProductId >= 0) {
+                List<Request> sameProduct = requestsById.get(request.mProductId);
+                if (null == sameProduct) {
+                    sameProduct = new ArrayList<>(1);
+                    requestsById.put(request.mProductId, sameProduct);
+                }
+                sameProduct.add(request);
+                continue;
+            }
+            List<Request> sameProduct = requestsByProduct.get(request.getProductKey());
+            if (null == sameProduct) {
+                sameProduct = new ArrayList<>(1);
+                requestsByProduct.put(request.getProductKey(), sameProduct);
+            }
+            sameProduct.add(request);
+        }
+
+        /* Then price a page of products at a time */
+        Map<Request, MarketPriceInfo> prices = new IdentityHashMap<>();
+        List<Long> knownIds = new ArrayList<>(requestsById.keySet());
+        for (int start = 0; start < knownIds.size(); start += TcgpApi.MAX_PAGE_SIZE) {
+            List<Long> page = knownIds.subList(start, Math.min(start + TcgpApi.MAX_PAGE_SIZE, knownIds.size()));
+            Map<Long, MarketPriceInfo> pagePrices = fetchKnownPage(page);
+            for (Map.Entry<Long, MarketPriceInfo> price : pagePrices.entrySet()) {
+                for (Request request : requestsById.get(price.getKey())) {
+                    prices.put(request, price.getValue());
+                }
+            }
+        }
+
+        List<String> productKeys = new ArrayList<>(requestsByProduct.keySet());
+        for (int start = 0; start < productKeys.size(); start += TcgpApi.MAX_PAGE_SIZE) {
+            List<String> page = productKeys.subList(start,
+                    Math.min(start + TcgpApi.MAX_PAGE_SIZE, productKeys.size()));
+            Map<String, MarketPriceInfo> pagePrices = fetchPage(page, requestsByProduct);
+            for (Map.Entry<String, MarketPriceInfo> price : pagePrices.entrySet()) {
+                for (Request request : requestsByProduct.get(price.getKey())) {
+                    prices.put(request, price.getValue());
+                }
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * Price up to a page of products whose productIds are already known.
+     *
+     * @param productIds The productIds of the products to price
+     * @return The price info for each productId which has prices
+     * @throws IOException If something goes wrong with the network
+     */
+    private Map<Long, MarketPriceInfo> fetchKnownPage(List<Long> productIds) throws IOException {
+        long[] ids = new long[productIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = productIds.get(i);
+        }
+        Map<Long, List<ProductMarketPrice.MarketPrice>> pricesById = new HashMap<>();
+        ProductMarketPrice price = mApi.getProductMarketPrice(ids);
+        if (null != price) {
+            for (ProductMarketPrice.MarketPrice marketPrice : price.results) {
+                List<ProductMarketPrice.MarketPrice> productPrices = pricesById.get(marketPrice.productId);
+                if (null == productPrices) {
+                    productPrices = new ArrayList<>(2);
+                    pricesById.put(marketPrice.productId, productPrices);
+                }
+                productPrices.add(marketPrice);
+            }
+        }
+
+        Map<Long, MarketPriceInfo> prices = new HashMap<>();
+        for (Map.Entry<Long, List<ProductMarketPrice.MarketPrice>> productPrices : pricesById.entrySet()) {
+            List<ProductMarketPrice.MarketPrice> marketPrices = productPrices.getValue();
+            prices.put(productPrices.getKey(), new MarketPriceInfo(
+                    marketPrices.toArray(new ProductMarketPrice.MarketPrice[marketPrices.size()]),
+                    productPrices.getKey()));
+        }
+        return prices;
+    }
+
+    /**
+     * Price up to a page of products, and note the productId found for each request which matched exactly one.
+     *
+     * @param productKeys       The keys of the products to price
+     * @param requestsByProduct The requests for each product key
+     * @return The price info for each product key which was matched
+     * @throws IOException If something goes wrong with the network
+     */
+    private Map<String, MarketPriceInfo> fetchPage(List<String> productKeys,
+                                                   Map<String, List<Request>> requestsByProduct)
+            throws IOException {
+        /* Search for every name in every set at once */
+        Set<String> pageKeys = new HashSet<>(productKeys);
+        Set<String> names = new LinkedHashSet<>();
+        Set<String> setNames = new LinkedHashSet<>();
+        for (String productKey : productKeys) {
+            Request request = requestsByProduct.get(productKey).get(0);
+            names.add(request.mTcgName);
+            setNames.add(request.mTcgSetName);
+        }
+        long[] productIds = search(names.toArray(new String[names.size()]),
+                setNames.toArray(new String[setNames.size()]));
+
+        /* The search can find the same names in other requested sets. The details say which product is which */
+        Map<String, ProductDetails.Details> detailsByProduct = new HashMap<>();
+        Map<Long, String> productKeysById = new LinkedHashMap<>();
+        Set<String> ambiguousKeys = new HashSet<>();
+        for (int start = 0; start < productIds.length; start += TcgpApi.MAX_PAGE_SIZE) {
+            ProductDetails details = mApi.getProductDetails(Arrays.copyOfRange(productIds, start,
+                    Math.min(start + TcgpApi.MAX_PAGE_SIZE, productIds.length)));
+            if (null == details) {
+                continue;
+            }
+            for (ProductDetails.Details detail : details.results) {
+                if (null == detail.productName || null == detail.group || null == detail.group.name) {
+                    continue;
+                }
+                String productKey = Request.getProductKey(detail.productName, detail.group.name);
+                if (!pageKeys.contains(productKey)) {
+                    continue;
+                }
+                /* Search results are most relevant first, so keep the first match */
+                ProductDetails.Details firstMatch = detailsByProduct.get(productKey);
+                if (null == firstMatch) {
+                    detailsByProduct.put(productKey, detail);
+                    productKeysById.put(detail.productId, productKey);
+                } else if (firstMatch.productId != detail.productId) {
+                    /* More than one product has this name in this set, so don't remember which one it is */
+                    ambiguousKeys.add(productKey);
+                }
+            }
+        }
+
+        /* Get the prices for the matched products. Each product has a price per printing, e.g. normal and foil */
+        long[] matchedIds = new long[productKeysById.size()];
+        int idx = 0;
+        for (long productId : productKeysById.keySet()) {
+            matchedIds[idx++] = productId;
+        }
+        Map<String, List<ProductMarketPrice.MarketPrice>> pricesByProduct = new HashMap<>();
+        if (matchedIds.length > 0) {
+            ProductMarketPrice price = mApi.getProductMarketPrice(matchedIds);
+            if (null != price) {
+                for (ProductMarketPrice.MarketPrice marketPrice : price.results) {
+                    String productKey = productKeysById.get(marketPrice.productId);
+                    if (null == productKey) {
+                        continue;
+                    }
+                    List<ProductMarketPrice.MarketPrice> productPrices = pricesByProduct.get(productKey);
+                    if (null == productPrices) {
+                        productPrices = new ArrayList<>(2);
+                        pricesByProduct.put(productKey, productPrices);
+                    }
+                    productPrices.add(marketPrice);
+                }
+            }
+        }
+
+        /* Put it all together */
+        Map<String, MarketPriceInfo> prices = new HashMap<>();
+        for (Map.Entry<String, List<ProductMarketPrice.MarketPrice>> productPrices : pricesByProduct.entrySet()) {
+            List<ProductMarketPrice.MarketPrice> marketPrices = productPrices.getValue();
+            if (!ambiguousKeys.contains(productPrices.getKey())) {
+                for (Request request : requestsByProduct.get(productPrices.getKey())) {
+                    request.mFoundProductId = detailsByProduct.get(productPrices.getKey()).productId;
+                }
+            }
+            prices.put(productPrices.getKey(), new MarketPriceInfo(
+                    marketPrices.toArray(new ProductMarketPrice.MarketPrice[marketPrices.size()]),
+                    new ProductDetails.Details[]{detailsByProduct.get(productPrices.getKey())}));
+        }
+        return prices;
+    }
+
+    /**
+     * Search for products, a page at a time, until every result is found.
+     *
+     * @param names    The names to search for
+     * @param setNames The sets to search in
+     * @return The product IDs of every product with one of the names in one of the sets
+     * @throws IOException If something goes wrong with the network
+     */
+    private long[] search(String[] names, String[] setNames) throws IOException {
+        long[] productIds = new long[0];
+        while (true) {
+            ProductInformation information =
+                    mApi.getProductInformation(names, setNames, productIds.length);
+            if (null == information || information.results.length == 0) {
+                return productIds;
+            }
+            int found = productIds.length;
+            productIds = Arrays.copyOf(productIds, found + information.results.length);
+            System.arraycopy(information.results, 0, productIds, found, information.results.length);
+            if (productIds.length >= information.totalItems) {
+                return productIds;
+            }
+        }
+    }
+}
@@ -27,8 +27,12 @@ public class GetProductInformationOptions {
     public final NameValuesPair filters[];
 
     public GetProductInformationOptions(NameValuesPair[] nameValuesPairs) {
+        this(nameValuesPairs, 0);
+    }
+
+    public GetProductInformationOptions(NameValuesPair[] nameValuesPairs, int _offset) {
         filters = nameValuesPairs;
-        offset = 0;
+        offset = _offset;
         limit = 100;
         sort = "Relevance";
         includeAggregates = true;
@@ -34,21 +34,23 @@ import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductDetails;
 import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductInformation;
 import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
 import com.google.gson.Gson;
-import com.google.gson.stream.JsonWriter;
 import com.nytimes.android.external.store3.base.Fetcher;
 import com.nytimes.android.external.store3.base.Persister;
-import com.nytimes.android.external.store3.base.RecordProvider;
-import com.nytimes.android.external.store3.base.RecordState;
 import com.nytimes.android.external.store3.base.impl.Store;
 import com.nytimes.android.external.store3.base.impl.StoreBuilder;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
@@ -56,19 +58,20 @@ import io.reactivex.Maybe;
 import io.reactivex.MaybeEmitter;
 import io.reactivex.MaybeOnSubscribe;
 import io.reactivex.Single;
+import io.reactivex.functions.BiConsumer;
 import io.reactivex.functions.Consumer;
 
 public class MarketPriceFetcher {
 
-    private static final String KEY_PREFIX = "price_";
     private static final int MAX_NUM_RETRIES = 8;
 
     private final FamiliarActivity mActivity;
     private final Store<MarketPriceInfo, MtgCard> mStore;
-    private int mNumPriceRequests = 0;
-
-    abstract class RecordingPersister<Rec, Key> implements RecordProvider<Key>, Persister<Rec, Key> {
-    }
+    private final Persister<MarketPriceInfo, MtgCard> mPersister;
+    private final PriceCache mCache;
+    private final PriceFetchExecutor mExecutor = new PriceFetchExecutor();
+    private final PriceLookup mLookup;
+    private final AtomicInteger mNumPriceRequests = new AtomicInteger();
 
     /**
      * Constructor. Set up a MarketPriceFetcher with the given Activity as a Context
@@ -92,64 +95,37 @@ public class MarketPriceFetcher {
             @Override
             public Single<MarketPriceInfo> fetch(@Nonnull MtgCard params) {
                 Exception lastThrownException = new Exception(mActivity.getString(R.string.price_error_unknown));
-                if (FamiliarActivity.getNetworkState(mActivity, false) == -1) { /* our context contains the activity that spawned the request */
-                    return Single.error(new Exception(mActivity.getString(R.string.no_network)));
-                }
 
                 /* Initialize the API */
-                TcgpApi api = new TcgpApi();
-                String tokenStr = PreferenceAdapter.getTcgpApiToken(mActivity);
-                Date expirationDate = PreferenceAdapter.getTcgpApiTokenExpirationDate(mActivity);
+                TcgpApi api;
                 try {
-                    /* If we don't have a token or it expired */
-                    if (tokenStr.isEmpty() || expirationDate.before(new Date())) {
-                        /* Request a token. This will initialize the TcgpApi object */
-                        AccessToken token;
-                        try {
-                            TcgpKeys keys = new Gson().fromJson(new InputStreamReader(mActivity.getAssets().open("tcgp_keys.json")), TcgpKeys.class);
-                            token = api.getAccessToken(keys.PUBLIC_KEY, keys.PRIVATE_KEY, keys.ACCESS_TOKEN);
-                            /* Save the token and expiration date */
-                            PreferenceAdapter.setTcgpApiToken(mActivity, token.access_token);
-                            PreferenceAdapter.setTcgpApiTokenExpirationDate(mActivity, token.expires);
-                        } catch (FileNotFoundException e) {
-                            return Single.error(new Exception(mActivity.getString(R.string.price_error_api_key)));
-                        }
-                    } else {
-                        /* Make sure the token hasn't expired */
-                        api.setToken(tokenStr);
-                    }
-                } catch (IOException e) {
-                    return Single.error(new Exception(mActivity.getString(R.string.price_error_network)));
+                    api = openApi();
+                } catch (Exception e) {
+                    return Single.error(e);
                 }
 
                 CardDbAdapter.MultiCardType multiCardType = null;
                 String tcgSetName = null;
 
-                /* then the same for multicard ordering */
-                SQLiteDatabase database;
-                try {
-                    database = DatabaseManager.getInstance(mActivity, false).openDatabase(false);
+                /* then the same for multicard ordering. The lease is closed however this returns */
+                try (DatabaseManager.Lease lease = DatabaseManager.lease(mActivity, false)) {
+                    SQLiteDatabase database = lease.getDatabase();
 
                     /* If the card number wasn't given, figure it out */
-                    if (params.mNumber == null || params.mNumber.equals("") || params.mType == null || params.mType.equals("") || params.mMultiverseId == -1) {
-                        Cursor c = CardDbAdapter.fetchCardByNameAndSet(params.mName, params.mExpansion, CardDbAdapter.ALL_CARD_DATA_KEYS, database);
-
-                        if (params.mNumber == null || params.mNumber.equals("")) {
-                            params.mNumber = c.getString(c.getColumnIndex(CardDbAdapter.KEY_NUMBER));
-                        }
-
-                        if (params.mType == null || params.mType.equals("")) {
-                            params.mType = CardDbAdapter.getTypeLine(c);
-                        }
+                    fillCardData(params, database);
 
-                        if (params.mMultiverseId == -1) {
-                            params.mMultiverseId = CardDbAdapter.getMultiverseIdFromNameAndSet(params.mName, params.mExpansion, database);
-                            if (params.mMultiverseId == -1) {
-                                c.close();
-                                throw new FamiliarDbException(null);
+                    /* If this card's product is already known, its prices are one request away */
+                    long productId = CardDbAdapter.getTcgProductId(params.mName, params.mExpansion, params.mNumber, database);
+                    if (productId >= 0) {
+                        try {
+                            ProductMarketPrice price = api.getProductMarketPrice(new long[]{productId});
+                            if (null != price && price.results.length > 0) {
+                                return Single.just(new MarketPriceInfo(price.results, productId));
                             }
+                            /* Otherwise the product moved, so search for it again */
+                        } catch (IOException e) {
+                            return Single.error(new Exception(mActivity.getString(R.string.price_error_network)));
                         }
-                        c.close();
                     }
 
                     multiCardType = CardDbAdapter.isMultiCard(params.mNumber, params.mExpansion);
@@ -157,163 +133,116 @@ public class MarketPriceFetcher {
                     /* Get the TCGplayer.com set name, why can't everything be consistent? */
                     tcgSetName = CardDbAdapter.getTcgName(params.mExpansion, database);
 
-                } catch (FamiliarDbException e) {
-                    return Single.error(new Exception(mActivity.getString(R.string.price_error_database)));
-                }
+                    /* If this isn't a multi-card, don't iterate so much */
+                    int numMultiCardOptions = 1;
+                    if (multiCardType != CardDbAdapter.MultiCardType.NOPE) {
+                        numMultiCardOptions = 4;
+                    }
 
-                /* If this isn't a multi-card, don't iterate so much */
-                int numMultiCardOptions = 1;
-                if (multiCardType != CardDbAdapter.MultiCardType.NOPE) {
-                    numMultiCardOptions = 4;
-                }
+                    /* Iterate through all possible queries for this card
+                     * First (innermost loop) try the different combination of multi-card names
+                     * Then (middle loop) try with and without accent marks
+                     * Last (outer loop) try without a set name. This works for Schemes & Planes with weird TCGPlayer sets
+                     */
+                    for (int setOption = 0; setOption < 2; setOption++) {
+                        for (int accentOption = 0; accentOption < 2; accentOption++) {
+                            for (int multiOption = 0; multiOption < numMultiCardOptions; multiOption++) {
+                                String tcgCardName = null;
+                                try {
+                                    /* Set up retries for multicard ordering */
+                                    if (multiCardType != CardDbAdapter.MultiCardType.NOPE) {
+                                        /* Next time try the other order */
+                                        switch (multiOption) {
+                                            case 0:
+                                                /* Try just the a side */
+                                                tcgCardName = CardDbAdapter.getNameFromSetAndNumber(params.mExpansion, params.mNumber.replace("b", "a"), database);
+                                                break;
+                                            case 1:
+                                                /* Try just the b side */
+                                                tcgCardName = CardDbAdapter.getNameFromSetAndNumber(params.mExpansion, params.mNumber.replace("a", "b"), database);
+                                                break;
+                                            case 2:
+                                                /* Try the combined name in one direction */
+                                                tcgCardName = CardDbAdapter.getSplitName(params.mMultiverseId, true, database);
+                                                break;
+                                            case 3:
+                                                /* Try the combined name in the other direction */
+                                                tcgCardName = CardDbAdapter.getSplitName(params.mMultiverseId, false, database);
+                                                break;
+                                            default:
+                                                /* Something went wrong */
+                                                tcgCardName = params.mName;
+                                                break;
+                                        }
+                                    } else {
+                                        /* This isn't a multicard */
+                                        tcgCardName = params.mName;
+                                    }
 
-                /* Iterate through all possible queries for this card
-                 * First (innermost loop) try the different combination of multi-card names
-                 * Then (middle loop) try with and without accent marks
-                 * Last (outer loop) try without a set name. This works for Schemes & Planes with weird TCGPlayer sets
-                 */
-                for (int setOption = 0; setOption < 2; setOption++) {
-                    for (int accentOption = 0; accentOption < 2; accentOption++) {
-                        for (int multiOption = 0; multiOption < numMultiCardOptions; multiOption++) {
-                            String tcgCardName = null;
-                            try {
-                                /* Set up retries for multicard ordering */
-                                if (multiCardType != CardDbAdapter.MultiCardType.NOPE) {
-                                    /* Next time try the other order */
-                                    switch (multiOption) {
-                                        case 0:
-                                            /* Try just the a side */
-                                            tcgCardName = CardDbAdapter.getNameFromSetAndNumber(params.mExpansion, params.mNumber.replace("b", "a"), database);
-                                            break;
-                                        case 1:
-                                            /* Try just the b side */
-                                            tcgCardName = CardDbAdapter.getNameFromSetAndNumber(params.mExpansion, params.mNumber.replace("a", "b"), database);
-                                            break;
-                                        case 2:
-                                            /* Try the combined name in one direction */
-                                            tcgCardName = CardDbAdapter.getSplitName(params.mMultiverseId, true, database);
-                                            break;
-                                        case 3:
-                                            /* Try the combined name in the other direction */
-                                            tcgCardName = CardDbAdapter.getSplitName(params.mMultiverseId, false, database);
-                                            break;
-                                        default:
-                                            /* Something went wrong */
-                                            tcgCardName = params.mName;
-                                            break;
+                                    /* Retry with accent marks removed */
+                                    if (accentOption == 1) {
+                                        tcgCardName = CardDbAdapter.removeAccentMarks(tcgCardName);
                                     }
-                                } else {
-                                    /* This isn't a multicard */
-                                    tcgCardName = params.mName;
-                                }
 
-                                /* Retry with accent marks removed */
-                                if (accentOption == 1) {
-                                    tcgCardName = CardDbAdapter.removeAccentMarks(tcgCardName);
-                                }
+                                    /* Try it with no set name */
+                                    if (setOption == 1) {
+                                        tcgSetName = null;
+                                    }
 
-                                /* Try it with no set name */
-                                if (setOption == 1) {
-                                    tcgSetName = null;
+                                } catch (FamiliarDbException e) {
+                                    lastThrownException = new Exception(mActivity.getString(R.string.price_error_database));
                                 }
 
-                            } catch (FamiliarDbException e) {
-                                lastThrownException = new Exception(mActivity.getString(R.string.price_error_database));
-                            }
-
-                            if (null != tcgCardName) {
-                                try {
-                                    /* Query the API, one step at a time */
-                                    ProductInformation information = api.getProductInformation(tcgCardName, tcgSetName);
-                                    if (information.results.length > 0) {
-                                        ProductMarketPrice price = api.getProductMarketPrice(information.results);
-                                        if (price.results.length > 0) {
-                                            ProductDetails details = api.getProductDetails(information.results);
-                                            if (details.results.length > 0) {
-                                                /* database close if all is good */
-                                                DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
-
-                                                /* Return a new MarketPriceInfo */
-                                                return Single.just(new MarketPriceInfo(price.results, details.results));
-                                            } else if (details.errors.length > 0) {
+                                if (null != tcgCardName) {
+                                    try {
+                                        /* Query the API, one step at a time */
+                                        ProductInformation information = api.getProductInformation(tcgCardName, tcgSetName);
+                                        if (information.results.length > 0) {
+                                            ProductMarketPrice price = api.getProductMarketPrice(information.results);
+                                            if (price.results.length > 0) {
+                                                ProductDetails details = api.getProductDetails(information.results);
+                                                if (details.results.length > 0) {
+                                                    /* Remember the product if the search found exactly it */
+                                                    if (setOption == 0 && information.results.length == 1) {
+                                                        saveProductId(params, details.results[0].productId);
+                                                    }
+                                                    /* Return a new MarketPriceInfo */
+                                                    return Single.just(new MarketPriceInfo(price.results, details.results));
+                                                } else if (details.errors.length > 0) {
+                                                    /* Return the error returned by TCGPlayer */
+                                                    return Single.error(new Throwable(details.errors[0]));
+                                                }
+                                            } else if (price.errors.length > 0) {
                                                 /* Return the error returned by TCGPlayer */
-                                                DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
-                                                return Single.error(new Throwable(details.errors[0]));
+                                                return Single.error(new Throwable(price.errors[0]));
                                             }
-                                        } else if (price.errors.length > 0) {
+                                        } else if (information.errors.length > 0) {
                                             /* Return the error returned by TCGPlayer */
-                                            DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
-                                            return Single.error(new Throwable(price.errors[0]));
+                                            return Single.error(new Throwable(information.errors[0]));
                                         }
-                                    } else if (information.errors.length > 0) {
-                                        /* Return the error returned by TCGPlayer */
-                                        DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
-                                        return Single.error(new Throwable(information.errors[0]));
+                                    } catch (IOException e) {
+                                        lastThrownException = new Exception(mActivity.getString(R.string.price_error_network));
                                     }
-                                } catch (IOException e) {
-                                    lastThrownException = new Exception(mActivity.getString(R.string.price_error_network));
+                                } else {
+                                    lastThrownException = new Exception(mActivity.getString(R.string.price_error_database));
                                 }
-                            } else {
-                                lastThrownException = new Exception(mActivity.getString(R.string.price_error_database));
                             }
                         }
                     }
-                }
 
-                /* database close if something failed */
-                DatabaseManager.getInstance(mActivity, false).closeDatabase(false);
-                return Single.error(lastThrownException);
+                    return Single.error(lastThrownException);
+                } catch (FamiliarDbException e) {
+                    return Single.error(new Exception(mActivity.getString(R.string.price_error_database)));
+                }
             }
         };
 
-        /* Create the Persister, which also handles managing cache staleness */
-        RecordingPersister<MarketPriceInfo, MtgCard> mPersister = new RecordingPersister<MarketPriceInfo, MtgCard>() {
-
-            private static final int MAX_TIME_IN_CACHE_MS = 86400000; /* One day's worth of ms */
-
-            /**
-             * Given a key, return a cache file
-             *
-             * @param cacheKey The cache key, a MtgCard object
-             * @return A File for this key
-             */
-            private File getCacheFile(MtgCard cacheKey) {
-                return new File(mActivity.getCacheDir(), (KEY_PREFIX + cacheKey.mName + "-" + cacheKey.mExpansion).replaceAll("\\W+", ""));
-            }
-
-            /**
-             * Given a cache key, return whether it's FRESH or STALE. A record is stale after 24hrs
-             * MISSING is another record state, but the calling function doesn't check against it,
-             * so don't use it
-             *
-             * @param cacheKey The cache key, a MtgCard object
-             * @return RecordState.FRESH or RecordState.STALE
-             */
-            @Nonnull
-            @Override
-            public RecordState getRecordState(@Nonnull MtgCard cacheKey) {
-                /* Get the file */
-                File file = getCacheFile(cacheKey);
-                /* Make sure it exists */
-                if (file.exists()) {
-                    /* How long has it been in there? */
-                    long timeInCacheMs = System.currentTimeMillis() - file.lastModified();
-                    if (timeInCacheMs <= MAX_TIME_IN_CACHE_MS) {
-                        /* File exists and isn't stale */
-                        return RecordState.FRESH;
-                    } else {
-                        /* File exists, but is stale */
-                        return RecordState.STALE;
-                    }
-                } else {
-                    /* File doesn't exist */
-                    return RecordState.STALE;
-                }
-            }
+        /* Create the Persister. Staleness is checked before the Store is asked, see PriceLookup */
+        mCache = PriceCache.getInstance(mActivity);
+        mPersister = new Persister<MarketPriceInfo, MtgCard>() {
 
             /**
-             * Read the cache file associated with the given key and return the cached
-             * MarketPriceInfo if possible
+             * Read the MarketPriceInfo cached with the given key, if possible
              *
              * @param cacheKey The cache key, a MtgCard object
              * @return A Maybe either with the read MarketPriceInfo or an exception
@@ -324,17 +253,12 @@ public class MarketPriceFetcher {
                 return Maybe.create(new MaybeOnSubscribe<MarketPriceInfo>() {
                     @Override
                     public void subscribe(MaybeEmitter<MarketPriceInfo> emitter) {
-                        try {
-                            /* Attempt to read the cache file */
-                            File cacheFile = getCacheFile(cacheKey);
-                            FileReader reader = new FileReader(cacheFile);
-                            MarketPriceInfo info = new Gson().fromJson(reader, MarketPriceInfo.class);
-                            reader.close();
-                            /* Cache file read, emit it */
-                            emitter.onSuccess(info);
-                        } catch (Exception e) {
-                            /* Some exception occurred */
-                            emitter.onError(e);
+                        PriceCache.Entry entry = mCache.read(PriceCache.getKey(cacheKey));
+                        if (null != entry) {
+                            /* Cached price read, emit it */
+                            emitter.onSuccess(entry.mInfo);
+                        } else {
+                            emitter.onError(new Exception("price not cached"));
                         }
                     }
                 });
@@ -350,32 +274,112 @@ public class MarketPriceFetcher {
             @Nonnull
             @Override
             public Single<Boolean> write(@Nonnull MtgCard cacheKey, @Nonnull MarketPriceInfo marketPriceInfo) {
-                try {
-                    /* Attempt to write the cache file */
-                    File cacheFile = getCacheFile(cacheKey);
-                    JsonWriter writer = new JsonWriter(new FileWriter(cacheFile));
-                    new Gson().toJson(marketPriceInfo, MarketPriceInfo.class, writer);
-                    writer.close();
-                    /* The cache file was written */
-                    return Single.just(true);
-                } catch (Exception e) {
-                    /* Eat the exception and return that the file wasn't written */
-                    return Single.just(false);
-                }
+                return Single.just(mCache.write(PriceCache.getKey(cacheKey), marketPriceInfo));
             }
         };
 
         mStore = StoreBuilder.<MtgCard, MarketPriceInfo>key()
                 .fetcher(mFetcher)
                 .persister(mPersister)
-                .networkBeforeStale()
                 .open();
+
+        /* Look prices up in the cache first, and get the rest from the Store */
+        mLookup = new PriceLookup(mCache, mExecutor, new PriceLookup.Source() {
+            @Override
+            public void get(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+                mStore.get(card).subscribe(onSuccess, onError);
+            }
+
+            @Override
+            public void fetch(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+                /* The Store writes it to the Persister */
+                mStore.fetch(card).subscribe(onSuccess, onError);
+            }
+        });
     }
 
     /**
-     * This function fetches the price for a given MtgCard and calls the appropriate callbacks.
-     * It ensures the network operations are called on a non-UI thread and the result callbacks are
-     * called on the UI thread.
+     * Set how long prices stay fresh when they're looked up for a given price type. Older prices are still returned
+     * right away, but they're fetched again in the background
+     *
+     * @param priceType The price type
+     * @param maxAgeMs  How long prices stay fresh, in ms
+     */
+    public void setMaxAge(MarketPriceInfo.PriceType priceType, long maxAgeMs) {
+        mLookup.setMaxAge(priceType, maxAgeMs);
+    }
+
+    /**
+     * Set up the TCGplayer.com API. If there isn't a saved token, or it expired, request a new one and save it
+     *
+     * @return An API ready to query
+     * @throws Exception With a message for the user, if there's no network or the token can't be requested
+     */
+    private TcgpApi openApi() throws Exception {
+        if (FamiliarActivity.getNetworkState(mActivity, false) == -1) { /* our context contains the activity that spawned the request */
+            throw new Exception(mActivity.getString(R.string.no_network));
+        }
+
+        TcgpApi api = new TcgpApi();
+        String tokenStr = PreferenceAdapter.getTcgpApiToken(mActivity);
+        Date expirationDate = PreferenceAdapter.getTcgpApiTokenExpirationDate(mActivity);
+        try {
+            /* If we don't have a token or it expired */
+            if (tokenStr.isEmpty() || expirationDate.before(new Date())) {
+                /* Request a token. This will initialize the TcgpApi object */
+                AccessToken token;
+                try {
+                    TcgpKeys keys = new Gson().fromJson(new InputStreamReader(mActivity.getAssets().open("tcgp_keys.json")), TcgpKeys.class);
+                    token = api.getAccessToken(keys.PUBLIC_KEY, keys.PRIVATE_KEY, keys.ACCESS_TOKEN);
+                    /* Save the token and expiration date */
+                    PreferenceAdapter.setTcgpApiToken(mActivity, token.access_token);
+                    PreferenceAdapter.setTcgpApiTokenExpirationDate(mActivity, token.expires);
+                } catch (FileNotFoundException e) {
+                    throw new Exception(mActivity.getString(R.string.price_error_api_key));
+                }
+            } else {
+                /* Make sure the token hasn't expired */
+                api.setToken(tokenStr);
+            }
+        } catch (IOException e) {
+            throw new Exception(mActivity.getString(R.string.price_error_network));
+        }
+        return api;
+    }
+
+    /**
+     * Fill in a card's number, type, and multiverse ID from the database if they weren't given
+     *
+     * @param params   The card to fill in
+     * @param database The database to read from
+     * @throws FamiliarDbException If the card isn't in the database
+     */
+    private static void fillCardData(MtgCard params, SQLiteDatabase database) throws FamiliarDbException {
+        if (params.mNumber == null || params.mNumber.equals("") || params.mType == null || params.mType.equals("") || params.mMultiverseId == -1) {
+            Cursor c = CardDbAdapter.fetchCardByNameAndSet(params.mName, params.mExpansion, CardDbAdapter.ALL_CARD_DATA_KEYS, database);
+
+            if (params.mNumber == null || params.mNumber.equals("")) {
+                params.mNumber = c.getString(c.getColumnIndex(CardDbAdapter.KEY_NUMBER));
+            }
+
+            if (params.mType == null || params.mType.equals("")) {
+                params.mType = CardDbAdapter.getTypeLine(c);
+            }
+
+            if (params.mMultiverseId == -1) {
+                params.mMultiverseId = CardDbAdapter.getMultiverseIdFromNameAndSet(params.mName, params.mExpansion, database);
+                if (params.mMultiverseId == -1) {
+                    c.close();
+                    throw new FamiliarDbException(null);
+                }
+            }
+            c.close();
+        }
+    }
+
+    /**
+     * This function fetches the price for a given MtgCard and calls the appropriate callbacks, with the freshness
+     * of the MARKET price type.
      *
      * @param card      A MtgCard to fetch data for. It must have a mName and mExpansion populated
      * @param onSuccess A Consumer callback to be called when the price is fetched
@@ -383,91 +387,356 @@ public class MarketPriceFetcher {
      */
     public void fetchMarketPrice(final MtgCard card, final Consumer<MarketPriceInfo> onSuccess,
                                  final Consumer<Throwable> onError) {
+        fetchMarketPrice(card, MarketPriceInfo.PriceType.MARKET, onSuccess, onError);
+    }
 
-        if (null == card.mName || card.mName.isEmpty() || null == card.mExpansion || card.mExpansion.isEmpty()) {
-            throw new IllegalArgumentException("card must have a name and expansion to fetch price");
+    /**
+     * This function fetches the price for a given MtgCard and calls the appropriate callbacks.
+     * It ensures the network operations are called on a non-UI thread and the result callbacks are
+     * called on the UI thread. A cached price is returned right away, even if it's stale for the price type, and a
+     * stale one is fetched again in the background for the next lookup.
+     *
+     * @param card      A MtgCard to fetch data for. It must have a mName and mExpansion populated
+     * @param priceType The price type which will be shown, which decides how long the cached price is fresh
+     * @param onSuccess A Consumer callback to be called when the price is fetched
+     * @param onError   A Consumer callback to be called when an error occurs
+     */
+    public void fetchMarketPrice(final MtgCard card, final MarketPriceInfo.PriceType priceType,
+                                 final Consumer<MarketPriceInfo> onSuccess, final Consumer<Throwable> onError) {
+
+        checkCanFetch(card);
+
+        /* Show the loading animation */
+        mNumPriceRequests.incrementAndGet();
+        mActivity.setLoading();
+
+        /* Look it up ahead of any lists being priced */
+        mLookup.lookup(card, priceType, postingSuccess(onSuccess, onError), postingError(onError));
+    }
+
+    /**
+     * This function fetches the prices for a whole list of cards and calls the appropriate callbacks for each card.
+     * Cards which aren't cached are priced together, a page at a time, so a long list takes a handful of requests
+     * rather than a few per card. Any card which can't be priced that way is looked up on its own, like
+     * fetchMarketPrice() does. Like fetchMarketPrice(), the network operations are called on a non-UI thread, the
+     * result callbacks are called on the UI thread, and stale cached prices are returned right away and fetched again
+     * in the background, together with the uncached ones.
+     *
+     * @param cards     The MtgCards to fetch data for. They must have a mName and mExpansion populated
+     * @param priceType The price type which will be shown, which decides how long the cached prices are fresh
+     * @param onSuccess A BiConsumer callback to be called with each card when its price is fetched
+     * @param onError   A BiConsumer callback to be called with each card when an error occurs
+     */
+    public void fetchMarketPrices(final List<MtgCard> cards, final MarketPriceInfo.PriceType priceType,
+                                  final BiConsumer<MtgCard, MarketPriceInfo> onSuccess,
+                                  final BiConsumer<MtgCard, Throwable> onError) {
+
+        for (MtgCard card : cards) {
+            checkCanFetch(card);
+        }
+        if (cards.isEmpty()) {
+            return;
         }
 
         /* Show the loading animation */
-        mNumPriceRequests++;
+        mNumPriceRequests.addAndGet(cards.size());
         mActivity.setLoading();
 
-        /* Start a new thread to perform the fetch */
-        new Thread(new Runnable() {
+        /* Only fetch each card key once, and not at all if it's already being fetched */
+        final List<MtgCard> toFetch = new ArrayList<>(cards.size());
+        for (MtgCard card : cards) {
+            Consumer<Throwable> cardOnError = wrap(card, onError);
+            if (mLookup.startRequest(PriceCache.getKey(card), postingSuccess(wrap(card, onSuccess), cardOnError),
+                    postingError(cardOnError))) {
+                toFetch.add(card);
+            }
+        }
+        if (toFetch.isEmpty()) {
+            return;
+        }
+
+        /* Queue the fetch, in the list's order, so the rows at the top are priced first */
+        mExecutor.execute(PriceFetchExecutor.Priority.LIST, new Runnable() {
             /**
-             * This runnable gets the card price from either the cache or network, and runs on a
-             * non-UI thread
+             * This runnable returns the cached prices, prices the rest of the cards and the stale ones together,
+             * then retries the ones which couldn't be priced that way one at a time. It runs on a non-UI thread
              */
             @Override
             public void run() {
-                mStore.get(card).subscribe(new Consumer<MarketPriceInfo>() {
-                    /**
-                     * This callback is called when a MarketPriceInfo is fetched either from the
-                     * network or cache. The callback runs on a non-UI thread, but invokes the given
-                     * callback on a UI thread
-                     *
-                     * @param marketPriceInfo The fetched MarketPriceInfo
-                     * @throws Exception If something goes terribly wrong
-                     */
-                    @Override
-                    public void accept(final MarketPriceInfo marketPriceInfo) throws Exception {
-                        /* Run the results on the UI thread */
-                        mActivity.runOnUiThread(new Runnable() {
-                            /**
-                             * This runs the given success callback on the UI thread
-                             */
-                            @Override
-                            public void run() {
-                                mNumPriceRequests--;
-                                if (0 == mNumPriceRequests) {
-                                    mActivity.clearLoading();
-                                }
-                                try {
-                                    onSuccess.accept(marketPriceInfo);
-                                } catch (Exception e) {
-                                    /* Snatch defeat from the jaws of victory */
-                                    try {
-                                        onError.accept(e);
-                                    } catch (Exception e2) {
-                                        /* eat it */
-                                    }
-                                }
+                List<BatchPriceFetcher.Request> requests = new ArrayList<>();
+                List<MtgCard> oneByOne = new ArrayList<>();
+
+                /* Read every cached price at once and return them, stale or not */
+                List<String> keys = new ArrayList<>(toFetch.size());
+                for (MtgCard card : toFetch) {
+                    keys.add(PriceCache.getKey(card));
+                }
+                Map<String, PriceCache.Entry> cached = mCache.readAll(keys);
+                List<MtgCard> uncached = new ArrayList<>();
+                Set<MtgCard> stale = Collections.newSetFromMap(new IdentityHashMap<MtgCard, Boolean>());
+                for (MtgCard card : toFetch) {
+                    PriceCache.Entry entry = cached.get(PriceCache.getKey(card));
+                    if (null == entry) {
+                        uncached.add(card);
+                    } else {
+                        mLookup.deliverSuccess(PriceCache.getKey(card), entry.mInfo);
+                        if (!mLookup.isFresh(entry.mFetchedMs, priceType) &&
+                                mLookup.startRevalidating(PriceCache.getKey(card))) {
+                            /* Refresh it with the uncached cards, for the next lookup */
+                            uncached.add(card);
+                            stale.add(card);
+                        }
+                    }
+                }
+
+                /* Find the TCGplayer.com names for every card which isn't cached already */
+                try (DatabaseManager.Lease lease = DatabaseManager.lease(mActivity, false)) {
+                    SQLiteDatabase database = lease.getDatabase();
+                    for (MtgCard card : uncached) {
+                        try {
+                            fillCardData(card, database);
+                            String tcgCardName = card.mName;
+                            if (CardDbAdapter.isMultiCard(card.mNumber, card.mExpansion) != CardDbAdapter.MultiCardType.NOPE) {
+                                /* Try just the a side, the first thing a single lookup tries */
+                                tcgCardName = CardDbAdapter.getNameFromSetAndNumber(card.mExpansion, card.mNumber.replace("b", "a"), database);
                             }
-                        });
+                            String tcgSetName = CardDbAdapter.getTcgName(card.mExpansion, database);
+                            if (null == tcgCardName || null == tcgSetName) {
+                                oneByOne.add(card);
+                            } else {
+                                BatchPriceFetcher.Request request = new BatchPriceFetcher.Request(card, tcgCardName, tcgSetName);
+                                request.mProductId = CardDbAdapter.getTcgProductId(card.mName, card.mExpansion, card.mNumber, database);
+                                requests.add(request);
+                            }
+                        } catch (FamiliarDbException | RuntimeException e) {
+                            /* Let a single lookup report the problem */
+                            oneByOne.add(card);
+                        }
                     }
-                }, new Consumer<Throwable>() {
-                    /**
-                     * This callback is called when an exception is thrown when fetching a
-                     * MarketPriceInfo. The callback runs on a non-UI thread, but invokes the given
-                     * callback on a UI thread
-                     *
-                     * @param throwable The Throwable that caused the process to fail
-                     * @throws Exception If something goes terribly wrong
-                     */
-                    @Override
-                    public void accept(final Throwable throwable) throws Exception {
-                        /* Run the erros on the UI thread */
-                        mActivity.runOnUiThread(new Runnable() {
-                            /**
-                             * This runs the given error callback on the UI thread
-                             */
+                } catch (FamiliarDbException e) {
+                    oneByOne.clear();
+                    oneByOne.addAll(uncached);
+                    requests.clear();
+                }
+
+                /* Price the uncached cards together */
+                if (!requests.isEmpty()) {
+                    Map<BatchPriceFetcher.Request, MarketPriceInfo> prices = null;
+                    Exception batchException = null;
+                    try {
+                        prices = new BatchPriceFetcher(openApi()).fetch(requests);
+                        saveProductIds(requests);
+                    } catch (IOException e) {
+                        batchException = new Exception(mActivity.getString(R.string.price_error_network));
+                    } catch (Exception e) {
+                        /* The API couldn't be set up, and it wouldn't be for a single card either */
+                        batchException = e;
+                    }
+
+                    Map<String, MarketPriceInfo> toCache = new HashMap<>();
+                    List<String> refreshed = new ArrayList<>();
+                    for (BatchPriceFetcher.Request request : requests) {
+                        String key = PriceCache.getKey(request.mCard);
+                        MarketPriceInfo price = (null == prices) ? null : prices.get(request);
+                        if (stale.contains(request.mCard)) {
+                            /* The stale price was already returned, so just cache the fresh one */
+                            if (null != price) {
+                                toCache.put(key, price);
+                                refreshed.add(key);
+                            } else if (null == batchException) {
+                                oneByOne.add(request.mCard);
+                            } else {
+                                refreshed.add(key);
+                            }
+                        } else if (null != batchException) {
+                            /* Don't try each card again if the network is down */
+                            mLookup.deliverError(key, batchException);
+                        } else if (null != price) {
+                            toCache.put(key, price);
+                            mLookup.deliverSuccess(key, price);
+                        } else {
+                            oneByOne.add(request.mCard);
+                        }
+                    }
+                    /* Cache them all at once, so the next lookup for these cards doesn't go to the network */
+                    mCache.writeAll(toCache);
+                    for (String key : refreshed) {
+                        mLookup.finishRevalidating(key);
+                    }
+                }
+
+                /* Then retry the rest one at a time, on all the threads */
+                for (final MtgCard card : oneByOne) {
+                    if (stale.contains(card)) {
+                        mLookup.refreshInBackground(card);
+                    } else {
+                        mExecutor.execute(PriceFetchExecutor.Priority.LIST, new Runnable() {
                             @Override
                             public void run() {
-                                mNumPriceRequests--;
-                                if (0 == mNumPriceRequests) {
-                                    mActivity.clearLoading();
-                                }
-
-                                try {
-                                    onError.accept(throwable);
-                                } catch (Exception e) {
-                                    /* Eat it */
-                                }
+                                mLookup.get(card);
                             }
                         });
                     }
-                });
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A one line summary of the price fetches which have been run, for logs
+     */
+    public String getMetrics() {
+        return mExecutor.getMetrics() + ", waiting for prices: " + mNumPriceRequests.get();
+    }
+
+    /**
+     * Remember which TCGplayer.com product a card is, so its next lookup doesn't need to search. This is only an
+     * optimization, so a database problem is ignored. It's called from fetch threads, so it writes in a short
+     * transaction of its own rather than joining DbUpdaterService's
+     *
+     * @param card      The card
+     * @param productId The card's TCGplayer.com productId
+     */
+    private void saveProductId(final MtgCard card, final long productId) {
+        try {
+            DatabaseManager.write(mActivity, database ->
+                    CardDbAdapter.addTcgProductId(card.mName, card.mExpansion, card.mNumber, productId, database));
+        } catch (FamiliarDbException e) {
+            /* It'll be searched for again next time */
+        }
+    }
+
+    /**
+     * Remember the TCGplayer.com products which a batch searched for and found, all in one short transaction of its
+     * own, like saveProductId()
+     *
+     * @param requests The requests a BatchPriceFetcher has fetched
+     */
+    private void saveProductIds(final List<BatchPriceFetcher.Request> requests) {
+        try {
+            DatabaseManager.write(mActivity, database -> {
+                for (BatchPriceFetcher.Request request : requests) {
+                    if (request.mFoundProductId >= 0) {
+                        CardDbAdapter.addTcgProductId(request.mCard.mName, request.mCard.mExpansion,
+                                request.mCard.mNumber, request.mFoundProductId, database);
+                    }
+                }
+            });
+        } catch (FamiliarDbException e) {
+            /* They'll be searched for again next time */
+        }
+    }
+
+    /**
+     * @param card A card to fetch the price for
+     * @throws IllegalArgumentException If the card can't be looked up
+     */
+    private static void checkCanFetch(MtgCard card) {
+        if (null == card.mName || card.mName.isEmpty() || null == card.mExpansion || card.mExpansion.isEmpty()) {
+            throw new IllegalArgumentException("card must have a name and expansion to fetch price");
+        }
+    }
+
+    /**
+     * @param card     A card
+     * @param callback A callback which takes a card and a result
+     * @param <T>      The type of the result
+     * @return A callback which passes the card along with the result
+     */
+    private static <T> Consumer<T> wrap(final MtgCard card, final BiConsumer<MtgCard, T> callback) {
+        return new Consumer<T>() {
+            @Override
+            public void accept(T result) throws Exception {
+                callback.accept(card, result);
+            }
+        };
+    }
+
+    /**
+     * @param onSuccess A Consumer callback to be called on the UI thread when the price is fetched
+     * @param onError   A Consumer callback to be called on the UI thread if onSuccess throws
+     * @return A callback which can be called on any thread, and runs onSuccess with postSuccess()
+     */
+    private Consumer<MarketPriceInfo> postingSuccess(final Consumer<MarketPriceInfo> onSuccess,
+                                                     final Consumer<Throwable> onError) {
+        return new Consumer<MarketPriceInfo>() {
+            @Override
+            public void accept(MarketPriceInfo marketPriceInfo) {
+                postSuccess(marketPriceInfo, onSuccess, onError);
+            }
+        };
+    }
+
+    /**
+     * @param onError A Consumer callback to be called on the UI thread when an error occurs
+     * @return A callback which can be called on any thread, and runs onError with postError()
+     */
+    private Consumer<Throwable> postingError(final Consumer<Throwable> onError) {
+        return new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) {
+                postError(throwable, onError);
+            }
+        };
+    }
+
+    /**
+     * Run a success callback on the UI thread, and stop the loading animation if it was the last request
+     *
+     * @param marketPriceInfo The fetched MarketPriceInfo
+     * @param onSuccess       The callback to run
+     * @param onError         The callback to run if the success callback throws
+     */
+    private void postSuccess(final MarketPriceInfo marketPriceInfo, final Consumer<MarketPriceInfo> onSuccess,
+                             final Consumer<Throwable> onError) {
+        /* Run the results on the UI thread */
+        mActivity.runOnUiThread(new Runnable() {
+            /**
+             * This runs the given success callback on the UI thread
+             */
+            @Override
+            public void run() {
+                if (0 == mNumPriceRequests.decrementAndGet()) {
+                    mActivity.clearLoading();
+                }
+                try {
+                    onSuccess.accept(marketPriceInfo);
+                } catch (Exception e) {
+                    /* Snatch defeat from the jaws of victory */
+                    try {
+                        onError.accept(e);
+                    } catch (Exception e2) {
+                        /* eat it */
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Run an error callback on the UI thread, and stop the loading animation if it was the last request
+     *
+     * @param throwable The Throwable that caused the process to fail
+     * @param onError   The callback to run
+     */
+    private void postError(final Throwable throwable, final Consumer<Throwable> onError) {
+        /* Run the erros on the UI thread */
+        mActivity.runOnUiThread(new Runnable() {
+            /**
+             * This runs the given error callback on the UI thread
+             */
+            @Override
+            public void run() {
+                if (0 == mNumPriceRequests.decrementAndGet()) {
+                    mActivity.clearLoading();
+                }
+
+                try {
+                    onError.accept(throwable);
+                } catch (Exception e) {
+                    /* Eat it */
+                }
             }
-        }).start();
+        });
     }
 }
@@ -78,6 +78,25 @@ public class MarketPriceInfo {
      * @param details The Details retrieved from the API. This contains the URL.
      */
     public MarketPriceInfo(ProductMarketPrice.MarketPrice[] results, ProductDetails.Details[] details) {
+        this(results, details[0].url + "?pk=MTGFAMILIA");
+    }
+
+    /**
+     * Create a MarketPriceInfo object from prices retrieved from the TCGPlayer.com API for a product which is already
+     * known, so the details don't need to be retrieved too
+     *
+     * @param results   The MarketPrice results retrieved from the API. This contains prices.
+     * @param productId The TCGPlayer.com productId the prices are for. This makes the URL.
+     */
+    public MarketPriceInfo(ProductMarketPrice.MarketPrice[] results, long productId) {
+        this(results, "https://shop.tcgplayer.com/product/productsearch?id=" + productId + "&pk=MTGFAMILIA");
+    }
+
+    /**
+     * @param results    The MarketPrice results retrieved from the API. This contains prices.
+     * @param productUrl The URL to the TCGPlayer.com page for the product
+     */
+    private MarketPriceInfo(ProductMarketPrice.MarketPrice[] results, String productUrl) {
         ProductMarketPrice.MarketPrice foilPrice = null;
         ProductMarketPrice.MarketPrice normalPrice = null;
         for (ProductMarketPrice.MarketPrice marketPrice : results) {
@@ -100,8 +119,7 @@ public class MarketPriceInfo {
             mFoilPrice = null;
         }
 
-        /* Set the URL from the details */
-        mProductUrl = details[0].url + "?pk=MTGFAMILIA";
+        mProductUrl = productUrl;
     }
 
     /**
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of MarketPriceInfo, in a single SQLite database in the cache directory. Each price is stored as JSON with
+ * the time it was fetched, keyed by the card's name and set code. The prices for a whole list are read with a query
+ * or two, and once there are more than MAX_ENTRIES prices, the ones fetched longest ago are evicted.
+ *
+ * The most recently used MAX_MEMORY_ENTRIES prices are also kept in memory, already parsed, so scrolling through a
+ * list which was just priced doesn't touch the disk.
+ *
+ * This replaces a JSON file per card, which left thousands of tiny files behind for a big wishlist. Those files are
+ * deleted when the database is created.
+ */
+class PriceCache {
+
+    private static final String DATABASE_NAME = "price_cache.db";
+
+    /* The files the cache used to write. Their names had everything but letters, digits and underscores removed, so
+     * unlike the database's own files they have no dots
+     */
+    private static final Pattern OLD_FILE_NAME = Pattern.compile("price_\\w*");
+
+    private static final String TABLE_PRICES = "prices";
+    private static final String KEY_CARD = "card";
+    private static final String KEY_PRICE = "price";
+    private static final String KEY_FETCHED = "fetched";
+
+    private static final String CREATE_PRICES =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_PRICES + "(" +
+                    KEY_CARD + " TEXT PRIMARY KEY, " +
+                    KEY_PRICE + " TEXT NOT NULL, " +
+                    KEY_FETCHED + " INTEGER NOT NULL)";
+    private static final String CREATE_FETCHED_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + TABLE_PRICES + "_" + KEY_FETCHED +
+                    " ON " + TABLE_PRICES + "(" + KEY_FETCHED + ")";
+    private static final String INSERT_PRICE =
+            "INSERT OR REPLACE INTO " + TABLE_PRICES + " VALUES (?, ?, ?)";
+
+    /* The most prices to keep. Each is a few hundred bytes */
+    private static final int MAX_ENTRIES = 10000;
+    /* The most prices to keep in memory. That's a long trade or wishlist */
+    private static final int MAX_MEMORY_ENTRIES = 1000;
+    /* Keys are bound as arguments, and SQLite allows up to 999 of them per statement */
+    private static final int MAX_KEYS_PER_QUERY = 500;
+
+    /**
+     * A cached price and when it was fetched
+     */
+    static class Entry {
+        final MarketPriceInfo mInfo;
+        final long mFetchedMs;
+
+        /**
+         * @param info      The cached price
+         * @param fetchedMs When the price was fetched, in ms since the epoch
+         */
+        Entry(MarketPriceInfo info, long fetchedMs) {
+            mInfo = info;
+            mFetchedMs = fetchedMs;
+        }
+    }
+
+    private static PriceCache sInstance = null;
+
+    private final File mFile;
+    private final Gson mGson = new Gson();
+    private final LruCache<String, Entry> mMemory = new LruCache<>(MAX_MEMORY_ENTRIES);
+    private SQLiteDatabase mDatabase = null;
+
+    /**
+     * @param context A context to find the cache directory with
+     * @return The one PriceCache
+     */
+    static synchronized PriceCache getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new PriceCache(context.getApplicationContext().getCacheDir());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param cacheDir The directory to keep the database in
+     */
+    PriceCache(File cacheDir) {
+        mFile = new File(cacheDir, DATABASE_NAME);
+    }
+
+    /**
+     * @param card A card
+     * @return The key the card's price is cached with
+     */
+    static String getKey(MtgCard card) {
+        return card.mName + '\n' + card.mExpansion;
+    }
+
+    /**
+     * Open the database, creating it if it doesn't exist. It's opened again if the cache directory was cleared
+     *
+     * @return The open database
+     * @throws SQLiteException If the database can't be opened
+     */
+    private synchronized SQLiteDatabase open() throws SQLiteException {
+        if (null != mDatabase && mDatabase.isOpen() && mFile.exists()) {
+            return mDatabase;
+        }
+        if (null != mDatabase) {
+            mDatabase.close();
+        }
+        boolean created = !mFile.exists();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        mDatabase.execSQL(CREATE_PRICES);
+        mDatabase.execSQL(CREATE_FETCHED_INDEX);
+        if (created) {
+            deleteOldFiles();
+        }
+        return mDatabase;
+    }
+
+    /**
+     * Delete the JSON files, one per card, which the cache used to write
+     */
+    private void deleteOldFiles() {
+        File[] files = mFile.getParentFile().listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (OLD_FILE_NAME.matcher(file.getName()).matches() && file.isFile()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param key A card's key
+     * @return The card's cached price, or null if it isn't cached
+     */
+    Entry read(String key) {
+        List<String> keys = new ArrayList<>(1);
+        keys.add(key);
+        return readAll(keys).get(key);
+    }
+
+    /**
+     * Read the cached prices for a whole list of cards. Prices in memory are returned from there, and the rest are
+     * read from the disk and kept in memory
+     *
+     * @param keys The cards' keys
+     * @return The cached price for each key which has one. Keys which aren't cached aren't in the map
+     */
+    Map<String, Entry> readAll(Collection<String> keys) {
+        Map<String, Entry> entries = new HashMap<>();
+        List<String> keyList = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Entry entry = mMemory.get(key);
+            if (null != entry) {
+                entries.put(key, entry);
+            } else {
+                keyList.add(key);
+            }
+        }
+        if (keyList.isEmpty()) {
+            return entries;
+        }
+        try {
+            SQLiteDatabase database = open();
+            for (int start = 0; start < keyList.size(); start += MAX_KEYS_PER_QUERY) {
+                List<String> page = keyList.subList(start, Math.min(start + MAX_KEYS_PER_QUERY, keyList.size()));
+                StringBuilder query = new StringBuilder("SELECT " + KEY_CARD + ", " + KEY_PRICE + ", " +
+                        KEY_FETCHED + " FROM " + TABLE_PRICES + " WHERE " + KEY_CARD + " IN (");
+                for (int i = 0; i < page.size(); i++) {
+                    query.append((i == 0) ? "?" : ", ?");
+                }
+                query.append(')');
+
+                Cursor c = database.rawQuery(query.toString(), page.toArray(new String[page.size()]));
+                try {
+                    while (c.moveToNext()) {
+                        try {
+                            MarketPriceInfo info = mGson.fromJson(c.getString(1), MarketPriceInfo.class);
+                            if (null != info) {
+                                Entry entry = new Entry(info, c.getLong(2));
+                                entries.put(c.getString(0), entry);
+                                mMemory.put(c.getString(0), entry);
+                            }
+                        } catch (JsonParseException e) {
+                            /* Treat it as a miss, it'll be overwritten when it's fetched again */
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            /* Return whatever was read */
+        }
+        return entries;
+    }
+
+    /**
+     * Cache a card's price, fetched now
+     *
+     * @param key  The card's key
+     * @param info The card's price
+     * @return true if it was cached, false if it wasn't
+     */
+    boolean write(String key, MarketPriceInfo info) {
+        Map<String, MarketPriceInfo> prices = new HashMap<>(1);
+        prices.put(key, info);
+        return writeAll(prices);
+    }
+
+    /**
+     * Cache prices for a whole list of cards, fetched now, in memory and in one transaction on the disk. Then evict
+     * the oldest prices from the disk if there are too many
+     *
+     * @param prices The prices to cache, by card key
+     * @return true if they were cached, false if they weren't
+     */
+    boolean writeAll(Map<String, MarketPriceInfo> prices) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, MarketPriceInfo> price : prices.entrySet()) {
+            mMemory.put(price.getKey(), new Entry(price.getValue(), now));
+        }
+        try {
+            SQLiteDatabase database = open();
+            database.beginTransaction();
+            try {
+                SQLiteStatement insert = database.compileStatement(INSERT_PRICE);
+                for (Map.Entry<String, MarketPriceInfo> price : prices.entrySet()) {
+                    insert.bindString(1, price.getKey());
+                    insert.bindString(2, mGson.toJson(price.getValue(), MarketPriceInfo.class));
+                    insert.bindLong(3, now);
+                    insert.executeInsert();
+                }
+                insert.close();
+
+                /* Walking the index past the MAX_ENTRIES newest prices is cheap, so do it every time. Prices
+                 * fetched at the same time are ordered by rowid, which is when they were written
+                 */
+                database.execSQL("DELETE FROM " + TABLE_PRICES + " WHERE rowid IN (" +
+                        "SELECT rowid FROM " + TABLE_PRICES + " ORDER BY " + KEY_FETCHED + " DESC, rowid DESC" +
+                        " LIMIT -1 OFFSET " + MAX_ENTRIES + ")");
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException | IllegalStateException e) {
+            return false;
+        }
+    }
+}
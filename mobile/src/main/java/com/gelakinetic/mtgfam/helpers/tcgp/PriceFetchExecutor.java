@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs price fetches on a few background threads, instead of a new thread for each one. Queued fetches run in
+ * priority order, so a price someone is looking at jumps ahead of a list being priced, which jumps ahead of stale
+ * prices being refreshed. Fetches with the same priority run in the order they were queued.
+ *
+ * How deep the queue gets and how long fetches wait and run are recorded, see getMetrics().
+ */
+class PriceFetchExecutor {
+
+    /**
+     * How urgent a fetch is. Earlier values run first
+     */
+    enum Priority {
+        /* A single price someone is looking at, like a card's price dialog or a row which was just added */
+        VISIBLE,
+        /* Prices for a whole list, in the list's order */
+        LIST,
+        /* Refreshing a stale price which was already shown */
+        BACKGROUND
+    }
+
+    /* Enough to overlap a few network calls, without flooding the network or the database */
+    private static final int NUM_THREADS = 4;
+    /* Idle threads are stopped after this long */
+    private static final long KEEP_ALIVE_S = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /* Metrics */
+    private final AtomicLong mTasksRun = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mTotalRunNanos = new AtomicLong();
+    private final AtomicLong mMaxRunNanos = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    /**
+     * A fetch in the queue. It's ordered by priority, then by when it was queued
+     */
+    private class Task implements Runnable, Comparable<Task> {
+        private final Priority mPriority;
+        private final long mSequenceNumber;
+        private final long mQueuedNanos;
+        private final Runnable mRunnable;
+
+        /**
+         * @param priority How urgent the fetch is
+         * @param runnable The fetch
+         */
+        Task(Priority priority, Runnable runnable) {
+            mPriority = priority;
+            mSequenceNumber = mSequence.getAndIncrement();
+            mQueuedNanos = System.nanoTime();
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            return (mSequenceNumber < other.mSequenceNumber) ? -1 :
+                    ((mSequenceNumber == other.mSequenceNumber) ? 0 : 1);
+        }
+
+        /**
+         * Run the fetch and record how long it waited and ran
+         */
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                mRunnable.run();
+            } finally {
+                long runNanos = System.nanoTime() - start;
+                mTasksRun.incrementAndGet();
+                mTotalWaitNanos.addAndGet(start - mQueuedNanos);
+                mTotalRunNanos.addAndGet(runNanos);
+                long max;
+                do {
+                    max = mMaxRunNanos.get();
+                } while (runNanos > max && !mMaxRunNanos.compareAndSet(max, runNanos));
+            }
+        }
+    }
+
+    /**
+     * Create an executor. Its threads are started when fetches are queued, and stopped when they're idle
+     */
+    PriceFetchExecutor() {
+        this(NUM_THREADS);
+    }
+
+    /**
+     * Create an executor with a given number of threads
+     *
+     * @param numThreads The most fetches to run at once
+     */
+    PriceFetchExecutor(int numThreads) {
+        mExecutor = new ThreadPoolExecutor(numThreads, numThreads, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "price-fetch-" + mThreadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a fetch. It runs on a background thread
+     *
+     * @param priority How urgent the fetch is
+     * @param runnable The fetch
+     */
+    void execute(Priority priority, Runnable runnable) {
+        /* execute(), not submit(), so the queue gets the comparable Task rather than a FutureTask wrapping it */
+        mExecutor.execute(new Task(priority, runnable));
+
+        int depth = mExecutor.getQueue().size();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+    }
+
+    /**
+     * @return How many fetches are queued and not running yet
+     */
+    int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return A one line summary of the fetches which have been run, for logs
+     */
+    String getMetrics() {
+        long tasks = mTasksRun.get();
+        double nanosPerMs = TimeUnit.MILLISECONDS.toNanos(1);
+        return String.format(Locale.US,
+                "fetches: %d, running: %d, queued: %d, max queued: %d, mean wait: %.1fms, mean run: %.1fms, " +
+                        "max run: %.1fms",
+                tasks, mExecutor.getActiveCount(), getQueueDepth(), mMaxQueueDepth.get(),
+                (tasks == 0) ? 0.0 : mTotalWaitNanos.get() / (double) tasks / nanosPerMs,
+                (tasks == 0) ? 0.0 : mTotalRunNanos.get() / (double) tasks / nanosPerMs,
+                mMaxRunNanos.get() / nanosPerMs);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.functions.Consumer;
+
+/**
+ * Looks up card prices in a PriceCache, and gets the ones which aren't cached from a Source. A cached price is returned
+ * right away, even if it's stale for the price type, and a stale one is fetched again in the background for the next
+ * lookup. If that fails, the stale price is kept.
+ *
+ * Each card's price is only fetched once at a time, however many lookups are waiting for it, and each stale price is
+ * only refreshed once at a time. Callbacks are called on the PriceFetchExecutor's threads.
+ */
+class PriceLookup {
+
+    private static final long ONE_DAY_MS = 86400000;
+
+    /**
+     * Where prices which aren't cached, or are stale, come from. Both methods are called on a PriceFetchExecutor's
+     * thread, and cache the prices they fetch
+     */
+    interface Source {
+        /**
+         * Get a card's price from the cache if it's there, or the network if it isn't
+         *
+         * @param card      The card to get the price for
+         * @param onSuccess A Consumer callback to be called when the price is fetched
+         * @param onError   A Consumer callback to be called when an error occurs
+         */
+        void get(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError);
+
+        /**
+         * Fetch a card's price from the network, even if it's cached
+         *
+         * @param card      The card to fetch the price for
+         * @param onSuccess A Consumer callback to be called when the price is fetched
+         * @param onError   A Consumer callback to be called when an error occurs
+         */
+        void fetch(MtgCard card, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError);
+    }
+
+    /**
+     * The callbacks for one request for a price
+     */
+    private static class Callbacks {
+        final Consumer<MarketPriceInfo> mOnSuccess;
+        final Consumer<Throwable> mOnError;
+
+        /**
+         * @param onSuccess A Consumer callback to be called when the price is fetched
+         * @param onError   A Consumer callback to be called when an error occurs
+         */
+        Callbacks(Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+            mOnSuccess = onSuccess;
+            mOnError = onError;
+        }
+    }
+
+    private final PriceCache mCache;
+    private final PriceFetchExecutor mExecutor;
+    private final Source mSource;
+    private final EnumMap<MarketPriceInfo.PriceType, Long> mMaxAgeMs = new EnumMap<>(MarketPriceInfo.PriceType.class);
+
+    /* The callbacks waiting on each card key's price, so each price is only fetched once at a time */
+    private final Map<String, List<Callbacks>> mInFlight = new HashMap<>();
+    /* The card keys whose stale prices are being fetched again. Guarded by mInFlight too */
+    private final Set<String> mRevalidating = new HashSet<>();
+
+    /**
+     * @param cache    The cache to look prices up in
+     * @param executor The executor to fetch prices on
+     * @param source   Where to get prices which aren't cached, or are stale
+     */
+    PriceLookup(PriceCache cache, PriceFetchExecutor executor, Source source) {
+        mCache = cache;
+        mExecutor = executor;
+        mSource = source;
+
+        /* Low prices move the most, as the cheapest listings sell */
+        mMaxAgeMs.put(MarketPriceInfo.PriceType.LOW, ONE_DAY_MS / 2);
+        mMaxAgeMs.put(MarketPriceInfo.PriceType.MID, ONE_DAY_MS);
+        mMaxAgeMs.put(MarketPriceInfo.PriceType.HIGH, ONE_DAY_MS);
+        mMaxAgeMs.put(MarketPriceInfo.PriceType.MARKET, ONE_DAY_MS);
+    }
+
+    /**
+     * Set how long prices stay fresh when they're looked up for a given price type
+     *
+     * @param priceType The price type
+     * @param maxAgeMs  How long prices stay fresh, in ms
+     */
+    void setMaxAge(MarketPriceInfo.PriceType priceType, long maxAgeMs) {
+        mMaxAgeMs.put(priceType, maxAgeMs);
+    }
+
+    /**
+     * @param fetchedMs When a price was fetched, in ms since the epoch
+     * @param priceType The price type the price is wanted for
+     * @return true if the price was fetched recently enough to use without fetching it again
+     */
+    boolean isFresh(long fetchedMs, MarketPriceInfo.PriceType priceType) {
+        return System.currentTimeMillis() - fetchedMs <= mMaxAgeMs.get(priceType);
+    }
+
+    /**
+     * Look up a card's price, ahead of any lists being priced. If it's cached, it's returned right away, and if it's
+     * also stale, it's fetched again in the background. If it isn't cached, it's gotten from the Source
+     *
+     * @param card      A MtgCard to look up. It must have a mName and mExpansion populated
+     * @param priceType The price type which will be shown, which decides how long the cached price is fresh
+     * @param onSuccess A Consumer callback to be called when the price is found
+     * @param onError   A Consumer callback to be called when an error occurs
+     */
+    void lookup(final MtgCard card, final MarketPriceInfo.PriceType priceType,
+                Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+
+        /* If this card's price is already being fetched, this request gets it too */
+        final String key = PriceCache.getKey(card);
+        if (!startRequest(key, onSuccess, onError)) {
+            return;
+        }
+
+        mExecutor.execute(PriceFetchExecutor.Priority.VISIBLE, new Runnable() {
+            /**
+             * This runnable gets the card price from either the cache or the Source
+             */
+            @Override
+            public void run() {
+                PriceCache.Entry entry = mCache.read(key);
+                if (null == entry) {
+                    get(card);
+                } else {
+                    /* Return the cached price right away, then refresh it if it's stale */
+                    deliverSuccess(key, entry.mInfo);
+                    if (!isFresh(entry.mFetchedMs, priceType)) {
+                        revalidate(card);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for a card's price
+     *
+     * @param key       The card's key
+     * @param onSuccess A Consumer callback to be called when the price is fetched
+     * @param onError   A Consumer callback to be called when an error occurs
+     * @return true if the price isn't being fetched yet, so the caller should fetch it. false if it's already being
+     * fetched, and the callbacks will be called when it is
+     */
+    boolean startRequest(String key, Consumer<MarketPriceInfo> onSuccess, Consumer<Throwable> onError) {
+        synchronized (mInFlight) {
+            List<Callbacks> waiting = mInFlight.get(key);
+            boolean isFirst = (null == waiting);
+            if (isFirst) {
+                waiting = new ArrayList<>(1);
+                mInFlight.put(key, waiting);
+            }
+            waiting.add(new Callbacks(onSuccess, onError));
+            return isFirst;
+        }
+    }
+
+    /**
+     * @param key A card's key
+     * @return The callbacks which were waiting for the card's price. They aren't waiting anymore
+     */
+    private List<Callbacks> finishRequest(String key) {
+        synchronized (mInFlight) {
+            List<Callbacks> waiting = mInFlight.remove(key);
+            return (null == waiting) ? Collections.<Callbacks>emptyList() : waiting;
+        }
+    }
+
+    /**
+     * Call every success callback waiting for a card's price. If one throws, its error callback is called instead
+     *
+     * @param key             The card's key
+     * @param marketPriceInfo The fetched MarketPriceInfo
+     */
+    void deliverSuccess(String key, MarketPriceInfo marketPriceInfo) {
+        for (Callbacks callbacks : finishRequest(key)) {
+            try {
+                callbacks.mOnSuccess.accept(marketPriceInfo);
+            } catch (Exception e) {
+                try {
+                    callbacks.mOnError.accept(e);
+                } catch (Exception e2) {
+                    /* eat it */
+                }
+            }
+        }
+    }
+
+    /**
+     * Call every error callback waiting for a card's price
+     *
+     * @param key       The card's key
+     * @param throwable The Throwable that caused the fetch to fail
+     */
+    void deliverError(String key, Throwable throwable) {
+        for (Callbacks callbacks : finishRequest(key)) {
+            try {
+                callbacks.mOnError.accept(throwable);
+            } catch (Exception e) {
+                /* Eat it */
+            }
+        }
+    }
+
+    /**
+     * @param key A card's key
+     * @return true if the card's stale price isn't being fetched again yet, so the caller should. false if it is
+     */
+    boolean startRevalidating(String key) {
+        synchronized (mInFlight) {
+            return mRevalidating.add(key);
+        }
+    }
+
+    /**
+     * @param key A card's key, whose stale price was fetched again or failed to be
+     */
+    void finishRevalidating(String key) {
+        synchronized (mInFlight) {
+            mRevalidating.remove(key);
+        }
+    }
+
+    /**
+     * Get the card price from the Source, and call every callback waiting for it. This must be called on one of the
+     * executor's threads
+     *
+     * @param card A MtgCard to fetch data for
+     */
+    void get(MtgCard card) {
+        final String key = PriceCache.getKey(card);
+        mSource.get(card, new Consumer<MarketPriceInfo>() {
+            @Override
+            public void accept(MarketPriceInfo marketPriceInfo) {
+                deliverSuccess(key, marketPriceInfo);
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) {
+                deliverError(key, throwable);
+            }
+        });
+    }
+
+    /**
+     * Fetch a card's stale price again in the background, unless that's already happening
+     *
+     * @param card A MtgCard whose stale price was already returned
+     */
+    private void revalidate(MtgCard card) {
+        if (startRevalidating(PriceCache.getKey(card))) {
+            refreshInBackground(card);
+        }
+    }
+
+    /**
+     * Queue a fetch of a card's price from the Source, which caches it, without returning it. This is for a stale
+     * price which was already returned, so if it fails, the stale price is kept and it's tried again on the next
+     * lookup. The card's key must be marked with startRevalidating(), and it's unmarked when the fetch is done
+     *
+     * @param card A MtgCard to fetch data for
+     */
+    void refreshInBackground(final MtgCard card) {
+        mExecutor.execute(PriceFetchExecutor.Priority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                mSource.fetch(card, new Consumer<MarketPriceInfo>() {
+                    @Override
+                    public void accept(MarketPriceInfo marketPriceInfo) {
+                        /* The Source cached it */
+                        finishRevalidating(PriceCache.getKey(card));
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) {
+                        /* Keep the stale price */
+                        finishRevalidating(PriceCache.getKey(card));
+                    }
+                });
+            }
+        });
+    }
+}
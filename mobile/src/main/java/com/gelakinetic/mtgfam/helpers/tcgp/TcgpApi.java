@@ -96,6 +96,9 @@ public class TcgpApi {
 
     public static final int CATEGORY_ID_MAGIC = 1;
 
+    /* The most results a search returns at once, and the most productIds to ask about at once */
+    public static final int MAX_PAGE_SIZE = 100;
+
     private static final String TCGP_VERSION = "v1.9.0";
     private String mAccessToken;
 
@@ -302,14 +305,31 @@ public class TcgpApi {
 //    }
 
     /**
-     * Given a list of card names and expansions, request and return the product IDs for each
+     * Given a card name and expansion, request and return the product IDs for it
      *
      * @param name      The card name to get product information for
-     * @param expansion The expansion of the card to get product information for
+     * @param expansion The expansion of the card to get product information for, or null for any expansion
+     * @return The product IDs, or null if there is no access token
      * @throws IOException If something goes wrong with the network
      */
     public ProductInformation getProductInformation(String name, String expansion)
             throws IOException {
+        return getProductInformation(new String[]{name},
+                (null == expansion) ? null : new String[]{expansion}, 0);
+    }
+
+    /**
+     * Given a list of card names and expansions, request and return one page of the product IDs for any card with
+     * one of the names in one of the expansions
+     *
+     * @param names      The card names to get product information for
+     * @param expansions The expansions of the cards to get product information for, or null for any expansion
+     * @param offset     How many results to skip, to get the next page
+     * @return The product IDs, at most MAX_PAGE_SIZE, or null if there is no access token
+     * @throws IOException If something goes wrong with the network
+     */
+    public ProductInformation getProductInformation(String[] names, String[] expansions, int offset)
+            throws IOException {
         // Make sure we have an access token first
         if (null != mAccessToken) {
 
@@ -320,19 +340,19 @@ public class TcgpApi {
             setDefaultOptions(conn, HttpMethod.POST);
             addHeaders(conn);
 
-            // Create the params, only adding the set if it isn't null
+            // Create the params, only adding the sets if they aren't null
             GetProductInformationOptions.NameValuesPair queryParams[];
-            if (null != expansion) {
+            if (null != expansions) {
                 queryParams = new GetProductInformationOptions.NameValuesPair[]{
-                        new GetProductInformationOptions.NameValuesPair("ProductName", new String[]{name}),
-                        new GetProductInformationOptions.NameValuesPair("SetName", new String[]{expansion})};
+                        new GetProductInformationOptions.NameValuesPair("ProductName", names),
+                        new GetProductInformationOptions.NameValuesPair("SetName", expansions)};
             } else {
                 queryParams = new GetProductInformationOptions.NameValuesPair[]{
-                        new GetProductInformationOptions.NameValuesPair("ProductName", new String[]{name})};
+                        new GetProductInformationOptions.NameValuesPair("ProductName", names)};
             }
 
             // Add the information to search by
-            GetProductInformationOptions options = new GetProductInformationOptions(queryParams);
+            GetProductInformationOptions options = new GetProductInformationOptions(queryParams, offset);
             conn.getOutputStream().write(new Gson().toJson(options, GetProductInformationOptions.class)
                     .getBytes(Charset.forName("UTF-8")));
 
@@ -25,19 +25,19 @@ import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
 import com.gelakinetic.GathererScraper.JsonTypes.LegalityData;
 import com.gelakinetic.GathererScraper.JsonTypes.Manifest;
-import com.gelakinetic.GathererScraper.JsonTypes.Patch;
 import com.gelakinetic.GathererScraper.PrefixedFieldNamingStrategy;
 import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 
 /**
  * This class is used to parse various JSON update files and populate the database
@@ -60,6 +60,27 @@ class CardAndSetParser {
         return reader.create();
     }
 
+    /**
+     * Receives the contents of a patch as it is parsed, so that the whole patch never has to be held in memory.
+     */
+    interface PatchListener {
+        /**
+         * Called when the patch's expansion is parsed.
+         *
+         * @param expansion The patch's expansion
+         * @throws FamiliarDbException If the expansion can't be added to the database
+         */
+        void onExpansion(Expansion expansion) throws FamiliarDbException;
+
+        /**
+         * Called as each of the patch's cards are parsed.
+         *
+         * @param card A card in the patch
+         * @throws FamiliarDbException If the card can't be added to the database
+         */
+        void onCard(Card card) throws FamiliarDbException;
+    }
+
     /**
      * If a set has a patch, and doesn't exist in the database, this is called to parse an InputStream of JSON and add
      * it into the database.
@@ -69,22 +90,46 @@ class CardAndSetParser {
      *
      * There is some special processing for weird power and toughness too
      *
-     * @param reader     A JsonRead to parse from
-     * @param cardsToAdd An array list to place cards before adding to the database
-     * @param setsToAdd  An array list to place sets before adding to the database
+     * The patch is streamed. Each card is handed to the listener as soon as it is parsed, and then forgotten.
+     *
+     * @param reader   A JsonRead to parse from
+     * @param listener The listener to pass the expansion and cards to
+     * @throws IOException         If the stream can't be read or isn't a patch
+     * @throws FamiliarDbException If the listener can't add something to the database
      */
-    public void readCardJsonStream(JsonReader reader, ArrayList<Card> cardsToAdd, ArrayList<Expansion> setsToAdd) {
+    public void readCardJsonStream(JsonReader reader, PatchListener listener)
+            throws IOException, FamiliarDbException {
 
         Gson gson = CardAndSetParser.getGson();
 
-        Patch patch = gson.fromJson(reader, Patch.class);
-        if (patch != null) {
-            cardsToAdd.addAll(patch.mCards);
-
-            /* Stage the sets and cards for database addition. */
-            if (setsToAdd != null) {
-                setsToAdd.add(patch.mExpansion);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "expansion": {
+                        Expansion expansion = gson.fromJson(reader, Expansion.class);
+                        listener.onExpansion(expansion);
+                        break;
+                    }
+                    case "cards": {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Card card = gson.fromJson(reader, Card.class);
+                            listener.onCard(card);
+                        }
+                        reader.endArray();
+                        break;
+                    }
+                    default: {
+                        reader.skipValue();
+                        break;
+                    }
+                }
             }
+            reader.endObject();
+        } catch (JsonParseException e) {
+            /* Gson wraps read errors, but they should be retried like any other IOException */
+            throw new IOException(e);
         }
     }
 
@@ -37,16 +37,20 @@ import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.NotificationHelper;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardNameIndex;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+import com.gelakinetic.mtgfam.helpers.database.ReferenceData;
 import com.google.gson.stream.JsonReader;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -66,11 +70,16 @@ public class DbUpdaterService extends IntentService {
     private NotificationManagerCompat mNotificationManager;
     private NotificationCompat.Builder mBuilder;
 
-    /* To keep track of progress percentage when adding cards in a set */
+    /* To keep track of progress percentage when adding sets */
     private Handler mHandler;
     private Runnable mProgressUpdater;
     private int mProgress;
 
+    /* How patches are downloaded */
+    private static final int PATCH_DOWNLOAD_THREADS = 4;
+    private static final int PATCH_DOWNLOAD_ATTEMPTS = 5;
+    private static final long PATCH_DOWNLOAD_BACKOFF_MS = 1000;
+
     /**
      * Default constructor with a default name.
      * The string is used to name the worker thread, important only for debugging.
@@ -135,6 +144,8 @@ public class DbUpdaterService extends IntentService {
             CardAndSetParser parser = new CardAndSetParser();
             boolean commitDates = true;
             boolean newRulesParsed = false;
+            boolean legalityChanged = false;
+            boolean cardsAdded = false;
 
             try {
                 /* Look for updates with the banned / restricted lists and formats */
@@ -172,8 +183,12 @@ public class DbUpdaterService extends IntentService {
                         }
                     }
 
+                    /* Fill card_legality in the same transaction, so readers never see it empty */
+                    CardDbAdapter.rebuildCardLegality(database);
+
                     /* Close the writable database */
                     DatabaseManager.getInstance(getApplicationContext(), true).closeDatabase(true);
+                    legalityChanged = true;
                 }
 
                 /* Change the notification to generic "checking for updates" */
@@ -203,79 +218,64 @@ public class DbUpdaterService extends IntentService {
                     }
                     DatabaseManager.getInstance(getApplicationContext(), false).closeDatabase(false);
 
-                    /* Look through the manifest and drop all out of date sets */
-                    database = DatabaseManager.getInstance(getApplicationContext(), true).openDatabase(true);
+                    /* Look through the manifest for out of date sets. They stay in the database until their new
+                     * patch is downloaded, then the old set is swapped for the new one
+                     */
                     for (Manifest.ManifestEntry set : manifest.mPatches) {
-                        try {
-                            /* If the digest doesn't match, mark the set for dropping
-                             * and remove it from currentSetCodes so it redownloads
-                             */
-                            if (set.mDigest != null && !storedDigests.get(set.mCode).equals(set.mDigest)) {
-                                if (logWriter != null) {
-                                    logWriter.write("Dropping expansion: " + set.mCode + '\n');
-                                }
-                                currentSetCodes.remove(set.mCode);
-                                CardDbAdapter.dropSetAndCards(set.mCode, database);
+                        /* If the digest doesn't match, remove it from currentSetCodes so it redownloads */
+                        String storedDigest = storedDigests.get(set.mCode);
+                        if (set.mDigest != null && storedDigest != null && !storedDigest.equals(set.mDigest)) {
+                            if (logWriter != null) {
+                                logWriter.write("Replacing expansion: " + set.mCode + '\n');
                             }
-                        } catch (NullPointerException e) {
-                            /* eat it */
+                            currentSetCodes.remove(set.mCode);
                         }
                     }
-                    DatabaseManager.getInstance(getApplicationContext(), true).closeDatabase(true);
 
                     /* Look through the list of available patches, and if it doesn't exist in the database, add it. */
+                    ArrayList<Manifest.ManifestEntry> setsToAdd = new ArrayList<>();
                     for (Manifest.ManifestEntry set : manifest.mPatches) {
                         if (!set.mCode.equals("DD3") && /* Never download the old Duel Deck Anthologies patch */
                                 !currentSetCodes.contains(set.mCode)) { /* check to see if the patch is known already */
-                            int retries = 5;
-                            while (retries > 0) {
-                                try {
-                                    /* Change the notification to the specific set */
-                                    switchToUpdating(String.format(getString(R.string.update_updating_set), set.mName));
-                                    InputStream streamToRead = FamiliarActivity.getHttpInputStream(set.mURL, logWriter, getApplicationContext());
-                                    if (streamToRead != null) {
-                                        ArrayList<Card> cardsToAdd = new ArrayList<>();
-                                        ArrayList<Expansion> setsToAdd = new ArrayList<>();
-
-                                        GZIPInputStream gis = new GZIPInputStream(streamToRead);
-                                        JsonReader reader = new JsonReader(new InputStreamReader(gis, "UTF-8"));
-                                        parser.readCardJsonStream(reader, cardsToAdd, setsToAdd);
-                                        streamToRead.close();
-                                        updatedStuff.add(set.mName);
-                                        /* Everything was successful, retries = 0 breaks the while loop */
-                                        retries = 0;
-
-                                        /* After the download, open the database */
-                                        database = DatabaseManager.getInstance(getApplicationContext(), true).openDatabase(true);
-                                        /* Insert the newly downloaded info */
-                                        for (Expansion expansion : setsToAdd) {
-                                            if (logWriter != null) {
-                                                logWriter.write("Adding expansion: " + expansion.mCode_gatherer + '\n');
-                                            }
-
-                                            CardDbAdapter.createSet(expansion, database);
-                                            CardDbAdapter.addTcgName(expansion.mName_tcgp, expansion.mCode_gatherer, database);
-                                            CardDbAdapter.addFoilInfo(expansion.mCanBeFoil, expansion.mCode_gatherer, database);
-                                        }
-                                        int cardsAdded = 0;
-                                        for (Card card : cardsToAdd) {
-                                            CardDbAdapter.createCard(card, database);
-                                            cardsAdded++;
-                                            mProgress = (int) (100 * (cardsAdded / (float) cardsToAdd.size()));
-                                        }
-                                        /* Close the database */
-                                        DatabaseManager.getInstance(getApplicationContext(), true).closeDatabase(true);
-                                    }
-                                } catch (IOException e) {
-                                    if (logWriter != null) {
-                                        logWriter.print("Retry " + retries + '\n');
-                                        e.printStackTrace(logWriter);
-                                    }
-                                }
-                                retries--;
-                            }
+                            setsToAdd.add(set);
+                        }
+                    }
+
+                    /* Download the patches in parallel, and add each one to the database in order as it arrives */
+                    PatchDownloader downloader = new PatchDownloader(
+                            (url) -> FamiliarActivity.openHttpConnection(new URL(url), getApplicationContext()),
+                            getPatchDirectory(), PATCH_DOWNLOAD_THREADS, PATCH_DOWNLOAD_ATTEMPTS,
+                            PATCH_DOWNLOAD_BACKOFF_MS, logWriter);
+                    int setsAdded = updatedStuff.size();
+                    try {
+                        downloader.downloadAll(setsToAdd, new PatchFileWriter(setsToAdd.size(), parser, updatedStuff,
+                                logWriter));
+                    } catch (InterruptedException e) {
+                        /* The service is being torn down, don't bother with the rest of the sets */
+                        Thread.currentThread().interrupt();
+                        if (logWriter != null) {
+                            e.printStackTrace(logWriter);
                         }
                     }
+                    if (updatedStuff.size() > setsAdded) {
+                        cardsAdded = true;
+                    }
+                }
+
+                /* New cards need their legality too. New legality data already rebuilt it above */
+                if (cardsAdded) {
+                    SQLiteDatabase database = DatabaseManager.getInstance(getApplicationContext(), true).openDatabase(true);
+                    CardDbAdapter.rebuildCardLegality(database);
+                    DatabaseManager.getInstance(getApplicationContext(), true).closeDatabase(true);
+                }
+
+                /* New legality data or new cards change the search screen's lists and the card names */
+                if (legalityChanged || cardsAdded) {
+                    /* Rebuild the search screen's lists and the card name index now, rather than when they're used */
+                    try (DatabaseManager.Lease lease = DatabaseManager.lease(getApplicationContext(), false)) {
+                        ReferenceData.rebuild(getApplicationContext(), lease.getDatabase());
+                        CardNameIndex.rebuild(lease.getDatabase());
+                    }
                 }
 
                 /* Change the notification to generic "checking for updates" */
@@ -386,10 +386,22 @@ public class DbUpdaterService extends IntentService {
 
         /* close the log */
         if (logWriter != null) {
+            logWriter.write("Database " + DatabaseManager.getLeaseMetrics() + '\n');
+            logWriter.write("Database " + DatabaseManager.getStartupMetrics() + '\n');
             logWriter.close();
         }
     }
 
+    /**
+     * @return The directory patches are downloaded to. Partial downloads stay here between updates to be resumed
+     */
+    private File getPatchDirectory() {
+        File directory = new File(getCacheDir(), "patches");
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        return directory;
+    }
+
     /**
      * Show the notification in the status bar
      */
@@ -465,6 +477,112 @@ public class DbUpdaterService extends IntentService {
         mNotificationManager.notify(UPDATED_NOTIFICATION, mBuilder.build());
     }
 
+    /**
+     * This inner class adds a patch's expansion and cards to the database as they are parsed
+     */
+    private static class PatchInserter implements CardAndSetParser.PatchListener {
+        private final SQLiteDatabase mDatabase;
+        private final CardDbAdapter.CardInserter mInserter;
+        private final PrintWriter mLogWriter;
+
+        /**
+         * Constructor.
+         *
+         * @param database  The database to add the patch to, with a transaction open
+         * @param inserter  A CardInserter for the database
+         * @param logWriter A writer to log added expansions to, may be null
+         */
+        PatchInserter(SQLiteDatabase database, CardDbAdapter.CardInserter inserter, PrintWriter logWriter) {
+            mDatabase = database;
+            mInserter = inserter;
+            mLogWriter = logWriter;
+        }
+
+        @Override
+        public void onExpansion(Expansion expansion) {
+            if (mLogWriter != null) {
+                mLogWriter.write("Adding expansion: " + expansion.mCode_gatherer + '\n');
+            }
+
+            CardDbAdapter.createSet(expansion, mDatabase);
+            CardDbAdapter.addTcgName(expansion.mName_tcgp, expansion.mCode_gatherer, mDatabase);
+            CardDbAdapter.addFoilInfo(expansion.mCanBeFoil, expansion.mCode_gatherer, mDatabase);
+        }
+
+        @Override
+        public void onCard(Card card) throws FamiliarDbException {
+            mInserter.insert(card);
+        }
+    }
+
+    /**
+     * This inner class adds each downloaded patch to the database. PatchDownloader calls it on the service's thread,
+     * one patch at a time, in manifest order.
+     */
+    private class PatchFileWriter implements PatchDownloader.PatchWriter {
+        private final int mNumSets;
+        private final CardAndSetParser mParser;
+        private final List<String> mUpdatedStuff;
+        private final PrintWriter mLogWriter;
+        private int mSetsWritten = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param numSets      The number of sets which will be written, for the progress bar
+         * @param parser       The parser to read patches with
+         * @param updatedStuff A list to add the name of each added set to
+         * @param logWriter    A writer to print debug statements when things go wrong, may be null
+         */
+        PatchFileWriter(int numSets, CardAndSetParser parser, List<String> updatedStuff, PrintWriter logWriter) {
+            mNumSets = numSets;
+            mParser = parser;
+            mUpdatedStuff = updatedStuff;
+            mLogWriter = logWriter;
+        }
+
+        @Override
+        public void onPatchDownloaded(Manifest.ManifestEntry set, File patch)
+                throws IOException, FamiliarDbException {
+            mProgress = (100 * mSetsWritten) / mNumSets;
+            mSetsWritten++;
+
+            /* Change the notification to the specific set */
+            switchToUpdating(String.format(getString(R.string.update_updating_set), set.mName));
+
+            /* Open the database, then stream the patch into it. The old version of the set, if any, is dropped and
+             * the new one is added in the same transaction, so if anything fails the old version is left untouched
+             */
+            SQLiteDatabase database = DatabaseManager.getInstance(getApplicationContext(), true).openDatabase(true);
+            CardDbAdapter.CardInserter inserter = null;
+            InputStream streamToRead = null;
+            boolean added = false;
+            try {
+                CardDbAdapter.dropSetAndCards(set.mCode, database);
+                inserter = new CardDbAdapter.CardInserter(database);
+                streamToRead = new GZIPInputStream(new FileInputStream(patch));
+                JsonReader reader = new JsonReader(new InputStreamReader(streamToRead, "UTF-8"));
+                mParser.readCardJsonStream(reader, new PatchInserter(database, inserter, mLogWriter));
+                added = true;
+                mUpdatedStuff.add(set.mName);
+            } finally {
+                if (inserter != null) {
+                    inserter.close();
+                }
+                if (streamToRead != null) {
+                    streamToRead.close();
+                }
+                if (added) {
+                    /* Commit and close the database */
+                    DatabaseManager.getInstance(getApplicationContext(), true).closeDatabase(true);
+                } else {
+                    /* Don't commit half of a set, it will be downloaded again */
+                    DatabaseManager.getInstance(getApplicationContext(), true).rollbackDatabase();
+                }
+            }
+        }
+    }
+
     /**
      * This inner class is used by other parsers to pass progress percentages to the notification
      */
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Manifest;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class downloads set patches on a few threads at once, then hands each downloaded patch to a single writer, in
+ * manifest order. Only the writer touches the database, so it can keep its exclusive transaction while the next
+ * patches download. Each download is retried with an exponential backoff.
+ *
+ * Partial downloads are named by their set code and manifest digest, and are kept when a download fails or is
+ * cancelled. The next attempt, even in a later update, asks the server for only the remaining bytes with a Range
+ * request. When a set's digest changes, its old partial download is deleted rather than resumed.
+ *
+ * Redirects are followed here, the same way FamiliarActivity.getHttpInputStream() follows them, since
+ * HttpURLConnection won't follow one to another protocol, i.e. from http to https.
+ */
+class PatchDownloader {
+
+    /**
+     * Opens a connection to a URL. DbUpdaterService uses FamiliarActivity.openHttpConnection(), tests can use anything.
+     */
+    interface ConnectionOpener {
+        /**
+         * @param url The URL to open
+         * @return An unconnected connection to the URL. PatchDownloader adds a Range header before connecting, and
+         * follows redirects itself
+         * @throws IOException If something goes wrong
+         */
+        HttpURLConnection open(String url) throws IOException;
+    }
+
+    /**
+     * Receives each downloaded patch, always on the thread which called downloadAll()
+     */
+    interface PatchWriter {
+        /**
+         * Called when a set's patch has downloaded and passed its gzip checksum.
+         *
+         * @param set   The set which was downloaded
+         * @param patch A gzipped JSON patch file. It is deleted after this returns
+         * @throws IOException         If the patch can't be read. The set is reported as failed
+         * @throws FamiliarDbException If the database fails. This stops all downloads
+         */
+        void onPatchDownloaded(Manifest.ManifestEntry set, File patch) throws IOException, FamiliarDbException;
+    }
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    /* Don't follow redirects forever */
+    private static final int MAX_REDIRECTS = 10;
+    /* How much of a redirect's body to look through for a location */
+    private static final int MAX_REDIRECT_LINES = 1000;
+
+    private final ConnectionOpener mOpener;
+    private final File mDirectory;
+    private final int mMaxConcurrent;
+    private final int mMaxAttempts;
+    private final long mBackoffMillis;
+    private final PrintWriter mLogWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param opener        How to open each patch's URL
+     * @param directory     Where to store patches until they are written. Partial downloads are left here to resume
+     * @param maxConcurrent The most patches to download at once
+     * @param maxAttempts   How many times to try downloading each patch
+     * @param backoffMillis How long to wait before the first retry. Each later retry waits twice as long
+     * @param logWriter     A writer to print debug statements when things go wrong, may be null
+     */
+    PatchDownloader(ConnectionOpener opener, File directory, int maxConcurrent, int maxAttempts, long backoffMillis,
+                    PrintWriter logWriter) {
+        mOpener = opener;
+        mDirectory = directory;
+        mMaxConcurrent = maxConcurrent;
+        mMaxAttempts = maxAttempts;
+        mBackoffMillis = backoffMillis;
+        mLogWriter = logWriter;
+    }
+
+    /**
+     * Download every set's patch, and pass each one to the writer in the same order as the list. At most
+     * 2 * maxConcurrent patches are downloaded ahead of the writer, so only that many are ever on disk.
+     *
+     * @param sets   The sets to download
+     * @param writer The writer to pass downloaded patches to
+     * @return The sets which couldn't be downloaded or written
+     * @throws FamiliarDbException  If the writer has a database error. Outstanding downloads are cancelled
+     * @throws InterruptedException If this thread is interrupted while waiting for a download
+     */
+    List<Manifest.ManifestEntry> downloadAll(List<Manifest.ManifestEntry> sets, PatchWriter writer)
+            throws FamiliarDbException, InterruptedException {
+
+        ArrayList<Manifest.ManifestEntry> failedSets = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(mMaxConcurrent);
+        ArrayDeque<Future<File>> downloads = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            for (Manifest.ManifestEntry set : sets) {
+                /* Keep the download window full */
+                while (submitted < sets.size() && downloads.size() < 2 * mMaxConcurrent) {
+                    downloads.add(executor.submit(new DownloadTask(sets.get(submitted))));
+                    submitted++;
+                }
+
+                File patch = null;
+                try {
+                    patch = downloads.remove().get();
+                    writer.onPatchDownloaded(set, patch);
+                } catch (ExecutionException | IOException e) {
+                    if (mLogWriter != null) {
+                        mLogWriter.write("Failed to add " + set.mCode + '\n');
+                        (e instanceof ExecutionException ? e.getCause() : e).printStackTrace(mLogWriter);
+                    }
+                    failedSets.add(set);
+                } finally {
+                    if (patch != null) {
+                        //noinspection ResultOfMethodCallIgnored
+                        patch.delete();
+                    }
+                }
+            }
+        } finally {
+            /* If the writer failed, stop everything which is still downloading and clean up. Partial downloads are
+             * kept to be resumed next time
+             */
+            executor.shutdownNow();
+            for (Future<File> download : downloads) {
+                download.cancel(true);
+            }
+            for (int i = submitted - downloads.size(); i < submitted; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                getPatchFile(sets.get(i)).delete();
+            }
+        }
+        return failedSets;
+    }
+
+    /**
+     * @param set A set to download
+     * @return The file the set's patch is moved to once it is completely downloaded
+     */
+    private File getPatchFile(Manifest.ManifestEntry set) {
+        return new File(mDirectory, set.mCode + ".json.gz");
+    }
+
+    /**
+     * @param set A set to download
+     * @return The file the set's patch is downloaded into. It is named by the digest, so that a partial download is
+     * only ever resumed with the same version of the patch
+     */
+    private File getPartFile(Manifest.ManifestEntry set) {
+        return new File(mDirectory, set.mCode + "_" + set.mDigest + PART_SUFFIX);
+    }
+
+    /**
+     * Delete any partial downloads of a set which aren't for its current digest, and any partial download if the
+     * manifest doesn't have a digest to check it against.
+     *
+     * @param set The set about to be downloaded
+     */
+    private void deleteStalePartFiles(Manifest.ManifestEntry set) {
+        File current = getPartFile(set);
+        File[] partFiles = mDirectory.listFiles();
+        if (partFiles == null) {
+            return;
+        }
+        for (File partFile : partFiles) {
+            String name = partFile.getName();
+            if (name.startsWith(set.mCode + "_") && name.endsWith(PART_SUFFIX) &&
+                    (set.mDigest == null || !partFile.equals(current))) {
+                //noinspection ResultOfMethodCallIgnored
+                partFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Downloads a single patch, with retries
+     */
+    private class DownloadTask implements Callable<File> {
+        private final Manifest.ManifestEntry mSet;
+
+        /**
+         * Constructor.
+         *
+         * @param set The set to download
+         */
+        DownloadTask(Manifest.ManifestEntry set) {
+            mSet = set;
+        }
+
+        /**
+         * Download the patch, retrying with a backoff. Each retry resumes where the last attempt stopped.
+         *
+         * @return The downloaded patch
+         * @throws IOException          If every attempt failed
+         * @throws InterruptedException If the download was cancelled during a backoff
+         */
+        @Override
+        public File call() throws IOException, InterruptedException {
+            deleteStalePartFiles(mSet);
+            File part = getPartFile(mSet);
+            long backoff = mBackoffMillis;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    download(part);
+                    try {
+                        verify(part);
+                    } catch (EOFException e) {
+                        /* The connection closed early, the rest can still be resumed */
+                        throw e;
+                    } catch (IOException e) {
+                        /* Something got mangled, start over from scratch */
+                        //noinspection ResultOfMethodCallIgnored
+                        part.delete();
+                        throw e;
+                    }
+                    File patch = getPatchFile(mSet);
+                    if (!part.renameTo(patch)) {
+                        throw new IOException("Couldn't rename " + part.getName());
+                    }
+                    return patch;
+                } catch (IOException e) {
+                    if (attempt >= mMaxAttempts) {
+                        throw e;
+                    }
+                    if (mLogWriter != null) {
+                        mLogWriter.write("Retry " + mSet.mCode + " attempt " + attempt + ": " + e.toString() + '\n');
+                    }
+                }
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+
+        /**
+         * Download the rest of the patch into the part file. If the part file already has some bytes, only ask for
+         * the bytes after them. If the server ignores the Range header, start the part file over.
+         *
+         * @param part The file to download to
+         * @throws IOException If the download fails. Whatever was downloaded is kept
+         */
+        private void download(File part) throws IOException {
+            long offset = (mSet.mDigest == null) ? 0 : part.length();
+            HttpURLConnection connection = connect(offset);
+
+            boolean append;
+            switch (connection.getResponseCode()) {
+                case HttpURLConnection.HTTP_OK: {
+                    append = false;
+                    break;
+                }
+                case HttpURLConnection.HTTP_PARTIAL: {
+                    String range = connection.getHeaderField("Content-Range");
+                    if (range != null && !range.startsWith("bytes " + offset + "-")) {
+                        connection.disconnect();
+                        throw new IOException("Unexpected Content-Range " + range);
+                    }
+                    append = true;
+                    break;
+                }
+                default: {
+                    if (offset > 0 && connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                        /* The last attempt got everything, but failed before it could be checked */
+                        connection.disconnect();
+                        return;
+                    }
+                    connection.disconnect();
+                    throw new IOException("HTTP " + connection.getResponseCode() + " for " + mSet.mURL);
+                }
+            }
+
+            InputStream stream = null;
+            OutputStream out = null;
+            try {
+                stream = connection.getInputStream();
+                out = new FileOutputStream(part, append);
+                IOUtils.copy(stream, out);
+            } finally {
+                IOUtils.closeQuietly(stream);
+                IOUtils.closeQuietly(out);
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Open the patch's URL and follow any redirects. The Range header is sent to every URL along the way.
+         *
+         * @param offset How many bytes of the patch are already downloaded
+         * @return A connection which got a response other than a redirect
+         * @throws IOException If a URL can't be opened, a redirect has no location, or there are too many redirects
+         */
+        private HttpURLConnection connect(long offset) throws IOException {
+            URL url = new URL(mSet.mURL);
+            for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+                HttpURLConnection connection = mOpener.open(url.toString());
+                connection.setInstanceFollowRedirects(false);
+                if (offset > 0) {
+                    connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                }
+
+                switch (connection.getResponseCode()) {
+                    case HttpURLConnection.HTTP_MOVED_PERM:
+                    case HttpURLConnection.HTTP_MOVED_TEMP:
+                    case HttpURLConnection.HTTP_SEE_OTHER:
+                    case HTTP_TEMPORARY_REDIRECT:
+                    case HTTP_PERMANENT_REDIRECT: {
+                        URL nextUrl;
+                        try {
+                            nextUrl = getRedirectLocation(connection, url);
+                        } finally {
+                            connection.disconnect();
+                        }
+                        if (nextUrl == null) {
+                            throw new IOException("HTTP " + connection.getResponseCode() + " without a location for " +
+                                    url);
+                        }
+                        url = nextUrl;
+                        break;
+                    }
+                    default: {
+                        return connection;
+                    }
+                }
+            }
+            throw new IOException("Too many redirects for " + mSet.mURL);
+        }
+
+        /**
+         * Find where a redirect points. This is usually the Location header, but sites.google.com serves up malformed
+         * redirects where the header fields end up in the body, so look there too.
+         *
+         * @param connection A connection which got a redirect
+         * @param url        The URL which was redirected, to resolve a relative location against
+         * @return The URL to try next, or null if there isn't one
+         * @throws IOException If the body can't be read, or the location isn't a URL
+         */
+        private URL getRedirectLocation(HttpURLConnection connection, URL url) throws IOException {
+            String location = connection.getHeaderField("Location");
+            if (location != null) {
+                return new URL(url, location);
+            }
+
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                String line;
+                for (int linesRead = 0; linesRead < MAX_REDIRECT_LINES && (line = reader.readLine()) != null;
+                     linesRead++) {
+                    String[] words = line.trim().split("\\s+");
+                    if (words.length > 1 && words[0].toLowerCase().contains("location")) {
+                        return new URL(url, words[1]);
+                    }
+                }
+                return null;
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+
+        /**
+         * Read a downloaded patch through to make sure it isn't truncated or corrupt.
+         *
+         * @param patch The file to check
+         * @throws IOException If the gzip checksum doesn't match, or an EOFException if the file is truncated
+         */
+        private void verify(File patch) throws IOException {
+            /* GZIPInputStream checks the length and CRC when it reaches the end */
+            InputStream check = null;
+            try {
+                check = new GZIPInputStream(new FileInputStream(patch));
+                byte[] buffer = new byte[8192];
+                //noinspection StatementWithEmptyBody
+                while (check.read(buffer) != -1) {
+                    /* Just read */
+                }
+            } finally {
+                IOUtils.closeQuietly(check);
+            }
+        }
+    }
+}
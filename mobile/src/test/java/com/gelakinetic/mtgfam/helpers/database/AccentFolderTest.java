@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks AccentFolder against the char pair table it replaced. Folding is per char, so checking every char checks
+ * every card name.
+ */
+public class AccentFolderTest {
+
+    /* The table CardDbAdapter.removeAccentMarks() used to search for every char */
+    private static final char[][] REPLACEMENTS = {
+            {0xC0, 'A'}, {0xC1, 'A'}, {0xC2, 'A'}, {0xC3, 'A'}, {0xC4, 'A'}, {0xC5, 'A'},
+            {0xC7, 'C'}, {0xC8, 'E'}, {0xC9, 'E'}, {0xCA, 'E'}, {0xCB, 'E'},
+            {0xCC, 'I'}, {0xCD, 'I'}, {0xCE, 'I'}, {0xCF, 'I'}, {0xD0, 'D'}, {0xD1, 'N'},
+            {0xD2, 'O'}, {0xD3, 'O'}, {0xD4, 'O'}, {0xD5, 'O'}, {0xD6, 'O'}, {0xD7, 'x'}, {0xD8, 'O'},
+            {0xD9, 'U'}, {0xDA, 'U'}, {0xDB, 'U'}, {0xDC, 'U'}, {0xDD, 'Y'},
+            {0xE0, 'a'}, {0xE1, 'a'}, {0xE2, 'a'}, {0xE3, 'a'}, {0xE4, 'a'}, {0xE5, 'a'},
+            {0xE7, 'c'}, {0xE8, 'e'}, {0xE9, 'e'}, {0xEA, 'e'}, {0xEB, 'e'},
+            {0xEC, 'i'}, {0xED, 'i'}, {0xEE, 'i'}, {0xEF, 'i'}, {0xF1, 'n'},
+            {0xF2, 'o'}, {0xF3, 'o'}, {0xF4, 'o'}, {0xF5, 'o'}, {0xF6, 'o'}, {0xF8, 'o'},
+            {0xF9, 'u'}, {0xFA, 'u'}, {0xFB, 'u'}, {0xFC, 'u'}, {0xFD, 'y'}, {0xFF, 'y'}
+    };
+
+    /**
+     * @param str A string
+     * @return The string with accent marks removed, the way CardDbAdapter used to do it
+     */
+    private static String removeAccentMarksWithPairs(String str) {
+        StringBuilder out = new StringBuilder(str.length());
+        for (char letter : str.toCharArray()) {
+            char replaced = letter;
+            for (char[] replacement : REPLACEMENTS) {
+                if (letter == replacement[0]) {
+                    replaced = replacement[1];
+                    break;
+                }
+            }
+            out.append(replaced);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Every char folds the same way it used to, both on its own and inside a name
+     */
+    @Test
+    public void matchesPairTableForEveryChar() {
+        StringBuilder builder = new StringBuilder();
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            String single = String.valueOf((char) c);
+            String expected = removeAccentMarksWithPairs(single);
+            assertEquals(expected, AccentFolder.removeAccentMarks(single));
+
+            String name = "Lim-D" + single + "l's Vault";
+            assertEquals(removeAccentMarksWithPairs(name), AccentFolder.removeAccentMarks(name));
+
+            builder.setLength(0);
+            assertEquals(expected, AccentFolder.removeAccentMarks((CharSequence) single, builder).toString());
+        }
+    }
+
+    /**
+     * Names without accent marks aren't copied, and names with them are folded, ligatures excepted
+     */
+    @Test
+    public void foldsCardNames() {
+        String plain = "Jace, the Mind Sculptor";
+        assertSame(plain, AccentFolder.removeAccentMarks(plain));
+        assertEquals("Jotun Grunt", AccentFolder.removeAccentMarks("J\u00F6tun Grunt"));
+        assertEquals("Dandan", AccentFolder.removeAccentMarks("Dand\u00E2n"));
+        assertEquals("\u00C6ther Vial", AccentFolder.removeAccentMarks("\u00C6ther Vial"));
+        assertEquals("Seance", AccentFolder.removeAccentMarks("S\u00E9ance"));
+    }
+
+    /**
+     * The builder version appends, so one builder can be reused
+     */
+    @Test
+    public void appendsToBuilder() {
+        StringBuilder builder = new StringBuilder("%");
+        AccentFolder.removeAccentMarks("Ifh-B\u00EDff Efreet", builder).append('%');
+        assertEquals("%Ifh-Biff Efreet%", builder.toString());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks CardNameIndex's prefix lookup, which names it picks as candidates for a misspelled name, and the edit
+ * distance it ranks them by.
+ */
+public class CardNameIndexTest {
+
+    /* Out of order, so the index has to sort them */
+    private static final String[] NAMES = {
+            "Lightning Bolt",
+            "Goblin Guide",
+            "Light from Within",
+            "Lightning Helix",
+            "Shock",
+            "Goblin Bombardment",
+            "Lim-D\u00FBl's Vault",
+            "Counterspell",
+            "Lightning Bolt Jr.",
+    };
+
+    private CardNameIndex mIndex;
+
+    /**
+     * Index the names, the way build() would from the database
+     */
+    @Before
+    public void buildIndex() {
+        List<String> keys = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            keys.add(AccentFolder.removeAccentMarks(NAMES[i]).toLowerCase(Locale.ENGLISH));
+            ids.add((long) i);
+        }
+        mIndex = CardNameIndex.fromNames(keys, Arrays.asList(NAMES), ids);
+    }
+
+    /**
+     * @param query What the user typed
+     * @return The names lookup() found, in order
+     */
+    private List<String> lookup(String query) {
+        List<String> names = new ArrayList<>();
+        for (int position : mIndex.lookup(query)) {
+            names.add(mIndex.getName(position));
+        }
+        return names;
+    }
+
+    /**
+     * @param name A name in the index
+     * @return Its position in the index
+     */
+    private int positionOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (mIndex.getName(i).equals(name)) {
+                return i;
+            }
+        }
+        throw new AssertionError(name + " isn't indexed");
+    }
+
+    /**
+     * @param name  A name in the index
+     * @param query What the user typed, lowercase and accent-free
+     * @return The edit distance between them, up to 3
+     */
+    private int distance(String name, String query) {
+        return mIndex.distance(positionOf(name), query.toCharArray(), 3, false);
+    }
+
+    /**
+     * A prefix finds every name starting with it, in sorted order, ignoring case, accents and leading spaces
+     */
+    @Test
+    public void prefixLookup() {
+        assertEquals(Arrays.asList("Light from Within", "Lightning Bolt", "Lightning Bolt Jr.", "Lightning Helix"),
+                lookup("light"));
+        assertEquals(Arrays.asList("Lightning Bolt", "Lightning Bolt Jr."), lookup("  LIGHTNING B"));
+        assertEquals(Arrays.asList("Goblin Bombardment", "Goblin Guide"), lookup("gob"));
+        assertEquals(Collections.singletonList("Lim-D\u00FBl's Vault"), lookup("lim-d\u00FB"));
+        assertEquals(Collections.singletonList("Lim-D\u00FBl's Vault"), lookup("Lim-Dul"));
+    }
+
+    /**
+     * A blank query doesn't look anything up
+     */
+    @Test
+    public void blankLookup() {
+        assertNull(mIndex.lookup(""));
+        assertNull(mIndex.lookup("   "));
+    }
+
+    /**
+     * When nothing starts with the query, names which nearly start with it are found instead
+     */
+    @Test
+    public void misspelledPrefixLookup() {
+        List<String> found = lookup("ligthn");
+        assertTrue(found.toString(), found.contains("Lightning Bolt"));
+        assertTrue(found.toString(), found.contains("Lightning Helix"));
+        assertTrue(found.toString(), !found.contains("Shock"));
+        assertEquals(Collections.singletonList("Counterspell"), lookup("countre"));
+    }
+
+    /**
+     * Names are counted as candidates by the trigrams they share with the query, including the padded ones at the
+     * start and end of a whole name
+     */
+    @Test
+    public void trigramCandidates() {
+        /* A whole name has a trigram ending at each letter, plus one for its end */
+        long[] grams = CardNameIndex.trigrams("shock".toCharArray(), 0, 5, true);
+        assertEquals(6, grams.length);
+        int[] shared = mIndex.countShared(grams);
+        assertEquals(6, shared[positionOf("Shock")]);
+        assertEquals(0, shared[positionOf("Counterspell")]);
+
+        /* A prefix isn't padded at the end, so it loses the trigram which would say the name ends there */
+        assertEquals(5, CardNameIndex.trigrams("shock".toCharArray(), 0, 5, false).length);
+
+        /* One swapped pair changes only the trigrams around it, so the name is still a candidate */
+        shared = mIndex.countShared(CardNameIndex.trigrams("shokc".toCharArray(), 0, 5, true));
+        assertEquals(3, shared[positionOf("Shock")]);
+        assertEquals(0, shared[positionOf("Goblin Guide")]);
+
+        /* Repeated trigrams are only counted once */
+        assertEquals(4, CardNameIndex.trigrams("aaaa".toCharArray(), 0, 4, true).length);
+    }
+
+    /**
+     * Swapping two adjacent letters is one edit, not two
+     */
+    @Test
+    public void swapIsOneEdit() {
+        assertEquals(0, distance("Lightning Bolt", "lightning bolt"));
+        assertEquals(1, distance("Lightning Bolt", "lightning blot"));
+        assertEquals(1, distance("Lightning Bolt", "ligthning bolt"));
+        assertEquals(1, distance("Lightning Bolt", "lightning bol"));
+        assertEquals(1, distance("Lightning Bolt", "lightning bolts"));
+        assertEquals(1, distance("Lightning Bolt", "lightming bolt"));
+        assertEquals(2, distance("Lightning Bolt", "ligthning blot"));
+    }
+
+    /**
+     * Once the distance is over the limit, the limit plus one is returned
+     */
+    @Test
+    public void distanceGivesUpOverTheLimit() {
+        assertEquals(4, distance("Lightning Bolt", "lightning helix"));
+        assertEquals(4, distance("Shock", "counterspell"));
+        assertEquals(2, mIndex.distance(positionOf("Shock"), "shrek".toCharArray(), 1, false));
+    }
+
+    /**
+     * A prefix is compared with the closest start of each name
+     */
+    @Test
+    public void prefixDistance() {
+        int bolt = positionOf("Lightning Bolt");
+        assertEquals(0, mIndex.distance(bolt, "lightn".toCharArray(), 2, true));
+        assertEquals(1, mIndex.distance(bolt, "ligthn".toCharArray(), 2, true));
+        assertEquals(3, mIndex.distance(bolt, "goblin".toCharArray(), 2, true));
+    }
+
+    /**
+     * Similar names are ranked by distance, an exact match comes first, and names which aren't close aren't suggested
+     */
+    @Test
+    public void findSimilar() {
+        assertEquals(Collections.singletonList("Lightning Bolt"), mIndex.findSimilar("Lightning Blot", 1));
+        assertEquals(Collections.singletonList("Lightning Bolt"), mIndex.findSimilar("lightning bolt", 5));
+        assertEquals(Arrays.asList("Lightning Bolt Jr.", "Lightning Bolt"), mIndex.findSimilar("lightning bolt jr", 5));
+        assertEquals(Collections.singletonList("Goblin Guide"), mIndex.findSimilar(" Gobiln Guide ", 5));
+        assertEquals(Collections.singletonList("Lim-D\u00FBl's Vault"), mIndex.findSimilar("Lim-Dul's Vualt", 5));
+        assertTrue(mIndex.findSimilar("Wrath of God", 5).isEmpty());
+        assertTrue(mIndex.findSimilar("  ", 5).isEmpty());
+    }
+}
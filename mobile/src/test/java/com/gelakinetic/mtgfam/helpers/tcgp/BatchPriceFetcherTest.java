@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import com.gelakinetic.mtgfam.helpers.MtgCard;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductDetails;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductInformation;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prices lists of cards from a fake TCGplayer.com catalog, and counts the API calls it takes.
+ */
+public class BatchPriceFetcherTest {
+
+    private static final int NUM_SETS = 10;
+
+    /**
+     * A TCGplayer.com API which answers from a catalog of products instead of the network. Product i is named
+     * "Card i" and is in "Set i%10". Every seventh card is reprinted in the next set, as product i + 10000. Cards in
+     * mDuplicated have a second product with the same name in the same set, as product i + 20000.
+     */
+    private static class FakeApi extends TcgpApi {
+        private final int mNumCards;
+        final List<Integer> mDuplicated = new ArrayList<>();
+        int mNumCalls = 0;
+
+        FakeApi(int numCards) {
+            mNumCards = numCards;
+        }
+
+        @Override
+        public ProductInformation getProductInformation(String[] names, String[] expansions, int offset) {
+            mNumCalls++;
+            List<String> wantedNames = Arrays.asList(names);
+            List<String> wantedSets = Arrays.asList(expansions);
+            List<Long> found = new ArrayList<>();
+            for (int i = 0; i < mNumCards; i++) {
+                if (wantedNames.contains(getName(i))) {
+                    if (wantedSets.contains(getSetName(i))) {
+                        found.add((long) i);
+                    }
+                    if (i % 7 == 0 && wantedSets.contains(getSetName(i + 1))) {
+                        found.add(i + 10000L);
+                    }
+                    if (mDuplicated.contains(i) && wantedSets.contains(getSetName(i))) {
+                        found.add(i + 20000L);
+                    }
+                }
+            }
+            List<Long> page = found.subList(Math.min(offset, found.size()),
+                    Math.min(offset + MAX_PAGE_SIZE, found.size()));
+            return new Gson().fromJson("{\"totalItems\":" + found.size() + ",\"success\":true,\"errors\":[]," +
+                    "\"results\":" + page + "}", ProductInformation.class);
+        }
+
+        @Override
+        public ProductDetails getProductDetails(long[] productIds) {
+            mNumCalls++;
+            assertTrue(productIds.length <= MAX_PAGE_SIZE);
+            StringBuilder json = new StringBuilder("{\"success\":true,\"errors\":[],\"results\":[");
+            for (long productId : productIds) {
+                int card = (int) (productId % 10000);
+                int set = (productId / 10000 == 1) ? card + 1 : card;
+                json.append("{\"productId\":").append(productId)
+                        .append(",\"productName\":\"").append(getName(card))
+                        .append("\",\"group\":{\"name\":\"").append(getSetName(set))
+                        .append("\"},\"url\":\"https://shop.tcgplayer.com/").append(productId).append("\"},");
+            }
+            json.setCharAt(json.length() - 1, ']');
+            json.append('}');
+            return new Gson().fromJson(json.toString(), ProductDetails.class);
+        }
+
+        @Override
+        public ProductMarketPrice getProductMarketPrice(long[] productIds) {
+            mNumCalls++;
+            assertTrue(productIds.length <= MAX_PAGE_SIZE);
+            StringBuilder json = new StringBuilder("{\"success\":true,\"errors\":[],\"results\":[");
+            for (long productId : productIds) {
+                for (String subTypeName : new String[]{"Normal", "Foil"}) {
+                    json.append(String.format(Locale.US, "{\"productId\":%d,\"subTypeName\":\"%s\"," +
+                                    "\"marketPrice\":%d.%d},", productId, subTypeName, productId,
+                            subTypeName.equals("Foil") ? 5 : 0));
+                }
+            }
+            json.setCharAt(json.length() - 1, ']');
+            json.append('}');
+            return new Gson().fromJson(json.toString(), ProductMarketPrice.class);
+        }
+
+        static String getName(int card) {
+            return "Card " + card;
+        }
+
+        static String getSetName(int set) {
+            return "Set " + (set % NUM_SETS);
+        }
+    }
+
+    /**
+     * @param name    The card's name
+     * @param setName The card's TCGplayer.com set name
+     * @return A request to price the card
+     */
+    private static BatchPriceFetcher.Request makeRequest(String name, String setName) {
+        MtgCard card = new MtgCard();
+        card.mName = name;
+        card.mExpansion = setName;
+        return new BatchPriceFetcher.Request(card, name, setName);
+    }
+
+    /**
+     * A long wishlist is priced with a handful of calls, and every card gets its own printing's price
+     */
+    @Test
+    public void pricesWholeList() throws Exception {
+        FakeApi api = new FakeApi(300);
+        List<BatchPriceFetcher.Request> requests = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            requests.add(makeRequest(FakeApi.getName(i), FakeApi.getSetName(i)));
+        }
+        /* And the reprints */
+        for (int i = 0; i < 300; i += 7) {
+            requests.add(makeRequest(FakeApi.getName(i), FakeApi.getSetName(i + 1)));
+        }
+
+        Map<BatchPriceFetcher.Request, MarketPriceInfo> prices = new BatchPriceFetcher(api).fetch(requests);
+
+        assertEquals(requests.size(), prices.size());
+        for (int i = 0; i < requests.size(); i++) {
+            long productId = (i < 300) ? i : (10000 + (i - 300) * 7);
+            MarketPriceInfo price = prices.get(requests.get(i));
+            assertEquals(productId, price.getPrice(false, MarketPriceInfo.PriceType.MARKET), 0);
+            assertEquals(productId + 0.5, price.getPrice(true, MarketPriceInfo.PriceType.MARKET), 0);
+            assertTrue(price.getUrl().startsWith("https://shop.tcgplayer.com/" + productId + "?"));
+        }
+        /* One card at a time, this would be three calls per card */
+        assertTrue("Took " + api.mNumCalls + " calls", api.mNumCalls <= 20);
+    }
+
+    /**
+     * Copies of the same printing share a lookup, and cards which aren't found are left out
+     */
+    @Test
+    public void sharesDuplicatesAndSkipsMissing() throws Exception {
+        FakeApi api = new FakeApi(10);
+        BatchPriceFetcher.Request normal = makeRequest("Card 3", "Set 3");
+        BatchPriceFetcher.Request foil = makeRequest("Card 3", "Set 3");
+        BatchPriceFetcher.Request wrongSet = makeRequest("Card 4", "Set 5");
+        BatchPriceFetcher.Request missing = makeRequest("Card 11", "Set 1");
+
+        Map<BatchPriceFetcher.Request, MarketPriceInfo> prices =
+                new BatchPriceFetcher(api).fetch(Arrays.asList(normal, foil, wrongSet, missing));
+
+        assertEquals(2, prices.size());
+        assertTrue(prices.get(normal) == prices.get(foil));
+        assertFalse(prices.containsKey(wrongSet));
+        assertNull(prices.get(missing));
+        assertEquals(3, api.mNumCalls);
+    }
+
+    /**
+     * The productIds a search finds are noted, and cards whose productIds are known only need their prices fetched
+     */
+    @Test
+    public void skipsSearchForKnownProducts() throws Exception {
+        FakeApi api = new FakeApi(10);
+        BatchPriceFetcher.Request searched = makeRequest("Card 3", "Set 4");
+        BatchPriceFetcher.Request known = makeRequest("Card 3", "Set 4");
+        known.mProductId = 7;
+
+        Map<BatchPriceFetcher.Request, MarketPriceInfo> prices =
+                new BatchPriceFetcher(api).fetch(Arrays.asList(searched));
+        assertNull(prices.get(searched));
+        assertEquals(-1, searched.mFoundProductId);
+
+        searched = makeRequest("Card 7", "Set 8");
+        prices = new BatchPriceFetcher(api).fetch(Arrays.asList(searched));
+        assertEquals(10007, searched.mFoundProductId);
+
+        api.mNumCalls = 0;
+        prices = new BatchPriceFetcher(api).fetch(Arrays.asList(known));
+        assertEquals(7, prices.get(known).getPrice(false, MarketPriceInfo.PriceType.MARKET), 0);
+        assertTrue(prices.get(known).getUrl().contains("id=7&"));
+        assertEquals(-1, known.mFoundProductId);
+        assertEquals(1, api.mNumCalls);
+    }
+
+    /**
+     * When two products have a card's name in its set, the card is still priced with the most relevant one, but
+     * neither is noted as the card's productId
+     */
+    @Test
+    public void doesNotNoteAmbiguousProducts() throws Exception {
+        FakeApi api = new FakeApi(10);
+        api.mDuplicated.add(5);
+        BatchPriceFetcher.Request duplicated = makeRequest("Card 5", "Set 5");
+        BatchPriceFetcher.Request unique = makeRequest("Card 6", "Set 6");
+
+        Map<BatchPriceFetcher.Request, MarketPriceInfo> prices =
+                new BatchPriceFetcher(api).fetch(Arrays.asList(duplicated, unique));
+
+        assertEquals(5, prices.get(duplicated).getPrice(false, MarketPriceInfo.PriceType.MARKET), 0);
+        assertEquals(-1, duplicated.mFoundProductId);
+        assertEquals(6, prices.get(unique).getPrice(false, MarketPriceInfo.PriceType.MARKET), 0);
+        assertEquals(6, unique.mFoundProductId);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues fetches behind a running one, and checks the order they run in.
+ */
+public class PriceFetchExecutorTest {
+
+    /**
+     * Visible fetches run before lists, which run before refreshes, and each priority runs in the order it was queued
+     */
+    @Test
+    public void runsInPriorityOrder() throws Exception {
+        PriceFetchExecutor executor = new PriceFetchExecutor(1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(6);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        /* Hold the only thread, so everything else queues up */
+        executor.execute(PriceFetchExecutor.Priority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        String[] names = {"refresh 1", "list 1", "visible 1", "list 2", "refresh 2", "visible 2"};
+        PriceFetchExecutor.Priority[] priorities = {
+                PriceFetchExecutor.Priority.BACKGROUND, PriceFetchExecutor.Priority.LIST,
+                PriceFetchExecutor.Priority.VISIBLE, PriceFetchExecutor.Priority.LIST,
+                PriceFetchExecutor.Priority.BACKGROUND, PriceFetchExecutor.Priority.VISIBLE};
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            executor.execute(priorities[i], new Runnable() {
+                @Override
+                public void run() {
+                    order.add(name);
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(6, executor.getQueueDepth());
+
+        blocker.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("visible 1", "visible 2", "list 1", "list 2", "refresh 1", "refresh 2"), order);
+        assertTrue(executor.getMetrics(), executor.getMetrics().contains("max queued: 6,"));
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Manifest;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs PatchDownloader against a local HTTP server which serves gzipped patches, some of which fail.
+ */
+public class PatchDownloaderTest {
+
+    private HttpServer mServer;
+    private File mDirectory;
+    private final ConcurrentHashMap<String, AtomicInteger> mRequests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> mRanges = new ConcurrentHashMap<>();
+    private final AtomicInteger mRedirects = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("patches").toFile();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", exchange -> {
+            /* Paths are /<code>/<number of times to fail first>/<how to fail, "503" or "cut"> */
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+            int attempt = mRequests.computeIfAbsent(path[0], k -> new AtomicInteger()).incrementAndGet();
+            boolean fail = attempt <= Integer.parseInt(path[1]);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                mRanges.put(path[0], range);
+            }
+            int offset = (range == null) ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            byte[] body = gzip(patch(path[0]));
+
+            if (fail && path[2].equals("503")) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                if (offset > 0) {
+                    exchange.getResponseHeaders().add("Content-Range",
+                            "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+                    exchange.sendResponseHeaders(206, body.length - offset);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                if (fail) {
+                    /* Promise the rest of the patch, send a bit of it, then hang up */
+                    out.write(body, offset, 1000);
+                    out.flush();
+                } else {
+                    out.write(body, offset, body.length - offset);
+                    out.close();
+                }
+            }
+            exchange.close();
+        });
+        mServer.createContext("/redirect/", exchange -> {
+            /* Paths are /redirect/<status>/<where the location is, "header", "relative" or "body">/<path to go to> */
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/", 4);
+            mRedirects.incrementAndGet();
+            String location = "/" + path[3];
+            if (!path[2].equals("relative")) {
+                location = "http://127.0.0.1:" + mServer.getAddress().getPort() + location;
+            }
+            if (path[2].equals("body")) {
+                /* Like sites.google.com's malformed redirects, the location is in the body instead of a header */
+                byte[] body = ("HTTP/1.1 302 Moved Temporarily\nLocation: " + location + "\n").getBytes("UTF-8");
+                exchange.sendResponseHeaders(Integer.parseInt(path[1]), body.length);
+                exchange.getResponseBody().write(body);
+            } else {
+                exchange.getResponseHeaders().add("Location", location);
+                exchange.sendResponseHeaders(Integer.parseInt(path[1]), -1);
+            }
+            exchange.close();
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] leftovers = mDirectory.listFiles();
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    /**
+     * Patches are written in manifest order, one at a time, even when they download out of order
+     */
+    @Test
+    public void writesInOrder() throws Exception {
+        Manifest manifest = new Manifest();
+        List<Manifest.ManifestEntry> sets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            /* Every third set fails once first, so it finishes after the sets behind it */
+            sets.add(entry(manifest, "S" + i, (i % 3 == 0) ? 1 : 0, "503"));
+        }
+
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger writing = new AtomicInteger();
+        List<Manifest.ManifestEntry> failed = downloader(4).downloadAll(sets, (set, patch) -> {
+            assertEquals(1, writing.incrementAndGet());
+            assertEquals(patch(set.mCode), gunzip(patch));
+            written.add(set.mCode);
+            writing.decrementAndGet();
+        });
+
+        assertTrue(failed.isEmpty());
+        List<String> expected = new ArrayList<>();
+        for (Manifest.ManifestEntry set : sets) {
+            expected.add(set.mCode);
+        }
+        assertEquals(expected, written);
+        assertEquals(2, mRequests.get("S0").get());
+        assertEquals(1, mRequests.get("S1").get());
+        assertArrayEquals(new File[0], mDirectory.listFiles());
+    }
+
+    /**
+     * A set which never downloads is reported after it has been tried maxAttempts times, and the rest still write
+     */
+    @Test
+    public void reportsFailedSets() throws Exception {
+        Manifest manifest = new Manifest();
+        List<Manifest.ManifestEntry> sets = new ArrayList<>();
+        sets.add(entry(manifest, "AAA", 0, "503"));
+        sets.add(entry(manifest, "BBB", 100, "503"));
+        sets.add(entry(manifest, "CCC", 2, "503"));
+
+        List<String> written = new ArrayList<>();
+        List<Manifest.ManifestEntry> failed = downloader(2).downloadAll(sets, (set, patch) -> written.add(set.mCode));
+
+        assertEquals(1, failed.size());
+        assertEquals("BBB", failed.get(0).mCode);
+        assertEquals(3, mRequests.get("BBB").get());
+        assertEquals(3, mRequests.get("CCC").get());
+        assertEquals(2, written.size());
+        assertEquals("AAA", written.get(0));
+        assertEquals("CCC", written.get(1));
+    }
+
+    /**
+     * A download which is cut off is resumed with a Range request, both by the next retry and by the next update
+     */
+    @Test
+    public void resumesCutDownloads() throws Exception {
+        Manifest manifest = new Manifest();
+        List<Manifest.ManifestEntry> sets = new ArrayList<>();
+        sets.add(entry(manifest, "CUT", 5, "cut"));
+
+        /* Three attempts each get 1000 more bytes, then give up, but keep the partial download */
+        List<String> written = new ArrayList<>();
+        List<Manifest.ManifestEntry> failed = downloader(1).downloadAll(sets, (set, patch) -> written.add(set.mCode));
+        assertEquals(1, failed.size());
+        assertTrue(written.isEmpty());
+        assertEquals("bytes=2000-", mRanges.get("CUT"));
+        File[] partFiles = mDirectory.listFiles();
+        assertEquals(1, partFiles.length);
+        assertEquals(3000, partFiles[0].length());
+
+        /* The next update picks up where the last one stopped */
+        failed = downloader(1).downloadAll(sets, (set, patch) -> {
+            assertEquals(patch(set.mCode), gunzip(patch));
+            written.add(set.mCode);
+        });
+        assertTrue(failed.isEmpty());
+        assertEquals(1, written.size());
+        assertEquals("bytes=5000-", mRanges.get("CUT"));
+        assertArrayEquals(new File[0], mDirectory.listFiles());
+    }
+
+    /**
+     * A partial download of an old version of a patch is thrown away rather than resumed
+     */
+    @Test
+    public void discardsStalePartialDownloads() throws Exception {
+        Manifest manifest = new Manifest();
+        Manifest.ManifestEntry set = entry(manifest, "OLD", 0, "503");
+        File stale = new File(mDirectory, "OLD_olddigest.part");
+        try (OutputStream out = new FileOutputStream(stale)) {
+            out.write(new byte[500]);
+        }
+
+        List<String> written = new ArrayList<>();
+        List<Manifest.ManifestEntry> failed = downloader(1).downloadAll(Collections.singletonList(set),
+                (s, patch) -> {
+                    assertEquals(patch(s.mCode), gunzip(patch));
+                    written.add(s.mCode);
+                });
+
+        assertTrue(failed.isEmpty());
+        assertEquals(1, written.size());
+        assertNull(mRanges.get("OLD"));
+        assertFalse(stale.exists());
+    }
+
+    /**
+     * Redirects are followed whether the location is absolute, relative, or in the body, and a resumed download
+     * sends its Range header again after being redirected
+     */
+    @Test
+    public void followsRedirects() throws Exception {
+        Manifest manifest = new Manifest();
+        List<Manifest.ManifestEntry> sets = new ArrayList<>();
+        sets.add(redirect(entry(manifest, "ABS", 0, "503"), "302/header"));
+        sets.add(redirect(redirect(entry(manifest, "REL", 0, "503"), "308/header"), "307/relative"));
+        sets.add(redirect(entry(manifest, "BODY", 0, "503"), "301/body"));
+        sets.add(redirect(entry(manifest, "RESUME", 1, "cut"), "303/header"));
+
+        List<String> written = new ArrayList<>();
+        List<Manifest.ManifestEntry> failed = downloader(1).downloadAll(sets, (set, patch) -> {
+            assertEquals(patch(set.mCode), gunzip(patch));
+            written.add(set.mCode);
+        });
+
+        assertTrue(failed.isEmpty());
+        assertEquals(4, written.size());
+        /* One redirect for each of ABS and BODY, two for REL, and two for the two tries at RESUME */
+        assertEquals(6, mRedirects.get());
+        assertEquals("bytes=1000-", mRanges.get("RESUME"));
+        assertArrayEquals(new File[0], mDirectory.listFiles());
+    }
+
+    /**
+     * @param threads The number of download threads
+     * @return A PatchDownloader which tries 3 times, with a short backoff
+     */
+    private PatchDownloader downloader(int threads) {
+        return new PatchDownloader((url) -> (HttpURLConnection) new URL(url).openConnection(), mDirectory, threads,
+                3, 10, null);
+    }
+
+    /**
+     * @param manifest The manifest to make the entry in
+     * @param code     The set code
+     * @param failures The number of times the server should fail before serving the patch
+     * @param failMode How the server should fail, "503" to return an error, or "cut" to send part of the patch
+     * @return A ManifestEntry pointing at the local server
+     */
+    private Manifest.ManifestEntry entry(Manifest manifest, String code, int failures, String failMode) {
+        Manifest.ManifestEntry entry = manifest.new ManifestEntry();
+        entry.mCode = code;
+        entry.mName = code;
+        entry.mDigest = "digest" + code;
+        entry.mURL = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + code + "/" + failures + "/" +
+                failMode;
+        return entry;
+    }
+
+    /**
+     * @param entry     A ManifestEntry pointing at the local server
+     * @param redirects The redirect's status and where its location is, e.g. "302/header"
+     * @return The same entry, pointing at a redirect to where it pointed before
+     */
+    private Manifest.ManifestEntry redirect(Manifest.ManifestEntry entry, String redirects) {
+        String server = "http://127.0.0.1:" + mServer.getAddress().getPort();
+        entry.mURL = server + "/redirect/" + redirects + entry.mURL.substring(server.length());
+        return entry;
+    }
+
+    /**
+     * @param code A set code
+     * @return A patch for the set, which doesn't compress much
+     */
+    private static String patch(String code) {
+        StringBuilder cards = new StringBuilder();
+        Random random = new Random(code.hashCode());
+        for (int i = 0; i < 500; i++) {
+            cards.append(i == 0 ? "" : ",").append("{\"a\":\"").append(Long.toHexString(random.nextLong())).append("\"}");
+        }
+        return "{\"expansion\":{\"a\":\"" + code + "\"},\"cards\":[" + cards + "]}";
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes("UTF-8"));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+}